@@ -41,6 +41,8 @@ public class WechatMpConfig {
         private Boolean tokenCacheEnabled;
         private Integer tokenCacheTime;
         private Integer pushRetryMax;
+        private Integer pushRatePerSecond;
+        private Integer pushThreads;
 
         public Boolean getEnabled() {
             return enabled;
@@ -81,6 +83,22 @@ public class WechatMpConfig {
         public void setPushRetryMax(Integer pushRetryMax) {
             this.pushRetryMax = pushRetryMax;
         }
+
+        public Integer getPushRatePerSecond() {
+            return pushRatePerSecond;
+        }
+
+        public void setPushRatePerSecond(Integer pushRatePerSecond) {
+            this.pushRatePerSecond = pushRatePerSecond;
+        }
+
+        public Integer getPushThreads() {
+            return pushThreads;
+        }
+
+        public void setPushThreads(Integer pushThreads) {
+            this.pushThreads = pushThreads;
+        }
     }
 }
 
@@ -29,6 +29,8 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import com.timetable.service.WeeklyInstanceService;
+import com.timetable.service.WeeklyInstanceGenerationService;
+import com.timetable.entity.WeeklyInstanceJobRun;
 
 import javax.validation.Valid;
 import java.time.LocalDate;
@@ -63,6 +65,9 @@ public class AdminController {
     @Autowired
     private WeeklyInstanceService weeklyInstanceService;
 
+    @Autowired
+    private WeeklyInstanceGenerationService weeklyInstanceGenerationService;
+
     @Autowired
     private ScheduleRepository scheduleRepository;
 
@@ -763,23 +768,42 @@ public class AdminController {
     }
 
     /**
-     * 手动触发生成当前周实例任务
+     * 手动触发生成当前周实例任务，返回本次执行记录（生成、跳过、失败数量和耗时）
      */
     @PostMapping("/tasks/generate-weekly-instances")
-    public ResponseEntity<ApiResponse<String>> manualGenerateWeeklyInstances(Authentication authentication) {
+    public ResponseEntity<ApiResponse<WeeklyInstanceJobRun>> manualGenerateWeeklyInstances(Authentication authentication) {
         Users user = userService.findByUsername(authentication.getName());
         if (user == null || !"MANAGER".equals(user.getPosition())) {
             return ResponseEntity.badRequest().body(ApiResponse.error("权限不足"));
         }
 
         try {
-            weeklyInstanceScheduledTask.manualGenerateWeeklyInstances();
-            return ResponseEntity.ok(ApiResponse.success("当前周实例生成任务执行成功"));
+            WeeklyInstanceJobRun run = weeklyInstanceScheduledTask.manualGenerateWeeklyInstances();
+            return ResponseEntity.ok(ApiResponse.success("当前周实例生成任务执行成功", run));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error("生成任务执行失败: " + e.getMessage()));
         }
     }
 
+    /**
+     * 查询最近的周实例生成任务执行记录（定时和手动）
+     */
+    @GetMapping("/tasks/generate-weekly-instances")
+    public ResponseEntity<ApiResponse<List<WeeklyInstanceJobRun>>> getWeeklyInstanceJobRuns(
+            @RequestParam(defaultValue = "20") int limit,
+            Authentication authentication) {
+        Users user = userService.findByUsername(authentication.getName());
+        if (user == null || !"MANAGER".equals(user.getPosition())) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("权限不足"));
+        }
+
+        try {
+            return ResponseEntity.ok(ApiResponse.success("获取执行记录成功", weeklyInstanceGenerationService.getRecentRuns(limit)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("获取执行记录失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 复制课表到指定用户
      */
@@ -1115,7 +1139,8 @@ public class AdminController {
     @PostMapping("/emergency-fix/weekly-instances")
     public ResponseEntity<ApiResponse<Map<String, Object>>> emergencyFixWeeklyInstances() {
         try {
-            Map<String, Object> result = weeklyInstanceService.generateCurrentWeekInstancesForAllActiveTimetables();
+            Map<String, Object> result = WeeklyInstanceGenerationService.toResultMap(
+                    weeklyInstanceGenerationService.generateCurrentWeek(WeeklyInstanceJobRun.TRIGGER_MANUAL));
             return ResponseEntity.ok(ApiResponse.success("紧急修复完成", result));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(ApiResponse.error("紧急修复失败: " + e.getMessage()));
@@ -1128,7 +1153,7 @@ public class AdminController {
     @PostMapping("/auto-fix/weekly-instances")
     public ResponseEntity<ApiResponse<String>> autoFixWeeklyInstances() {
         try {
-            weeklyInstanceService.ensureCurrentWeekInstancesExist();
+            weeklyInstanceGenerationService.generateCurrentWeek(WeeklyInstanceJobRun.TRIGGER_MANUAL);
             return ResponseEntity.ok(ApiResponse.success("自动修复完成", "已检查并生成缺失的当前周实例"));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(ApiResponse.error("自动修复失败: " + e.getMessage()));
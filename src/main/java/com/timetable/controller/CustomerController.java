@@ -4,10 +4,12 @@ import com.timetable.dto.ApiResponse;
 import com.timetable.dto.CustomerDTO;
 import com.timetable.dto.CustomerRequest;
 import com.timetable.dto.CustomerStatusHistoryDTO;
+import com.timetable.dto.TodoDTO;
 import com.timetable.dto.TrialCustomerDTO;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.service.CustomerService;
 import com.timetable.service.CustomerStatusHistoryService;
+import com.timetable.service.TodoService;
 import com.timetable.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -19,6 +21,7 @@ import javax.validation.Valid;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/customers")
@@ -34,6 +37,9 @@ public class CustomerController {
     @Autowired
     private CustomerStatusHistoryService customerStatusHistoryService;
 
+    @Autowired
+    private TodoService todoService;
+
     @PostMapping
     public ResponseEntity<ApiResponse<CustomerDTO>> createCustomer(
             @Valid @RequestBody CustomerRequest request,
@@ -73,6 +79,7 @@ public class CustomerController {
             boolean isAdmin = "MANAGER".equals(user.getPosition());
             List<CustomerDTO> customers = customerService.getCustomersWithFilters(
                 user.getId(), user.getOrganizationId(), isAdmin, page, pageSize, status, salesId, filterDate, keyword);
+            attachLatestTodos(customers, user.getOrganizationId());
             return ResponseEntity.ok(ApiResponse.success("获取成功", customers));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error("获取客户列表失败: " + e.getMessage()));
@@ -150,6 +157,7 @@ public class CustomerController {
 
             boolean isAdmin = "MANAGER".equals(user.getPosition());
             List<CustomerDTO> customers = customerService.getCustomersByStatus(status, user.getId(), user.getOrganizationId(), isAdmin);
+            attachLatestTodos(customers, user.getOrganizationId());
             return ResponseEntity.ok(ApiResponse.success("获取成功", customers));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error("获取客户列表失败: " + e.getMessage()));
@@ -161,7 +169,9 @@ public class CustomerController {
             Authentication authentication,
             @RequestParam(required = false) Long createdById,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate trialDate,
-            @RequestParam(required = false, defaultValue = "false") boolean includeAll) {
+            @RequestParam(required = false, defaultValue = "false") boolean includeAll,
+            @RequestParam(required = false, defaultValue = "0") int page,
+            @RequestParam(required = false) Integer pageSize) {
         try {
             Users user = userService.findByUsername(authentication.getName());
             if (user == null) {
@@ -172,6 +182,10 @@ public class CustomerController {
                 return ResponseEntity.badRequest().body(ApiResponse.error("用户未分配机构"));
             }
 
+            if (page < 0 || (pageSize != null && pageSize <= 0)) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("page 不能为负数，pageSize 必须为正整数"));
+            }
+
             // 权限控制：SALES和COACH职位只能查看自己创建的体验记录，MANAGER职位可以查看所有
             Long finalCreatedById = createdById;
             String position = user.getPosition();
@@ -189,7 +203,9 @@ public class CustomerController {
                 user.getOrganizationId(), 
                 finalCreatedById, 
                 trialDate,
-                includeAll
+                includeAll,
+                page,
+                pageSize
             );
             return ResponseEntity.ok(ApiResponse.success("获取成功", trials));
         } catch (Exception e) {
@@ -277,4 +293,20 @@ public class CustomerController {
             return ResponseEntity.badRequest().body(ApiResponse.error("获取状态统计失败: " + e.getMessage()));
         }
     }
+
+    /**
+     * 为客户列表附加每个客户最新的未完成待办（整页一次批量查询）
+     */
+    private void attachLatestTodos(List<CustomerDTO> customers, Long organizationId) {
+        if (customers.isEmpty()) {
+            return;
+        }
+        List<Long> customerIds = customers.stream().map(CustomerDTO::getId).collect(Collectors.toList());
+        Map<Long, TodoDTO> latestTodos = todoService.getLatestTodoMap(customerIds, organizationId);
+        for (CustomerDTO customer : customers) {
+            TodoDTO latestTodo = latestTodos.get(customer.getId());
+            customer.setLatestTodo(latestTodo);
+            customer.setHasTodo(latestTodo != null);
+        }
+    }
 }
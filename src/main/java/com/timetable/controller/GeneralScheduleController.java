@@ -66,6 +66,34 @@ public class GeneralScheduleController {
         }
     }
 
+    /**
+     * 查询所有教练一天内的空闲/占用网格
+     */
+    @GetMapping("/available-coaches/grid")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getCoachAvailabilityGrid(
+            @RequestParam String date,
+            @RequestParam(defaultValue = "08:00") String startTime,
+            @RequestParam(defaultValue = "22:00") String endTime,
+            @RequestParam(defaultValue = "30") int slotMinutes,
+            Authentication authentication) {
+
+        Users user = userService.findByUsername(authentication.getName());
+        if (user == null) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("用户不存在"));
+        }
+
+        try {
+            Map<String, Object> grid = scheduleService.getCoachAvailabilityGrid(
+                    LocalDate.parse(date), LocalTime.parse(startTime), LocalTime.parse(endTime), slotMinutes);
+            return ResponseEntity.ok(ApiResponse.success("查询成功", grid));
+        } catch (Exception e) {
+            logger.error("查询教练空闲网格失败", e);
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("查询失败: " + e.getMessage()));
+        }
+    }
+
     /**
      * 创建体验课程
      */
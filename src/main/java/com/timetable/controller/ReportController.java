@@ -1,6 +1,7 @@
 package com.timetable.controller;
 
 import com.timetable.dto.ApiResponse;
+import com.timetable.dto.ReportCursor;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.service.ReportService;
 import com.timetable.service.UserService;
@@ -30,8 +31,9 @@ public class ReportController {
             @RequestParam(required = false) String endDate,
             @RequestParam(required = false) Long coachId,
             @RequestParam(defaultValue = "desc") String sortOrder,
-            @RequestParam int page,
+            @RequestParam(defaultValue = "1") int page,
             @RequestParam int size,
+            @RequestParam(required = false) String cursor,
             org.springframework.security.core.Authentication authentication) {
 
         if (page <= 0 || size <= 0) {
@@ -57,7 +59,19 @@ public class ReportController {
         // 获取当前用户的机构ID，用于过滤课时记录
         Long organizationId = current.getOrganizationId();
 
-        Map<String, Object> data = reportService.queryHoursPaged(targetUserId, organizationId, start, end, page, size, sortOrder);
+        Map<String, Object> data;
+        if (cursor != null) {
+            // 游标分页：cursor 为空字符串表示第一页，之后使用响应中的 nextCursor
+            ReportCursor after;
+            try {
+                after = cursor.isEmpty() ? null : ReportCursor.parse(cursor);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+            }
+            data = reportService.queryHoursAfter(targetUserId, organizationId, start, end, after, size, sortOrder);
+        } else {
+            data = reportService.queryHoursPaged(targetUserId, organizationId, start, end, page, size, sortOrder);
+        }
         return ResponseEntity.ok(ApiResponse.success("获取课时记录成功", data));
     }
 }
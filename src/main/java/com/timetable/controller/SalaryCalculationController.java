@@ -49,14 +49,8 @@ public class SalaryCalculationController {
                 return ResponseEntity.status(400).body(ApiResponse.error("用户未关联机构"));
             }
 
-            List<SalaryCalculationDTO> allResults = salaryCalculationService.calculateSalary(month);
-            // 过滤出当前机构的数据
-            List<SalaryCalculationDTO> result = allResults.stream()
-                    .filter(dto -> {
-                        Users targetUser = userService.findById(dto.getUserId());
-                        return targetUser != null && user.getOrganizationId().equals(targetUser.getOrganizationId());
-                    })
-                    .collect(java.util.stream.Collectors.toList());
+            // 只计算当前机构的数据
+            List<SalaryCalculationDTO> result = salaryCalculationService.calculateSalary(month, user.getOrganizationId());
             
             return ResponseEntity.ok(ApiResponse.success("获取工资计算结果成功", result));
         } catch (Exception e) {
@@ -82,13 +76,7 @@ public class SalaryCalculationController {
             List<SalaryCalculationDTO> result;
             if (isManager(user)) {
                 // 管理员获取所有教练的工资数据（最近6个月），但只返回当前机构的
-                List<SalaryCalculationDTO> allResults = salaryCalculationService.getRecentSalaryCalculations(6);
-                result = allResults.stream()
-                        .filter(dto -> {
-                            Users targetUser = userService.findById(dto.getUserId());
-                            return targetUser != null && user.getOrganizationId().equals(targetUser.getOrganizationId());
-                        })
-                        .collect(java.util.stream.Collectors.toList());
+                result = salaryCalculationService.getRecentSalaryCalculations(6, user.getOrganizationId());
             } else {
                 // 普通用户只获取自己的工资数据（最近12个月，包含当年所有数据）
                 result = salaryCalculationService.getUserSalaryCalculations(user.getId(), 12);
@@ -117,14 +105,8 @@ public class SalaryCalculationController {
                 return ResponseEntity.status(400).body(ApiResponse.error("用户未关联机构"));
             }
 
-            List<SalaryCalculationDTO> allResults = salaryCalculationService.getRecentSalaryCalculations(months);
-            // 过滤出当前机构的数据
-            List<SalaryCalculationDTO> result = allResults.stream()
-                    .filter(dto -> {
-                        Users targetUser = userService.findById(dto.getUserId());
-                        return targetUser != null && user.getOrganizationId().equals(targetUser.getOrganizationId());
-                    })
-                    .collect(java.util.stream.Collectors.toList());
+            // 只计算当前机构的数据
+            List<SalaryCalculationDTO> result = salaryCalculationService.getRecentSalaryCalculations(months, user.getOrganizationId());
             
             return ResponseEntity.ok(ApiResponse.success("获取最近工资计算结果成功", result));
         } catch (Exception e) {
@@ -9,6 +9,7 @@ import com.timetable.dto.UpdateScheduleRequest;
 import com.timetable.dto.SwapSchedulesRequest;
 import com.timetable.generated.tables.pojos.Schedules;
 import com.timetable.generated.tables.pojos.Users;
+import com.timetable.service.ScheduleChangeTracker;
 import com.timetable.service.ScheduleService;
 import com.timetable.service.TimetableService;
 import com.timetable.service.UserService;
@@ -16,16 +17,20 @@ import com.timetable.service.WeeklyInstanceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
 import javax.validation.Validator;
+import java.time.DayOfWeek;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Set;
 import java.util.ArrayList;
@@ -44,14 +49,16 @@ public class ScheduleController {
     private final TimetableService timetableService;
     private final UserService userService;
     private final WeeklyInstanceService weeklyInstanceService;
+    private final ScheduleChangeTracker scheduleChangeTracker;
     private final Validator validator;
 
     @Autowired
-    public ScheduleController(ScheduleService scheduleService, TimetableService timetableService, UserService userService, WeeklyInstanceService weeklyInstanceService, Validator validator) {
+    public ScheduleController(ScheduleService scheduleService, TimetableService timetableService, UserService userService, WeeklyInstanceService weeklyInstanceService, ScheduleChangeTracker scheduleChangeTracker, Validator validator) {
         this.scheduleService = scheduleService;
         this.timetableService = timetableService;
         this.userService = userService;
         this.weeklyInstanceService = weeklyInstanceService;
+        this.scheduleChangeTracker = scheduleChangeTracker;
         this.validator = validator;
     }
 
@@ -83,11 +90,13 @@ public class ScheduleController {
 
     /**
      * 获取今日课程
+     * 响应带课表变更计数生成的 ETag，If-None-Match 一致时直接返回 304
      */
     @GetMapping("/today")
     public ResponseEntity<ApiResponse<List<Schedules>>> getTodaySchedules(
             @PathVariable Long timetableId,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
 
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
@@ -101,17 +110,24 @@ public class ScheduleController {
             }
         }
 
+        // 先于读取课程取得 ETag：读取期间提交的写入会递增计数，下一次请求不会误判为未变化
+        String eTag = scheduleChangeTracker.timetableETag(timetableId, "today", LocalDate.now());
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
         List<Schedules> schedules = scheduleService.getTodaySchedules(timetableId);
-        return ResponseEntity.ok(ApiResponse.success("获取今日课程成功", schedules));
+        return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取今日课程成功", schedules));
     }
 
     /**
      * 获取明日课程
+     * 响应带课表变更计数生成的 ETag，If-None-Match 一致时直接返回 304
      */
     @GetMapping("/tomorrow")
     public ResponseEntity<ApiResponse<List<Schedules>>> getTomorrowSchedules(
             @PathVariable Long timetableId,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
 
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
@@ -125,17 +141,23 @@ public class ScheduleController {
             }
         }
 
+        String eTag = scheduleChangeTracker.timetableETag(timetableId, "tomorrow", LocalDate.now().plusDays(1));
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
         List<Schedules> schedules = scheduleService.getTomorrowSchedules(timetableId);
-        return ResponseEntity.ok(ApiResponse.success("获取明日课程成功", schedules));
+        return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取明日课程成功", schedules));
     }
 
     /**
      * 获取本周课程
+     * 响应带课表变更计数生成的 ETag，If-None-Match 一致时直接返回 304
      */
     @GetMapping("/this-week")
     public ResponseEntity<ApiResponse<List<Schedules>>> getThisWeekSchedules(
             @PathVariable Long timetableId,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
 
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
@@ -149,8 +171,12 @@ public class ScheduleController {
             }
         }
 
+        String eTag = scheduleChangeTracker.timetableETag(timetableId, "this-week", LocalDate.now().with(DayOfWeek.MONDAY));
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
         List<Schedules> schedules = scheduleService.getThisWeekSchedules(timetableId);
-        return ResponseEntity.ok(ApiResponse.success("获取本周课程成功", schedules));
+        return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取本周课程成功", schedules));
     }
 
     /**
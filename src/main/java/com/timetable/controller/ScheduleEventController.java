@@ -0,0 +1,135 @@
+package com.timetable.controller;
+
+import com.timetable.dto.ScheduleChangeEvent;
+import com.timetable.generated.tables.pojos.Users;
+import com.timetable.security.AuthenticatedUser;
+import com.timetable.security.EventStreamTicketStore;
+import com.timetable.service.ScheduleEventBus;
+import com.timetable.service.TimetableService;
+import com.timetable.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 课程变更事件推送（Server-Sent Events）
+ * 课表页面订阅后不再需要轮询；收到事件时按事件中的课表、日期重新请求课程接口。
+ * 连接最长保持 STREAM_TIMEOUT，期间定时发送注释行作为心跳，防止代理断开空闲连接。
+ * EventSource 不能设置 Authorization 请求头：先以请求头认证 POST /schedule-events/tickets 换取一次性票据，
+ * 再 new EventSource("/timetable/api/schedule-events/organization?ticket=" + ticket)（见 EventStreamTicketStore）。
+ * 票据只能使用一次，EventSource 自动重连会被拒绝，客户端在 onerror 中关闭旧连接、换取新票据后重新订阅；
+ * 使用 fetch 实现的 SSE 客户端仍可直接用请求头。
+ */
+@RestController
+@RequestMapping("/schedule-events")
+public class ScheduleEventController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleEventController.class);
+
+    private static final Duration STREAM_TIMEOUT = Duration.ofMinutes(30);
+
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(25);
+
+    // 断线后浏览器重连前的等待时间
+    private static final long RECONNECT_DELAY_MS = 3000L;
+
+    @Autowired
+    private ScheduleEventBus scheduleEventBus;
+
+    @Autowired
+    private TimetableService timetableService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EventStreamTicketStore eventStreamTicketStore;
+
+    /**
+     * 签发建立事件流用的一次性票据（本请求须以 Authorization 请求头认证）
+     */
+    @PostMapping("/tickets")
+    public ResponseEntity<Map<String, Object>> issueTicket(Authentication authentication) {
+        if (authentication == null || !(authentication.getPrincipal() instanceof AuthenticatedUser)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("ticket", eventStreamTicketStore.issue((AuthenticatedUser) authentication.getPrincipal()));
+        body.put("expiresIn", eventStreamTicketStore.getTtlSeconds());
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * 订阅当前用户所在机构所有课表的变更
+     */
+    @GetMapping(value = "/organization", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamOrganizationEvents(Authentication authentication) {
+        Users user = userService.findByUsername(authentication.getName());
+        if (user == null || user.getOrganizationId() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(stream(scheduleEventBus.subscribeOrganization(user.getOrganizationId())));
+    }
+
+    /**
+     * 订阅单个课表的变更
+     */
+    @GetMapping(value = "/timetables/{timetableId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTimetableEvents(@PathVariable Long timetableId,
+                                                            Authentication authentication) {
+        Users user = userService.findByUsername(authentication.getName());
+        if (user == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!"MANAGER".equals(user.getPosition()) && !timetableService.isUserTimetable(timetableId, user.getId())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(stream(scheduleEventBus.subscribeTimetable(timetableId)));
+    }
+
+    /**
+     * 事件和心跳合并后经事件总线的同一条写出路径发送，同一连接的 send 只在一个线程上串行执行；
+     * 写出路径以错误结束（客户端停止读取导致缓冲区溢出等）时结束连接
+     */
+    private SseEmitter stream(Flux<ScheduleChangeEvent> events) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT.toMillis());
+        Flux<SseEmitter.SseEventBuilder> messages = scheduleEventBus.deliver(Flux.merge(
+                events.map(event -> SseEmitter.event()
+                        .name(event.getType())
+                        .data(event, MediaType.APPLICATION_JSON)
+                        .reconnectTime(RECONNECT_DELAY_MS)),
+                Flux.interval(HEARTBEAT_INTERVAL).map(tick -> SseEmitter.event().comment("heartbeat"))));
+
+        Disposable subscription = messages.subscribe(message -> {
+            try {
+                emitter.send(message);
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开：由 onError/onCompletion 回调取消订阅
+                logger.debug("推送课程变更事件失败: {}", e.getMessage());
+                emitter.completeWithError(e);
+            }
+        }, emitter::completeWithError, emitter::complete);
+
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(error -> subscription.dispose());
+        return emitter;
+    }
+}
@@ -6,20 +6,29 @@ import com.timetable.dto.LeaveRequest;
 import com.timetable.entity.WeeklyInstance;
 import com.timetable.entity.WeeklyInstanceSchedule;
 import com.timetable.entity.StudentOperationRecord;
+import com.timetable.entity.WeeklyInstanceJobRun;
 import com.timetable.repository.StudentOperationRecordRepository;
+import com.timetable.service.ScheduleChangeTracker;
+import com.timetable.service.StudentTimelineService;
 import com.timetable.service.WeeklyInstanceService;
+import com.timetable.service.WeeklyInstanceGenerationService;
 import com.timetable.service.TimetableService;
 import com.timetable.service.UserService;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.generated.tables.pojos.Timetables;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
@@ -40,6 +49,9 @@ public class WeeklyInstanceController {
     @Autowired
     private WeeklyInstanceService weeklyInstanceService;
 
+    @Autowired
+    private WeeklyInstanceGenerationService weeklyInstanceGenerationService;
+
     @Autowired
     private TimetableService timetableService;
 
@@ -49,6 +61,18 @@ public class WeeklyInstanceController {
     @Autowired
     private StudentOperationRecordRepository studentOperationRecordRepository;
 
+    @Autowired
+    private com.timetable.service.StudentRuleService studentRuleService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
+    @Autowired
+    private StudentTimelineService studentTimelineService;
+
     /**
      * 为指定课表生成当前周实例
      */
@@ -98,11 +122,13 @@ public class WeeklyInstanceController {
 
     /**
      * 获取指定课表的当前周实例
+     * 响应带课表变更计数生成的 ETag，If-None-Match 一致时直接返回 304
      */
     @GetMapping("/current/{timetableId}")
     public ResponseEntity<ApiResponse<Map<String, Object>>> getCurrentWeekInstance(
             @PathVariable Long timetableId,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
         
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
@@ -117,6 +143,12 @@ public class WeeklyInstanceController {
             }
         }
 
+        // 实例的任何写入都会递增所属课表的计数；ETag 在读取之前取得
+        String eTag = scheduleChangeTracker.timetableETag(timetableId, "current", LocalDate.now().with(DayOfWeek.MONDAY));
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+
         WeeklyInstance instance = weeklyInstanceService.getCurrentWeekInstance(timetableId);
         List<WeeklyInstanceSchedule> schedules = new ArrayList<>();
         
@@ -129,7 +161,7 @@ public class WeeklyInstanceController {
         result.put("schedules", schedules);
         result.put("hasInstance", instance != null);
 
-        return ResponseEntity.ok(ApiResponse.success("获取当前周实例成功", result));
+        return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取当前周实例成功", result));
     }
 
     /**
@@ -229,7 +261,8 @@ public class WeeklyInstanceController {
     @GetMapping("/{instanceId}/schedules")
     public ResponseEntity<ApiResponse<List<WeeklyInstanceSchedule>>> getInstanceSchedules(
             @PathVariable Long instanceId,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
         
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
@@ -250,9 +283,14 @@ public class WeeklyInstanceController {
             }
         }
 
+        String eTag = scheduleChangeTracker.instanceETag(instance, "schedules");
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+
         // 获取指定实例的课程，而不是当前周实例的课程
         List<WeeklyInstanceSchedule> schedules = weeklyInstanceService.getInstanceSchedules(instanceId);
-        return ResponseEntity.ok(ApiResponse.success("获取实例课程成功", schedules));
+        return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取实例课程成功", schedules));
     }
     
     /**
@@ -283,11 +321,13 @@ public class WeeklyInstanceController {
 
     /**
      * 根据日期返回"实例逻辑"的活动课表课程（今日从本周实例；明日如果跨周则用下周实例）
+     * 响应带内容摘要 ETag，前端轮询时携带 If-None-Match，内容未变化返回 304
      */
     @GetMapping("/by-date")
     public ResponseEntity<ApiResponse<Map<String, Object>>> getInstanceSchedulesByDate(
             @RequestParam String date,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
         Users user = userService.findByUsername(authentication.getName());
         if (user == null) {
             return ResponseEntity.badRequest().body(ApiResponse.error("用户不存在"));
@@ -297,7 +337,11 @@ public class WeeklyInstanceController {
         }
         try {
             Map<String, Object> map = weeklyInstanceService.getActiveInstanceSchedulesByDate(date, user.getOrganizationId());
-            return ResponseEntity.ok(ApiResponse.success("获取实例课程成功", map));
+            String eTag = "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(map)) + "\"";
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+            return ResponseEntity.ok().eTag(eTag).body(ApiResponse.success("获取实例课程成功", map));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error("获取失败: " + e.getMessage()));
         }
@@ -320,7 +364,8 @@ public class WeeklyInstanceController {
         }
 
         try {
-            Map<String, Object> result = weeklyInstanceService.generateCurrentWeekInstancesForAllActiveTimetables();
+            Map<String, Object> result = WeeklyInstanceGenerationService.toResultMap(
+                    weeklyInstanceGenerationService.generateCurrentWeek(WeeklyInstanceJobRun.TRIGGER_MANUAL));
             return ResponseEntity.ok(ApiResponse.success("批量生成当前周实例完成", result));
         } catch (Exception e) {
             logger.error("批量生成当前周实例失败", e);
@@ -345,7 +390,7 @@ public class WeeklyInstanceController {
         }
 
         try {
-            weeklyInstanceService.ensureCurrentWeekInstancesExist();
+            weeklyInstanceGenerationService.generateCurrentWeek(WeeklyInstanceJobRun.TRIGGER_MANUAL);
             return ResponseEntity.ok(ApiResponse.success("自动修复完成", "已检查并生成缺失的当前周实例"));
         } catch (Exception e) {
             logger.error("自动修复当前周实例失败", e);
@@ -896,6 +941,8 @@ public class WeeklyInstanceController {
     public ResponseEntity<ApiResponse<Map<String, Object>>> getStudentRecords(
             @RequestParam String studentName,
             @RequestParam(required = false) String coachName,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int size,
             Authentication authentication) {
         
         Users user = userService.findByUsername(authentication.getName());
@@ -903,16 +950,27 @@ public class WeeklyInstanceController {
             return ResponseEntity.badRequest().body(ApiResponse.error("用户不存在"));
         }
 
-        try {
-            Map<String, Object> studentRecords;
-            if ("MANAGER".equals(user.getPosition())) {
-                // 管理员可以查看所有学员记录
-                studentRecords = weeklyInstanceService.getStudentRecords(studentName, coachName);
-            } else {
-                // 普通用户只能查看自己的学员记录
-                String currentCoachName = user.getNickname() != null ? user.getNickname() : user.getUsername();
-                studentRecords = weeklyInstanceService.getStudentRecords(studentName, currentCoachName);
+        // 游标分页：cursor 为空字符串表示第一页，之后使用响应中的 nextCursor；不传 cursor 时返回全部记录
+        LocalDate before = null;
+        Integer pageSize = null;
+        if (cursor != null) {
+            if (size <= 0) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("size 必须为正整数"));
             }
+            try {
+                before = cursor.isEmpty() ? null : LocalDate.parse(cursor);
+            } catch (java.time.format.DateTimeParseException e) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("游标格式不正确"));
+            }
+            pageSize = size;
+        }
+
+        try {
+            // 管理员可以查看所有学员记录，普通用户只能查看自己的学员记录
+            String recordsCoachName = "MANAGER".equals(user.getPosition()) ? coachName
+                    : (user.getNickname() != null ? user.getNickname() : user.getUsername());
+            Map<String, Object> studentRecords = studentTimelineService.getStudentRecords(
+                    studentName, recordsCoachName, user.getOrganizationId(), before, pageSize);
             return ResponseEntity.ok(ApiResponse.success("获取学员记录成功", studentRecords));
         } catch (Exception e) {
             logger.error("获取学员记录失败", e);
@@ -937,7 +995,7 @@ public class WeeklyInstanceController {
         }
         try {
             // 获取被隐藏的学员列表、合并规则和分配课时规则（只查询当前机构的）
-            List<String> hiddenStudents = getHiddenStudents(user.getOrganizationId());
+            java.util.Set<String> hiddenStudents = getHiddenStudents(user.getOrganizationId());
             java.util.Map<String, String> mergeRules = getMergeRules(user.getOrganizationId());
             java.util.Map<String, Integer> assignHoursRules = getAssignHoursRules(user.getOrganizationId());
             
@@ -1227,6 +1285,7 @@ public class WeeklyInstanceController {
                     logger.error("为学员 {} 创建分配课时记录失败: {}", studentName, e.getMessage());
                 }
             }
+            studentRuleService.evict(user.getId(), user.getOrganizationId());
 
             logger.info("分配课时操作: className={}, studentCount={}, successCount={}, userId={}", 
                        className, studentNames.size(), successCount, user.getId());
@@ -1418,20 +1477,12 @@ public class WeeklyInstanceController {
     /**
      * 获取被隐藏的学员列表（只查询指定机构的）
      */
-    private List<String> getHiddenStudents(Long organizationId) {
+    private java.util.Set<String> getHiddenStudents(Long organizationId) {
         try {
-            List<StudentOperationRecord> hideRecords = studentOperationRecordRepository.findByOrganizationId(organizationId)
-                .stream()
-                .filter(record -> "HIDE".equals(record.getOperationType()))
-                .collect(java.util.stream.Collectors.toList());
-            
-            return hideRecords.stream()
-                .map(StudentOperationRecord::getOldName)
-                .filter(name -> name != null && !name.trim().isEmpty())
-                .collect(java.util.stream.Collectors.toList());
+            return studentRuleService.getOrganizationRules(organizationId).getHiddenStudents();
         } catch (Exception e) {
             logger.error("获取隐藏学员列表失败", e);
-            return new java.util.ArrayList<>();
+            return java.util.Collections.emptySet();
         }
     }
     
@@ -1440,29 +1491,10 @@ public class WeeklyInstanceController {
      */
     private java.util.Map<String, String> getMergeRules(Long organizationId) {
         try {
-            List<StudentOperationRecord> mergeRecords = studentOperationRecordRepository.findByOrganizationId(organizationId)
-                .stream()
-                .filter(record -> "MERGE".equals(record.getOperationType()))
-                .collect(java.util.stream.Collectors.toList());
-            
-            java.util.Map<String, String> mergeMap = new java.util.HashMap<>();
-            for (StudentOperationRecord record : mergeRecords) {
-                String oldNames = record.getOldName();
-                String newName = record.getNewName();
-                if (oldNames != null && newName != null) {
-                    // 处理逗号分隔的多个学员名称
-                    String[] names = oldNames.split(",");
-                    for (String name : names) {
-                        if (name != null && !name.trim().isEmpty()) {
-                            mergeMap.put(name.trim(), newName.trim());
-                        }
-                    }
-                }
-            }
-            return mergeMap;
+            return studentRuleService.getOrganizationRules(organizationId).getMergeRules();
         } catch (Exception e) {
             logger.error("获取合并规则失败", e);
-            return new java.util.HashMap<>();
+            return java.util.Collections.emptyMap();
         }
     }
     
@@ -1472,20 +1504,10 @@ public class WeeklyInstanceController {
      */
     private java.util.Map<String, Integer> getAssignHoursRules(Long organizationId) {
         try {
-            java.util.Map<String, Integer> hoursMap = new java.util.HashMap<>();
-            List<StudentOperationRecord> records = studentOperationRecordRepository
-                .findByOrganizationIdAndOperationType(organizationId, "ASSIGN_HOURS");
-            
-            for (StudentOperationRecord record : records) {
-                String studentName = record.getOldName(); // 学员名称存在oldName
-                if (studentName != null && !studentName.trim().isEmpty()) {
-                    hoursMap.put(studentName.trim(), hoursMap.getOrDefault(studentName.trim(), 0) + 1);
-                }
-            }
-            return hoursMap;
+            return studentRuleService.getOrganizationRules(organizationId).getAssignHoursCounts();
         } catch (Exception e) {
             logger.error("获取分配课时规则失败", e);
-            return new java.util.HashMap<>();
+            return java.util.Collections.emptyMap();
         }
     }
     
@@ -1554,7 +1576,7 @@ public class WeeklyInstanceController {
      */
     private List<com.timetable.dto.CoachStudentSummaryDTO> filterHiddenStudentsFromGrouped(
             List<com.timetable.dto.CoachStudentSummaryDTO> grouped, 
-            List<String> hiddenStudents) {
+            java.util.Set<String> hiddenStudents) {
         
         return grouped.stream()
             .map(coach -> {
@@ -1587,7 +1609,7 @@ public class WeeklyInstanceController {
      */
     private List<com.timetable.dto.StudentSummaryDTO> filterHiddenStudentsFromList(
             List<com.timetable.dto.StudentSummaryDTO> students, 
-            List<String> hiddenStudents) {
+            java.util.Set<String> hiddenStudents) {
         
         return students.stream()
             .filter(student -> !hiddenStudents.contains(student.getStudentName()))
@@ -0,0 +1,34 @@
+package com.timetable.dto;
+
+import java.time.LocalTime;
+
+/**
+ * 教练在某一天被占用的时间段（来自活动课表的周实例课程、固定课表模板或日期课程，已排除取消的体验课）
+ */
+public class CoachBusyInterval {
+    private Long timetableId;
+    private LocalTime startTime;
+    private LocalTime endTime;
+
+    public CoachBusyInterval() {}
+
+    public CoachBusyInterval(Long timetableId, LocalTime startTime, LocalTime endTime) {
+        this.timetableId = timetableId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * 是否与 [start, end) 时间段重叠
+     */
+    public boolean overlaps(LocalTime start, LocalTime end) {
+        return startTime.isBefore(end) && start.isBefore(endTime);
+    }
+
+    public Long getTimetableId() { return timetableId; }
+    public void setTimetableId(Long timetableId) { this.timetableId = timetableId; }
+    public LocalTime getStartTime() { return startTime; }
+    public void setStartTime(LocalTime startTime) { this.startTime = startTime; }
+    public LocalTime getEndTime() { return endTime; }
+    public void setEndTime(LocalTime endTime) { this.endTime = endTime; }
+}
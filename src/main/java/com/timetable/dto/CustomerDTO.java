@@ -27,6 +27,8 @@ public class CustomerDTO {
     private String lastStatusChangeNote; // 最后一次状态流转备注
     private LocalDateTime lastStatusChangeTime; // 最后一次状态流转时间
     private Long organizationId;
+    private Boolean hasTodo; // 是否有未完成的待办（客户列表）
+    private TodoDTO latestTodo; // 最新的未完成待办（客户列表）
 
     public CustomerDTO() {
     }
@@ -221,4 +223,20 @@ public class CustomerDTO {
     public void setOrganizationId(Long organizationId) {
         this.organizationId = organizationId;
     }
+
+    public Boolean getHasTodo() {
+        return hasTodo;
+    }
+
+    public void setHasTodo(Boolean hasTodo) {
+        this.hasTodo = hasTodo;
+    }
+
+    public TodoDTO getLatestTodo() {
+        return latestTodo;
+    }
+
+    public void setLatestTodo(TodoDTO latestTodo) {
+        this.latestTodo = latestTodo;
+    }
 }
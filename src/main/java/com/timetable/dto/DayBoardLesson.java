@@ -0,0 +1,42 @@
+package com.timetable.dto;
+
+import java.time.LocalTime;
+
+/**
+ * 机构某一天的一节课（日课表看板的一行）：课程所属课表、课表所有者及课程时间
+ */
+public class DayBoardLesson {
+    private Long timetableId;
+    private String timetableName;
+    private Byte isWeekly;
+    private String ownerUsername;
+    private String ownerNickname;
+    private String ownerRole;
+    private String studentName;
+    private LocalTime startTime;
+    private LocalTime endTime;
+    private Boolean isOnLeave;
+
+    public DayBoardLesson() {}
+
+    public Long getTimetableId() { return timetableId; }
+    public void setTimetableId(Long timetableId) { this.timetableId = timetableId; }
+    public String getTimetableName() { return timetableName; }
+    public void setTimetableName(String timetableName) { this.timetableName = timetableName; }
+    public Byte getIsWeekly() { return isWeekly; }
+    public void setIsWeekly(Byte isWeekly) { this.isWeekly = isWeekly; }
+    public String getOwnerUsername() { return ownerUsername; }
+    public void setOwnerUsername(String ownerUsername) { this.ownerUsername = ownerUsername; }
+    public String getOwnerNickname() { return ownerNickname; }
+    public void setOwnerNickname(String ownerNickname) { this.ownerNickname = ownerNickname; }
+    public String getOwnerRole() { return ownerRole; }
+    public void setOwnerRole(String ownerRole) { this.ownerRole = ownerRole; }
+    public String getStudentName() { return studentName; }
+    public void setStudentName(String studentName) { this.studentName = studentName; }
+    public LocalTime getStartTime() { return startTime; }
+    public void setStartTime(LocalTime startTime) { this.startTime = startTime; }
+    public LocalTime getEndTime() { return endTime; }
+    public void setEndTime(LocalTime endTime) { this.endTime = endTime; }
+    public Boolean getIsOnLeave() { return isOnLeave; }
+    public void setIsOnLeave(Boolean isOnLeave) { this.isOnLeave = isOnLeave; }
+}
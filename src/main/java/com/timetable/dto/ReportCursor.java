@@ -0,0 +1,58 @@
+package com.timetable.dto;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 课时记录的翻页游标：定位到上一页最后一条记录的 (上课日期, 开始时间, 来源, ID)
+ * 两张表的ID可能重复，因此以来源（0=schedules，1=weekly_instance_schedules）区分同一时间的记录
+ * 序列化格式：yyyy-MM-dd_HH:mm:ss_来源_ID
+ */
+public class ReportCursor {
+
+    public static final int SOURCE_SCHEDULE = 0;
+    public static final int SOURCE_WEEKLY_INSTANCE = 1;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final LocalDate scheduleDate;
+    private final LocalTime startTime;
+    private final int source;
+    private final long id;
+
+    public ReportCursor(LocalDate scheduleDate, LocalTime startTime, int source, long id) {
+        this.scheduleDate = scheduleDate;
+        this.startTime = startTime;
+        this.source = source;
+        this.id = id;
+    }
+
+    /**
+     * 解析游标字符串，格式不正确时抛出 IllegalArgumentException
+     */
+    public static ReportCursor parse(String value) {
+        String[] parts = value == null ? new String[0] : value.split("_");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("游标格式不正确");
+        }
+        try {
+            int source = Integer.parseInt(parts[2]);
+            if (source != SOURCE_SCHEDULE && source != SOURCE_WEEKLY_INSTANCE) {
+                throw new IllegalArgumentException("游标格式不正确");
+            }
+            return new ReportCursor(LocalDate.parse(parts[0]), LocalTime.parse(parts[1]), source, Long.parseLong(parts[3]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("游标格式不正确", e);
+        }
+    }
+
+    public String encode() {
+        return scheduleDate + "_" + startTime.format(TIME_FORMAT) + "_" + source + "_" + id;
+    }
+
+    public LocalDate getScheduleDate() { return scheduleDate; }
+    public LocalTime getStartTime() { return startTime; }
+    public int getSource() { return source; }
+    public long getId() { return id; }
+}
@@ -0,0 +1,57 @@
+package com.timetable.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 课程变更事件（通过 SSE 推送给打开课表页面的客户端）
+ * scheduleId 为空表示整个课表或周实例发生了批量变化（同步、清空、批量删除等），客户端应整体重新加载。
+ * 客户端收到事件后按需重新请求课程接口（接口带 ETag，未变化的视图返回 304）。
+ */
+public class ScheduleChangeEvent {
+
+    public static final String TYPE_CREATED = "CREATED";
+    public static final String TYPE_UPDATED = "UPDATED";
+    public static final String TYPE_DELETED = "DELETED";
+    public static final String TYPE_LEAVE = "LEAVE";
+    public static final String TYPE_SWAP = "SWAP";
+
+    private String type;
+    private Long organizationId;
+    private Long timetableId;
+    private Long weeklyInstanceId;
+    private Long scheduleId;
+    private LocalDate scheduleDate;
+    private LocalDateTime occurredAt;
+
+    public ScheduleChangeEvent() {}
+
+    public ScheduleChangeEvent(String type, Long timetableId, Long weeklyInstanceId, Long scheduleId, LocalDate scheduleDate) {
+        this.type = type;
+        this.timetableId = timetableId;
+        this.weeklyInstanceId = weeklyInstanceId;
+        this.scheduleId = scheduleId;
+        this.scheduleDate = scheduleDate;
+        this.occurredAt = LocalDateTime.now();
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    public Long getOrganizationId() { return organizationId; }
+    public void setOrganizationId(Long organizationId) { this.organizationId = organizationId; }
+    public Long getTimetableId() { return timetableId; }
+    public void setTimetableId(Long timetableId) { this.timetableId = timetableId; }
+    public Long getWeeklyInstanceId() { return weeklyInstanceId; }
+    public void setWeeklyInstanceId(Long weeklyInstanceId) { this.weeklyInstanceId = weeklyInstanceId; }
+    public Long getScheduleId() { return scheduleId; }
+    public void setScheduleId(Long scheduleId) { this.scheduleId = scheduleId; }
+    public LocalDate getScheduleDate() { return scheduleDate; }
+    public void setScheduleDate(LocalDate scheduleDate) { this.scheduleDate = scheduleDate; }
+    public LocalDateTime getOccurredAt() { return occurredAt; }
+    public void setOccurredAt(LocalDateTime occurredAt) { this.occurredAt = occurredAt; }
+
+    @Override
+    public String toString() {
+        return type + " timetable=" + timetableId + " instance=" + weeklyInstanceId + " schedule=" + scheduleId;
+    }
+}
@@ -10,6 +10,7 @@ import java.time.LocalTime;
  */
 public class ScheduleWithCoachDTO extends Schedules {
     private String coachName;
+    private String sourceType; // 记录来源：schedule（课表课程）或 weekly_instance（周实例课程）
 
     public ScheduleWithCoachDTO() {
         super();
@@ -27,4 +28,12 @@ public class ScheduleWithCoachDTO extends Schedules {
     public void setCoachName(String coachName) {
         this.coachName = coachName;
     }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public void setSourceType(String sourceType) {
+        this.sourceType = sourceType;
+    }
 }
@@ -0,0 +1,40 @@
+package com.timetable.dto;
+
+/**
+ * 学员课时聚合结果：按 教练 + 学员名 在数据库中分组汇总的已上课时
+ */
+public class StudentHoursAggregate {
+    private Long coachId;
+    private String studentName;   // 已去除首尾空格的原始学员名（未应用重命名/别名规则）
+    private Long totalMinutes;    // 按课程累加的有效分钟数（单节不足30分钟按30分钟，缺少时间按60分钟）
+    private Integer halfHourUnits; // 按课程四舍五入后累加的半小时课时数
+    private Integer lessonCount;
+
+    public StudentHoursAggregate() {}
+
+    public StudentHoursAggregate(Long coachId, String studentName, Long totalMinutes, Integer halfHourUnits, Integer lessonCount) {
+        this.coachId = coachId;
+        this.studentName = studentName;
+        this.totalMinutes = totalMinutes;
+        this.halfHourUnits = halfHourUnits;
+        this.lessonCount = lessonCount;
+    }
+
+    /**
+     * 汇总课时（小时）
+     */
+    public double getTotalHours() {
+        return totalMinutes != null ? totalMinutes / 60.0 : 0.0;
+    }
+
+    public Long getCoachId() { return coachId; }
+    public void setCoachId(Long coachId) { this.coachId = coachId; }
+    public String getStudentName() { return studentName; }
+    public void setStudentName(String studentName) { this.studentName = studentName; }
+    public Long getTotalMinutes() { return totalMinutes; }
+    public void setTotalMinutes(Long totalMinutes) { this.totalMinutes = totalMinutes; }
+    public Integer getHalfHourUnits() { return halfHourUnits; }
+    public void setHalfHourUnits(Integer halfHourUnits) { this.halfHourUnits = halfHourUnits; }
+    public Integer getLessonCount() { return lessonCount; }
+    public void setLessonCount(Integer lessonCount) { this.lessonCount = lessonCount; }
+}
@@ -0,0 +1,66 @@
+package com.timetable.dto;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * 学员时间线上的一节课（上课记录或请假记录）
+ * 来源：0=日期类课表（schedules），1=周实例（weekly_instance_schedules），2=由大课按规则分配的课时
+ */
+public class StudentTimelineLesson {
+
+    public static final int SOURCE_SCHEDULE = ReportCursor.SOURCE_SCHEDULE;
+    public static final int SOURCE_WEEKLY_INSTANCE = ReportCursor.SOURCE_WEEKLY_INSTANCE;
+    public static final int SOURCE_ASSIGNED_HOURS = 2;
+
+    private int source;
+    private Long id;
+    private Long timetableId;
+    private String timetableName;
+    private String coachName;
+    private String studentName;
+    private LocalDate scheduleDate;
+    private LocalTime startTime;
+    private LocalTime endTime;
+    private boolean onLeave;
+    private String leaveReason;
+
+    public StudentTimelineLesson() {}
+
+    public StudentTimelineLesson(StudentTimelineLesson other) {
+        this.source = other.source;
+        this.id = other.id;
+        this.timetableId = other.timetableId;
+        this.timetableName = other.timetableName;
+        this.coachName = other.coachName;
+        this.studentName = other.studentName;
+        this.scheduleDate = other.scheduleDate;
+        this.startTime = other.startTime;
+        this.endTime = other.endTime;
+        this.onLeave = other.onLeave;
+        this.leaveReason = other.leaveReason;
+    }
+
+    public int getSource() { return source; }
+    public void setSource(int source) { this.source = source; }
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public Long getTimetableId() { return timetableId; }
+    public void setTimetableId(Long timetableId) { this.timetableId = timetableId; }
+    public String getTimetableName() { return timetableName; }
+    public void setTimetableName(String timetableName) { this.timetableName = timetableName; }
+    public String getCoachName() { return coachName; }
+    public void setCoachName(String coachName) { this.coachName = coachName; }
+    public String getStudentName() { return studentName; }
+    public void setStudentName(String studentName) { this.studentName = studentName; }
+    public LocalDate getScheduleDate() { return scheduleDate; }
+    public void setScheduleDate(LocalDate scheduleDate) { this.scheduleDate = scheduleDate; }
+    public LocalTime getStartTime() { return startTime; }
+    public void setStartTime(LocalTime startTime) { this.startTime = startTime; }
+    public LocalTime getEndTime() { return endTime; }
+    public void setEndTime(LocalTime endTime) { this.endTime = endTime; }
+    public boolean isOnLeave() { return onLeave; }
+    public void setOnLeave(boolean onLeave) { this.onLeave = onLeave; }
+    public String getLeaveReason() { return leaveReason; }
+    public void setLeaveReason(String leaveReason) { this.leaveReason = leaveReason; }
+}
@@ -0,0 +1,84 @@
+package com.timetable.entity;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 课时台账刷新失败区间实体类
+ */
+public class LessonHoursLedgerFailedSlice {
+    private Long id;
+    private Long timetableId;
+    private LocalDate fromDate;        // 为空表示不限开始日期
+    private LocalDate toDate;          // 为空表示截至重试当天
+    private int attempts;
+    private String lastError;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    public LessonHoursLedgerFailedSlice() {}
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTimetableId() {
+        return timetableId;
+    }
+
+    public void setTimetableId(Long timetableId) {
+        this.timetableId = timetableId;
+    }
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public void setFromDate(LocalDate fromDate) {
+        this.fromDate = fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    public void setToDate(LocalDate toDate) {
+        this.toDate = toDate;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -15,6 +15,7 @@ public class WeeklyInstance {
     private Boolean isCurrent;         // 是否为当前周实例
     private LocalDateTime generatedAt; // 生成时间
     private LocalDateTime lastSyncedAt; // 最后同步时间
+    private Long syncedTemplateVersion; // 最近一次完整同步时的模板版本号（实例课程写入后置空）
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     private Long organizationId;       // 所属机构ID
@@ -99,6 +100,14 @@ public class WeeklyInstance {
         this.lastSyncedAt = lastSyncedAt;
     }
 
+    public Long getSyncedTemplateVersion() {
+        return syncedTemplateVersion;
+    }
+
+    public void setSyncedTemplateVersion(Long syncedTemplateVersion) {
+        this.syncedTemplateVersion = syncedTemplateVersion;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,148 @@
+package com.timetable.entity;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 周实例批量生成任务执行记录实体类
+ */
+public class WeeklyInstanceJobRun {
+    public static final String JOB_CURRENT_WEEK = "CURRENT_WEEK";
+    public static final String JOB_NEXT_WEEK = "NEXT_WEEK";
+
+    public static final String TRIGGER_SCHEDULED = "SCHEDULED";
+    public static final String TRIGGER_MANUAL = "MANUAL";
+
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private Long id;
+    private String jobType;            // 生成目标：CURRENT_WEEK / NEXT_WEEK
+    private String triggerType;        // 触发方式：SCHEDULED / MANUAL
+    private String yearWeek;           // 目标周
+    private String status;             // RUNNING / COMPLETED / FAILED
+    private int totalTimetables;
+    private int generatedCount;
+    private int skippedCount;
+    private int failedCount;
+    private Long durationMs;
+    private List<String> errors = new ArrayList<>(); // 失败明细
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    public WeeklyInstanceJobRun() {}
+
+    public WeeklyInstanceJobRun(String jobType, String triggerType, String yearWeek) {
+        this.jobType = jobType;
+        this.triggerType = triggerType;
+        this.yearWeek = yearWeek;
+        this.status = STATUS_RUNNING;
+        this.startedAt = LocalDateTime.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getJobType() {
+        return jobType;
+    }
+
+    public void setJobType(String jobType) {
+        this.jobType = jobType;
+    }
+
+    public String getTriggerType() {
+        return triggerType;
+    }
+
+    public void setTriggerType(String triggerType) {
+        this.triggerType = triggerType;
+    }
+
+    public String getYearWeek() {
+        return yearWeek;
+    }
+
+    public void setYearWeek(String yearWeek) {
+        this.yearWeek = yearWeek;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getTotalTimetables() {
+        return totalTimetables;
+    }
+
+    public void setTotalTimetables(int totalTimetables) {
+        this.totalTimetables = totalTimetables;
+    }
+
+    public int getGeneratedCount() {
+        return generatedCount;
+    }
+
+    public void setGeneratedCount(int generatedCount) {
+        this.generatedCount = generatedCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    public void setSkippedCount(int skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(int failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(LocalDateTime finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+}
@@ -0,0 +1,137 @@
+package com.timetable.repository;
+
+import com.timetable.dto.CoachBusyInterval;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 教练空闲查询
+ * 教练：管理员或职位为教练的普通用户，已批准且未删除；每个教练以其活动课表（未删除、未归档）判断占用：
+ * - 周固定课表且存在该日期所在周的实例：实例中该日期未取消的课程
+ * - 周固定课表但没有该周实例：模板中该星期的课程
+ * - 日期范围课表：该日期的课程
+ * 体验课只有在存在未取消的体验记录时才算占用
+ */
+@Repository
+public class CoachAvailabilityRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final String COACH_JOINS =
+            " FROM users u" +
+            " JOIN timetables t ON t.user_id = u.id AND t.is_active = 1" +
+            " AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+            " AND (t.is_archived IS NULL OR t.is_archived = 0)" +
+            " LEFT JOIN weekly_instances wi ON t.is_weekly = 1 AND wi.template_timetable_id = t.id AND wi.year_week = ?";
+
+    private static final String COACH_WHERE =
+            " WHERE (u.role = 'ADMIN' OR (u.role = 'USER' AND u.position = 'COACH'))" +
+            " AND u.status = 'APPROVED' AND u.is_deleted = 0";
+
+    // 参数：日期、结束时间、开始时间
+    private static final String INSTANCE_BUSY =
+            "wis.weekly_instance_id = wi.id AND wis.schedule_date = ? AND wis.is_cancelled = FALSE" +
+            " AND wis.start_time < ? AND wis.end_time > ? AND " + activeTrialSql("wis");
+
+    // 参数：星期、结束时间、开始时间
+    private static final String TEMPLATE_BUSY =
+            "t.is_weekly = 1 AND wi.id IS NULL AND s.timetable_id = t.id" +
+            " AND s.schedule_date IS NULL AND s.day_of_week = ?" +
+            " AND s.start_time < ? AND s.end_time > ?";
+
+    // 参数：日期、结束时间、开始时间
+    private static final String DATED_BUSY =
+            "(t.is_weekly IS NULL OR t.is_weekly <> 1) AND s.timetable_id = t.id AND s.schedule_date = ?" +
+            " AND s.start_time < ? AND s.end_time > ? AND " + activeTrialSql("s");
+
+    private static final RowMapper<Map<String, Object>> COACH_ROW_MAPPER = (rs, rowNum) -> {
+        Map<String, Object> coachInfo = new HashMap<>();
+        coachInfo.put("id", rs.getLong("id"));
+        coachInfo.put("username", rs.getString("username"));
+        coachInfo.put("nickname", rs.getString("nickname"));
+        coachInfo.put("timetableId", rs.getLong("timetable_id"));
+        coachInfo.put("timetableName", rs.getString("timetable_name"));
+        return coachInfo;
+    };
+
+    /**
+     * 非体验课，或存在未取消体验记录的体验课
+     */
+    private static String activeTrialSql(String alias) {
+        return "(" + alias + ".is_trial IS NULL OR " + alias + ".is_trial <> 1 OR EXISTS (" +
+                "SELECT 1 FROM customer_status_history h WHERE h.trial_schedule_id = " + alias + ".id" +
+                " AND (h.trial_cancelled IS NULL OR h.trial_cancelled = FALSE)))";
+    }
+
+    /**
+     * 指定日期、时间段内没有课程的教练（一次查询）
+     * @param yearWeek 日期所在周的年周标识，与 weekly_instances.year_week 一致
+     * @return 教练信息：id、username、nickname、timetableId、timetableName
+     */
+    public List<Map<String, Object>> findAvailableCoaches(String yearWeek, LocalDate date,
+                                                          LocalTime startTime, LocalTime endTime) {
+        String sql = "SELECT u.id, u.username, u.nickname, t.id AS timetable_id, t.name AS timetable_name" +
+                COACH_JOINS + COACH_WHERE +
+                " AND NOT EXISTS (SELECT 1 FROM weekly_instance_schedules wis WHERE " + INSTANCE_BUSY + ")" +
+                " AND NOT EXISTS (SELECT 1 FROM schedules s WHERE " + TEMPLATE_BUSY + ")" +
+                " AND NOT EXISTS (SELECT 1 FROM schedules s WHERE " + DATED_BUSY + ")" +
+                " ORDER BY u.id";
+
+        Date sqlDate = Date.valueOf(date);
+        Time start = Time.valueOf(startTime);
+        Time end = Time.valueOf(endTime);
+        return jdbcTemplate.query(sql, COACH_ROW_MAPPER,
+                yearWeek,
+                sqlDate, end, start,
+                date.getDayOfWeek().name(), end, start,
+                sqlDate, end, start);
+    }
+
+    /**
+     * 所有有活动课表的教练（不判断占用）
+     */
+    public List<Map<String, Object>> findCoachesWithActiveTimetable(String yearWeek) {
+        String sql = "SELECT u.id, u.username, u.nickname, t.id AS timetable_id, t.name AS timetable_name" +
+                COACH_JOINS + COACH_WHERE +
+                " ORDER BY u.id";
+        return jdbcTemplate.query(sql, COACH_ROW_MAPPER, yearWeek);
+    }
+
+    /**
+     * 所有教练活动课表在指定日期、时间段内的占用时间段（一次查询），按课表和开始时间排序
+     */
+    public List<CoachBusyInterval> findBusyIntervals(String yearWeek, LocalDate date,
+                                                     LocalTime startTime, LocalTime endTime) {
+        String sql = "SELECT t.id AS timetable_id, wis.start_time, wis.end_time" + COACH_JOINS +
+                " JOIN weekly_instance_schedules wis ON " + INSTANCE_BUSY + COACH_WHERE +
+                " UNION ALL " +
+                "SELECT t.id AS timetable_id, s.start_time, s.end_time" + COACH_JOINS +
+                " JOIN schedules s ON " + TEMPLATE_BUSY + COACH_WHERE +
+                " UNION ALL " +
+                "SELECT t.id AS timetable_id, s.start_time, s.end_time" + COACH_JOINS +
+                " JOIN schedules s ON " + DATED_BUSY + COACH_WHERE +
+                " ORDER BY timetable_id, start_time";
+
+        Date sqlDate = Date.valueOf(date);
+        Time start = Time.valueOf(startTime);
+        Time end = Time.valueOf(endTime);
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new CoachBusyInterval(
+                        rs.getLong("timetable_id"),
+                        rs.getTime("start_time").toLocalTime(),
+                        rs.getTime("end_time").toLocalTime()),
+                yearWeek, sqlDate, end, start,
+                yearWeek, date.getDayOfWeek().name(), end, start,
+                yearWeek, sqlDate, end, start);
+    }
+}
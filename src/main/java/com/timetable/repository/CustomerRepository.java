@@ -1,5 +1,6 @@
 package com.timetable.repository;
 
+import com.timetable.dto.TrialCustomerDTO;
 import com.timetable.entity.Customer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -8,9 +9,15 @@ import org.springframework.stereotype.Repository;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class CustomerRepository {
@@ -112,6 +119,18 @@ public class CustomerRepository {
         return customers.isEmpty() ? null : customers.get(0);
     }
 
+    /**
+     * 根据ID批量查询客户（一次查询）
+     */
+    public List<Customer> findByIds(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        String sql = "SELECT * FROM customers WHERE id IN (" + placeholders + ")";
+        return jdbcTemplate.query(sql, customerRowMapper, ids.toArray());
+    }
+
     public List<Customer> findByAssignedSalesId(Long salesId, Long organizationId) {
         String sql = "SELECT * FROM customers WHERE organization_id = ? AND (assigned_sales_id = ? OR created_by = ?) ORDER BY created_at DESC";
         return jdbcTemplate.query(sql, customerRowMapper, organizationId, salesId, salesId);
@@ -132,8 +151,12 @@ public class CustomerRepository {
         return jdbcTemplate.query(sql, customerRowMapper, pageSize, page * pageSize);
     }
 
+    /**
+     * 按筛选条件分页查询机构内的客户
+     * @param matchedIds 搜索索引按关键词匹配到的客户ID，为空时按 keyword 模糊查询
+     */
     public List<Customer> findAllWithFiltersAndPagination(Long organizationId, int page, int pageSize, String status, Long salesId, 
-                                                           java.time.LocalDate filterDate, String keyword) {
+                                                           LocalDate filterDate, String keyword, Collection<Long> matchedIds) {
         StringBuilder sql = new StringBuilder("SELECT * FROM customers WHERE organization_id = ?");
         List<Object> params = new ArrayList<>();
         params.add(organizationId);
@@ -148,15 +171,9 @@ public class CustomerRepository {
             params.add(salesId);
         }
         
-        if (filterDate != null) {
-            sql.append(" AND DATE(created_at) = ?");
-            params.add(filterDate);
-        }
-        
-        if (keyword != null && !keyword.isEmpty()) {
-            sql.append(" AND (child_name LIKE ? OR parent_phone LIKE ?)");
-            params.add("%" + keyword + "%");
-            params.add("%" + keyword + "%");
+        appendCreatedDateFilter(sql, params, filterDate);
+        if (!appendKeywordFilter(sql, params, keyword, matchedIds)) {
+            return new ArrayList<>();
         }
         
         sql.append(" ORDER BY created_at DESC LIMIT ? OFFSET ?");
@@ -166,8 +183,13 @@ public class CustomerRepository {
         return jdbcTemplate.query(sql.toString(), customerRowMapper, params.toArray());
     }
 
+    /**
+     * 按筛选条件分页查询用户创建或负责的客户
+     * @param matchedIds 搜索索引按关键词匹配到的客户ID，为空时按 keyword 模糊查询
+     */
     public List<Customer> findByUserWithFiltersAndPagination(Long userId, Long organizationId, int page, int pageSize, 
-                                                              String status, java.time.LocalDate filterDate, String keyword) {
+                                                              String status, LocalDate filterDate, String keyword,
+                                                              Collection<Long> matchedIds) {
         StringBuilder sql = new StringBuilder("SELECT * FROM customers WHERE organization_id = ? AND (assigned_sales_id = ? OR created_by = ?)");
         List<Object> params = new ArrayList<>();
         params.add(organizationId);
@@ -179,15 +201,9 @@ public class CustomerRepository {
             params.add(status);
         }
         
-        if (filterDate != null) {
-            sql.append(" AND DATE(created_at) = ?");
-            params.add(filterDate);
-        }
-        
-        if (keyword != null && !keyword.isEmpty()) {
-            sql.append(" AND (child_name LIKE ? OR parent_phone LIKE ?)");
-            params.add("%" + keyword + "%");
-            params.add("%" + keyword + "%");
+        appendCreatedDateFilter(sql, params, filterDate);
+        if (!appendKeywordFilter(sql, params, keyword, matchedIds)) {
+            return new ArrayList<>();
         }
         
         sql.append(" ORDER BY created_at DESC LIMIT ? OFFSET ?");
@@ -197,6 +213,154 @@ public class CustomerRepository {
         return jdbcTemplate.query(sql.toString(), customerRowMapper, params.toArray());
     }
 
+    /**
+     * 按状态统计机构内的客户数量（状态 -> 数量），筛选条件与客户列表一致
+     * @param userId 非空时只统计该用户创建或分配给该用户的客户（非管理员的权限范围）
+     * @param salesId 非空时只统计该销售创建或负责的客户
+     * @param filterDate 非空时只统计当天创建的客户
+     * @param keyword 非空时只统计孩子姓名或家长电话包含关键词的客户
+     * @param matchedIds 搜索索引按关键词匹配到的客户ID，为空时按 keyword 模糊查询
+     */
+    public Map<String, Long> countByStatusWithFilters(Long organizationId, Long userId, Long salesId,
+                                                      LocalDate filterDate, String keyword, Collection<Long> matchedIds) {
+        StringBuilder sql = new StringBuilder("SELECT status, COUNT(*) AS cnt FROM customers WHERE organization_id = ?");
+        List<Object> params = new ArrayList<>();
+        params.add(organizationId);
+
+        if (userId != null) {
+            sql.append(" AND (created_by = ? OR assigned_sales_id = ?)");
+            params.add(userId);
+            params.add(userId);
+        }
+
+        if (salesId != null) {
+            sql.append(" AND (created_by = ? OR assigned_sales_id = ?)");
+            params.add(salesId);
+            params.add(salesId);
+        }
+
+        appendCreatedDateFilter(sql, params, filterDate);
+        Map<String, Long> counts = new HashMap<>();
+        if (!appendKeywordFilter(sql, params, keyword != null ? keyword.trim() : null, matchedIds)) {
+            return counts;
+        }
+
+        sql.append(" GROUP BY status");
+
+        jdbcTemplate.query(sql.toString(), rs -> {
+            counts.put(rs.getString("status"), rs.getLong("cnt"));
+        }, params.toArray());
+        return counts;
+    }
+
+    /**
+     * 创建日期筛选：以范围比较代替 DATE(created_at)，可以使用 created_at 上的索引
+     */
+    private static void appendCreatedDateFilter(StringBuilder sql, List<Object> params, LocalDate filterDate) {
+        if (filterDate != null) {
+            sql.append(" AND created_at >= ? AND created_at < ?");
+            params.add(filterDate.atStartOfDay());
+            params.add(filterDate.plusDays(1).atStartOfDay());
+        }
+    }
+
+    /**
+     * 关键词筛选：有搜索索引的匹配结果时按ID过滤，否则按孩子姓名、家长电话模糊匹配
+     * @return 索引没有匹配到任何客户时返回 false，调用方直接返回空结果
+     */
+    private static boolean appendKeywordFilter(StringBuilder sql, List<Object> params, String keyword,
+                                               Collection<Long> matchedIds) {
+        if (keyword == null || keyword.isEmpty()) {
+            return true;
+        }
+        if (matchedIds != null) {
+            if (matchedIds.isEmpty()) {
+                return false;
+            }
+            sql.append(" AND id IN (").append(String.join(",", Collections.nCopies(matchedIds.size(), "?"))).append(")");
+            params.addAll(matchedIds);
+            return true;
+        }
+        sql.append(" AND (child_name LIKE ? OR parent_phone LIKE ?)");
+        params.add("%" + keyword + "%");
+        params.add("%" + keyword + "%");
+        return true;
+    }
+
+    private static final RowMapper<TrialCustomerDTO> TRIAL_CUSTOMER_ROW_MAPPER = (rs, rowNum) -> {
+        TrialCustomerDTO dto = new TrialCustomerDTO();
+        dto.setCustomerId(rs.getLong("customer_id"));
+        dto.setChildName(rs.getString("child_name"));
+        dto.setParentPhone(rs.getString("parent_phone"));
+        dto.setStatus(rs.getString("status"));
+        dto.setTrialScheduleDate(rs.getDate("trial_schedule_date").toLocalDate());
+        Time startTime = rs.getTime("trial_start_time");
+        dto.setTrialStartTime(startTime != null ? startTime.toLocalTime() : null);
+        Time endTime = rs.getTime("trial_end_time");
+        dto.setTrialEndTime(endTime != null ? endTime.toLocalTime() : null);
+        long coachId = rs.getLong("trial_coach_id");
+        dto.setTrialCoachId(rs.wasNull() ? null : coachId);
+        dto.setTrialCoachName(rs.getString("trial_coach_name"));
+        dto.setHistoryId(rs.getLong("history_id"));
+        boolean cancelled = rs.getBoolean("trial_cancelled");
+        dto.setTrialCancelled(rs.wasNull() ? null : cancelled);
+        dto.setCreatedAt(rs.getTimestamp("created_at") != null ? rs.getTimestamp("created_at").toLocalDateTime() : null);
+        long createdById = rs.getLong("created_by");
+        if (!rs.wasNull()) {
+            dto.setCreatedById(createdById);
+            dto.setCreatedByName(rs.getString("created_by_name"));
+        }
+        return dto;
+    };
+
+    /**
+     * 查询机构的体验课记录（一次查询）：状态流转为待体验/待再体验且有体验日期的记录，
+     * 带出客户信息、体验教练和录入人姓名，按体验日期、开始时间排序
+     * @param includeAll 为 false 时只返回客户当前仍为待体验/待再体验、且体验未取消的记录
+     * @param pageSize 每页条数，为空时返回全部
+     */
+    public List<TrialCustomerDTO> findTrialCustomers(Long organizationId, Long createdById, LocalDate trialDate,
+                                                     boolean includeAll, int page, Integer pageSize) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT c.id AS customer_id, c.child_name, c.parent_phone, c.status," +
+                " h.id AS history_id, h.trial_schedule_date, h.trial_start_time, h.trial_end_time," +
+                " h.trial_coach_id, h.trial_cancelled, h.created_by, h.created_at," +
+                " COALESCE(coach.nickname, coach.username) AS trial_coach_name," +
+                " COALESCE(creator.nickname, creator.username) AS created_by_name" +
+                " FROM customer_status_history h" +
+                " JOIN customers c ON c.id = h.customer_id" +
+                " LEFT JOIN users coach ON coach.id = h.trial_coach_id" +
+                " LEFT JOIN users creator ON creator.id = h.created_by" +
+                " WHERE c.organization_id = ? AND h.to_status IN ('SCHEDULED', 'RE_EXPERIENCE')" +
+                " AND h.trial_schedule_date IS NOT NULL");
+        List<Object> params = new ArrayList<>();
+        params.add(organizationId);
+
+        if (!includeAll) {
+            sql.append(" AND c.status IN ('SCHEDULED', 'RE_EXPERIENCE')");
+            sql.append(" AND (h.trial_cancelled IS NULL OR h.trial_cancelled = FALSE)");
+        }
+
+        if (trialDate != null) {
+            sql.append(" AND h.trial_schedule_date = ?");
+            params.add(trialDate);
+        }
+
+        if (createdById != null) {
+            sql.append(" AND h.created_by = ?");
+            params.add(createdById);
+        }
+
+        sql.append(" ORDER BY h.trial_schedule_date, h.trial_start_time, h.id");
+        if (pageSize != null) {
+            sql.append(" LIMIT ? OFFSET ?");
+            params.add(pageSize);
+            params.add(page * pageSize);
+        }
+
+        return jdbcTemplate.query(sql.toString(), TRIAL_CUSTOMER_ROW_MAPPER, params.toArray());
+    }
+
     public List<Customer> findByStatus(Long organizationId, String status) {
         String sql = "SELECT * FROM customers WHERE organization_id = ? AND status = ? ORDER BY created_at DESC";
         return jdbcTemplate.query(sql, customerRowMapper, organizationId, status);
@@ -218,12 +382,50 @@ public class CustomerRepository {
         return customers.isEmpty() ? null : customers.get(0);
     }
 
-    public Customer findByChildNameLike(String childName) {
-        String sql = "SELECT * FROM customers WHERE child_name LIKE ? ORDER BY created_at DESC LIMIT 1";
-        List<Customer> customers = jdbcTemplate.query(sql, customerRowMapper, "%" + childName + "%");
+    /**
+     * 孩子姓名包含 childName 的客户中最新创建的一个
+     * @param organizationId 只查询该机构的客户，为空时不限机构
+     */
+    public Customer findByChildNameLike(String childName, Long organizationId) {
+        if (organizationId == null) {
+            String sql = "SELECT * FROM customers WHERE child_name LIKE ? ORDER BY created_at DESC LIMIT 1";
+            List<Customer> customers = jdbcTemplate.query(sql, customerRowMapper, "%" + childName + "%");
+            return customers.isEmpty() ? null : customers.get(0);
+        }
+        String sql = "SELECT * FROM customers WHERE organization_id = ? AND child_name LIKE ? ORDER BY created_at DESC LIMIT 1";
+        List<Customer> customers = jdbcTemplate.query(sql, customerRowMapper, organizationId, "%" + childName + "%");
+        return customers.isEmpty() ? null : customers.get(0);
+    }
+
+    /**
+     * 给定ID中最新创建的客户
+     */
+    public Customer findLatestByIds(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return null;
+        }
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        String sql = "SELECT * FROM customers WHERE id IN (" + placeholders + ") ORDER BY created_at DESC LIMIT 1";
+        List<Customer> customers = jdbcTemplate.query(sql, customerRowMapper, ids.toArray());
         return customers.isEmpty() ? null : customers.get(0);
     }
 
+    /**
+     * 搜索索引需要的字段（全部客户）
+     */
+    public List<Customer> findSearchDocuments() {
+        String sql = "SELECT id, organization_id, child_name, parent_phone FROM customers";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> {
+            Customer customer = new Customer();
+            customer.setId(rs.getLong("id"));
+            long organizationId = rs.getLong("organization_id");
+            customer.setOrganizationId(rs.wasNull() ? null : organizationId);
+            customer.setChildName(rs.getString("child_name"));
+            customer.setParentPhone(rs.getString("parent_phone"));
+            return customer;
+        });
+    }
+
     public List<Customer> findByOrganizationId(Long organizationId) {
         String sql = "SELECT * FROM customers WHERE organization_id = ? ORDER BY created_at DESC";
         return jdbcTemplate.query(sql, customerRowMapper, organizationId);
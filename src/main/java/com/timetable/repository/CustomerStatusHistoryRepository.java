@@ -2,6 +2,9 @@ package com.timetable.repository;
 
 import com.timetable.entity.CustomerStatusHistory;
 import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.SelectConditionStep;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
@@ -46,65 +49,78 @@ public class CustomerStatusHistoryRepository extends BaseRepository {
     }
 
     public CustomerStatusHistory findById(Long id) {
-        return dsl.select()
+        return findById(id, false);
+    }
+
+    /**
+     * 查询并锁定流转记录（SELECT ... FOR UPDATE，需在事务中调用）
+     * 修改体验时间、取消体验和体验课发件箱派发都先锁定记录，同一条记录的建课、改期、取消依次执行
+     */
+    public CustomerStatusHistory findByIdForUpdate(Long id) {
+        return findById(id, true);
+    }
+
+    private CustomerStatusHistory findById(Long id, boolean forUpdate) {
+        SelectConditionStep<Record> query = dsl.select()
                 .from(table("customer_status_history"))
-                .where(field("id").eq(id))
-                .fetchOne(record -> {
-                    CustomerStatusHistory history = new CustomerStatusHistory();
-                    history.setId(record.get(field("id", Long.class)));
-                    history.setCustomerId(record.get(field("customer_id", Long.class)));
-                    history.setFromStatus(record.get(field("from_status", String.class)));
-                    history.setToStatus(record.get(field("to_status", String.class)));
-                    history.setNotes(record.get(field("notes", String.class)));
-                    history.setCreatedBy(record.get(field("created_by", Long.class)));
-                    history.setOrganizationId(record.get(field("organization_id", Long.class)));
-                    
-                    // 处理Timestamp到LocalDateTime的转换
-                    Object createdAtObj = record.get(field("created_at"));
-                    if (createdAtObj instanceof java.sql.Timestamp) {
-                        history.setCreatedAt(((java.sql.Timestamp) createdAtObj).toLocalDateTime());
-                    } else if (createdAtObj instanceof LocalDateTime) {
-                        history.setCreatedAt((LocalDateTime) createdAtObj);
-                    }
-                    
-                    // 读取体验课程字段
-                    history.setTrialScheduleDate(record.get(field("trial_schedule_date", java.sql.Date.class)) != null ? 
-                        record.get(field("trial_schedule_date", java.sql.Date.class)).toLocalDate() : null);
-                    history.setTrialStartTime(record.get(field("trial_start_time", java.sql.Time.class)) != null ?
-                        record.get(field("trial_start_time", java.sql.Time.class)).toLocalTime() : null);
-                    history.setTrialEndTime(record.get(field("trial_end_time", java.sql.Time.class)) != null ?
-                        record.get(field("trial_end_time", java.sql.Time.class)).toLocalTime() : null);
-                    history.setTrialCoachId(record.get(field("trial_coach_id", Long.class)));
-                    history.setTrialCoachName(record.get(field("trial_coach_name", String.class)));
-                    history.setTrialStudentName(record.get(field("trial_student_name", String.class)));
-                    
-                    // 读取体验课表信息字段
-                    history.setTrialScheduleId(record.get(field("trial_schedule_id", Long.class)));
-                    history.setTrialTimetableId(record.get(field("trial_timetable_id", Long.class)));
-                    history.setTrialSourceType(record.get(field("trial_source_type", String.class)));
-                    
-                    // 读取体验取消状态字段
-                    Object trialCancelledObj = record.get(field("trial_cancelled"));
-                    if (trialCancelledObj != null) {
-                        if (trialCancelledObj instanceof Boolean) {
-                            history.setTrialCancelled((Boolean) trialCancelledObj);
-                        } else if (trialCancelledObj instanceof Number) {
-                            history.setTrialCancelled(((Number) trialCancelledObj).intValue() == 1);
-                        }
-                    }
-                    
-                    // 读取体验完成状态字段
-                    Object trialCompletedObj = record.get(field("trial_completed"));
-                    if (trialCompletedObj != null) {
-                        if (trialCompletedObj instanceof Boolean) {
-                            history.setTrialCompleted((Boolean) trialCompletedObj);
-                        } else if (trialCompletedObj instanceof Number) {
-                            history.setTrialCompleted(((Number) trialCompletedObj).intValue() == 1);
-                        }
-                    }
-                    
-                    return history;
-                });
+                .where(field("id").eq(id));
+        ResultQuery<Record> resultQuery = forUpdate ? query.forUpdate() : query;
+        return resultQuery.fetchOne(record -> {
+            CustomerStatusHistory history = new CustomerStatusHistory();
+            history.setId(record.get(field("id", Long.class)));
+            history.setCustomerId(record.get(field("customer_id", Long.class)));
+            history.setFromStatus(record.get(field("from_status", String.class)));
+            history.setToStatus(record.get(field("to_status", String.class)));
+            history.setNotes(record.get(field("notes", String.class)));
+            history.setCreatedBy(record.get(field("created_by", Long.class)));
+            history.setOrganizationId(record.get(field("organization_id", Long.class)));
+            
+            // 处理Timestamp到LocalDateTime的转换
+            Object createdAtObj = record.get(field("created_at"));
+            if (createdAtObj instanceof java.sql.Timestamp) {
+                history.setCreatedAt(((java.sql.Timestamp) createdAtObj).toLocalDateTime());
+            } else if (createdAtObj instanceof LocalDateTime) {
+                history.setCreatedAt((LocalDateTime) createdAtObj);
+            }
+            
+            // 读取体验课程字段
+            history.setTrialScheduleDate(record.get(field("trial_schedule_date", java.sql.Date.class)) != null ? 
+                record.get(field("trial_schedule_date", java.sql.Date.class)).toLocalDate() : null);
+            history.setTrialStartTime(record.get(field("trial_start_time", java.sql.Time.class)) != null ?
+                record.get(field("trial_start_time", java.sql.Time.class)).toLocalTime() : null);
+            history.setTrialEndTime(record.get(field("trial_end_time", java.sql.Time.class)) != null ?
+                record.get(field("trial_end_time", java.sql.Time.class)).toLocalTime() : null);
+            history.setTrialCoachId(record.get(field("trial_coach_id", Long.class)));
+            history.setTrialCoachName(record.get(field("trial_coach_name", String.class)));
+            history.setTrialStudentName(record.get(field("trial_student_name", String.class)));
+            
+            // 读取体验课表信息字段
+            history.setTrialScheduleId(record.get(field("trial_schedule_id", Long.class)));
+            history.setTrialTimetableId(record.get(field("trial_timetable_id", Long.class)));
+            history.setTrialSourceType(record.get(field("trial_source_type", String.class)));
+            
+            // 读取体验取消状态字段
+            Object trialCancelledObj = record.get(field("trial_cancelled"));
+            if (trialCancelledObj != null) {
+                if (trialCancelledObj instanceof Boolean) {
+                    history.setTrialCancelled((Boolean) trialCancelledObj);
+                } else if (trialCancelledObj instanceof Number) {
+                    history.setTrialCancelled(((Number) trialCancelledObj).intValue() == 1);
+                }
+            }
+            
+            // 读取体验完成状态字段
+            Object trialCompletedObj = record.get(field("trial_completed"));
+            if (trialCompletedObj != null) {
+                if (trialCompletedObj instanceof Boolean) {
+                    history.setTrialCompleted((Boolean) trialCompletedObj);
+                } else if (trialCompletedObj instanceof Number) {
+                    history.setTrialCompleted(((Number) trialCompletedObj).intValue() == 1);
+                }
+            }
+            
+            return history;
+        });
     }
 
     public List<CustomerStatusHistory> findByCustomerId(Long customerId) {
@@ -0,0 +1,308 @@
+package com.timetable.repository;
+
+import com.timetable.dto.StudentHoursAggregate;
+import com.timetable.entity.LessonHoursLedgerFailedSlice;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 课时台账（lesson_hours_ledger）数据访问
+ * 台账按 课表 + 日期 + 学员 保存已完成课时，口径与"我的课时"一致：
+ * schedules 中有具体日期的课程 + 未请假、未取消的周实例课程，且课程开始时间已过；缺少时间的课程按60分钟计
+ */
+@Repository
+public class LessonHoursLedgerRepository {
+
+    // 失败原因最多保存的字符数
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    // 失败区间的匹配条件：开始、结束日期可能为空，使用 NULL 安全的比较
+    private static final String FAILED_SLICE_MATCH = "timetable_id = ? AND from_date <=> ? AND to_date <=> ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final RowMapper<LessonHoursLedgerFailedSlice> failedSliceRowMapper = (rs, rowNum) -> {
+        LessonHoursLedgerFailedSlice slice = new LessonHoursLedgerFailedSlice();
+        slice.setId(rs.getLong("id"));
+        slice.setTimetableId(rs.getLong("timetable_id"));
+        Date fromDate = rs.getDate("from_date");
+        slice.setFromDate(fromDate != null ? fromDate.toLocalDate() : null);
+        Date toDate = rs.getDate("to_date");
+        slice.setToDate(toDate != null ? toDate.toLocalDate() : null);
+        slice.setAttempts(rs.getInt("attempts"));
+        slice.setLastError(rs.getString("last_error"));
+        slice.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        slice.setUpdatedAt(rs.getTimestamp("updated_at").toLocalDateTime());
+        return slice;
+    };
+
+    private static String minutesSql(String alias) {
+        return "CASE WHEN " + alias + ".start_time IS NULL OR " + alias + ".end_time IS NULL THEN 60" +
+                " ELSE TIME_TO_SEC(TIMEDIFF(" + alias + ".end_time, " + alias + ".start_time)) DIV 60 END";
+    }
+
+    /**
+     * 日期范围 + 已完成条件：今天之前的课程全部计入，今天的课程仅计入开始时间已过的
+     */
+    private static String completedWindowSql(String alias, boolean hasFrom) {
+        return (hasFrom ? " AND " + alias + ".schedule_date >= ?" : "") +
+                " AND " + alias + ".schedule_date <= ?" +
+                " AND (" + alias + ".schedule_date < ? OR " + alias + ".start_time <= ?)";
+    }
+
+    /**
+     * 重新计算指定课表在 [from, to] 内的台账（from 为空表示不限开始日期），to 不晚于今天
+     * 先删除区间内的旧记录，再按学员重新聚合写入；课程全部删除后对应台账记录随之清除
+     */
+    public int rebuild(Long timetableId, LocalDate from, LocalDate to) {
+        LocalDate today = LocalDate.now();
+        LocalTime now = LocalTime.now();
+        if (to == null || to.isAfter(today)) {
+            to = today;
+        }
+        if (from != null && from.isAfter(to)) {
+            return 0;
+        }
+        boolean hasFrom = from != null;
+
+        List<Object> deleteParams = new ArrayList<>();
+        deleteParams.add(timetableId);
+        if (hasFrom) {
+            deleteParams.add(Date.valueOf(from));
+        }
+        deleteParams.add(Date.valueOf(to));
+        jdbcTemplate.update("DELETE FROM lesson_hours_ledger WHERE timetable_id = ?" +
+                (hasFrom ? " AND lesson_date >= ?" : "") + " AND lesson_date <= ?", deleteParams.toArray());
+
+        String sql = "INSERT INTO lesson_hours_ledger (timetable_id, lesson_date, student_name, completed_minutes, lesson_count) " +
+                "SELECT timetable_id, lesson_date, student_name, SUM(minutes), COUNT(*) FROM (" +
+                " SELECT s.timetable_id AS timetable_id, s.schedule_date AS lesson_date," +
+                " COALESCE(TRIM(s.student_name), '') AS student_name, " + minutesSql("s") + " AS minutes" +
+                " FROM schedules s" +
+                " WHERE s.timetable_id = ? AND s.schedule_date IS NOT NULL" + completedWindowSql("s", hasFrom) +
+                " UNION ALL" +
+                " SELECT wi.template_timetable_id AS timetable_id, wis.schedule_date AS lesson_date," +
+                " COALESCE(TRIM(wis.student_name), '') AS student_name, " + minutesSql("wis") + " AS minutes" +
+                " FROM weekly_instance_schedules wis" +
+                " JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id" +
+                " WHERE wi.template_timetable_id = ?" +
+                " AND (wis.is_on_leave IS NULL OR wis.is_on_leave = 0)" +
+                " AND (wis.is_cancelled IS NULL OR wis.is_cancelled = 0)" + completedWindowSql("wis", hasFrom) +
+                ") completed GROUP BY timetable_id, lesson_date, student_name " +
+                "ON DUPLICATE KEY UPDATE completed_minutes = VALUES(completed_minutes), lesson_count = VALUES(lesson_count)";
+
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            params.add(timetableId);
+            if (hasFrom) {
+                params.add(Date.valueOf(from));
+            }
+            params.add(Date.valueOf(to));
+            params.add(Date.valueOf(today));
+            params.add(Time.valueOf(now));
+        }
+        return jdbcTemplate.update(sql, params.toArray());
+    }
+
+    /**
+     * 查找指定日期开始时间落在 (after, upTo] 内的课程所属课表（after 为空表示当天全部课程）
+     * 定时任务据此补记刚开始的课程
+     */
+    public List<Long> findTimetableIdsWithLessonsStarting(LocalDate date, LocalTime after, LocalTime upTo) {
+        String startSql = (after != null ? " AND %1$s.start_time > ?" : "") + " AND %1$s.start_time <= ?";
+        String sql = "SELECT s.timetable_id FROM schedules s WHERE s.schedule_date = ?" + String.format(startSql, "s") +
+                " UNION" +
+                " SELECT wi.template_timetable_id FROM weekly_instance_schedules wis" +
+                " JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id" +
+                " WHERE wis.schedule_date = ?" + String.format(startSql, "wis");
+
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            params.add(Date.valueOf(date));
+            if (after != null) {
+                params.add(Time.valueOf(after));
+            }
+            params.add(Time.valueOf(upTo));
+        }
+        return jdbcTemplate.queryForList(sql, Long.class, params.toArray());
+    }
+
+    /**
+     * 查找指定日期已有台账记录的课表（课程已全部删除时，对账据此清除残留记录）
+     */
+    public List<Long> findTimetableIdsWithLedger(LocalDate date) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT timetable_id FROM lesson_hours_ledger WHERE lesson_date = ?",
+                Long.class, Date.valueOf(date));
+    }
+
+    /**
+     * 按学员汇总教练在日期范围内的已完成课时（未删除的课表；organizationId 为空时不限机构）
+     * 返回的学员名为原始名称，学员操作规则由调用方应用
+     */
+    public List<StudentHoursAggregate> sumByStudent(Long coachId, Long organizationId, LocalDate start, LocalDate end) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT l.student_name, SUM(l.completed_minutes) AS total_minutes, SUM(l.lesson_count) AS lesson_count" +
+                " FROM lesson_hours_ledger l" +
+                " JOIN timetables t ON l.timetable_id = t.id" +
+                " WHERE t.user_id = ? AND (t.is_deleted IS NULL OR t.is_deleted = 0)");
+        List<Object> params = new ArrayList<>();
+        params.add(coachId);
+        if (organizationId != null) {
+            sql.append(" AND t.organization_id = ?");
+            params.add(organizationId);
+        }
+        if (start != null) {
+            sql.append(" AND l.lesson_date >= ?");
+            params.add(Date.valueOf(start));
+        }
+        if (end != null) {
+            sql.append(" AND l.lesson_date <= ?");
+            params.add(Date.valueOf(end));
+        }
+        sql.append(" GROUP BY l.student_name");
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new StudentHoursAggregate(
+                coachId,
+                rs.getString("student_name"),
+                rs.getLong("total_minutes"),
+                null,
+                rs.getInt("lesson_count")), params.toArray());
+    }
+
+    /**
+     * 直接从课程表按学员汇总教练今天已开始的课程（未删除的课表；organizationId 为空时不限机构）
+     * 计算口径与 rebuild 一致，用于补上台账尚未补记的今日课程
+     */
+    public List<StudentHoursAggregate> sumTodayByStudent(Long coachId, Long organizationId) {
+        LocalDate today = LocalDate.now();
+        LocalTime now = LocalTime.now();
+        String orgFilter = organizationId != null ? " AND t.organization_id = ?" : "";
+        String sql = "SELECT student_name, SUM(minutes) AS total_minutes, COUNT(*) AS lesson_count FROM (" +
+                " SELECT COALESCE(TRIM(s.student_name), '') AS student_name, " + minutesSql("s") + " AS minutes" +
+                " FROM schedules s" +
+                " JOIN timetables t ON s.timetable_id = t.id" +
+                " WHERE t.user_id = ? AND (t.is_deleted IS NULL OR t.is_deleted = 0)" + orgFilter +
+                " AND s.schedule_date = ? AND s.start_time <= ?" +
+                " UNION ALL" +
+                " SELECT COALESCE(TRIM(wis.student_name), '') AS student_name, " + minutesSql("wis") + " AS minutes" +
+                " FROM weekly_instance_schedules wis" +
+                " JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id" +
+                " JOIN timetables t ON wi.template_timetable_id = t.id" +
+                " WHERE t.user_id = ? AND (t.is_deleted IS NULL OR t.is_deleted = 0)" + orgFilter +
+                " AND (wis.is_on_leave IS NULL OR wis.is_on_leave = 0)" +
+                " AND (wis.is_cancelled IS NULL OR wis.is_cancelled = 0)" +
+                " AND wis.schedule_date = ? AND wis.start_time <= ?" +
+                ") today GROUP BY student_name";
+
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            params.add(coachId);
+            if (organizationId != null) {
+                params.add(organizationId);
+            }
+            params.add(Date.valueOf(today));
+            params.add(Time.valueOf(now));
+        }
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new StudentHoursAggregate(
+                coachId,
+                rs.getString("student_name"),
+                rs.getLong("total_minutes"),
+                null,
+                rs.getInt("lesson_count")), params.toArray());
+    }
+
+    /**
+     * 按 教练 + 学员 一次性汇总多个教练在日期范围内的已完成课时（工资批量计算使用）
+     * 返回的学员名为原始名称，学员操作规则由调用方按教练分别应用
+     */
+    public List<StudentHoursAggregate> sumByCoachAndStudent(Collection<Long> coachIds, Long organizationId,
+                                                            LocalDate start, LocalDate end) {
+        if (coachIds == null || coachIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        StringBuilder sql = new StringBuilder(
+                "SELECT t.user_id, l.student_name, SUM(l.completed_minutes) AS total_minutes, SUM(l.lesson_count) AS lesson_count" +
+                " FROM lesson_hours_ledger l" +
+                " JOIN timetables t ON l.timetable_id = t.id" +
+                " WHERE t.user_id IN (" + String.join(",", Collections.nCopies(coachIds.size(), "?")) + ")" +
+                " AND (t.is_deleted IS NULL OR t.is_deleted = 0)");
+        List<Object> params = new ArrayList<>(coachIds);
+        if (organizationId != null) {
+            sql.append(" AND t.organization_id = ?");
+            params.add(organizationId);
+        }
+        if (start != null) {
+            sql.append(" AND l.lesson_date >= ?");
+            params.add(Date.valueOf(start));
+        }
+        if (end != null) {
+            sql.append(" AND l.lesson_date <= ?");
+            params.add(Date.valueOf(end));
+        }
+        sql.append(" GROUP BY t.user_id, l.student_name");
+
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> new StudentHoursAggregate(
+                rs.getLong("user_id"),
+                rs.getString("student_name"),
+                rs.getLong("total_minutes"),
+                null,
+                rs.getInt("lesson_count")), params.toArray());
+    }
+
+    /**
+     * 记录刷新失败的区间：已有相同区间时累加失败次数，否则新增一行
+     */
+    public void saveFailedSlice(Long timetableId, LocalDate from, LocalDate to, String error) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int updated = jdbcTemplate.update("UPDATE lesson_hours_ledger_failed_slices" +
+                        " SET attempts = attempts + 1, last_error = ?, updated_at = ? WHERE " + FAILED_SLICE_MATCH,
+                truncate(error), now, timetableId, toSqlDate(from), toSqlDate(to));
+        if (updated == 0) {
+            jdbcTemplate.update("INSERT INTO lesson_hours_ledger_failed_slices" +
+                            " (timetable_id, from_date, to_date, attempts, last_error, created_at, updated_at)" +
+                            " VALUES (?, ?, ?, 1, ?, ?, ?)",
+                    timetableId, toSqlDate(from), toSqlDate(to), truncate(error), now, now);
+        }
+    }
+
+    /**
+     * 按失败先后读取最多 limit 个待重试的区间
+     */
+    public List<LessonHoursLedgerFailedSlice> findFailedSlices(int limit) {
+        return jdbcTemplate.query("SELECT * FROM lesson_hours_ledger_failed_slices ORDER BY id LIMIT ?",
+                failedSliceRowMapper, limit);
+    }
+
+    /**
+     * 区间刷新成功后删除其失败记录
+     */
+    public int deleteFailedSlice(Long timetableId, LocalDate from, LocalDate to) {
+        return jdbcTemplate.update("DELETE FROM lesson_hours_ledger_failed_slices WHERE " + FAILED_SLICE_MATCH,
+                timetableId, toSqlDate(from), toSqlDate(to));
+    }
+
+    private static Date toSqlDate(LocalDate date) {
+        return date != null ? Date.valueOf(date) : null;
+    }
+
+    private static String truncate(String error) {
+        if (error == null || error.length() <= MAX_ERROR_LENGTH) {
+            return error;
+        }
+        return error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
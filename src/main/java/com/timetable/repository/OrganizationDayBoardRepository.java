@@ -0,0 +1,144 @@
+package com.timetable.repository;
+
+import com.timetable.dto.DayBoardLesson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 机构日课表看板查询
+ * 一次查询返回机构所有活动课表（未删除、未归档）在指定日期的课程，并带出课表名称和所有者信息：
+ * - 周固定课表且存在该日期所在周的实例：实例中该日期未取消的课程，已取消的体验课不显示
+ * - 周固定课表但没有该周实例：允许投影时取模板中该星期的课程
+ * - 日期范围课表：该日期的课程
+ * 周固定课表同一课表内学员、开始时间、结束时间相同的课程在SQL中去重，只有全部重复课程都请假时才显示为请假
+ */
+@Repository
+public class OrganizationDayBoardRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 与 WeeklyInstanceService.calculateScheduleDate 支持的星期写法一致（比较时转大写并去空格）
+    private static final Map<DayOfWeek, List<String>> DAY_OF_WEEK_ALIASES = new EnumMap<>(DayOfWeek.class);
+
+    static {
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.MONDAY, Arrays.asList("1", "MONDAY", "星期一", "周一", "一"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.TUESDAY, Arrays.asList("2", "TUESDAY", "星期二", "周二", "二"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.WEDNESDAY, Arrays.asList("3", "WEDNESDAY", "星期三", "周三", "三"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.THURSDAY, Arrays.asList("4", "THURSDAY", "星期四", "周四", "四"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.FRIDAY, Arrays.asList("5", "FRIDAY", "星期五", "周五", "五"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.SATURDAY, Arrays.asList("6", "SATURDAY", "星期六", "周六", "六"));
+        DAY_OF_WEEK_ALIASES.put(DayOfWeek.SUNDAY, Arrays.asList("7", "SUNDAY", "星期日", "星期天", "周日", "日", "天"));
+    }
+
+    // 参数：机构ID
+    private static final String ACTIVE_TIMETABLE =
+            " JOIN timetables t ON t.id = %s AND t.organization_id = ? AND t.is_active = 1" +
+            " AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+            " AND (t.is_archived IS NULL OR t.is_archived = 0)";
+
+    // 参数：机构ID、年周、日期、日期
+    private static final String INSTANCE_LESSONS =
+            "SELECT wi.template_timetable_id AS timetable_id, wis.student_name, wis.start_time, wis.end_time," +
+            " MIN(wis.is_on_leave) AS is_on_leave" +
+            " FROM weekly_instances wi" +
+            String.format(ACTIVE_TIMETABLE, "wi.template_timetable_id") + " AND t.is_weekly = 1" +
+            " JOIN weekly_instance_schedules wis ON wis.weekly_instance_id = wi.id" +
+            " WHERE wi.year_week = ? AND wis.schedule_date = ?" +
+            " AND (wis.is_cancelled IS NULL OR wis.is_cancelled = FALSE)" +
+            " AND (wis.is_trial IS NULL OR wis.is_trial <> 1 OR EXISTS (" +
+            "SELECT 1 FROM customer_status_history h WHERE h.trial_student_name = wis.student_name" +
+            " AND h.trial_schedule_date = ? AND h.trial_start_time = wis.start_time AND h.trial_end_time = wis.end_time" +
+            " AND (h.trial_cancelled IS NULL OR h.trial_cancelled = FALSE)))" +
+            " GROUP BY wi.template_timetable_id, wis.student_name, wis.start_time, wis.end_time";
+
+    // 参数：机构ID、星期写法（IN 列表）、年周
+    private static final String TEMPLATE_LESSONS =
+            "SELECT s.timetable_id, s.student_name, s.start_time, s.end_time, NULL AS is_on_leave" +
+            " FROM schedules s" +
+            String.format(ACTIVE_TIMETABLE, "s.timetable_id") + " AND t.is_weekly = 1" +
+            " WHERE s.schedule_date IS NULL AND UPPER(TRIM(s.day_of_week)) IN (%s)" +
+            " AND NOT EXISTS (SELECT 1 FROM weekly_instances wi" +
+            " WHERE wi.template_timetable_id = s.timetable_id AND wi.year_week = ?)" +
+            " GROUP BY s.timetable_id, s.student_name, s.start_time, s.end_time";
+
+    // 参数：机构ID、日期
+    private static final String DATED_LESSONS =
+            "SELECT s.timetable_id, s.student_name, s.start_time, s.end_time, NULL AS is_on_leave" +
+            " FROM schedules s" +
+            String.format(ACTIVE_TIMETABLE, "s.timetable_id") + " AND (t.is_weekly IS NULL OR t.is_weekly <> 1)" +
+            " WHERE s.schedule_date = ?";
+
+    private static final RowMapper<DayBoardLesson> LESSON_ROW_MAPPER = (rs, rowNum) -> {
+        DayBoardLesson lesson = new DayBoardLesson();
+        lesson.setTimetableId(rs.getLong("timetable_id"));
+        lesson.setTimetableName(rs.getString("timetable_name"));
+        byte isWeekly = rs.getByte("is_weekly");
+        lesson.setIsWeekly(rs.wasNull() ? null : isWeekly);
+        lesson.setOwnerUsername(rs.getString("username"));
+        lesson.setOwnerNickname(rs.getString("nickname"));
+        lesson.setOwnerRole(rs.getString("role"));
+        lesson.setStudentName(rs.getString("student_name"));
+        Time startTime = rs.getTime("start_time");
+        lesson.setStartTime(startTime != null ? startTime.toLocalTime() : null);
+        Time endTime = rs.getTime("end_time");
+        lesson.setEndTime(endTime != null ? endTime.toLocalTime() : null);
+        boolean isOnLeave = rs.getBoolean("is_on_leave");
+        lesson.setIsOnLeave(rs.wasNull() ? null : isOnLeave);
+        return lesson;
+    };
+
+    /**
+     * 机构在指定日期的全部课程（一次查询），按课表、开始时间排序
+     * @param yearWeek 日期所在周的年周标识，与 weekly_instances.year_week 一致
+     * @param includeTemplate 没有该周实例的周固定课表是否由模板投影
+     */
+    public List<DayBoardLesson> findLessonsByDate(Long organizationId, String yearWeek, LocalDate date,
+                                                 boolean includeTemplate) {
+        if (organizationId == null) {
+            return Collections.emptyList();
+        }
+        Date sqlDate = Date.valueOf(date);
+        List<Object> params = new ArrayList<>();
+        StringBuilder lessons = new StringBuilder(INSTANCE_LESSONS);
+        params.add(organizationId);
+        params.add(yearWeek);
+        params.add(sqlDate);
+        params.add(sqlDate);
+
+        if (includeTemplate) {
+            List<String> aliases = DAY_OF_WEEK_ALIASES.get(date.getDayOfWeek());
+            String placeholders = aliases.stream().map(alias -> "?").collect(Collectors.joining(","));
+            lessons.append(" UNION ALL ").append(String.format(TEMPLATE_LESSONS, placeholders));
+            params.add(organizationId);
+            params.addAll(aliases);
+            params.add(yearWeek);
+        }
+
+        lessons.append(" UNION ALL ").append(DATED_LESSONS);
+        params.add(organizationId);
+        params.add(sqlDate);
+
+        String sql = "SELECT l.timetable_id, t.name AS timetable_name, t.is_weekly," +
+                " u.username, u.nickname, u.role, l.student_name, l.start_time, l.end_time, l.is_on_leave" +
+                " FROM (" + lessons + ") l" +
+                " JOIN timetables t ON t.id = l.timetable_id" +
+                " LEFT JOIN users u ON u.id = t.user_id" +
+                " ORDER BY l.timetable_id, l.start_time, l.end_time, l.student_name";
+        return jdbcTemplate.query(sql, LESSON_ROW_MAPPER, params.toArray());
+    }
+}
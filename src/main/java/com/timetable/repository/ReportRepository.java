@@ -1,15 +1,21 @@
 package com.timetable.repository;
 
 import com.timetable.generated.tables.pojos.Schedules;
+import com.timetable.dto.ReportCursor;
 import com.timetable.dto.ScheduleWithCoachDTO;
 import org.jooq.DSLContext;
 import org.jooq.Condition;
+import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Result;
+import org.jooq.SortField;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -23,54 +29,59 @@ public class ReportRepository {
     @Autowired
     private DSLContext dsl;
 
+    private static final Field<Long> WIS_ID = field(name("weekly_instance_schedules", "id"), Long.class);
+    private static final Field<String> WIS_STUDENT_NAME = field(name("weekly_instance_schedules", "student_name"), String.class);
+    private static final Field<LocalDate> WIS_SCHEDULE_DATE = field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class);
+    private static final Field<LocalTime> WIS_START_TIME = field(name("weekly_instance_schedules", "start_time"), LocalTime.class);
+
     /**
-     * 分页查询指定用户（教练）所有课表下的课程记录
-     * 包括有具体日期的课程和固定课表模板（需要根据day_of_week推算日期）
+     * 分页查询指定用户（教练）所有课表下的课程记录（数据库分页）
+     * excludedStudentNames 为按学员操作规则应被过滤的原始学员名（去除首尾空格），在SQL中排除以保证分页与总数准确
+     * 多取一条记录（最多 size + 1 条），调用方据此判断是否还有下一页
      */
-    public List<ScheduleWithCoachDTO> querySchedulesByUserPaged(Long userId, Long organizationId, LocalDate start, LocalDate end, int page, int size, String sortOrder) {
-        // 1) 固定课表（schedules）中有具体日期的记录
-        LocalDate today = LocalDate.now();
-        java.time.LocalTime now = java.time.LocalTime.now();
-        Condition baseCond = TIMETABLES.USER_ID.eq(userId)
-                .and(SCHEDULES.TIMETABLE_ID.eq(TIMETABLES.ID))
-                .and(TIMETABLES.IS_DELETED.isNull().or(TIMETABLES.IS_DELETED.eq((byte)0)))
-                .and(SCHEDULES.SCHEDULE_DATE.isNotNull())
-                .and(SCHEDULES.SCHEDULE_DATE.lt(today) // 昨天及之前的记录
-                        .or(SCHEDULES.SCHEDULE_DATE.eq(today).and(SCHEDULES.START_TIME.le(now)))); // 或者今天的已过时间记录
-        
-        // 添加机构ID过滤（如果提供了organizationId）
-        if (organizationId != null) {
-            baseCond = baseCond.and(TIMETABLES.ORGANIZATION_ID.eq(organizationId));
+    public List<ScheduleWithCoachDTO> querySchedulesByUserPaged(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                                                Collection<String> excludedStudentNames, int page, int size, String sortOrder) {
+        return querySchedulesByUser(userId, organizationId, start, end, excludedStudentNames, null, (page - 1) * size, plusOne(size), sortOrder);
+    }
+
+    /**
+     * 基于游标查询指定用户（教练）的课程记录：返回排在 cursor 之后的 size 条记录（cursor 为空表示第一页）
+     * 排序键为 (schedule_date, start_time, 来源, id)，每张表内先按游标过滤并限制条数，翻页开销与历史数据量无关
+     * 与按页码查询一样多取一条记录（最多 size + 1 条）
+     */
+    public List<ScheduleWithCoachDTO> querySchedulesByUserAfter(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                                                Collection<String> excludedStudentNames, ReportCursor cursor, int size, String sortOrder) {
+        return querySchedulesByUser(userId, organizationId, start, end, excludedStudentNames, cursor, 0, plusOne(size), sortOrder);
+    }
+
+    private static int plusOne(int size) {
+        return size < Integer.MAX_VALUE ? size + 1 : size;
+    }
+
+    private List<ScheduleWithCoachDTO> querySchedulesByUser(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                                            Collection<String> excludedStudentNames, ReportCursor cursor,
+                                                            int offset, int size, String sortOrder) {
+        boolean ascending = "asc".equalsIgnoreCase(sortOrder);
+        // 每个分支最多需要 offset + size 条记录即可拼出目标页
+        int branchLimit = (int) Math.min((long) offset + size, Integer.MAX_VALUE);
+
+        // 1) schedules 中有具体日期的记录
+        // 注意：固定课表模板（只有day_of_week的记录）不应该出现在"我的课时"中，因为它们是模板，不是实际的课时记录
+        Condition baseCond = scheduleCondition(userId, organizationId, start, end, excludedStudentNames);
+        if (cursor != null) {
+            baseCond = baseCond.and(afterCursor(SCHEDULES.SCHEDULE_DATE, SCHEDULES.START_TIME, SCHEDULES.ID,
+                    ReportCursor.SOURCE_SCHEDULE, cursor, ascending));
         }
-        
-        if (start != null) baseCond = baseCond.and(SCHEDULES.SCHEDULE_DATE.ge(start));
-        if (end != null) baseCond = baseCond.and(SCHEDULES.SCHEDULE_DATE.le(end));
-        
-        // 注意：固定课表模板（只有day_of_week的记录）不应该出现在"我的课时"中
-        // 因为它们是模板，不是实际的课时记录
 
         // 2) 周实例（weekly_instance_schedules）中的记录
         // 表结构：
         // weekly_instance_schedules.weekly_instance_id -> weekly_instances.id
         // weekly_instances.template_timetable_id -> timetables.id
-        Condition instCond = field(name("timetables", "user_id"), Long.class).eq(userId)
-                .and(field(name("timetables", "is_deleted"), Byte.class).isNull()
-                        .or(field(name("timetables", "is_deleted"), Byte.class).eq((byte)0)))
-                .and(field(name("weekly_instance_schedules", "is_on_leave"), Boolean.class).isNull()
-                        .or(field(name("weekly_instance_schedules", "is_on_leave"), Boolean.class).eq(false)))
-                .and(field(name("weekly_instance_schedules", "is_cancelled"), Boolean.class).isNull()
-                        .or(field(name("weekly_instance_schedules", "is_cancelled"), Boolean.class).eq(false)))
-                .and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).lt(today) // 昨天及之前的记录
-                        .or(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).eq(today)
-                                .and(field(name("weekly_instance_schedules", "start_time"), java.time.LocalTime.class).le(now)))); // 或者今天的已过时间记录
-        
-        // 添加机构ID过滤（如果提供了organizationId）
-        if (organizationId != null) {
-            instCond = instCond.and(field(name("timetables", "organization_id"), Long.class).eq(organizationId));
+        Condition instCond = instanceCondition(userId, organizationId, start, end, excludedStudentNames);
+        if (cursor != null) {
+            instCond = instCond.and(afterCursor(WIS_SCHEDULE_DATE, WIS_START_TIME, WIS_ID,
+                    ReportCursor.SOURCE_WEEKLY_INSTANCE, cursor, ascending));
         }
-        
-        if (start != null) instCond = instCond.and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).ge(start));
-        if (end != null) instCond = instCond.and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).le(end));
 
         // 统一选择与 SCHEDULES 表一致的列顺序/别名，方便映射到 pojo
         org.jooq.Select<? extends Record> selectTemplate = dsl
@@ -87,56 +98,45 @@ public class ReportRepository {
                         SCHEDULES.CREATED_AT.as("created_at"),
                         SCHEDULES.UPDATED_AT.as("updated_at"),
                         // 添加教练信息
-                        field(name("users", "nickname"), String.class).as("coach_name")
+                        field(name("users", "nickname"), String.class).as("coach_name"),
+                        inline(ReportCursor.SOURCE_SCHEDULE).as("source")
                 )
                 .from(SCHEDULES.join(TIMETABLES).on(SCHEDULES.TIMETABLE_ID.eq(TIMETABLES.ID))
                         .join(table("users")).on(TIMETABLES.USER_ID.eq(field(name("users", "id"), Long.class))))
-                .where(baseCond);
-                
-        // 移除了固定课表模板查询，因为它们不应该出现在"我的课时"中
+                .where(baseCond)
+                .orderBy(branchSort(SCHEDULES.SCHEDULE_DATE, SCHEDULES.START_TIME, SCHEDULES.ID, ascending))
+                .limit(branchLimit);
 
         org.jooq.Select<? extends Record> selectInstance = dsl
                 .select(
-                        field(name("weekly_instance_schedules", "id")).as("id"),
+                        WIS_ID.as("id"),
                         // 这里用模板课表ID当作 timetable_id 以保持含义一致
                         field(name("weekly_instances", "template_timetable_id"), Long.class).as("timetable_id"),
-                        field(name("weekly_instance_schedules", "student_name"), String.class).as("student_name"),
+                        WIS_STUDENT_NAME.as("student_name"),
                         field(name("weekly_instance_schedules", "subject"), String.class).as("subject"),
                         field(name("weekly_instance_schedules", "day_of_week"), String.class).as("day_of_week"),
-                        field(name("weekly_instance_schedules", "start_time")),
+                        WIS_START_TIME.as("start_time"),
                         field(name("weekly_instance_schedules", "end_time")),
-                        field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).as("schedule_date"),
+                        WIS_SCHEDULE_DATE.as("schedule_date"),
                         field(name("weekly_instance_schedules", "note"), String.class).as("note"),
                         field(name("weekly_instance_schedules", "created_at")),
                         field(name("weekly_instance_schedules", "updated_at")),
                         // 添加教练信息
-                        field(name("users", "nickname"), String.class).as("coach_name")
+                        field(name("users", "nickname"), String.class).as("coach_name"),
+                        inline(ReportCursor.SOURCE_WEEKLY_INSTANCE).as("source")
                 )
                 .from(table("weekly_instance_schedules"))
                 .join(table("weekly_instances")).on(field(name("weekly_instance_schedules", "weekly_instance_id")).eq(field(name("weekly_instances", "id"))))
                 .join(table("timetables")).on(field(name("weekly_instances", "template_timetable_id")).eq(field(name("timetables", "id"))))
                 .join(table("users")).on(field(name("timetables", "user_id"), Long.class).eq(field(name("users", "id"), Long.class)))
-                .where(instCond);
-
-        int offset = (page - 1) * size;
-
-        // 根据sortOrder参数决定排序方向
-        org.jooq.SortField<?> dateSortField;
-        org.jooq.SortField<?> timeSortField;
-        
-        if ("asc".equalsIgnoreCase(sortOrder)) {
-            // 正序：日期从早到晚，时间从早到晚
-            dateSortField = field(name("schedule_date")).asc().nullsFirst();
-            timeSortField = field(name("start_time")).asc();
-        } else {
-            // 倒序：日期从晚到早，时间从晚到早（默认）
-            dateSortField = field(name("schedule_date")).desc().nullsLast();
-            timeSortField = field(name("start_time")).desc();
-        }
-        
+                .where(instCond)
+                .orderBy(branchSort(WIS_SCHEDULE_DATE, WIS_START_TIME, WIS_ID, ascending))
+                .limit(branchLimit);
+
         Result<Record> unionResult = dsl
-                .selectFrom(selectTemplate.unionAll((org.jooq.Select)selectInstance).asTable("all_schedules"))
-                .orderBy(dateSortField, timeSortField)
+                .selectFrom(selectTemplate.unionAll((org.jooq.Select) selectInstance).asTable("all_schedules"))
+                .orderBy(unionSort(field(name("schedule_date")), field(name("start_time")),
+                        field(name("source")), field(name("id")), ascending))
                 .limit(size)
                 .offset(offset)
                 .fetch();
@@ -149,58 +149,76 @@ public class ReportRepository {
             s.setStudentName(r.get("student_name", String.class));
             s.setSubject(r.get("subject", String.class));
             s.setDayOfWeek(r.get("day_of_week", String.class));
-            s.setStartTime(r.get("start_time", java.time.LocalTime.class));
-            s.setEndTime(r.get("end_time", java.time.LocalTime.class));
+            s.setStartTime(r.get("start_time", LocalTime.class));
+            s.setEndTime(r.get("end_time", LocalTime.class));
             s.setScheduleDate(r.get("schedule_date", LocalDate.class));
             s.setNote(r.get("note", String.class));
             s.setCreatedAt(r.get("created_at", java.time.LocalDateTime.class));
             s.setUpdatedAt(r.get("updated_at", java.time.LocalDateTime.class));
-            
-            // 过滤掉未来的记录（包括今天的未来时间）
-            LocalDate recordDate = s.getScheduleDate();
-            if (recordDate != null) {
-                if (recordDate.isAfter(today)) {
-                    continue; // 跳过未来日期的记录
-                } else if (recordDate.isEqual(today)) {
-                    // 如果是今天，还要检查时间是否已过
-                    java.time.LocalTime startTime = s.getStartTime();
-                    if (startTime != null && startTime.isAfter(now)) {
-                        continue; // 跳过今天未来时间的记录
-                    }
-                }
-            }
-            
+
             // 创建包含教练信息的DTO
             String coachName = r.get("coach_name", String.class);
             ScheduleWithCoachDTO dto = new ScheduleWithCoachDTO(s, coachName);
+            dto.setSourceType(r.get("source", Integer.class) == ReportCursor.SOURCE_WEEKLY_INSTANCE ? "weekly_instance" : "schedule");
             list.add(dto);
         }
         return list;
     }
 
     public long countSchedulesByUser(Long userId, Long organizationId, LocalDate start, LocalDate end) {
+        Condition baseCond = scheduleCondition(userId, organizationId, start, end, Collections.emptyList());
+        long templateCount = dsl.selectCount()
+                .from(SCHEDULES.join(TIMETABLES).on(SCHEDULES.TIMETABLE_ID.eq(TIMETABLES.ID)))
+                .where(baseCond)
+                .fetchOne(0, Long.class);
+
+        Condition instCond = instanceCondition(userId, organizationId, start, end, Collections.emptyList());
+        long instanceCount = dsl.selectCount()
+                .from(table("weekly_instance_schedules")
+                        .join(table("weekly_instances")).on(field(name("weekly_instance_schedules", "weekly_instance_id")).eq(field(name("weekly_instances", "id"))))
+                        .join(table("timetables")).on(field(name("weekly_instances", "template_timetable_id")).eq(field(name("timetables", "id")))) )
+                .where(instCond)
+                .fetchOne(0, Long.class);
+
+        return templateCount + instanceCount;
+    }
+
+    /**
+     * schedules 中已上课程的条件：有具体日期，昨天及之前的记录或今天已过开始时间的记录
+     */
+    private Condition scheduleCondition(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                        Collection<String> excludedStudentNames) {
         LocalDate today = LocalDate.now();
-        java.time.LocalTime now = java.time.LocalTime.now();
+        LocalTime now = LocalTime.now();
         Condition baseCond = TIMETABLES.USER_ID.eq(userId)
                 .and(SCHEDULES.TIMETABLE_ID.eq(TIMETABLES.ID))
                 .and(TIMETABLES.IS_DELETED.isNull().or(TIMETABLES.IS_DELETED.eq((byte)0)))
                 .and(SCHEDULES.SCHEDULE_DATE.isNotNull())
                 .and(SCHEDULES.SCHEDULE_DATE.lt(today) // 昨天及之前的记录
                         .or(SCHEDULES.SCHEDULE_DATE.eq(today).and(SCHEDULES.START_TIME.le(now)))); // 或者今天的已过时间记录
-        
+
         // 添加机构ID过滤（如果提供了organizationId）
         if (organizationId != null) {
             baseCond = baseCond.and(TIMETABLES.ORGANIZATION_ID.eq(organizationId));
         }
-        
+
         if (start != null) baseCond = baseCond.and(SCHEDULES.SCHEDULE_DATE.ge(start));
         if (end != null) baseCond = baseCond.and(SCHEDULES.SCHEDULE_DATE.le(end));
-        
-        long templateCount = dsl.selectCount()
-                .from(SCHEDULES.join(TIMETABLES).on(SCHEDULES.TIMETABLE_ID.eq(TIMETABLES.ID)))
-                .where(baseCond)
-                .fetchOne(0, Long.class);
+        if (!excludedStudentNames.isEmpty()) {
+            // 没有学员名称的课程不属于任何被排除的学员，NOT IN 对 NULL 为 UNKNOWN，需单独保留
+            baseCond = baseCond.and(SCHEDULES.STUDENT_NAME.isNull()
+                    .or(trim(SCHEDULES.STUDENT_NAME).notIn(excludedStudentNames)));
+        }
+        return baseCond;
+    }
 
+    /**
+     * 周实例中已上课程的条件：未请假、未取消，昨天及之前的记录或今天已过开始时间的记录
+     */
+    private Condition instanceCondition(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                        Collection<String> excludedStudentNames) {
+        LocalDate today = LocalDate.now();
+        LocalTime now = LocalTime.now();
         Condition instCond = field(name("timetables", "user_id"), Long.class).eq(userId)
                 .and(field(name("timetables", "is_deleted"), Byte.class).isNull()
                         .or(field(name("timetables", "is_deleted"), Byte.class).eq((byte)0)))
@@ -208,27 +226,54 @@ public class ReportRepository {
                         .or(field(name("weekly_instance_schedules", "is_on_leave"), Boolean.class).eq(false)))
                 .and(field(name("weekly_instance_schedules", "is_cancelled"), Boolean.class).isNull()
                         .or(field(name("weekly_instance_schedules", "is_cancelled"), Boolean.class).eq(false)))
-                .and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).lt(today) // 昨天及之前的记录
-                        .or(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).eq(today)
-                                .and(field(name("weekly_instance_schedules", "start_time"), java.time.LocalTime.class).le(now)))); // 或者今天的已过时间记录
-        
+                .and(WIS_SCHEDULE_DATE.lt(today) // 昨天及之前的记录
+                        .or(WIS_SCHEDULE_DATE.eq(today).and(WIS_START_TIME.le(now)))); // 或者今天的已过时间记录
+
         // 添加机构ID过滤（如果提供了organizationId）
         if (organizationId != null) {
             instCond = instCond.and(field(name("timetables", "organization_id"), Long.class).eq(organizationId));
         }
-        
-        if (start != null) instCond = instCond.and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).ge(start));
-        if (end != null) instCond = instCond.and(field(name("weekly_instance_schedules", "schedule_date"), LocalDate.class).le(end));
 
-        long instanceCount = dsl.selectCount()
-                .from(table("weekly_instance_schedules")
-                        .join(table("weekly_instances")).on(field(name("weekly_instance_schedules", "weekly_instance_id")).eq(field(name("weekly_instances", "id"))))
-                        .join(table("timetables")).on(field(name("weekly_instances", "template_timetable_id")).eq(field(name("timetables", "id")))) )
-                .where(instCond)
-                .fetchOne(0, Long.class);
+        if (start != null) instCond = instCond.and(WIS_SCHEDULE_DATE.ge(start));
+        if (end != null) instCond = instCond.and(WIS_SCHEDULE_DATE.le(end));
+        if (!excludedStudentNames.isEmpty()) {
+            instCond = instCond.and(WIS_STUDENT_NAME.isNull()
+                    .or(trim(WIS_STUDENT_NAME).notIn(excludedStudentNames)));
+        }
+        return instCond;
+    }
 
-        return templateCount + instanceCount;
+    /**
+     * 单张表内"排在游标之后"的条件。表内来源固定，因此与游标来源比较后可化简为行比较：
+     * 本表排在游标来源之后时，同一 (日期, 时间) 的记录全部在游标之后；排在之前时全部不在；相同时再比较ID
+     */
+    private static Condition afterCursor(Field<LocalDate> date, Field<LocalTime> time, Field<Long> id,
+                                         int source, ReportCursor cursor, boolean ascending) {
+        int sourceOrder = Integer.compare(source, cursor.getSource()) * (ascending ? 1 : -1);
+        if (sourceOrder == 0) {
+            return ascending
+                    ? row(date, time, id).gt(cursor.getScheduleDate(), cursor.getStartTime(), cursor.getId())
+                    : row(date, time, id).lt(cursor.getScheduleDate(), cursor.getStartTime(), cursor.getId());
+        }
+        if (sourceOrder > 0) {
+            return ascending
+                    ? row(date, time).ge(cursor.getScheduleDate(), cursor.getStartTime())
+                    : row(date, time).le(cursor.getScheduleDate(), cursor.getStartTime());
+        }
+        return ascending
+                ? row(date, time).gt(cursor.getScheduleDate(), cursor.getStartTime())
+                : row(date, time).lt(cursor.getScheduleDate(), cursor.getStartTime());
     }
-}
 
+    private static SortField<?>[] branchSort(Field<?> date, Field<?> time, Field<?> id, boolean ascending) {
+        return ascending
+                ? new SortField<?>[] { date.asc(), time.asc(), id.asc() }
+                : new SortField<?>[] { date.desc(), time.desc(), id.desc() };
+    }
 
+    private static SortField<?>[] unionSort(Field<?> date, Field<?> time, Field<?> source, Field<?> id, boolean ascending) {
+        return ascending
+                ? new SortField<?>[] { date.asc(), time.asc(), source.asc(), id.asc() }
+                : new SortField<?>[] { date.desc(), time.desc(), source.desc(), id.desc() };
+    }
+}
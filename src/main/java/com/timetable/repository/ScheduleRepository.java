@@ -5,6 +5,8 @@ import com.timetable.generated.tables.daos.SchedulesDao;
 import com.timetable.generated.tables.pojos.Schedules;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -57,6 +59,20 @@ public class ScheduleRepository {
                 .fetchInto(Schedules.class);
     }
 
+    /**
+     * 批量查找多个课表的模板课程（scheduleDate 为 null），一次查询
+     */
+    public List<Schedules> findTemplateSchedulesByTimetableIds(Collection<Long> timetableIds) {
+        if (timetableIds == null || timetableIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return dsl.selectFrom(SCHEDULES)
+                .where(SCHEDULES.TIMETABLE_ID.in(timetableIds))
+                .and(SCHEDULES.SCHEDULE_DATE.isNull())
+                .orderBy(SCHEDULES.TIMETABLE_ID, SCHEDULES.START_TIME)
+                .fetchInto(Schedules.class);
+    }
+
     public List<Schedules> findByTimetableIdAndWeekNumber(Long timetableId, Integer weekNumber) {
         return dsl.selectFrom(SCHEDULES)
                 .where(SCHEDULES.TIMETABLE_ID.eq(timetableId).and(SCHEDULES.WEEK_NUMBER.eq(weekNumber)))
@@ -0,0 +1,178 @@
+package com.timetable.repository;
+
+import com.timetable.dto.StudentTimelineLesson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 学员时间线查询
+ * 一次 UNION 查询同时读取周实例课程（weekly_instance_schedules，含请假、不含已取消）和日期类课表课程（schedules），
+ * 两个分支都以 student_name 索引定位学员，按 (上课日期, 开始时间, 来源, ID) 倒序返回已结束的课程。
+ * 分页时每个分支先各自排序并限制条数，再在外层合并，单次分页查询的开销与学员的历史记录总数无关
+ * （分配课时的大课来源需要读取完整历史，见 StudentTimelineService.assignedLessons）。
+ * 与原先逐条查询的学员记录口径一致：不返回已取消的周实例课程，也不返回已删除的日期类课表中的课程。
+ */
+@Repository
+public class StudentTimelineRepository {
+
+    private static final String UNKNOWN_COACH = "未知教练";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private static final String INSTANCE_LESSONS =
+            "SELECT " + StudentTimelineLesson.SOURCE_WEEKLY_INSTANCE + " AS source, wis.id, wi.template_timetable_id AS timetable_id," +
+            " t.name AS timetable_name, COALESCE(u.nickname, u.username, '" + UNKNOWN_COACH + "') AS coach_name," +
+            " wis.student_name, wis.schedule_date, wis.start_time, wis.end_time, wis.is_on_leave, wis.leave_reason" +
+            " FROM weekly_instance_schedules wis" +
+            " JOIN weekly_instances wi ON wi.id = wis.weekly_instance_id" +
+            " JOIN timetables t ON t.id = wi.template_timetable_id" +
+            " LEFT JOIN users u ON u.id = t.user_id" +
+            " WHERE wis.student_name IN (%s) AND wis.schedule_date IS NOT NULL" +
+            " AND (wis.is_cancelled IS NULL OR wis.is_cancelled = FALSE)";
+
+    private static final String DATED_LESSONS =
+            "SELECT " + StudentTimelineLesson.SOURCE_SCHEDULE + " AS source, s.id, s.timetable_id," +
+            " t.name AS timetable_name, COALESCE(u.nickname, u.username, '" + UNKNOWN_COACH + "') AS coach_name," +
+            " s.student_name, s.schedule_date, s.start_time, s.end_time, FALSE AS is_on_leave, NULL AS leave_reason" +
+            " FROM schedules s" +
+            " JOIN timetables t ON t.id = s.timetable_id AND (t.is_weekly IS NULL OR t.is_weekly <> 1)" +
+            " AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+            " LEFT JOIN users u ON u.id = t.user_id" +
+            " WHERE s.student_name IN (%s) AND s.schedule_date IS NOT NULL";
+
+    private static final RowMapper<StudentTimelineLesson> LESSON_ROW_MAPPER = (rs, rowNum) -> {
+        StudentTimelineLesson lesson = new StudentTimelineLesson();
+        lesson.setSource(rs.getInt("source"));
+        lesson.setId(rs.getLong("id"));
+        lesson.setTimetableId(rs.getLong("timetable_id"));
+        lesson.setTimetableName(rs.getString("timetable_name"));
+        lesson.setCoachName(rs.getString("coach_name"));
+        lesson.setStudentName(rs.getString("student_name"));
+        lesson.setScheduleDate(rs.getDate("schedule_date").toLocalDate());
+        Time startTime = rs.getTime("start_time");
+        lesson.setStartTime(startTime != null ? startTime.toLocalTime() : null);
+        Time endTime = rs.getTime("end_time");
+        lesson.setEndTime(endTime != null ? endTime.toLocalTime() : null);
+        lesson.setOnLeave(rs.getBoolean("is_on_leave"));
+        lesson.setLeaveReason(rs.getString("leave_reason"));
+        return lesson;
+    };
+
+    /**
+     * 查询学员已结束的课程（今天之前，或今天已过结束时间），按上课日期、开始时间倒序
+     * @param studentNames 学员在课程中记录的名称（精确匹配）
+     * @param organizationId 只查询该机构的课表，为空时不限机构
+     * @param coachName 只查询该教练（昵称，无昵称时为用户名）的课表，为空时不限教练
+     * @param includeLeaves 是否包含请假的周实例课程
+     * @param from 上课日期下限（包含），为空时不限
+     * @param before 上课日期上限（不包含），为空时不限
+     * @param limit 最多返回的条数，小于等于0时不限
+     */
+    public List<StudentTimelineLesson> findPastLessons(Collection<String> studentNames, Long organizationId, String coachName,
+                                                       boolean includeLeaves, LocalDate from, LocalDate before, int limit) {
+        if (studentNames == null || studentNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        LocalDate today = LocalDate.now();
+        Time now = Time.valueOf(LocalTime.now());
+        String placeholders = studentNames.stream().map(name -> "?").collect(Collectors.joining(","));
+
+        List<Object> params = new ArrayList<>();
+        StringBuilder instanceBranch = new StringBuilder(String.format(INSTANCE_LESSONS, placeholders));
+        params.addAll(studentNames);
+        if (!includeLeaves) {
+            instanceBranch.append(" AND (wis.is_on_leave IS NULL OR wis.is_on_leave = FALSE)");
+        }
+        appendFilters(instanceBranch, params, "wis", organizationId, coachName, today, now, from, before, limit);
+
+        StringBuilder datedBranch = new StringBuilder(String.format(DATED_LESSONS, placeholders));
+        params.addAll(studentNames);
+        appendFilters(datedBranch, params, "s", organizationId, coachName, today, now, from, before, limit);
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM ((")
+                .append(instanceBranch).append(") UNION ALL (").append(datedBranch).append(")) l")
+                .append(" ORDER BY l.schedule_date DESC, l.start_time DESC, l.source DESC, l.id DESC");
+        if (limit > 0) {
+            sql.append(" LIMIT ?");
+            params.add(limit);
+        }
+        return jdbcTemplate.query(sql.toString(), LESSON_ROW_MAPPER, params.toArray());
+    }
+
+    /**
+     * 学员所在课表的教练名称（不限日期，优先取周实例课程），找不到时返回 null
+     */
+    public String findCoachName(Collection<String> studentNames, Long organizationId) {
+        if (studentNames == null || studentNames.isEmpty()) {
+            return null;
+        }
+        String placeholders = studentNames.stream().map(name -> "?").collect(Collectors.joining(","));
+        String organizationFilter = organizationId != null ? " AND t.organization_id = ?" : "";
+
+        List<Object> params = new ArrayList<>(studentNames);
+        if (organizationId != null) {
+            params.add(organizationId);
+        }
+        params.addAll(studentNames);
+        if (organizationId != null) {
+            params.add(organizationId);
+        }
+
+        String sql = "SELECT COALESCE(u.nickname, u.username) AS coach_name FROM (" +
+                "(SELECT 0 AS priority, t.user_id FROM weekly_instance_schedules wis" +
+                " JOIN weekly_instances wi ON wi.id = wis.weekly_instance_id" +
+                " JOIN timetables t ON t.id = wi.template_timetable_id" +
+                " WHERE wis.student_name IN (" + placeholders + ")" + organizationFilter + " LIMIT 1)" +
+                " UNION ALL " +
+                "(SELECT 1 AS priority, t.user_id FROM schedules s" +
+                " JOIN timetables t ON t.id = s.timetable_id AND (t.is_weekly IS NULL OR t.is_weekly <> 1)" +
+                " AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+                " WHERE s.student_name IN (" + placeholders + ")" + organizationFilter + " LIMIT 1)" +
+                ") c JOIN users u ON u.id = c.user_id ORDER BY c.priority LIMIT 1";
+        List<String> names = jdbcTemplate.queryForList(sql, String.class, params.toArray());
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    private static void appendFilters(StringBuilder branch, List<Object> params, String alias, Long organizationId,
+                                      String coachName, LocalDate today, Time now, LocalDate from, LocalDate before, int limit) {
+        branch.append(" AND (").append(alias).append(".schedule_date < ? OR (").append(alias).append(".schedule_date = ?")
+                .append(" AND (").append(alias).append(".end_time IS NULL OR ").append(alias).append(".end_time <= ?)))");
+        params.add(Date.valueOf(today));
+        params.add(Date.valueOf(today));
+        params.add(now);
+        if (organizationId != null) {
+            branch.append(" AND t.organization_id = ?");
+            params.add(organizationId);
+        }
+        if (coachName != null) {
+            branch.append(" AND COALESCE(u.nickname, u.username, '").append(UNKNOWN_COACH).append("') = ?");
+            params.add(coachName);
+        }
+        if (from != null) {
+            branch.append(" AND ").append(alias).append(".schedule_date >= ?");
+            params.add(Date.valueOf(from));
+        }
+        if (before != null) {
+            branch.append(" AND ").append(alias).append(".schedule_date < ?");
+            params.add(Date.valueOf(before));
+        }
+        if (limit > 0) {
+            branch.append(" ORDER BY ").append(alias).append(".schedule_date DESC, ")
+                    .append(alias).append(".start_time DESC, ").append(alias).append(".id DESC LIMIT ?");
+            params.add(limit);
+        }
+    }
+}
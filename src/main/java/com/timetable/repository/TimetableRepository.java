@@ -2,6 +2,8 @@ package com.timetable.repository;
 
 import org.springframework.stereotype.Repository;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.impl.DSL;
 import com.timetable.generated.tables.pojos.Timetables;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.util.stream.Collectors;
@@ -18,6 +20,9 @@ import java.util.concurrent.atomic.AtomicLong;
 @Repository
 public class TimetableRepository {
     
+    // 模板版本号（V72 新增列，未包含在生成的表类中）
+    private static final Field<Long> TEMPLATE_VERSION = DSL.field(DSL.name("timetables", "template_version"), Long.class);
+
     @Autowired
     private DSLContext dsl;
     
@@ -74,6 +79,26 @@ public class TimetableRepository {
         }
     }
     
+    /**
+     * 模板课程变化后递增课表的模板版本号（原子自增，一条语句）
+     */
+    public void bumpTemplateVersion(Long timetableId) {
+        dsl.update(com.timetable.generated.tables.Timetables.TIMETABLES)
+                .set(TEMPLATE_VERSION, TEMPLATE_VERSION.plus(1L))
+                .where(com.timetable.generated.tables.Timetables.TIMETABLES.ID.eq(timetableId))
+                .execute();
+    }
+
+    /**
+     * 课表当前的模板版本号，课表不存在时返回 null
+     */
+    public Long findTemplateVersion(Long timetableId) {
+        return dsl.select(TEMPLATE_VERSION)
+                .from(com.timetable.generated.tables.Timetables.TIMETABLES)
+                .where(com.timetable.generated.tables.Timetables.TIMETABLES.ID.eq(timetableId))
+                .fetchOne(TEMPLATE_VERSION);
+    }
+
     /**
      * 删除课表
      */
@@ -116,6 +141,37 @@ public class TimetableRepository {
                 .fetchInto(com.timetable.generated.tables.pojos.Timetables.class);
     }
     
+    /**
+     * 查找所有活动、未删除、未归档的周固定课表（用于批量生成周实例）
+     */
+    public List<com.timetable.generated.tables.pojos.Timetables> findActiveWeeklyTimetables() {
+        return dsl.selectFrom(com.timetable.generated.tables.Timetables.TIMETABLES)
+                .where(com.timetable.generated.tables.Timetables.TIMETABLES.IS_WEEKLY.eq((byte) 1))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ACTIVE.eq((byte) 1))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_DELETED.isNull()
+                        .or(com.timetable.generated.tables.Timetables.TIMETABLES.IS_DELETED.eq((byte) 0)))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ARCHIVED.isNull()
+                        .or(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ARCHIVED.eq((byte) 0)))
+                .orderBy(com.timetable.generated.tables.Timetables.TIMETABLES.ORGANIZATION_ID,
+                        com.timetable.generated.tables.Timetables.TIMETABLES.ID)
+                .fetchInto(com.timetable.generated.tables.pojos.Timetables.class);
+    }
+
+    /**
+     * 查找机构内所有活动、未删除、未归档的课表
+     */
+    public List<com.timetable.generated.tables.pojos.Timetables> findActiveByOrganizationId(Long organizationId) {
+        return dsl.selectFrom(com.timetable.generated.tables.Timetables.TIMETABLES)
+                .where(com.timetable.generated.tables.Timetables.TIMETABLES.ORGANIZATION_ID.eq(organizationId))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ACTIVE.eq((byte) 1))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_DELETED.isNull()
+                        .or(com.timetable.generated.tables.Timetables.TIMETABLES.IS_DELETED.eq((byte) 0)))
+                .and(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ARCHIVED.isNull()
+                        .or(com.timetable.generated.tables.Timetables.TIMETABLES.IS_ARCHIVED.eq((byte) 0)))
+                .orderBy(com.timetable.generated.tables.Timetables.TIMETABLES.ID)
+                .fetchInto(com.timetable.generated.tables.pojos.Timetables.class);
+    }
+
     /**
      * 根据ID列表查找课表（过滤已软删除和已归档的）
      */
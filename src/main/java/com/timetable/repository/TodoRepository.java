@@ -2,13 +2,21 @@ package com.timetable.repository;
 
 import com.timetable.entity.Todo;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.timetable.generated.Tables.TODOS;
 import static com.timetable.generated.Tables.CUSTOMERS;
@@ -190,31 +198,31 @@ public class TodoRepository extends BaseRepository {
                 .fetchOneInto(Todo.class);
     }
     
-    public List<Todo> findLatestTodosByCustomerIdsAndOrganizationId(List<Long> customerIds, Long organizationId) {
+    /**
+     * 每个客户最新的一条未完成待办（一次查询）
+     * 在子查询中按客户分区、按创建时间倒序编号，只取每个分区的第一条
+     */
+    public List<Todo> findLatestTodosByCustomerIdsAndOrganizationId(Collection<Long> customerIds, Long organizationId) {
         if (customerIds == null || customerIds.isEmpty()) {
-            return new java.util.ArrayList<>();
+            return new ArrayList<>();
         }
-        
-        // 查询所有待办
-        List<Todo> allTodos = dsl.selectFrom(TODOS)
+
+        Field<Integer> rowNumber = DSL.rowNumber()
+                .over(DSL.partitionBy(TODOS.CUSTOMER_ID).orderBy(TODOS.CREATED_AT.desc(), TODOS.ID.desc()))
+                .as("rn");
+        Table<?> ranked = dsl.select(TODOS.asterisk(), rowNumber)
+                .from(TODOS)
                 .where(TODOS.CUSTOMER_ID.in(customerIds))
                 .and(TODOS.ORGANIZATION_ID.eq(organizationId))
                 .and(TODOS.DELETED.eq((byte) 0))
                 .and(TODOS.STATUS.ne("COMPLETED"))
                 .and(TODOS.STATUS.ne("CANCELLED"))
-                .orderBy(TODOS.CUSTOMER_ID.asc(), TODOS.CREATED_AT.desc())
+                .asTable("ranked");
+
+        return dsl.select(ranked.fields(TODOS.fields()))
+                .from(ranked)
+                .where(ranked.field(rowNumber).eq(1))
                 .fetchInto(Todo.class);
-        
-        // 按客户ID分组，每个客户只保留最新的一条
-        java.util.Map<Long, Todo> latestByCustomer = new java.util.HashMap<>();
-        for (Todo todo : allTodos) {
-            Long customerId = todo.getCustomerId();
-            if (customerId != null && !latestByCustomer.containsKey(customerId)) {
-                latestByCustomer.put(customerId, todo);
-            }
-        }
-        
-        return new java.util.ArrayList<>(latestByCustomer.values());
     }
 
     public Todo update(Todo todo) {
@@ -294,5 +302,50 @@ public class TodoRepository extends BaseRepository {
                 .where(TODOS.ID.eq(id))
                 .execute();
     }
+
+    /**
+     * 批量更新推送状态为成功（一条语句）
+     */
+    public int updatePushSuccess(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        return dsl.update(TODOS)
+                .set(TODOS.PUSH_STATUS, "PUSHED")
+                .set(TODOS.PUSHED_AT, now)
+                .set(TODOS.PUSH_ERROR_MESSAGE, (String) null)
+                .set(TODOS.UPDATED_AT, now)
+                .where(TODOS.ID.in(ids))
+                .execute();
+    }
+
+    /**
+     * 批量更新推送状态为失败
+     * 按错误信息分组，每种错误信息一条语句，所有语句以一个JDBC批次提交
+     * @param errorMessages 待办ID -> 错误信息
+     */
+    public int updatePushFailed(Map<Long, String> errorMessages) {
+        if (errorMessages == null || errorMessages.isEmpty()) {
+            return 0;
+        }
+        Map<String, List<Long>> idsByMessage = new HashMap<>();
+        errorMessages.forEach((id, message) -> idsByMessage.computeIfAbsent(message, key -> new ArrayList<>()).add(id));
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Query> queries = new ArrayList<>(idsByMessage.size());
+        idsByMessage.forEach((message, ids) -> queries.add(dsl.update(TODOS)
+                .set(TODOS.PUSH_STATUS, "FAILED")
+                .set(TODOS.PUSH_ERROR_MESSAGE, message)
+                .set(TODOS.PUSH_RETRY_COUNT, TODOS.PUSH_RETRY_COUNT.plus(1))
+                .set(TODOS.UPDATED_AT, now)
+                .where(TODOS.ID.in(ids))));
+
+        int updated = 0;
+        for (int count : dsl.batch(queries).execute()) {
+            updated += Math.max(count, 0);
+        }
+        return updated;
+    }
 }
 
@@ -0,0 +1,156 @@
+package com.timetable.repository;
+
+import com.timetable.entity.TrialScheduleOutbox;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 体验课创建发件箱（trial_schedule_outbox）数据访问
+ * 派发前先用条件更新把记录从 PENDING 改为 PROCESSING（抢占），同一条记录同一时间只有一个派发线程处理
+ */
+@Repository
+public class TrialScheduleOutboxRepository {
+
+    // 失败原因最多保存的字符数
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final RowMapper<TrialScheduleOutbox> outboxRowMapper = (rs, rowNum) -> {
+        TrialScheduleOutbox outbox = new TrialScheduleOutbox();
+        outbox.setId(rs.getLong("id"));
+        outbox.setIdempotencyKey(rs.getString("idempotency_key"));
+        outbox.setHistoryId(rs.getLong("history_id"));
+        outbox.setCustomerId(rs.getLong("customer_id"));
+        outbox.setOperatorId(rs.getLong("operator_id"));
+        outbox.setCoachId(rs.getLong("coach_id"));
+        outbox.setStudentName(rs.getString("student_name"));
+        outbox.setCustomerPhone(rs.getString("customer_phone"));
+        outbox.setScheduleDate(rs.getDate("schedule_date").toLocalDate());
+        outbox.setStartTime(rs.getTime("start_time").toLocalTime());
+        outbox.setEndTime(rs.getTime("end_time").toLocalTime());
+        outbox.setStatus(rs.getString("status"));
+        outbox.setAttempts(rs.getInt("attempts"));
+        outbox.setNextAttemptAt(rs.getTimestamp("next_attempt_at").toLocalDateTime());
+        outbox.setLastError(rs.getString("last_error"));
+        outbox.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        outbox.setUpdatedAt(rs.getTimestamp("updated_at").toLocalDateTime());
+        return outbox;
+    };
+
+    /**
+     * 写入待派发的记录并回填ID（幂等键重复时抛出 DuplicateKeyException）
+     */
+    public TrialScheduleOutbox create(TrialScheduleOutbox outbox) {
+        LocalDateTime now = LocalDateTime.now();
+        String sql = "INSERT INTO trial_schedule_outbox (idempotency_key, history_id, customer_id, operator_id, coach_id, " +
+                "student_name, customer_phone, schedule_date, start_time, end_time, status, attempts, next_attempt_at, " +
+                "created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, outbox.getIdempotencyKey());
+            ps.setLong(2, outbox.getHistoryId());
+            ps.setLong(3, outbox.getCustomerId());
+            ps.setLong(4, outbox.getOperatorId());
+            ps.setLong(5, outbox.getCoachId());
+            ps.setString(6, outbox.getStudentName());
+            ps.setString(7, outbox.getCustomerPhone());
+            ps.setDate(8, Date.valueOf(outbox.getScheduleDate()));
+            ps.setTime(9, Time.valueOf(outbox.getStartTime()));
+            ps.setTime(10, Time.valueOf(outbox.getEndTime()));
+            ps.setString(11, TrialScheduleOutbox.STATUS_PENDING);
+            ps.setTimestamp(12, Timestamp.valueOf(now));
+            ps.setTimestamp(13, Timestamp.valueOf(now));
+            ps.setTimestamp(14, Timestamp.valueOf(now));
+            return ps;
+        }, keyHolder);
+        if (keyHolder.getKey() != null) {
+            outbox.setId(keyHolder.getKey().longValue());
+        }
+        outbox.setStatus(TrialScheduleOutbox.STATUS_PENDING);
+        outbox.setNextAttemptAt(now);
+        outbox.setCreatedAt(now);
+        outbox.setUpdatedAt(now);
+        return outbox;
+    }
+
+    public TrialScheduleOutbox findById(Long id) {
+        List<TrialScheduleOutbox> rows = jdbcTemplate.query("SELECT * FROM trial_schedule_outbox WHERE id = ?",
+                outboxRowMapper, id);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 已到派发时间的待派发记录ID，按下次派发时间正序
+     */
+    public List<Long> findDueIds(LocalDateTime now, int limit) {
+        return jdbcTemplate.queryForList("SELECT id FROM trial_schedule_outbox WHERE status = ? AND next_attempt_at <= ? " +
+                        "ORDER BY next_attempt_at, id LIMIT ?", Long.class,
+                TrialScheduleOutbox.STATUS_PENDING, Timestamp.valueOf(now), limit);
+    }
+
+    /**
+     * 抢占一条已到派发时间的待派发记录，并把尝试次数加1
+     * @return 抢占成功返回 true；记录已被其他线程抢占、已完成或未到派发时间时返回 false
+     */
+    public boolean claim(Long id, LocalDateTime now) {
+        return jdbcTemplate.update("UPDATE trial_schedule_outbox SET status = ?, attempts = attempts + 1, updated_at = ? " +
+                        "WHERE id = ? AND status = ? AND next_attempt_at <= ?",
+                TrialScheduleOutbox.STATUS_PROCESSING, Timestamp.valueOf(now), id,
+                TrialScheduleOutbox.STATUS_PENDING, Timestamp.valueOf(now)) > 0;
+    }
+
+    public void markDone(Long id) {
+        jdbcTemplate.update("UPDATE trial_schedule_outbox SET status = ?, last_error = NULL, updated_at = ? WHERE id = ?",
+                TrialScheduleOutbox.STATUS_DONE, Timestamp.valueOf(LocalDateTime.now()), id);
+    }
+
+    /**
+     * 派发失败：放回待派发，到 nextAttemptAt 后重试
+     */
+    public void markRetry(Long id, LocalDateTime nextAttemptAt, String error) {
+        jdbcTemplate.update("UPDATE trial_schedule_outbox SET status = ?, next_attempt_at = ?, last_error = ?, updated_at = ? " +
+                        "WHERE id = ?",
+                TrialScheduleOutbox.STATUS_PENDING, Timestamp.valueOf(nextAttemptAt), truncate(error),
+                Timestamp.valueOf(LocalDateTime.now()), id);
+    }
+
+    /**
+     * 重试次数用尽
+     */
+    public void markFailed(Long id, String error) {
+        jdbcTemplate.update("UPDATE trial_schedule_outbox SET status = ?, last_error = ?, updated_at = ? WHERE id = ?",
+                TrialScheduleOutbox.STATUS_FAILED, truncate(error), Timestamp.valueOf(LocalDateTime.now()), id);
+    }
+
+    /**
+     * 把 staleBefore 之前就开始派发、至今没有结果的记录放回待派发（派发线程所在进程中途退出）
+     */
+    public int releaseStale(LocalDateTime staleBefore) {
+        return jdbcTemplate.update("UPDATE trial_schedule_outbox SET status = ?, next_attempt_at = ?, updated_at = ? " +
+                        "WHERE status = ? AND updated_at < ?",
+                TrialScheduleOutbox.STATUS_PENDING, Timestamp.valueOf(LocalDateTime.now()),
+                Timestamp.valueOf(LocalDateTime.now()), TrialScheduleOutbox.STATUS_PROCESSING, Timestamp.valueOf(staleBefore));
+    }
+
+    private static String truncate(String error) {
+        if (error == null || error.length() <= MAX_ERROR_LENGTH) {
+            return error;
+        }
+        return error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -3,9 +3,12 @@ package com.timetable.repository;
 import org.jooq.DSLContext;
 import com.timetable.generated.tables.daos.UsersDao;
 import com.timetable.generated.tables.pojos.Users;
+import com.timetable.security.AuthenticatedUserCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -18,6 +21,9 @@ public class UserRepository {
     private DSLContext dsl;
     @Autowired
     private UsersDao usersDao;
+    // 用户写入后失效该用户的JWT认证缓存（角色、状态、删除、密码等变更立即生效）
+    @Autowired
+    private AuthenticatedUserCache authenticatedUserCache;
     
     /**
      * 根据用户名查找用户（只查找未删除且已批准的用户）
@@ -52,6 +58,18 @@ public class UserRepository {
                 .where(com.timetable.generated.tables.Users.USERS.ID.eq(id))
                 .fetchOneInto(Users.class);
     }
+
+    /**
+     * 根据ID批量查找用户（一次查询）
+     */
+    public List<Users> findByIds(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return dsl.selectFrom(com.timetable.generated.tables.Users.USERS)
+                .where(com.timetable.generated.tables.Users.USERS.ID.in(ids))
+                .fetchInto(Users.class);
+    }
     
     /**
      * 检查用户名是否存在（只检查未删除且已批准的用户）
@@ -78,6 +96,7 @@ public class UserRepository {
      */
     public void update(Users user) {
         usersDao.update(user);
+        authenticatedUserCache.evictUser(user.getId());
     }
     
     /**
@@ -85,6 +104,7 @@ public class UserRepository {
      */
     public void deleteById(Long id) {
         usersDao.deleteById(id);
+        authenticatedUserCache.evictUser(id);
     }
 
     /**
@@ -256,6 +276,7 @@ public class UserRepository {
                 .set(com.timetable.generated.tables.Users.USERS.UPDATED_AT, java.time.LocalDateTime.now())
                 .where(com.timetable.generated.tables.Users.USERS.ID.eq(userId))
                 .execute();
+        authenticatedUserCache.evictUser(userId);
     }
 
     /**
@@ -294,6 +315,7 @@ public class UserRepository {
                 .set(com.timetable.generated.tables.Users.USERS.ORGANIZATION_ROLE_ID, roleId)
                 .where(com.timetable.generated.tables.Users.USERS.ID.eq(userId))
                 .execute();
+        authenticatedUserCache.evictUser(userId);
     }
 
     /**
@@ -10,6 +10,8 @@ import org.springframework.stereotype.Repository;
 
 import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import static org.jooq.impl.DSL.*;
@@ -49,6 +51,22 @@ public class UserSalarySettingRepository {
                 .fetchInto(UserSalarySetting.class);
     }
 
+    /**
+     * 批量查询用户在机构下的工资设置，同时返回未关联机构的旧数据（organization_id 为空），由调用方优先使用机构的设置
+     * @param organizationId 为空时只查询未关联机构的设置
+     */
+    public List<UserSalarySetting> findByUserIdsAndOrganizationId(Collection<Long> userIds, Long organizationId) {
+        if (userIds == null || userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return dsl.selectFrom(table(TABLE_NAME))
+                .where(field("user_id").in(userIds)
+                        .and(organizationId != null
+                                ? field("organization_id").eq(organizationId).or(field("organization_id").isNull())
+                                : field("organization_id").isNull()))
+                .fetchInto(UserSalarySetting.class);
+    }
+
     public UserSalarySetting findById(Long id) {
         return dsl.selectFrom(table(TABLE_NAME))
                 .where(field("id").eq(id))
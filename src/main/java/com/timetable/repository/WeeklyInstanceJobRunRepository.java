@@ -0,0 +1,104 @@
+package com.timetable.repository;
+
+import com.timetable.entity.WeeklyInstanceJobRun;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 周实例生成任务执行记录（weekly_instance_job_runs）数据访问
+ */
+@Repository
+public class WeeklyInstanceJobRunRepository {
+
+    // 失败明细最多保存的字符数
+    private static final int MAX_ERROR_SUMMARY_LENGTH = 8000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final RowMapper<WeeklyInstanceJobRun> jobRunRowMapper = (rs, rowNum) -> {
+        WeeklyInstanceJobRun run = new WeeklyInstanceJobRun();
+        run.setId(rs.getLong("id"));
+        run.setJobType(rs.getString("job_type"));
+        run.setTriggerType(rs.getString("trigger_type"));
+        run.setYearWeek(rs.getString("year_week"));
+        run.setStatus(rs.getString("status"));
+        run.setTotalTimetables(rs.getInt("total_timetables"));
+        run.setGeneratedCount(rs.getInt("generated_count"));
+        run.setSkippedCount(rs.getInt("skipped_count"));
+        run.setFailedCount(rs.getInt("failed_count"));
+        long durationMs = rs.getLong("duration_ms");
+        run.setDurationMs(rs.wasNull() ? null : durationMs);
+        String errorSummary = rs.getString("error_summary");
+        run.setErrors(errorSummary == null || errorSummary.isEmpty()
+                ? new ArrayList<>() : new ArrayList<>(Arrays.asList(errorSummary.split("\n"))));
+        Timestamp startedAt = rs.getTimestamp("started_at");
+        run.setStartedAt(startedAt != null ? startedAt.toLocalDateTime() : null);
+        Timestamp finishedAt = rs.getTimestamp("finished_at");
+        run.setFinishedAt(finishedAt != null ? finishedAt.toLocalDateTime() : null);
+        return run;
+    };
+
+    /**
+     * 写入执行中的记录并回填ID
+     */
+    public WeeklyInstanceJobRun create(WeeklyInstanceJobRun run) {
+        String sql = "INSERT INTO weekly_instance_job_runs (job_type, trigger_type, year_week, status, " +
+                "total_timetables, started_at) VALUES (?, ?, ?, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            ps.setString(1, run.getJobType());
+            ps.setString(2, run.getTriggerType());
+            ps.setString(3, run.getYearWeek());
+            ps.setString(4, run.getStatus());
+            ps.setInt(5, run.getTotalTimetables());
+            ps.setTimestamp(6, Timestamp.valueOf(run.getStartedAt()));
+            return ps;
+        }, keyHolder);
+        if (keyHolder.getKey() != null) {
+            run.setId(keyHolder.getKey().longValue());
+        }
+        return run;
+    }
+
+    /**
+     * 更新执行结果
+     */
+    public void update(WeeklyInstanceJobRun run) {
+        String errorSummary = run.getErrors() == null || run.getErrors().isEmpty() ? null : String.join("\n", run.getErrors());
+        if (errorSummary != null && errorSummary.length() > MAX_ERROR_SUMMARY_LENGTH) {
+            errorSummary = errorSummary.substring(0, MAX_ERROR_SUMMARY_LENGTH);
+        }
+        jdbcTemplate.update("UPDATE weekly_instance_job_runs SET status = ?, total_timetables = ?, generated_count = ?, " +
+                        "skipped_count = ?, failed_count = ?, duration_ms = ?, error_summary = ?, finished_at = ? WHERE id = ?",
+                run.getStatus(),
+                run.getTotalTimetables(),
+                run.getGeneratedCount(),
+                run.getSkippedCount(),
+                run.getFailedCount(),
+                run.getDurationMs(),
+                errorSummary,
+                run.getFinishedAt() != null ? Timestamp.valueOf(run.getFinishedAt()) : null,
+                run.getId());
+    }
+
+    /**
+     * 最近的执行记录，按开始时间倒序
+     */
+    public List<WeeklyInstanceJobRun> findRecent(int limit) {
+        return jdbcTemplate.query("SELECT * FROM weekly_instance_job_runs ORDER BY started_at DESC, id DESC LIMIT ?",
+                jobRunRowMapper, limit);
+    }
+}
@@ -9,8 +9,14 @@ import org.jooq.Result;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.jooq.impl.DSL.*;
 
@@ -229,16 +235,75 @@ public class WeeklyInstanceRepository extends BaseRepository {
     }
 
     /**
-     * 更新最后同步时间
+     * 部分同步后更新最后同步时间；实例内容不再等同于任何模板版本，同时清空 synced_template_version
      */
     public void updateLastSyncedAt(Long instanceId, LocalDateTime syncTime) {
+        updateLastSyncedAt(Collections.singletonList(instanceId), syncTime, null);
+    }
+
+    /**
+     * 同步后更新同步时间，并记录同步所依据的模板版本号
+     * @param templateVersion 为 null 表示部分同步（实例内容不等同于模板），清空已记录的版本号
+     */
+    public void updateLastSyncedAt(Long instanceId, LocalDateTime syncTime, Long templateVersion) {
+        updateLastSyncedAt(Collections.singletonList(instanceId), syncTime, templateVersion);
+    }
+
+    /**
+     * 批量更新同步时间和模板版本号（一条语句）
+     * @param templateVersion 为 null 表示部分同步，清空已记录的版本号
+     */
+    public void updateLastSyncedAt(Collection<Long> instanceIds, LocalDateTime syncTime, Long templateVersion) {
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return;
+        }
         dsl.update(table("weekly_instances"))
                 .set(field("last_synced_at"), syncTime)
+                .set(field("synced_template_version", Long.class), templateVersion)
                 .set(field("updated_at"), LocalDateTime.now())
-                .where(field("id").eq(instanceId))
+                .where(field("id").in(instanceIds))
+                .execute();
+    }
+
+    /**
+     * 实例课程被手动修改后调用：实例内容不再等同于已记录的模板版本，清空 synced_template_version
+     */
+    public void clearSyncedTemplateVersion(Long instanceId) {
+        if (instanceId != null) {
+            clearSyncedTemplateVersion(Collections.singletonList(instanceId));
+        }
+    }
+
+    /**
+     * 批量清空 synced_template_version（一条语句，已为空的行不重复写入）
+     */
+    public void clearSyncedTemplateVersion(Collection<Long> instanceIds) {
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return;
+        }
+        dsl.update(table("weekly_instances"))
+                .set(field("synced_template_version", Long.class), (Long) null)
+                .where(field("id").in(instanceIds))
+                .and(field("synced_template_version").isNotNull())
                 .execute();
     }
 
+    /**
+     * 根据ID批量查找周实例（一次查询）
+     * @return 周实例ID -> 周实例
+     */
+    public Map<Long, WeeklyInstance> findByIds(Collection<Long> ids) {
+        Map<Long, WeeklyInstance> result = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        for (Record record : dsl.select().from(table("weekly_instances")).where(field("id").in(ids)).fetch()) {
+            WeeklyInstance instance = mapToWeeklyInstance(record);
+            result.put(instance.getId(), instance);
+        }
+        return result;
+    }
+
     /**
      * 检查周实例是否存在
      */
@@ -251,6 +316,37 @@ public class WeeklyInstanceRepository extends BaseRepository {
         );
     }
 
+    /**
+     * 批量查找多个模板课表在指定年周的周实例（一次查询）
+     * @return 模板课表ID -> 周实例
+     */
+    public Map<Long, WeeklyInstance> findByTemplateIdsAndYearWeek(Collection<Long> templateTimetableIds, String yearWeek) {
+        Map<Long, WeeklyInstance> result = new HashMap<>();
+        if (templateTimetableIds == null || templateTimetableIds.isEmpty()) {
+            return result;
+        }
+        Result<Record> records = dsl.select()
+                .from(table("weekly_instances"))
+                .where(field("template_timetable_id").in(templateTimetableIds))
+                .and(field("year_week").eq(yearWeek))
+                .fetch();
+        for (Record record : records) {
+            WeeklyInstance instance = mapToWeeklyInstance(record);
+            result.putIfAbsent(instance.getTemplateTimetableId(), instance);
+        }
+        return result;
+    }
+
+    /**
+     * 指定年周已有周实例的模板课表ID（一次查询）
+     */
+    public Set<Long> findTemplateIdsByYearWeek(String yearWeek) {
+        return new HashSet<>(dsl.select(field("template_timetable_id"))
+                .from(table("weekly_instances"))
+                .where(field("year_week").eq(yearWeek))
+                .fetch(field("template_timetable_id", Long.class)));
+    }
+
     /**
      * 映射Record到WeeklyInstance
      */
@@ -264,6 +360,7 @@ public class WeeklyInstanceRepository extends BaseRepository {
         instance.setIsCurrent(record.get("is_current", Boolean.class));
         instance.setGeneratedAt(record.get("generated_at", LocalDateTime.class));
         instance.setLastSyncedAt(record.get("last_synced_at", LocalDateTime.class));
+        instance.setSyncedTemplateVersion(record.get("synced_template_version", Long.class));
         instance.setCreatedAt(record.get("created_at", LocalDateTime.class));
         instance.setUpdatedAt(record.get("updated_at", LocalDateTime.class));
         instance.setOrganizationId(record.get("organization_id", Long.class));
@@ -1,21 +1,30 @@
 package com.timetable.repository;
 
+import com.timetable.dto.StudentHoursAggregate;
 import com.timetable.entity.WeeklyInstanceSchedule;
+import com.timetable.util.ScheduleConflictIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 import org.jooq.DSLContext;
+import org.jooq.Query;
 import org.jooq.Record;
 import org.jooq.Result;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.jooq.impl.DSL.*;
 
@@ -31,6 +40,17 @@ public class WeeklyInstanceScheduleRepository extends BaseRepository {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    // 多行 INSERT 每条语句的最大行数
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    private static final String INSERT_COLUMNS_SQL = "INSERT INTO weekly_instance_schedules (" +
+            "weekly_instance_id, template_schedule_id, student_name, subject, " +
+            "day_of_week, start_time, end_time, schedule_date, note, " +
+            "is_manual_added, is_modified, is_trial, is_time_block, " +
+            "created_at, updated_at) VALUES ";
+
+    private static final String INSERT_ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     /**
      * 保存周实例课程
      */
@@ -118,6 +138,23 @@ public class WeeklyInstanceScheduleRepository extends BaseRepository {
         return records.map(this::mapToWeeklyInstanceSchedule);
     }
 
+    /**
+     * 批量获取多个周实例的课程（不包括已取消的），一次查询
+     */
+    public List<WeeklyInstanceSchedule> findByWeeklyInstanceIds(Collection<Long> weeklyInstanceIds) {
+        if (weeklyInstanceIds == null || weeklyInstanceIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Result<Record> records = dsl.select()
+                .from(table("weekly_instance_schedules"))
+                .where(field("weekly_instance_id").in(weeklyInstanceIds))
+                .and(field("is_cancelled").isNull().or(field("is_cancelled").eq(false)))
+                .orderBy(field("schedule_date"), field("start_time"))
+                .fetch();
+
+        return records.map(this::mapToWeeklyInstanceSchedule);
+    }
+
     /**
      * 根据周实例ID和日期获取课程
      */
@@ -207,11 +244,122 @@ public class WeeklyInstanceScheduleRepository extends BaseRepository {
 
     /**
      * 批量保存周实例课程
+     * 新课程以多行 INSERT 写入（每 INSERT_BATCH_SIZE 行一条语句），自增ID按插入顺序回填；
+     * 已有ID的课程以一个JDBC批次更新。语句数与课程数量无关（不超过批次上限时）。
      */
-    public void saveAll(List<WeeklyInstanceSchedule> schedules) {
+    public List<WeeklyInstanceSchedule> saveAll(List<WeeklyInstanceSchedule> schedules) {
+        if (schedules == null || schedules.isEmpty()) {
+            return schedules;
+        }
+        List<WeeklyInstanceSchedule> toInsert = new ArrayList<>();
+        List<Query> updates = new ArrayList<>();
         for (WeeklyInstanceSchedule schedule : schedules) {
-            save(schedule);
+            if (schedule.getId() == null) {
+                toInsert.add(schedule);
+            } else {
+                updates.add(dsl.update(table("weekly_instance_schedules"))
+                        .set(field("weekly_instance_id"), schedule.getWeeklyInstanceId())
+                        .set(field("template_schedule_id"), schedule.getTemplateScheduleId())
+                        .set(field("student_name"), schedule.getStudentName())
+                        .set(field("subject"), schedule.getSubject())
+                        .set(field("day_of_week"), schedule.getDayOfWeek())
+                        .set(field("start_time"), schedule.getStartTime())
+                        .set(field("end_time"), schedule.getEndTime())
+                        .set(field("schedule_date"), schedule.getScheduleDate())
+                        .set(field("note"), schedule.getNote())
+                        .set(field("is_manual_added"), schedule.getIsManualAdded())
+                        .set(field("is_modified"), schedule.getIsModified())
+                        .set(field("is_trial"), schedule.getIsTrial())
+                        .set(field("is_time_block"), schedule.getIsTimeBlock())
+                        .set(field("updated_at"), LocalDateTime.now())
+                        .where(field("id").eq(schedule.getId())));
+            }
         }
+
+        for (int from = 0; from < toInsert.size(); from += INSERT_BATCH_SIZE) {
+            insertRows(toInsert.subList(from, Math.min(from + INSERT_BATCH_SIZE, toInsert.size())));
+        }
+        if (!updates.isEmpty()) {
+            dsl.batch(updates).execute();
+        }
+        return schedules;
+    }
+
+    /**
+     * 一条多行 INSERT 写入多节课程，并按顺序回填自增ID
+     */
+    private void insertRows(List<WeeklyInstanceSchedule> rows) {
+        StringBuilder sql = new StringBuilder(INSERT_COLUMNS_SQL);
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(INSERT_ROW_PLACEHOLDERS);
+        }
+
+        jdbcTemplate.execute((Connection connection) -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+                int index = 1;
+                for (WeeklyInstanceSchedule schedule : rows) {
+                    index = bindInsertRow(ps, index, schedule);
+                }
+                ps.executeUpdate();
+
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (WeeklyInstanceSchedule schedule : rows) {
+                        if (!keys.next()) {
+                            break;
+                        }
+                        schedule.setId(keys.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private static int bindInsertRow(PreparedStatement ps, int index, WeeklyInstanceSchedule schedule) throws SQLException {
+        ps.setObject(index++, schedule.getWeeklyInstanceId());
+        ps.setObject(index++, schedule.getTemplateScheduleId());
+        ps.setString(index++, schedule.getStudentName());
+        ps.setString(index++, schedule.getSubject());
+        ps.setString(index++, schedule.getDayOfWeek());
+        ps.setObject(index++, schedule.getStartTime());
+        ps.setObject(index++, schedule.getEndTime());
+        ps.setObject(index++, schedule.getScheduleDate());
+        ps.setString(index++, schedule.getNote());
+        ps.setObject(index++, schedule.getIsManualAdded());
+        ps.setObject(index++, schedule.getIsModified());
+        ps.setObject(index++, schedule.getIsTrial());
+        ps.setObject(index++, schedule.getIsTimeBlock());
+        ps.setObject(index++, schedule.getCreatedAt());
+        ps.setObject(index++, schedule.getUpdatedAt());
+        return index;
+    }
+
+    /**
+     * 取消周实例中所有非手动添加的课程（一条语句，与逐条 delete 的效果一致）
+     * @return 取消的课程数
+     */
+    public int cancelTemplateSyncedByWeeklyInstanceId(Long weeklyInstanceId) {
+        return dsl.update(table("weekly_instance_schedules"))
+                .set(field("is_cancelled"), true)
+                .set(field("cancelled_at"), LocalDateTime.now())
+                .where(field("weekly_instance_id").eq(weeklyInstanceId))
+                .and(field("is_cancelled").isNull().or(field("is_cancelled").eq(false)))
+                .and(field("is_manual_added").isNull().or(field("is_manual_added").eq(false)))
+                .execute();
+    }
+
+    /**
+     * 按ID批量取消课程（标记为已取消，一条语句）
+     */
+    public int cancelByIds(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        return dsl.update(table("weekly_instance_schedules"))
+                .set(field("is_cancelled"), true)
+                .set(field("cancelled_at"), LocalDateTime.now())
+                .where(field("id").in(ids))
+                .execute();
     }
 
     /**
@@ -273,6 +421,33 @@ public class WeeklyInstanceScheduleRepository extends BaseRepository {
         return query.fetchOne(0, Integer.class) > 0;
     }
 
+    /**
+     * 加载周实例未取消课程的冲突索引（按日期分桶），批量检查多条课程时只需一次查询
+     */
+    public ScheduleConflictIndex<WeeklyInstanceSchedule> loadConflictIndex(Long weeklyInstanceId) {
+        ScheduleConflictIndex<WeeklyInstanceSchedule> index = new ScheduleConflictIndex<>();
+        for (WeeklyInstanceSchedule schedule : findByWeeklyInstanceId(weeklyInstanceId)) {
+            index.add(schedule.getScheduleDate(), null, schedule.getStartTime(), schedule.getEndTime(), schedule);
+        }
+        return index;
+    }
+
+    /**
+     * 使用 loadConflictIndex 加载的索引检查时间冲突，口径与按数据库检查的 hasTimeConflict 一致
+     */
+    public boolean hasTimeConflict(ScheduleConflictIndex<WeeklyInstanceSchedule> index, LocalDate date,
+                                   LocalTime startTime, LocalTime endTime, Long excludeId) {
+        if (excludeId == null) {
+            return index.hasOverlap(date, null, startTime, endTime);
+        }
+        for (WeeklyInstanceSchedule schedule : index.findOverlaps(date, null, startTime, endTime)) {
+            if (!excludeId.equals(schedule.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 根据日期范围获取课程
      */
@@ -376,4 +551,130 @@ public class WeeklyInstanceScheduleRepository extends BaseRepository {
                 .fetch();
         return records.map(this::mapToWeeklyInstanceSchedule);
     }
+
+    /**
+     * 单节课程的有效分钟数（与课时计算规则一致：缺少时间按60分钟，不足30分钟按30分钟）
+     */
+    private static String lessonMinutesSql(String alias) {
+        return "(CASE WHEN " + alias + ".start_time IS NULL OR " + alias + ".end_time IS NULL THEN 60 " +
+                "ELSE GREATEST(30, TIME_TO_SEC(TIMEDIFF(" + alias + ".end_time, " + alias + ".start_time)) DIV 60) END)";
+    }
+
+    /**
+     * 已上课程的时间条件：昨天及之前，或今天且已结束
+     */
+    private static String attendedSql(String alias) {
+        return "(" + alias + ".schedule_date < ? OR (" + alias + ".schedule_date = ? AND " +
+                alias + ".end_time IS NOT NULL AND " + alias + ".end_time <= ?))";
+    }
+
+    private static String coachInSql(Collection<Long> coachIds) {
+        if (coachIds == null) {
+            return "";
+        }
+        return " AND t.user_id IN (" + coachIds.stream().map(id -> "?").collect(Collectors.joining(",")) + ")";
+    }
+
+    /**
+     * 按 教练 + 学员 在数据库中汇总已上课时
+     * 包括周实例课程（未请假、未取消）和日期类课表课程，只统计未删除的课表
+     * @param coachIds 教练ID集合，为 null 时统计所有教练
+     */
+    public List<StudentHoursAggregate> sumAttendedHoursByCoachAndStudent(Collection<Long> coachIds) {
+        List<StudentHoursAggregate> result = new ArrayList<>();
+        if (coachIds != null && coachIds.isEmpty()) {
+            return result;
+        }
+        LocalDate today = LocalDate.now();
+        LocalTime now = LocalTime.now();
+
+        String sql = "SELECT coach_id, student_name, SUM(minutes) AS total_minutes, " +
+                "SUM(FLOOR((minutes + 15) / 30)) AS half_hour_units, COUNT(*) AS lesson_count FROM (" +
+                "SELECT t.user_id AS coach_id, TRIM(wis.student_name) AS student_name, " + lessonMinutesSql("wis") + " AS minutes " +
+                "FROM weekly_instance_schedules wis " +
+                "JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id " +
+                "JOIN timetables t ON wi.template_timetable_id = t.id " +
+                "WHERE (t.is_deleted IS NULL OR t.is_deleted = 0)" + coachInSql(coachIds) +
+                " AND wis.student_name IS NOT NULL AND TRIM(wis.student_name) <> ''" +
+                " AND (wis.is_on_leave IS NULL OR wis.is_on_leave = 0)" +
+                " AND (wis.is_cancelled IS NULL OR wis.is_cancelled = 0)" +
+                " AND " + attendedSql("wis") +
+                " UNION ALL " +
+                "SELECT t.user_id AS coach_id, TRIM(s.student_name) AS student_name, " + lessonMinutesSql("s") + " AS minutes " +
+                "FROM schedules s " +
+                "JOIN timetables t ON s.timetable_id = t.id " +
+                "WHERE (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+                " AND (t.is_weekly IS NULL OR t.is_weekly = 0)" + coachInSql(coachIds) +
+                " AND s.student_name IS NOT NULL AND TRIM(s.student_name) <> ''" +
+                " AND " + attendedSql("s") +
+                ") attended GROUP BY coach_id, student_name";
+
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            if (coachIds != null) {
+                params.addAll(coachIds);
+            }
+            params.add(today);
+            params.add(today);
+            params.add(now);
+        }
+
+        jdbcTemplate.query(sql, rs -> {
+            result.add(new StudentHoursAggregate(
+                    rs.getObject("coach_id") != null ? rs.getLong("coach_id") : null,
+                    rs.getString("student_name"),
+                    rs.getLong("total_minutes"),
+                    rs.getInt("half_hour_units"),
+                    rs.getInt("lesson_count")));
+        }, params.toArray());
+        return result;
+    }
+
+    /**
+     * 获取教练名下出现过的所有学员名（周实例课程 + 日期类课表课程，只包括未删除的课表）
+     */
+    public List<String> findDistinctStudentNamesByCoach(Long coachId) {
+        String sql = "SELECT TRIM(wis.student_name) AS student_name " +
+                "FROM weekly_instance_schedules wis " +
+                "JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id " +
+                "JOIN timetables t ON wi.template_timetable_id = t.id " +
+                "WHERE t.user_id = ? AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+                " AND wis.student_name IS NOT NULL AND TRIM(wis.student_name) <> '' " +
+                "UNION " +
+                "SELECT TRIM(s.student_name) AS student_name " +
+                "FROM schedules s " +
+                "JOIN timetables t ON s.timetable_id = t.id " +
+                "WHERE t.user_id = ? AND (t.is_deleted IS NULL OR t.is_deleted = 0)" +
+                " AND (t.is_weekly IS NULL OR t.is_weekly = 0)" +
+                " AND s.student_name IS NOT NULL AND TRIM(s.student_name) <> ''";
+        return jdbcTemplate.queryForList(sql, String.class, coachId, coachId);
+    }
+
+    /**
+     * 根据学员名查找其所属教练ID
+     * 优先取最近一节周实例课程所属课表的教练，其次取日期类课表
+     */
+    public Long findCoachIdByStudentName(String studentName) {
+        Long coachId = dsl.select(field(name("timetables", "user_id"), Long.class))
+                .from(table("weekly_instance_schedules"))
+                .join(table("weekly_instances")).on(field(name("weekly_instance_schedules", "weekly_instance_id")).eq(field(name("weekly_instances", "id"))))
+                .join(table("timetables")).on(field(name("weekly_instances", "template_timetable_id")).eq(field(name("timetables", "id"))))
+                .where(field(name("weekly_instance_schedules", "student_name")).eq(studentName))
+                .orderBy(field(name("weekly_instance_schedules", "schedule_date")).desc(), field(name("weekly_instance_schedules", "start_time")))
+                .limit(1)
+                .fetchOne(0, Long.class);
+        if (coachId != null) {
+            return coachId;
+        }
+
+        return dsl.select(field(name("timetables", "user_id"), Long.class))
+                .from(table("schedules"))
+                .join(table("timetables")).on(field(name("schedules", "timetable_id")).eq(field(name("timetables", "id"))))
+                .where(field(name("schedules", "student_name")).eq(studentName))
+                .and(field(name("timetables", "is_deleted")).isNull().or(field(name("timetables", "is_deleted")).eq(0)))
+                .and(field(name("timetables", "is_weekly")).isNull().or(field(name("timetables", "is_weekly")).eq(0)))
+                .orderBy(field(name("timetables", "id")), field(name("schedules", "id")))
+                .limit(1)
+                .fetchOne(0, Long.class);
+    }
 }
@@ -0,0 +1,76 @@
+package com.timetable.security;
+
+import com.timetable.generated.tables.pojos.Users;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 已通过JWT认证的当前请求用户
+ * 携带本次请求独立的 Users 副本（id、organizationId、position、role 等），控制器无需再按用户名查询数据库
+ */
+public class AuthenticatedUser implements UserDetails {
+
+    private final String username;
+    private final Users user;
+    private final Collection<? extends GrantedAuthority> authorities;
+
+    public AuthenticatedUser(String username, Users user, Collection<? extends GrantedAuthority> authorities) {
+        this.username = username;
+        this.user = user;
+        this.authorities = Collections.unmodifiableCollection(authorities);
+    }
+
+    /**
+     * 由数据库用户构建，权限为 ROLE_ + 角色
+     */
+    public static AuthenticatedUser of(Users user) {
+        return new AuthenticatedUser(user.getUsername(), user,
+                Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole())));
+    }
+
+    /**
+     * 当前用户实体；机构管理专用虚拟用户没有对应的数据库用户，返回 null
+     */
+    public Users getUser() {
+        return user;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getPassword() {
+        return user != null ? user.getPasswordHash() : "";
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
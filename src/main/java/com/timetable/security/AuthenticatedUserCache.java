@@ -0,0 +1,132 @@
+package com.timetable.security;
+
+import com.timetable.generated.tables.pojos.Users;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 已验证JWT的认证缓存
+ * 以token的SHA-256为键缓存签名已验证的用户，有效期不超过token过期时间（并受 jwt.auth-cache.max-ttl-seconds 限制）。
+ * 用户信息变更（角色、状态、删除、密码等）时由 UserRepository 按用户ID失效。
+ * 每次命中返回新的 Users 副本，请求内的修改不会影响缓存。
+ */
+@Component
+public class AuthenticatedUserCache {
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Map<String, CachedAuthentication> cache = new ConcurrentHashMap<>();
+
+    // 每次失效递增；加载期间发生过失效的结果不写入缓存，避免写回旧数据
+    private final AtomicLong generation = new AtomicLong();
+
+    @Value("${jwt.auth-cache.max-ttl-seconds:300}")
+    private long maxTtlSeconds;
+
+    /**
+     * 获取token对应的认证用户，未缓存或已过期时返回 null
+     */
+    public AuthenticatedUser get(String token) {
+        String key = hash(token);
+        CachedAuthentication cached = cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAtMillis <= System.currentTimeMillis()) {
+            cache.remove(key, cached);
+            return null;
+        }
+        return new AuthenticatedUser(cached.username, cached.user != null ? new Users(cached.user) : null, cached.authorities);
+    }
+
+    /**
+     * 加载用户前获取当前失效代数，写入缓存时传回
+     */
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 缓存已验证的token
+     * @param tokenExpiresAtMillis token的过期时间
+     * @param loadedGeneration 加载用户前的失效代数
+     */
+    public void put(String token, AuthenticatedUser principal, long tokenExpiresAtMillis, long loadedGeneration) {
+        if (generation.get() != loadedGeneration) {
+            return;
+        }
+        long expiresAt = Math.min(tokenExpiresAtMillis, System.currentTimeMillis() + maxTtlSeconds * 1000);
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            purgeExpired();
+            if (cache.size() >= MAX_ENTRIES) {
+                cache.clear();
+            }
+        }
+        Users snapshot = principal.getUser() != null ? new Users(principal.getUser()) : null;
+        cache.put(hash(token), new CachedAuthentication(principal.getUsername(), snapshot,
+                new ArrayList<>(principal.getAuthorities()), expiresAt));
+    }
+
+    /**
+     * 失效某个用户的所有token
+     */
+    public void evictUser(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        cache.values().removeIf(cached -> cached.user != null && userId.equals(cached.user.getId()));
+    }
+
+    public void evictAll() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(cached -> cached.expiresAtMillis <= now);
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static final class CachedAuthentication {
+        private final String username;
+        private final Users user;
+        private final List<GrantedAuthority> authorities;
+        private final long expiresAtMillis;
+
+        private CachedAuthentication(String username, Users user, Collection<? extends GrantedAuthority> authorities,
+                                     long expiresAtMillis) {
+            this.username = username;
+            this.user = user;
+            this.authorities = new ArrayList<>(authorities);
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
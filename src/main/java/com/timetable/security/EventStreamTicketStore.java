@@ -0,0 +1,84 @@
+package com.timetable.security;
+
+import com.timetable.generated.tables.pojos.Users;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 课程变更事件流的一次性连接票据
+ * 浏览器 EventSource 不能设置请求头，只能把凭证放在查询串里；查询串会进入代理和服务器的访问日志，
+ * 因此不在其中传递JWT，而是由已认证的 POST 请求换取一张随机票据：只能用于建立一次事件流连接，
+ * 有效期 schedule-events.ticket-ttl-seconds（默认 60 秒），使用后立即作废。
+ * 票据保存在本进程内，与事件总线一样只在签发票据的实例上有效。
+ */
+@Component
+public class EventStreamTicketStore {
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private static final int TICKET_BYTES = 32;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    @Value("${schedule-events.ticket-ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * 为已认证用户签发票据
+     */
+    public String issue(AuthenticatedUser principal) {
+        byte[] bytes = new byte[TICKET_BYTES];
+        random.nextBytes(bytes);
+        String ticket = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        if (tickets.size() >= MAX_ENTRIES) {
+            purgeExpired();
+            if (tickets.size() >= MAX_ENTRIES) {
+                throw new IllegalStateException("事件流票据过多，请稍后重试");
+            }
+        }
+        Users snapshot = principal.getUser() != null ? new Users(principal.getUser()) : null;
+        tickets.put(ticket, new Ticket(new AuthenticatedUser(principal.getUsername(), snapshot, principal.getAuthorities()),
+                System.currentTimeMillis() + ttlSeconds * 1000));
+        return ticket;
+    }
+
+    /**
+     * 使用票据：有效时返回签发时的用户并作废票据，未知、已使用或已过期时返回 null
+     */
+    public AuthenticatedUser redeem(String ticket) {
+        if (ticket == null || ticket.isEmpty()) {
+            return null;
+        }
+        Ticket redeemed = tickets.remove(ticket);
+        if (redeemed == null || redeemed.expiresAtMillis <= System.currentTimeMillis()) {
+            return null;
+        }
+        return redeemed.principal;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        tickets.values().removeIf(ticket -> ticket.expiresAtMillis <= now);
+    }
+
+    private static final class Ticket {
+        private final AuthenticatedUser principal;
+        private final long expiresAtMillis;
+
+        private Ticket(AuthenticatedUser principal, long expiresAtMillis) {
+            this.principal = principal;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
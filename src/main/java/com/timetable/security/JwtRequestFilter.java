@@ -1,7 +1,9 @@
 package com.timetable.security;
 
+import com.timetable.generated.tables.pojos.Users;
 import com.timetable.service.UserService;
 import com.timetable.util.JwtUtil;
+import io.jsonwebtoken.Claims;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,12 +25,24 @@ public class JwtRequestFilter extends OncePerRequestFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtRequestFilter.class);
 
+    // 事件流请求携带一次性票据的查询参数名（见 EventStreamTicketStore）
+    private static final String EVENT_STREAM_TICKET_PARAMETER = "ticket";
+
+    // 事件流接口路径前缀（不含 context-path，与 ScheduleEventController 的映射一致）
+    private static final String EVENT_STREAM_PATH_PREFIX = "/schedule-events/";
+
     @Autowired
     private UserService userService;
 
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private AuthenticatedUserCache authenticatedUserCache;
+
+    @Autowired
+    private EventStreamTicketStore eventStreamTicketStore;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, 
                                    HttpServletResponse response, 
@@ -43,27 +57,26 @@ public class JwtRequestFilter extends OncePerRequestFilter {
 
         final String requestTokenHeader = request.getHeader("Authorization");
 
-        String username = null;
-        String jwtToken = null;
-
         // JWT Token格式为 "Bearer token"
+        String jwtToken = null;
+        String ticket = null;
         if (requestTokenHeader != null && requestTokenHeader.startsWith("Bearer ")) {
             jwtToken = requestTokenHeader.substring(7);
-            try {
-                username = jwtUtil.extractUsername(jwtToken);
-            } catch (Exception e) {
-                logger.warn("JWT Token解析失败", e);
-            }
+        } else if (isEventStreamRequest(request)) {
+            ticket = request.getParameter(EVENT_STREAM_TICKET_PARAMETER);
         }
 
-        // 验证token并设置认证信息
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userService.loadUserByUsername(username);
+        if (SecurityContextHolder.getContext().getAuthentication() == null
+                && ((jwtToken != null && !jwtToken.isEmpty()) || ticket != null)) {
+            AuthenticatedUser principal = ticket != null
+                    ? eventStreamTicketStore.redeem(ticket)
+                    : authenticate(jwtToken);
 
-            if (jwtUtil.validateToken(jwtToken, username)) {
+            // 验证token并设置认证信息
+            if (principal != null) {
                 UsernamePasswordAuthenticationToken authToken = 
                     new UsernamePasswordAuthenticationToken(
-                        userDetails, null, userDetails.getAuthorities());
+                        principal, null, principal.getAuthorities());
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
             }
@@ -71,4 +84,55 @@ public class JwtRequestFilter extends OncePerRequestFilter {
         
         chain.doFilter(request, response);
     }
-} 
\ No newline at end of file
+
+    /**
+     * 建立课程变更事件流的 GET 请求：浏览器原生 EventSource 不能设置请求头，允许通过查询参数传递一次性票据。
+     * 查询串中只接受票据，不接受JWT
+     */
+    private static boolean isEventStreamRequest(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        String requestPath = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        if (requestPath == null || contextPath == null || !requestPath.startsWith(contextPath)) {
+            return false;
+        }
+        return requestPath.substring(contextPath.length()).startsWith(EVENT_STREAM_PATH_PREFIX);
+    }
+
+    /**
+     * 优先使用已验证token的缓存；未命中时解析一次token（验证签名和过期时间）并加载用户
+     */
+    private AuthenticatedUser authenticate(String jwtToken) {
+        AuthenticatedUser cached = authenticatedUserCache.get(jwtToken);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims;
+        try {
+            claims = jwtUtil.extractVerifiedClaims(jwtToken);
+        } catch (Exception e) {
+            logger.warn("JWT Token解析失败", e);
+            return null;
+        }
+        String username = claims.getSubject();
+        if (username == null || claims.getExpiration() == null) {
+            return null;
+        }
+
+        long loadedGeneration = authenticatedUserCache.currentGeneration();
+        AuthenticatedUser principal;
+        Users user = userService.findByUsername(username);
+        if (user != null) {
+            principal = AuthenticatedUser.of(user);
+        } else {
+            // 机构管理专用虚拟用户等不在用户表中的账号
+            UserDetails userDetails = userService.loadUserByUsername(username);
+            principal = new AuthenticatedUser(userDetails.getUsername(), null, userDetails.getAuthorities());
+        }
+        authenticatedUserCache.put(jwtToken, principal, claims.getExpiration().getTime(), loadedGeneration);
+        return principal;
+    }
+}
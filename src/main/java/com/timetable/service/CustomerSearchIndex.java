@@ -0,0 +1,312 @@
+package com.timetable.service;
+
+import com.timetable.entity.Customer;
+import com.timetable.repository.CustomerRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 客户搜索索引（按机构，内存）
+ * 每个客户索引三个字段：孩子姓名、姓名的拼音首字母、家长电话（只保留数字）。
+ * 所有字段的单字和相邻两字建立倒排表，搜索时取关键词各两字组合的倒排表求交集，再逐条确认：
+ * 姓名或电话包含关键词，或拼音首字母以关键词开头（如“zs”匹配“张三”）。
+ * 应用启动后全量构建，CustomerService 新增、修改、删除客户后在事务提交时增量更新；
+ * 索引未就绪或命中过多时返回 null，由调用方回退到SQL的 LIKE 查询。
+ */
+@Service
+public class CustomerSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CustomerSearchIndex.class);
+
+    // 命中数超过该值时不返回ID列表（IN 列表过长），由调用方回退到SQL查询
+    private static final int MAX_MATCHES = 2000;
+
+    // 拼音首字母分界字：GB2312 一级汉字按拼音排序，每个字母对应的第一个汉字（没有 i、u、v 开头的拼音）
+    private static final String INITIAL_BOUNDARIES = "啊芭擦搭蛾发噶哈击喀垃妈拿哦啪期然撒塌挖昔压匝";
+    private static final String INITIAL_LETTERS = "abcdefghjklmnopqrstwxyz";
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    private final Map<Long, OrganizationIndex> indexes = new ConcurrentHashMap<>();
+
+    private volatile boolean ready = false;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            logger.error("构建客户搜索索引失败，客户搜索将使用数据库查询", e);
+        }
+    }
+
+    /**
+     * 从数据库全量重建索引
+     */
+    public synchronized void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        Map<Long, OrganizationIndex> rebuilt = new HashMap<>();
+        List<Customer> customers = customerRepository.findSearchDocuments();
+        for (Customer customer : customers) {
+            if (customer.getOrganizationId() != null) {
+                rebuilt.computeIfAbsent(customer.getOrganizationId(), key -> new OrganizationIndex()).put(customer);
+            }
+        }
+        indexes.keySet().retainAll(rebuilt.keySet());
+        indexes.putAll(rebuilt);
+        ready = true;
+        logger.info("客户搜索索引构建完成: 机构数={}, 客户数={}, 耗时={}ms",
+                rebuilt.size(), customers.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * 客户新增或修改后更新索引（事务内调用时在提交后更新）
+     */
+    public void index(Customer customer) {
+        if (customer == null || customer.getId() == null || customer.getOrganizationId() == null) {
+            return;
+        }
+        Document document = new Document(customer.getId(), customer.getChildName(), customer.getParentPhone());
+        Long organizationId = customer.getOrganizationId();
+        afterCommit(() -> apply(organizationId, document.id, document));
+    }
+
+    /**
+     * 客户删除后移出索引（事务内调用时在提交后移除）
+     */
+    public void remove(Long organizationId, Long customerId) {
+        if (organizationId == null || customerId == null) {
+            return;
+        }
+        afterCommit(() -> apply(organizationId, customerId, null));
+    }
+
+    /**
+     * 搜索孩子姓名、拼音首字母或家长电话匹配关键词的客户ID
+     * @return 匹配的客户ID；索引未就绪或命中过多时返回 null
+     */
+    public Set<Long> search(Long organizationId, String keyword) {
+        return search(organizationId, keyword, false);
+    }
+
+    /**
+     * 搜索孩子姓名包含关键词的客户ID
+     * @return 匹配的客户ID；索引未就绪或命中过多时返回 null
+     */
+    public Set<Long> searchByName(Long organizationId, String name) {
+        return search(organizationId, name, true);
+    }
+
+    private Set<Long> search(Long organizationId, String keyword, boolean nameOnly) {
+        if (!ready || organizationId == null || keyword == null || keyword.trim().isEmpty()) {
+            return null;
+        }
+        String normalized = keyword.trim().toLowerCase(Locale.ROOT);
+        // 电话在索引中只保留数字，含空格、符号的关键词交给SQL匹配
+        for (int i = 0; i < normalized.length(); i++) {
+            if (!Character.isLetterOrDigit(normalized.charAt(i))) {
+                return null;
+            }
+        }
+        OrganizationIndex index = indexes.get(organizationId);
+        if (index == null) {
+            return Collections.emptySet();
+        }
+        return index.search(normalized, nameOnly);
+    }
+
+    private synchronized void apply(Long organizationId, Long customerId, Document document) {
+        OrganizationIndex index = indexes.computeIfAbsent(organizationId, key -> new OrganizationIndex());
+        index.remove(customerId);
+        if (document != null) {
+            index.add(document);
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * 姓名的拼音首字母（小写）；非汉字的字母、数字原样保留，其他字符忽略
+     */
+    static String pinyinInitials(String name) {
+        if (name == null) {
+            return "";
+        }
+        Collator collator = Collator.getInstance(Locale.CHINA);
+        StringBuilder initials = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            if (Character.isLetterOrDigit(c) && c < 0x80) {
+                initials.append(Character.toLowerCase(c));
+            } else if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                String character = String.valueOf(c);
+                for (int i = INITIAL_BOUNDARIES.length() - 1; i >= 0; i--) {
+                    if (collator.compare(character, String.valueOf(INITIAL_BOUNDARIES.charAt(i))) >= 0) {
+                        initials.append(INITIAL_LETTERS.charAt(i));
+                        break;
+                    }
+                }
+            }
+        }
+        return initials.toString();
+    }
+
+    private static final class Document {
+        private final Long id;
+        private final String name;
+        private final String initials;
+        private final String phone;
+
+        private Document(Long id, String childName, String parentPhone) {
+            this.id = id;
+            this.name = childName != null ? childName.trim().toLowerCase(Locale.ROOT) : "";
+            this.initials = pinyinInitials(childName);
+            this.phone = parentPhone != null ? parentPhone.replaceAll("\\D", "") : "";
+        }
+
+        private Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+            addGrams(grams, name);
+            addGrams(grams, initials);
+            addGrams(grams, phone);
+            return grams;
+        }
+
+        private boolean matches(String keyword, boolean nameOnly) {
+            if (name.contains(keyword)) {
+                return true;
+            }
+            return !nameOnly && (initials.startsWith(keyword) || (!phone.isEmpty() && phone.contains(keyword)));
+        }
+    }
+
+    /**
+     * 单个机构的倒排索引：单字、两字组合 -> 客户ID
+     */
+    private static final class OrganizationIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Document> documents = new HashMap<>();
+        private final Map<String, Set<Long>> postings = new HashMap<>();
+
+        private void put(Customer customer) {
+            add(new Document(customer.getId(), customer.getChildName(), customer.getParentPhone()));
+        }
+
+        private void add(Document document) {
+            lock.writeLock().lock();
+            try {
+                documents.put(document.id, document);
+                for (String gram : document.grams()) {
+                    postings.computeIfAbsent(gram, key -> new HashSet<>()).add(document.id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void remove(Long customerId) {
+            lock.writeLock().lock();
+            try {
+                Document document = documents.remove(customerId);
+                if (document == null) {
+                    return;
+                }
+                for (String gram : document.grams()) {
+                    Set<Long> ids = postings.get(gram);
+                    if (ids != null) {
+                        ids.remove(customerId);
+                        if (ids.isEmpty()) {
+                            postings.remove(gram);
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private Set<Long> search(String keyword, boolean nameOnly) {
+            Set<String> keywordGrams = new LinkedHashSet<>();
+            if (keyword.length() == 1) {
+                keywordGrams.add(keyword);
+            } else {
+                for (int i = 0; i + 2 <= keyword.length(); i++) {
+                    keywordGrams.add(keyword.substring(i, i + 2));
+                }
+            }
+
+            lock.readLock().lock();
+            try {
+                // 从最短的倒排表开始求交集
+                List<Set<Long>> lists = new ArrayList<>(keywordGrams.size());
+                for (String gram : keywordGrams) {
+                    Set<Long> ids = postings.get(gram);
+                    if (ids == null) {
+                        return Collections.emptySet();
+                    }
+                    lists.add(ids);
+                }
+                lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+                Set<Long> matches = new HashSet<>();
+                for (Long id : lists.get(0)) {
+                    boolean inAll = true;
+                    for (int i = 1; i < lists.size() && inAll; i++) {
+                        inAll = lists.get(i).contains(id);
+                    }
+                    if (inAll && documents.get(id).matches(keyword, nameOnly)) {
+                        matches.add(id);
+                        if (matches.size() > MAX_MATCHES) {
+                            return null;
+                        }
+                    }
+                }
+                return matches;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static void addGrams(Set<String> grams, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            grams.add(value.substring(i, i + 1));
+            if (i + 2 <= value.length()) {
+                grams.add(value.substring(i, i + 2));
+            }
+        }
+    }
+}
@@ -10,15 +10,22 @@ import com.timetable.repository.CustomerRepository;
 import com.timetable.repository.CustomerStatusHistoryRepository;
 import com.timetable.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Service
@@ -33,6 +40,23 @@ public class CustomerService {
     @Autowired
     private CustomerStatusHistoryRepository statusHistoryRepository;
 
+    @Autowired
+    private CustomerSearchIndex customerSearchIndex;
+
+    // 状态统计中单独列出的状态
+    private static final List<String> COUNTED_STATUSES = Arrays.asList("NEW", "CONTACTED", "PENDING_CONFIRM",
+            "SCHEDULED", "VISITED", "RE_EXPERIENCE", "PENDING_SOLD", "SOLD", "CLOSED");
+
+    private static final int MAX_STATUS_COUNTS_ENTRIES = 10000;
+
+    @Value("${customer.status-counts.cache-ttl-seconds:30}")
+    private long statusCountsCacheTtlSeconds;
+
+    private final Map<StatusCountsKey, CachedStatusCounts> statusCountsCache = new ConcurrentHashMap<>();
+
+    // 每次失效递增；统计期间发生过失效的结果不写入缓存
+    private final AtomicLong statusCountsGeneration = new AtomicLong();
+
     @Transactional
     public CustomerDTO createCustomer(CustomerRequest request, Long currentUserId) {
         // 验证电话或微信至少填一个
@@ -55,6 +79,8 @@ public class CustomerService {
             customer.setOrganizationId(null);
         }
         Customer savedCustomer = customerRepository.save(customer);
+        evictStatusCounts(savedCustomer.getOrganizationId());
+        customerSearchIndex.index(savedCustomer);
         
         // 自动创建状态流转记录（新建客户）
         if (savedCustomer.getId() != null) {
@@ -112,6 +138,8 @@ public class CustomerService {
         // customer.setOrganizationId(XXX) 这一行删掉，update 仅修改官方字段
 
         Customer updatedCustomer = customerRepository.update(customer);
+        evictStatusCounts(updatedCustomer.getOrganizationId());
+        customerSearchIndex.index(updatedCustomer);
         return convertToDTO(updatedCustomer);
     }
 
@@ -143,11 +171,14 @@ public class CustomerService {
 
     public List<CustomerDTO> getCustomersWithFilters(Long userId, Long organizationId, boolean isAdmin, int page, int pageSize,
                                                        String status, Long salesId, LocalDate filterDate, String keyword) {
+        Set<Long> matchedIds = customerSearchIndex.search(organizationId, keyword);
         List<Customer> customers;
         if (isAdmin) {
-            customers = customerRepository.findAllWithFiltersAndPagination(organizationId, page, pageSize, status, salesId, filterDate, keyword);
+            customers = customerRepository.findAllWithFiltersAndPagination(organizationId, page, pageSize, status, salesId,
+                    filterDate, keyword, matchedIds);
         } else {
-            customers = customerRepository.findByUserWithFiltersAndPagination(userId, organizationId, page, pageSize, status, filterDate, keyword);
+            customers = customerRepository.findByUserWithFiltersAndPagination(userId, organizationId, page, pageSize, status,
+                    filterDate, keyword, matchedIds);
         }
         
         return customers.stream()
@@ -182,6 +213,8 @@ public class CustomerService {
         }
 
         customerRepository.deleteById(customerId);
+        evictStatusCounts(customer.getOrganizationId());
+        customerSearchIndex.remove(customer.getOrganizationId(), customerId);
     }
 
     public List<CustomerDTO> getCustomersByStatus(String status, Long userId, Long organizationId, boolean isAdmin) {
@@ -204,8 +237,15 @@ public class CustomerService {
         return customerRepository.findByChildName(childName);
     }
 
-    public Customer findByChildNameLike(String childName) {
-        return customerRepository.findByChildNameLike(childName);
+    /**
+     * 机构内孩子姓名包含 childName 的客户中最新创建的一个
+     */
+    public Customer findByChildNameLike(String childName, Long organizationId) {
+        Set<Long> matchedIds = customerSearchIndex.searchByName(organizationId, childName);
+        if (matchedIds == null) {
+            return customerRepository.findByChildNameLike(childName, organizationId);
+        }
+        return customerRepository.findLatestByIds(matchedIds);
     }
 
     public Customer findById(Long id) {
@@ -279,90 +319,17 @@ public class CustomerService {
         return user != null && "MANAGER".equals(user.getPosition());
     }
 
-    public List<TrialCustomerDTO> getTrialCustomers(Long userId, Long organizationId, Long createdByIdFilter, LocalDate trialDateFilter, boolean includeAll) {
-        List<TrialCustomerDTO> result = new ArrayList<>();
-        
-        // 获取用户所在机构的所有客户（不限状态）
-        List<Customer> customers = customerRepository.findByOrganizationId(organizationId);
-        
-        for (Customer customer : customers) {
-            // 获取该客户的所有状态流转历史
-            List<CustomerStatusHistory> histories = statusHistoryRepository.findByCustomerId(customer.getId());
-            
-            // 遍历所有历史记录，查找所有有体验时间的记录
-            for (CustomerStatusHistory history : histories) {
-                // 检查是否为体验相关状态
-                boolean isTrialStatus = ("SCHEDULED".equals(history.getToStatus()) || "RE_EXPERIENCE".equals(history.getToStatus()));
-                
-                if (isTrialStatus && history.getTrialScheduleDate() != null) {
-                    // 如果不是includeAll模式，只显示当前状态仍为待体验或待再体验的记录（且未取消）
-                    if (!includeAll) {
-                        if (!("SCHEDULED".equals(customer.getStatus()) || "RE_EXPERIENCE".equals(customer.getStatus()))) {
-                            continue;
-                        }
-                        // 非includeAll模式下，过滤掉已取消的体验记录
-                        if (Boolean.TRUE.equals(history.getTrialCancelled())) {
-                            continue;
-                        }
-                    }
-                    // includeAll模式下，已取消的记录也会包含在结果中
-                    
-                    // 应用日期过滤
-                    if (trialDateFilter != null && !history.getTrialScheduleDate().equals(trialDateFilter)) {
-                        continue;
-                    }
-                    
-                    // 应用创建人ID过滤
-                    if (createdByIdFilter != null && !createdByIdFilter.equals(history.getCreatedBy())) {
-                        continue;
-                    }
-                    
-                    TrialCustomerDTO dto = new TrialCustomerDTO();
-                    dto.setCustomerId(customer.getId());
-                    dto.setChildName(customer.getChildName());
-                    dto.setParentPhone(customer.getParentPhone());
-                    dto.setStatus(customer.getStatus());
-                    dto.setStatusText(getStatusText(customer.getStatus()));
-                    dto.setTrialScheduleDate(history.getTrialScheduleDate());
-                    dto.setTrialStartTime(history.getTrialStartTime());
-                    dto.setTrialEndTime(history.getTrialEndTime());
-                    dto.setTrialCoachId(history.getTrialCoachId());
-                    dto.setHistoryId(history.getId());
-                    dto.setTrialCancelled(history.getTrialCancelled());
-                    dto.setCreatedAt(history.getCreatedAt());
-                    
-                    // 获取教练名称
-                    if (history.getTrialCoachId() != null) {
-                        Users coach = userRepository.findById(history.getTrialCoachId());
-                        if (coach != null) {
-                            dto.setTrialCoachName(coach.getNickname() != null ? coach.getNickname() : coach.getUsername());
-                        }
-                    }
-                    
-                    // 获取创建人信息
-                    if (history.getCreatedBy() != null) {
-                        dto.setCreatedById(history.getCreatedBy());
-                        Users creator = userRepository.findById(history.getCreatedBy());
-                        if (creator != null) {
-                            dto.setCreatedByName(creator.getNickname() != null ? creator.getNickname() : creator.getUsername());
-                        }
-                    }
-                    
-                    result.add(dto);
-                }
-            }
+    /**
+     * 获取体验客户列表：客户、状态流转和用户一次联表查询，筛选、排序和分页均在数据库中完成
+     * @param pageSize 每页条数（page 从0开始），为空时返回全部
+     */
+    public List<TrialCustomerDTO> getTrialCustomers(Long userId, Long organizationId, Long createdByIdFilter, LocalDate trialDateFilter,
+                                                    boolean includeAll, int page, Integer pageSize) {
+        List<TrialCustomerDTO> result = customerRepository.findTrialCustomers(
+                organizationId, createdByIdFilter, trialDateFilter, includeAll, page, pageSize);
+        for (TrialCustomerDTO dto : result) {
+            dto.setStatusText(getStatusText(dto.getStatus()));
         }
-        
-        // 按体验日期和时间排序
-        result.sort((a, b) -> {
-            int dateCompare = a.getTrialScheduleDate().compareTo(b.getTrialScheduleDate());
-            if (dateCompare != 0) return dateCompare;
-            if (a.getTrialStartTime() != null && b.getTrialStartTime() != null) {
-                return a.getTrialStartTime().compareTo(b.getTrialStartTime());
-            }
-            return 0;
-        });
-        
         return result;
     }
 
@@ -399,74 +366,72 @@ public class CustomerService {
         // 更新分配销售ID
         customer.setAssignedSalesId(assignedUserId);
         Customer updatedCustomer = customerRepository.update(customer);
+        evictStatusCounts(updatedCustomer.getOrganizationId());
         
         return convertToDTO(updatedCustomer);
     }
     
     /**
      * 获取客户状态统计
+     * 由数据库按状态分组计数；结果按用户和筛选条件缓存 statusCountsCacheTtlSeconds 秒（为0时不缓存），
+     * 机构内客户新增、修改、删除、分配或状态变更时失效该机构的缓存
      */
     public Map<String, Long> getStatusCounts(Long currentUserId, Long organizationId, boolean isAdmin, 
                                              Long salesId, LocalDate filterDate, String keyword) {
-        // 获取所有客户（不分页）
-        List<Customer> allCustomers = customerRepository.findByOrganizationId(organizationId);
-        
-        // 应用过滤条件
-        List<Customer> filteredCustomers = allCustomers.stream()
-            .filter(customer -> {
-                // 权限过滤
-                if (!isAdmin) {
-                    if (!currentUserId.equals(customer.getCreatedBy()) && 
-                        !currentUserId.equals(customer.getAssignedSalesId())) {
-                        return false;
-                    }
-                }
-                
-                // 销售人员过滤
-                if (salesId != null) {
-                    if (!salesId.equals(customer.getCreatedBy()) && 
-                        !salesId.equals(customer.getAssignedSalesId())) {
-                        return false;
-                    }
-                }
-                
-                // 日期过滤
-                if (filterDate != null) {
-                    LocalDate customerDate = customer.getCreatedAt().toLocalDate();
-                    if (!customerDate.equals(filterDate)) {
-                        return false;
-                    }
-                }
-                
-                // 关键词搜索
-                if (keyword != null && !keyword.trim().isEmpty()) {
-                    String lowerKeyword = keyword.trim().toLowerCase();
-                    String childName = customer.getChildName() != null ? customer.getChildName().toLowerCase() : "";
-                    String parentPhone = customer.getParentPhone() != null ? customer.getParentPhone().toLowerCase() : "";
-                    if (!childName.contains(lowerKeyword) && !parentPhone.contains(lowerKeyword)) {
-                        return false;
-                    }
-                }
-                
-                return true;
-            })
-            .collect(Collectors.toList());
-        
+        String normalizedKeyword = keyword != null && !keyword.trim().isEmpty() ? keyword.trim() : null;
+        StatusCountsKey key = new StatusCountsKey(currentUserId, organizationId, isAdmin, salesId, filterDate, normalizedKeyword);
+        if (statusCountsCacheTtlSeconds > 0) {
+            CachedStatusCounts cached = statusCountsCache.get(key);
+            if (cached != null && cached.expiresAtMillis > System.currentTimeMillis()) {
+                return new HashMap<>(cached.counts);
+            }
+        }
+
+        long loadedGeneration = statusCountsGeneration.get();
+        Map<String, Long> statusCounts = customerRepository.countByStatusWithFilters(
+                organizationId, isAdmin ? null : currentUserId, salesId, filterDate, normalizedKeyword,
+                customerSearchIndex.search(organizationId, normalizedKeyword));
+
         // 统计各状态数量
         Map<String, Long> counts = new HashMap<>();
-        counts.put("total", (long) filteredCustomers.size());
-        counts.put("NEW", filteredCustomers.stream().filter(c -> "NEW".equals(c.getStatus())).count());
-        counts.put("CONTACTED", filteredCustomers.stream().filter(c -> "CONTACTED".equals(c.getStatus())).count());
-        counts.put("PENDING_CONFIRM", filteredCustomers.stream().filter(c -> "PENDING_CONFIRM".equals(c.getStatus())).count());
-        counts.put("SCHEDULED", filteredCustomers.stream().filter(c -> "SCHEDULED".equals(c.getStatus())).count());
-        counts.put("VISITED", filteredCustomers.stream().filter(c -> "VISITED".equals(c.getStatus())).count());
-        counts.put("RE_EXPERIENCE", filteredCustomers.stream().filter(c -> "RE_EXPERIENCE".equals(c.getStatus())).count());
-        counts.put("PENDING_SOLD", filteredCustomers.stream().filter(c -> "PENDING_SOLD".equals(c.getStatus())).count());
-        counts.put("SOLD", filteredCustomers.stream().filter(c -> "SOLD".equals(c.getStatus())).count());
-        counts.put("CLOSED", filteredCustomers.stream().filter(c -> "CLOSED".equals(c.getStatus())).count());
-        
+        counts.put("total", statusCounts.values().stream().mapToLong(Long::longValue).sum());
+        for (String status : COUNTED_STATUSES) {
+            counts.put(status, statusCounts.getOrDefault(status, 0L));
+        }
+
+        if (statusCountsCacheTtlSeconds > 0 && statusCountsGeneration.get() == loadedGeneration) {
+            if (statusCountsCache.size() >= MAX_STATUS_COUNTS_ENTRIES) {
+                long now = System.currentTimeMillis();
+                statusCountsCache.values().removeIf(cached -> cached.expiresAtMillis <= now);
+                if (statusCountsCache.size() >= MAX_STATUS_COUNTS_ENTRIES) {
+                    statusCountsCache.clear();
+                }
+            }
+            statusCountsCache.put(key, new CachedStatusCounts(new HashMap<>(counts),
+                    System.currentTimeMillis() + statusCountsCacheTtlSeconds * 1000));
+        }
         return counts;
     }
+
+    /**
+     * 失效机构的客户状态统计缓存：立即失效，并在事务结束后再次失效，避免提交前并发读取把旧统计写回缓存
+     */
+    public void evictStatusCounts(Long organizationId) {
+        removeStatusCounts(organizationId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    removeStatusCounts(organizationId);
+                }
+            });
+        }
+    }
+
+    private void removeStatusCounts(Long organizationId) {
+        statusCountsGeneration.incrementAndGet();
+        statusCountsCache.keySet().removeIf(key -> Objects.equals(organizationId, key.organizationId));
+    }
     
     /**
      * 验证联系方式：电话或微信至少填一个，且电话格式正确
@@ -490,4 +455,48 @@ public class CustomerService {
             }
         }
     }
+
+    private static final class StatusCountsKey {
+        private final Long userId;
+        private final Long organizationId;
+        private final boolean admin;
+        private final Long salesId;
+        private final LocalDate filterDate;
+        private final String keyword;
+
+        private StatusCountsKey(Long userId, Long organizationId, boolean admin, Long salesId,
+                                LocalDate filterDate, String keyword) {
+            this.userId = userId;
+            this.organizationId = organizationId;
+            this.admin = admin;
+            this.salesId = salesId;
+            this.filterDate = filterDate;
+            this.keyword = keyword;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StatusCountsKey)) return false;
+            StatusCountsKey other = (StatusCountsKey) o;
+            return admin == other.admin && Objects.equals(userId, other.userId)
+                    && Objects.equals(organizationId, other.organizationId) && Objects.equals(salesId, other.salesId)
+                    && Objects.equals(filterDate, other.filterDate) && Objects.equals(keyword, other.keyword);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, organizationId, admin, salesId, filterDate, keyword);
+        }
+    }
+
+    private static final class CachedStatusCounts {
+        private final Map<String, Long> counts;
+        private final long expiresAtMillis;
+
+        private CachedStatusCounts(Map<String, Long> counts, long expiresAtMillis) {
+            this.counts = counts;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
 }
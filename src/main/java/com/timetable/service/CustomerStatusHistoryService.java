@@ -4,10 +4,13 @@ import com.timetable.dto.CustomerStatusChangeRequest;
 import com.timetable.dto.CustomerStatusHistoryDTO;
 import com.timetable.entity.Customer;
 import com.timetable.entity.CustomerStatusHistory;
+import com.timetable.entity.TrialScheduleOutbox;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.repository.CustomerRepository;
 import com.timetable.repository.CustomerStatusHistoryRepository;
 import com.timetable.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,6 +21,8 @@ import java.util.stream.Collectors;
 @Service
 public class CustomerStatusHistoryService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CustomerStatusHistoryService.class);
+
     @Autowired
     private CustomerStatusHistoryRepository historyRepository;
 
@@ -35,9 +40,12 @@ public class CustomerStatusHistoryService {
     
     @Autowired
     private com.timetable.repository.ScheduleRepository scheduleRepository;
-    
+
+    @Autowired
+    private CustomerService customerService;
+
     @Autowired
-    private com.timetable.repository.WeeklyInstanceScheduleRepository weeklyInstanceScheduleRepository;
+    private TrialScheduleOutboxService trialScheduleOutboxService;
 
     @Transactional
     public CustomerStatusHistoryDTO changeStatus(Long customerId, CustomerStatusChangeRequest request, Long currentUserId) {
@@ -64,6 +72,7 @@ public class CustomerStatusHistoryService {
         // 更新客户状态（即使状态相同也允许记录，可能是添加备注或体验课信息）
         customer.setStatus(toStatus);
         customerRepository.update(customer);
+        customerService.evictStatusCounts(customer.getOrganizationId());
 
         // 记录状态变更
         CustomerStatusHistory history = new CustomerStatusHistory();
@@ -90,61 +99,26 @@ public class CustomerStatusHistoryService {
         // 先保存流转记录
         CustomerStatusHistory savedHistory = historyRepository.save(history);
         
-        // 如果有教练ID，说明需要创建课表中的课程
+        // 如果有教练ID，说明需要创建课表中的课程：写入发件箱，提交后由后台创建课程并回写流转记录
         if (request.getTrialCoachId() != null && 
-            request.getTrialScheduleDate() != null && !request.getTrialScheduleDate().isEmpty() &&
-            request.getTrialStartTime() != null && !request.getTrialStartTime().isEmpty() &&
-            request.getTrialEndTime() != null && !request.getTrialEndTime().isEmpty() &&
+            history.getTrialScheduleDate() != null &&
+            history.getTrialStartTime() != null &&
+            history.getTrialEndTime() != null &&
             request.getTrialStudentName() != null && !request.getTrialStudentName().isEmpty()) {
-            
-            try {
-                System.out.println("=== 创建体验课程到课表 ===");
-                System.out.println("客户ID: " + customerId);
-                System.out.println("教练ID: " + request.getTrialCoachId());
-                System.out.println("学员姓名: " + request.getTrialStudentName());
-                System.out.println("体验日期: " + request.getTrialScheduleDate());
-                System.out.println("体验时间: " + request.getTrialStartTime() + " - " + request.getTrialEndTime());
-                
-                // 构建体验课程请求
-                com.timetable.dto.TrialScheduleRequest trialRequest = new com.timetable.dto.TrialScheduleRequest();
-                trialRequest.setCoachId(request.getTrialCoachId());
-                trialRequest.setScheduleDate(request.getTrialScheduleDate());
-                trialRequest.setStartTime(request.getTrialStartTime());
-                trialRequest.setEndTime(request.getTrialEndTime());
-                trialRequest.setStudentName(request.getTrialStudentName());
-                trialRequest.setCustomerPhone(customer.getParentPhone());
-                trialRequest.setIsTrial(true);
-                trialRequest.setCustomerId(customerId);
-                
-                // 创建课表中的课程
-                com.timetable.dto.TrialScheduleInfo scheduleInfo = scheduleService.createTrialSchedule(trialRequest, user);
-                
-                System.out.println("体验课程创建成功");
-                System.out.println("课程ID: " + scheduleInfo.getScheduleId());
-                System.out.println("课表ID: " + scheduleInfo.getTimetableId());
-                System.out.println("来源类型: " + scheduleInfo.getSourceType());
-                
-                // 更新流转记录，保存课程ID等信息
-                savedHistory.setTrialScheduleId(scheduleInfo.getScheduleId());
-                savedHistory.setTrialTimetableId(scheduleInfo.getTimetableId());
-                savedHistory.setTrialSourceType(scheduleInfo.getSourceType());
-                historyRepository.updateTrialScheduleInfo(
-                    savedHistory.getId(), 
-                    scheduleInfo.getScheduleId(), 
-                    scheduleInfo.getTimetableId(), 
-                    scheduleInfo.getSourceType()
-                );
-                
-                System.out.println("历史记录已更新，保存了课程关联信息");
-                
-            } catch (Exception e) {
-                // 创建课表课程失败，抛出异常，事务回滚
-                System.err.println("创建体验课程到课表失败: " + e.getMessage());
-                e.printStackTrace();
-                throw new RuntimeException("创建体验课程到课表失败: " + e.getMessage(), e);
-            }
-        } else {
-            System.out.println("未提供完整的体验课程信息，不创建课表课程");
+            TrialScheduleOutbox outbox = new TrialScheduleOutbox();
+            outbox.setHistoryId(savedHistory.getId());
+            outbox.setCustomerId(customerId);
+            outbox.setOperatorId(currentUserId);
+            outbox.setCoachId(request.getTrialCoachId());
+            outbox.setStudentName(request.getTrialStudentName());
+            outbox.setCustomerPhone(customer.getParentPhone());
+            outbox.setScheduleDate(history.getTrialScheduleDate());
+            outbox.setStartTime(history.getTrialStartTime());
+            outbox.setEndTime(history.getTrialEndTime());
+            trialScheduleOutboxService.enqueue(outbox);
+            logger.info("体验课创建已排队: 客户ID={}, historyId={}, 教练ID={}, 学员={}, 日期={} {}-{}",
+                    customerId, savedHistory.getId(), request.getTrialCoachId(), request.getTrialStudentName(),
+                    history.getTrialScheduleDate(), history.getTrialStartTime(), history.getTrialEndTime());
         }
         
         // 自动标记体验课程为已完成的逻辑
@@ -175,12 +149,12 @@ public class CustomerStatusHistoryService {
                         (h.getTrialCancelled() == null || !h.getTrialCancelled())) {
                         // 标记为已完成
                         historyRepository.markTrialAsCompleted(h.getId());
-                        System.out.println("自动标记体验课程为已完成: historyId=" + h.getId() + ", 状态=" + statusToComplete);
+                        logger.info("自动标记体验课程为已完成: historyId={}, 状态={}", h.getId(), statusToComplete);
                     }
                 }
             } catch (Exception e) {
-                System.err.println("自动标记体验课程完成失败: " + e.getMessage());
                 // 不影响主流程，只记录错误
+                logger.error("自动标记体验课程完成失败: 客户ID={}", customerId, e);
             }
         }
         
@@ -252,6 +226,7 @@ public class CustomerStatusHistoryService {
             // 回退到 fromStatus
             customer.setStatus(history.getFromStatus());
             customerRepository.update(customer);
+            customerService.evictStatusCounts(customer.getOrganizationId());
         }
 
         // 删除历史记录
@@ -356,8 +331,8 @@ public class CustomerStatusHistoryService {
     @Transactional(rollbackFor = Exception.class)
     public boolean cancelTrialScheduleWithTransaction(Long historyId) {
         
-        // 1. 获取历史记录，读取课表ID
-        CustomerStatusHistory history = historyRepository.findById(historyId);
+        // 1. 锁定并获取历史记录，读取课表ID（与体验课发件箱派发互斥，避免派发随后建出的课程无人删除）
+        CustomerStatusHistory history = historyRepository.findByIdForUpdate(historyId);
         if (history == null) {
             throw new RuntimeException("未找到该历史记录");
         }
@@ -525,8 +500,8 @@ public class CustomerStatusHistoryService {
                                                      String trialEndTime,
                                                      String trialCoachName,
                                                      Long currentUserId) {
-        // 获取历史记录
-        CustomerStatusHistory history = historyRepository.findById(historyId);
+        // 锁定并获取历史记录：与体验课发件箱派发互斥，派发尚未完成时由本次改期建课，派发随后看到已关联课程不再建课
+        CustomerStatusHistory history = historyRepository.findByIdForUpdate(historyId);
         if (history == null) {
             throw new RuntimeException("历史记录不存在");
         }
@@ -575,10 +550,10 @@ public class CustomerStatusHistoryService {
                     // 根据来源类型删除课程
                     if ("weekly_instance".equals(history.getTrialSourceType())) {
                         // 删除周实例课程
-                        weeklyInstanceScheduleRepository.delete(history.getTrialScheduleId());
+                        weeklyInstanceService.deleteInstanceSchedule(history.getTrialScheduleId());
                     } else if ("schedule".equals(history.getTrialSourceType())) {
                         // 删除普通课表课程
-                        scheduleRepository.deleteById(history.getTrialScheduleId());
+                        scheduleService.deleteSingleSchedule(history.getTrialScheduleId());
                     }
                 } catch (Exception e) {
                     System.err.println("删除旧课程失败: " + e.getMessage());
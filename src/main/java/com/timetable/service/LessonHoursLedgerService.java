@@ -0,0 +1,366 @@
+package com.timetable.service;
+
+import com.timetable.dto.StudentHoursAggregate;
+import com.timetable.entity.LessonHoursLedgerFailedSlice;
+import com.timetable.entity.WeeklyInstance;
+import com.timetable.entity.WeeklyInstanceSchedule;
+import com.timetable.repository.LessonHoursLedgerRepository;
+import com.timetable.repository.WeeklyInstanceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 课时台账服务
+ * 课程写入（创建、修改、删除、请假、取消）后标记受影响的 课表 + 日期，事务提交后重新聚合对应台账；
+ * 今天的课程在开始时间到达后由定时任务补记。报表与工资计算直接读取台账汇总，不再扫描历史课程。
+ * 刷新失败的区间持久化到 lesson_hours_ledger_failed_slices，由定时任务重试（进程重启后继续重试，包括整课表区间）；
+ * 每天另对最近几天的台账整体对账，兜底连失败记录都未能写入的情况。
+ */
+@Service
+public class LessonHoursLedgerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LessonHoursLedgerService.class);
+
+    private static final String TIME_BLOCK_NAME = "【占用】";
+
+    // 事务内待刷新的台账区间，绑定到当前事务，提交后统一刷新
+    private static final Object PENDING_SLICES_KEY = new Object();
+
+    // 每次重试从数据库读取的失败区间数
+    private static final int RETRY_BATCH_SIZE = 500;
+
+    @Autowired
+    private LessonHoursLedgerRepository ledgerRepository;
+
+    @Autowired
+    private WeeklyInstanceRepository weeklyInstanceRepository;
+
+    @Autowired
+    private StudentRuleService studentRuleService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 上一次补记已开始课程的时间
+    private volatile LocalDateTime lastFinalizedAt;
+
+    // 刷新失败、等待重试的台账区间（数据库中的失败记录在内存中的副本，失败记录写入失败时仅保存在这里）
+    private final Set<LedgerSlice> failedSlices = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 标记课表某天的课时需要重新计算（未来日期忽略）
+     */
+    public void markDirty(Long timetableId, LocalDate date) {
+        markDirty(timetableId, date, date);
+    }
+
+    /**
+     * 标记课表在日期范围内的课时需要重新计算（超过今天的部分忽略）
+     */
+    public void markDirty(Long timetableId, LocalDate from, LocalDate to) {
+        if (timetableId == null || from == null || to == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        if (from.isAfter(today)) {
+            return;
+        }
+        register(new LedgerSlice(timetableId, from, to.isAfter(today) ? today : to));
+    }
+
+    /**
+     * 标记课表的全部课时需要重新计算（清空课表、按条件批量删除等无法确定日期的操作）
+     */
+    public void markTimetableDirty(Long timetableId) {
+        if (timetableId != null) {
+            register(new LedgerSlice(timetableId, null, null));
+        }
+    }
+
+    /**
+     * 标记周实例所在周的课时需要重新计算
+     */
+    public void markInstanceDirty(WeeklyInstance instance) {
+        if (instance != null) {
+            markDirty(instance.getTemplateTimetableId(), instance.getWeekStartDate(), instance.getWeekEndDate());
+        }
+    }
+
+    /**
+     * 标记周实例课程所在日期的课时需要重新计算（周实例课程记到其模板课表）
+     */
+    public void markInstanceScheduleDirty(WeeklyInstanceSchedule schedule) {
+        markInstanceScheduleDirty(schedule, null);
+    }
+
+    /**
+     * 标记周实例课程修改前后所在日期的课时需要重新计算
+     */
+    public void markInstanceScheduleDirty(WeeklyInstanceSchedule schedule, LocalDate previousDate) {
+        if (schedule == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        boolean currentDirty = schedule.getScheduleDate() != null && !schedule.getScheduleDate().isAfter(today);
+        boolean previousDirty = previousDate != null && !previousDate.isAfter(today);
+        if (!currentDirty && !previousDirty) {
+            return;
+        }
+        WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
+        if (instance == null) {
+            return;
+        }
+        if (currentDirty) {
+            markDirty(instance.getTemplateTimetableId(), schedule.getScheduleDate());
+        }
+        if (previousDirty) {
+            markDirty(instance.getTemplateTimetableId(), previousDate);
+        }
+    }
+
+    /**
+     * 汇总教练在日期范围内的已完成课时（小时）
+     * 应用学员操作规则（重命名、合并后隐藏的学员不计入），并排除占用时间段
+     */
+    public double sumCompletedHours(Long coachId, Long organizationId, LocalDate start, LocalDate end) {
+        return sumCompleted(coachId, organizationId, start, end, excludedStudentNames(coachId)).getTotalHours();
+    }
+
+    /**
+     * 汇总教练在日期范围内的已完成课时与课程节数，排除 excludedStudentNames 中的原始学员名
+     * 今天之前的部分读取台账；今天已开始的课程由定时任务延后补记，直接从课程表汇总，与实时的课程列表保持一致
+     * 返回结果的 studentName 为空，表示所有学员的合计
+     */
+    public StudentHoursAggregate sumCompleted(Long coachId, Long organizationId, LocalDate start, LocalDate end,
+                                              Set<String> excludedStudentNames) {
+        LocalDate today = LocalDate.now();
+        boolean includesToday = (start == null || !start.isAfter(today)) && (end == null || !end.isBefore(today));
+        LocalDate yesterday = today.minusDays(1);
+        LocalDate ledgerEnd = end == null || end.isAfter(yesterday) ? yesterday : end;
+
+        List<StudentHoursAggregate> aggregates = new ArrayList<>();
+        if (start == null || !start.isAfter(ledgerEnd)) {
+            aggregates.addAll(ledgerRepository.sumByStudent(coachId, organizationId, start, ledgerEnd));
+        }
+        if (includesToday) {
+            aggregates.addAll(ledgerRepository.sumTodayByStudent(coachId, organizationId));
+        }
+
+        long totalMinutes = 0;
+        int lessonCount = 0;
+        for (StudentHoursAggregate aggregate : aggregates) {
+            if (excludedStudentNames.contains(aggregate.getStudentName())) {
+                continue;
+            }
+            totalMinutes += aggregate.getTotalMinutes();
+            lessonCount += aggregate.getLessonCount();
+        }
+        return new StudentHoursAggregate(coachId, null, totalMinutes, null, lessonCount);
+    }
+
+    /**
+     * 一次查询汇总多个教练在日期范围内的已完成课时（小时），按教练分别应用学员操作规则
+     * 没有课时的教练不出现在结果中
+     */
+    public Map<Long, Double> sumCompletedHoursByCoach(Collection<Long> coachIds, Long organizationId,
+                                                      LocalDate start, LocalDate end) {
+        Map<Long, Set<String>> excludedByCoach = new HashMap<>();
+        Map<Long, Long> minutesByCoach = new HashMap<>();
+        for (StudentHoursAggregate aggregate : ledgerRepository.sumByCoachAndStudent(coachIds, organizationId, start, end)) {
+            Set<String> excluded = excludedByCoach.computeIfAbsent(aggregate.getCoachId(), this::excludedStudentNames);
+            if (excluded.contains(aggregate.getStudentName())) {
+                continue;
+            }
+            minutesByCoach.merge(aggregate.getCoachId(), aggregate.getTotalMinutes(), Long::sum);
+        }
+        Map<Long, Double> hoursByCoach = new HashMap<>();
+        minutesByCoach.forEach((coachId, minutes) -> hoursByCoach.put(coachId, minutes / 60.0));
+        return hoursByCoach;
+    }
+
+    /**
+     * "我的课时"中不计入的原始学员名：经学员操作规则转换后被隐藏的学员，以及占用时间段
+     */
+    public Set<String> excludedStudentNames(Long coachId) {
+        return studentRuleService.getCoachRules(coachId).hiddenRawNames(Collections.singleton(TIME_BLOCK_NAME));
+    }
+
+    /**
+     * 补记今天自上次执行以来已开始的课程
+     */
+    public int finalizeStartedLessons() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime last = lastFinalizedAt;
+        LocalTime after = last != null && last.toLocalDate().equals(now.toLocalDate()) ? last.toLocalTime() : null;
+
+        List<Long> timetableIds = ledgerRepository.findTimetableIdsWithLessonsStarting(now.toLocalDate(), after, now.toLocalTime());
+        for (Long timetableId : timetableIds) {
+            refresh(new LedgerSlice(timetableId, now.toLocalDate(), now.toLocalDate()));
+        }
+        lastFinalizedAt = now;
+        return timetableIds.size();
+    }
+
+    /**
+     * 重新计算指定日期所有有课课表以及已有台账记录的课表的台账（用于日终收尾与对账）
+     */
+    public int finalizeDay(LocalDate date) {
+        Set<Long> timetableIds = new LinkedHashSet<>(
+                ledgerRepository.findTimetableIdsWithLessonsStarting(date, null, LocalTime.MAX));
+        timetableIds.addAll(ledgerRepository.findTimetableIdsWithLedger(date));
+        for (Long timetableId : timetableIds) {
+            refresh(new LedgerSlice(timetableId, date, date));
+        }
+        return timetableIds.size();
+    }
+
+    /**
+     * 重新计算今天之前 days 天（含昨天）的台账，修正提交后刷新失败且未能重试成功的数据
+     * @return 涉及的 课表 + 日期 数
+     */
+    public int reconcileRecentDays(int days) {
+        LocalDate today = LocalDate.now();
+        int count = 0;
+        for (int i = days; i >= 1; i--) {
+            count += finalizeDay(today.minusDays(i));
+        }
+        return count;
+    }
+
+    /**
+     * 重试此前刷新失败的台账区间（包括进程重启前记录的），仍然失败的保留到下一次重试
+     * @return 本次重试的区间数
+     */
+    public int retryFailedSlices() {
+        try {
+            for (LessonHoursLedgerFailedSlice failed : ledgerRepository.findFailedSlices(RETRY_BATCH_SIZE)) {
+                failedSlices.add(new LedgerSlice(failed.getTimetableId(), failed.getFromDate(), failed.getToDate()));
+            }
+        } catch (Exception e) {
+            logger.warn("读取课时台账失败区间失败，仅重试内存中的区间: {}", e.getMessage());
+        }
+        List<LedgerSlice> slices = new ArrayList<>(failedSlices);
+        for (LedgerSlice slice : slices) {
+            refresh(slice);
+        }
+        return slices.size();
+    }
+
+    /**
+     * 有事务时登记到事务提交后刷新（同一事务内去重），否则立即刷新
+     */
+    @SuppressWarnings("unchecked")
+    private void register(LedgerSlice slice) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(slice);
+            return;
+        }
+        Set<LedgerSlice> pending = (Set<LedgerSlice>) TransactionSynchronizationManager.getResource(PENDING_SLICES_KEY);
+        if (pending == null) {
+            Set<LedgerSlice> slices = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(PENDING_SLICES_KEY, slices);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_SLICES_KEY);
+                    if (status == STATUS_COMMITTED) {
+                        for (LedgerSlice committed : new ArrayList<>(slices)) {
+                            refresh(committed);
+                        }
+                    }
+                }
+            });
+            pending = slices;
+        }
+        pending.add(slice);
+    }
+
+    /**
+     * 在独立事务中重新聚合台账区间，失败不影响业务写入，区间记入待重试集合和失败记录表
+     * 此前失败过的区间刷新成功时，在同一事务中删除其失败记录
+     */
+    private void refresh(LedgerSlice slice) {
+        boolean previouslyFailed = failedSlices.contains(slice);
+        try {
+            newTransaction().execute(status -> {
+                ledgerRepository.rebuild(slice.timetableId, slice.from, slice.to);
+                if (previouslyFailed) {
+                    ledgerRepository.deleteFailedSlice(slice.timetableId, slice.from, slice.to);
+                }
+                return null;
+            });
+            failedSlices.remove(slice);
+        } catch (Exception e) {
+            failedSlices.add(slice);
+            logger.error("刷新课时台账失败，等待重试: timetableId={}, from={}, to={}",
+                    slice.timetableId, slice.from, slice.to, e);
+            saveFailedSlice(slice, e);
+        }
+    }
+
+    private void saveFailedSlice(LedgerSlice slice, Exception cause) {
+        try {
+            newTransaction().execute(status -> {
+                ledgerRepository.saveFailedSlice(slice.timetableId, slice.from, slice.to, String.valueOf(cause.getMessage()));
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("记录课时台账失败区间失败，仅在内存中等待重试: timetableId={}, from={}, to={}, 原因: {}",
+                    slice.timetableId, slice.from, slice.to, e.getMessage());
+        }
+    }
+
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+
+    private static final class LedgerSlice {
+        private final Long timetableId;
+        private final LocalDate from;
+        private final LocalDate to;
+
+        private LedgerSlice(Long timetableId, LocalDate from, LocalDate to) {
+            this.timetableId = timetableId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof LedgerSlice)) return false;
+            LedgerSlice other = (LedgerSlice) o;
+            return Objects.equals(timetableId, other.timetableId)
+                    && Objects.equals(from, other.from)
+                    && Objects.equals(to, other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(timetableId, from, to);
+        }
+    }
+}
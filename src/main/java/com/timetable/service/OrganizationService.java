@@ -8,17 +8,25 @@ import com.timetable.entity.Organization;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.repository.OrganizationRepository;
 import com.timetable.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -38,6 +46,33 @@ public class OrganizationService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 已解析的机构通知设置（机构ID -> 设置），更新机构或通知设置时失效
+    private final Map<Long, NotificationSettingsDTO> notificationSettingsCache = new ConcurrentHashMap<>();
+
+    // 每次失效递增；读取期间发生过失效的结果不写入缓存
+    private final AtomicLong notificationSettingsGeneration = new AtomicLong();
+
+    private Counter notificationSettingsCacheHits;
+    private Counter notificationSettingsCacheMisses;
+
+    @PostConstruct
+    public void initCacheMetrics() {
+        notificationSettingsCacheHits = Counter.builder("organization.notification_settings.cache")
+                .description("机构通知设置缓存命中次数")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        notificationSettingsCacheMisses = Counter.builder("organization.notification_settings.cache")
+                .description("机构通知设置缓存未命中次数")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("organization.notification_settings.cache.size", notificationSettingsCache, Map::size)
+                .description("机构通知设置缓存条目数")
+                .register(meterRegistry);
+    }
+
     /**
      * 获取所有活跃机构
      */
@@ -107,6 +142,7 @@ public class OrganizationService {
 
         organization.setId(id);
         Organization updatedOrganization = organizationRepository.update(organization);
+        evictNotificationSettings(id);
         return convertToDTO(updatedOrganization);
     }
 
@@ -121,6 +157,7 @@ public class OrganizationService {
         }
         try {
             organizationRepository.deleteById(id);
+            evictNotificationSettings(id);
         } catch (DataIntegrityViolationException e) {
             throw new RuntimeException("该机构下仍有关联数据（如用户、课表、客户、申请记录等），暂时无法删除，请先清理关联数据");
         }
@@ -212,25 +249,31 @@ public class OrganizationService {
 
     /**
      * 获取机构通知设置
+     * 读取缓存的解析结果，未命中时查询机构并解析JSON；返回副本，调用方修改不影响缓存
      */
     public NotificationSettingsDTO getNotificationSettings(Long organizationId) {
+        NotificationSettingsDTO cached = notificationSettingsCache.get(organizationId);
+        if (cached != null) {
+            notificationSettingsCacheHits.increment();
+            return copyOf(cached);
+        }
+        notificationSettingsCacheMisses.increment();
+
+        long loadedGeneration = notificationSettingsGeneration.get();
         Organization organization = organizationRepository.findById(organizationId);
         if (organization == null) {
             throw new RuntimeException("机构不存在");
         }
 
-        // 如果机构没有设置，返回默认设置
-        if (organization.getSettings() == null || organization.getSettings().isEmpty()) {
-            return getDefaultNotificationSettings();
-        }
-
-        try {
-            // 从JSON字符串解析设置
-            return objectMapper.readValue(organization.getSettings(), NotificationSettingsDTO.class);
-        } catch (JsonProcessingException e) {
-            logger.error("解析通知设置失败", e);
-            return getDefaultNotificationSettings();
+        NotificationSettingsDTO settings = parseNotificationSettings(organization.getSettings());
+        if (notificationSettingsGeneration.get() == loadedGeneration) {
+            notificationSettingsCache.put(organizationId, settings);
+            // 写入与失效并发时撤回本次写入
+            if (notificationSettingsGeneration.get() != loadedGeneration) {
+                notificationSettingsCache.remove(organizationId, settings);
+            }
         }
+        return copyOf(settings);
     }
 
     /**
@@ -248,12 +291,54 @@ public class OrganizationService {
             String notificationSettingsJson = objectMapper.writeValueAsString(notificationSettings);
             organization.setSettings(notificationSettingsJson);
             organizationRepository.update(organization);
+            evictNotificationSettings(organizationId);
         } catch (JsonProcessingException e) {
             logger.error("序列化通知设置失败", e);
             throw new RuntimeException("保存通知设置失败");
         }
     }
 
+    /**
+     * 解析通知设置JSON，没有设置或解析失败时返回默认设置
+     */
+    private NotificationSettingsDTO parseNotificationSettings(String settingsJson) {
+        // 如果机构没有设置，返回默认设置
+        if (settingsJson == null || settingsJson.isEmpty()) {
+            return getDefaultNotificationSettings();
+        }
+
+        try {
+            // 从JSON字符串解析设置
+            return objectMapper.readValue(settingsJson, NotificationSettingsDTO.class);
+        } catch (JsonProcessingException e) {
+            logger.error("解析通知设置失败", e);
+            return getDefaultNotificationSettings();
+        }
+    }
+
+    /**
+     * 失效机构通知设置缓存：立即失效，并在事务提交后再次失效，避免提交前并发读取把旧设置写回缓存
+     */
+    private void evictNotificationSettings(Long organizationId) {
+        notificationSettingsGeneration.incrementAndGet();
+        notificationSettingsCache.remove(organizationId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    notificationSettingsGeneration.incrementAndGet();
+                    notificationSettingsCache.remove(organizationId);
+                }
+            });
+        }
+    }
+
+    private NotificationSettingsDTO copyOf(NotificationSettingsDTO settings) {
+        return new NotificationSettingsDTO(settings.getWechatEnabled(), settings.getScheduleChangeEnabled(),
+                settings.getCustomerNewEnabled(), settings.getTodoEnabled(),
+                settings.getPaymentPendingEnabled(), settings.getWeeklyInstanceAutoGenerate());
+    }
+
     /**
      * 获取默认通知设置
      */
@@ -1,9 +1,9 @@
 package com.timetable.service;
 
-import com.timetable.generated.tables.pojos.Schedules;
+import com.timetable.dto.ReportCursor;
 import com.timetable.dto.ScheduleWithCoachDTO;
+import com.timetable.dto.StudentHoursAggregate;
 import com.timetable.repository.ReportRepository;
-import com.timetable.repository.StudentOperationRecordRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -11,6 +11,7 @@ import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class ReportService {
@@ -19,46 +20,45 @@ public class ReportService {
     private ReportRepository reportRepository;
     
     @Autowired
-    private StudentOperationRecordRepository studentOperationRecordRepository;
+    private StudentRuleService studentRuleService;
 
+    @Autowired
+    private LessonHoursLedgerService lessonHoursLedgerService;
+
+    /**
+     * 按页码分页查询课时记录（数据库分页）
+     */
     public Map<String, Object> queryHoursPaged(Long userId, Long organizationId, LocalDate start, LocalDate end, int page, int size, String sortOrder) {
-        // 先获取所有记录
-        List<ScheduleWithCoachDTO> allSchedules = reportRepository.querySchedulesByUserPaged(userId, organizationId, start, end, 1, Integer.MAX_VALUE, sortOrder);
-        
-        // 应用学员操作规则（过滤隐藏的学员等）
-        allSchedules = applyStudentOperationRules(allSchedules, userId);
-        
-        // 过滤掉占用时间段（studentName为"【占用】"的记录，待数据库迁移完成后使用isTimeBlock字段）
-        allSchedules = allSchedules.stream()
-            .filter(schedule -> !"【占用】".equals(schedule.getStudentName()))
-            .collect(java.util.stream.Collectors.toList());
-        
-        // 计算应用规则后的总记录数
-        long filteredTotal = allSchedules.size();
-        
-        // 计算所有记录的课时总数（用于总计显示）
-        double grandTotalHours = 0.0;
-        for (ScheduleWithCoachDTO schedule : allSchedules) {
-            if (schedule.getStartTime() != null && schedule.getEndTime() != null) {
-                long durationMinutes = java.time.Duration.between(schedule.getStartTime(), schedule.getEndTime()).toMinutes();
-                grandTotalHours += durationMinutes / 60.0;
-            } else {
-                grandTotalHours += 1.0;
-            }
-        }
-        
-        // 手动分页：计算起始和结束索引
-        int startIndex = (page - 1) * size;
-        int endIndex = Math.min(startIndex + size, allSchedules.size());
-        
-        // 获取当前页的数据
-        List<ScheduleWithCoachDTO> list;
-        if (startIndex >= allSchedules.size()) {
-            list = new java.util.ArrayList<>();
-        } else {
-            list = allSchedules.subList(startIndex, endIndex);
-        }
-        
+        // 按学员操作规则应过滤的学员（含占用时间段）在SQL中排除，分页与总数保持准确
+        Set<String> excludedStudentNames = lessonHoursLedgerService.excludedStudentNames(userId);
+        List<ScheduleWithCoachDTO> list = reportRepository.querySchedulesByUserPaged(
+                userId, organizationId, start, end, excludedStudentNames, page, size, sortOrder);
+        return buildHoursPage(userId, organizationId, start, end, excludedStudentNames, list, size);
+    }
+
+    /**
+     * 按游标分页查询课时记录：返回排在 cursor 之后的 size 条记录（cursor 为空表示第一页）
+     */
+    public Map<String, Object> queryHoursAfter(Long userId, Long organizationId, LocalDate start, LocalDate end, ReportCursor cursor, int size, String sortOrder) {
+        Set<String> excludedStudentNames = lessonHoursLedgerService.excludedStudentNames(userId);
+        List<ScheduleWithCoachDTO> list = reportRepository.querySchedulesByUserAfter(
+                userId, organizationId, start, end, excludedStudentNames, cursor, size, sortOrder);
+        return buildHoursPage(userId, organizationId, start, end, excludedStudentNames, list, size);
+    }
+
+    /**
+     * 组装一页结果：page 为多取一条的查询结果（最多 size + 1 条），多出的一条只用于判断是否还有下一页
+     * total、grandTotalHours 为范围内全部已上课程的合计：今天之前读取课时台账，今天的课程实时汇总
+     */
+    private Map<String, Object> buildHoursPage(Long userId, Long organizationId, LocalDate start, LocalDate end,
+                                               Set<String> excludedStudentNames, List<ScheduleWithCoachDTO> page, int size) {
+        boolean hasMore = page.size() > size;
+        // 应用学员操作规则后的显示名称
+        List<ScheduleWithCoachDTO> list = applyStudentOperationRules(hasMore ? page.subList(0, size) : page, userId);
+
+        // 总记录数与总计课时读取课时台账的预聚合结果，不再扫描全部历史记录
+        StudentHoursAggregate totals = lessonHoursLedgerService.sumCompleted(userId, organizationId, start, end, excludedStudentNames);
+
         // 计算当前页的课时数
         double totalHours = 0.0;
         for (ScheduleWithCoachDTO schedule : list) {
@@ -69,120 +69,48 @@ public class ReportService {
                 totalHours += 1.0;
             }
         }
+
+        // 下一页游标：还有下一页时以本页最后一条记录定位
+        String nextCursor = null;
+        if (hasMore && !list.isEmpty()) {
+            ScheduleWithCoachDTO last = list.get(list.size() - 1);
+            int source = "weekly_instance".equals(last.getSourceType())
+                    ? ReportCursor.SOURCE_WEEKLY_INSTANCE : ReportCursor.SOURCE_SCHEDULE;
+            nextCursor = new ReportCursor(last.getScheduleDate(), last.getStartTime(), source, last.getId()).encode();
+        }
         
         Map<String, Object> data = new HashMap<>();
         data.put("list", list);
-        data.put("total", filteredTotal); // 使用过滤后的总数
+        data.put("total", totals.getLessonCount().longValue()); // 使用规则过滤后的总数
         data.put("totalHours", totalHours); // 当前页课时数
-        data.put("grandTotalHours", grandTotalHours); // 总计课时数
+        data.put("grandTotalHours", totals.getTotalHours()); // 总计课时数
+        data.put("nextCursor", nextCursor);
+        data.put("hasMore", hasMore);
         return data;
     }
     
     /**
-     * 应用学员操作规则到课程列表
+     * 应用学员操作规则到课程列表（重命名、合并；分配课时只影响课时统计，不改变名称）
+     * 被隐藏的学员已在查询时排除
      */
     private List<ScheduleWithCoachDTO> applyStudentOperationRules(List<ScheduleWithCoachDTO> schedules, Long coachId) {
         if (schedules == null || schedules.isEmpty()) {
             return schedules;
         }
         
-        // 获取该教练的学员操作规则
-        List<com.timetable.entity.StudentOperationRecord> records = 
-            studentOperationRecordRepository.findByCoachId(coachId);
+        // 该教练编译后的学员操作规则
+        StudentRuleSet rules = studentRuleService.getCoachRules(coachId);
         
-        // 构建规则映射
-        Map<String, String> renameRules = new HashMap<>(); // 原名称 -> 新名称
-        Map<String, String> mergeRules = new HashMap<>(); // 原名称 -> 合并后的名称
-        Map<String, String> assignHoursRules = new HashMap<>(); // 学员名称 -> 源课程名称
-        List<String> hiddenStudents = new java.util.ArrayList<>(); // 隐藏的学员列表
-        
-        for (com.timetable.entity.StudentOperationRecord record : records) {
-            String operationType = record.getOperationType();
-            String oldName = record.getOldName();
-            String newName = record.getNewName();
-            
-            switch (operationType) {
-                case "RENAME":
-                    if (oldName != null && newName != null) {
-                        renameRules.put(oldName, newName);
-                    }
-                    break;
-                case "MERGE":
-                    if (oldName != null && newName != null) {
-                        // 合并规则：将原学员重命名为新名字
-                        mergeRules.put(oldName, newName);
-                    }
-                    break;
-                case "HIDE":
-                    if (oldName != null) {
-                        hiddenStudents.add(oldName);
-                    }
-                    break;
-                case "ASSIGN_HOURS":
-                    if (oldName != null && newName != null) {
-                        // oldName是被分配的学员，newName是源课程名称
-                        assignHoursRules.put(oldName, newName);
-                    }
-                    break;
-            }
-        }
-        
-        // 应用规则：先处理名称转换，最后过滤隐藏记录
         return schedules.stream()
             .map(schedule -> {
-                String studentName = schedule.getStudentName();
                 ScheduleWithCoachDTO newSchedule = new ScheduleWithCoachDTO(schedule, schedule.getCoachName());
-                
-                // 1. 先应用重命名规则
-                if (renameRules.containsKey(studentName)) {
-                    newSchedule.setStudentName(renameRules.get(studentName));
-                    studentName = newSchedule.getStudentName(); // 更新当前名称
-                }
-                
-                // 2. 再应用合并规则
-                if (mergeRules.containsKey(studentName)) {
-                    newSchedule.setStudentName(mergeRules.get(studentName));
-                    studentName = newSchedule.getStudentName(); // 更新当前名称
+                newSchedule.setSourceType(schedule.getSourceType());
+                String studentName = schedule.getStudentName();
+                if (studentName != null) {
+                    newSchedule.setStudentName(rules.resolveMergedName(studentName));
                 }
-                
-                // 3. 分配课时规则不应该改变学员名称显示，只影响课时计算
-                // 这里暂时注释掉，因为分配课时规则应该只影响课时统计，不应该改变学员名称
-                // if (assignHoursRules.containsKey(studentName)) {
-                //     newSchedule.setStudentName(assignHoursRules.get(studentName));
-                // }
-                
                 return newSchedule;
             })
-            .filter(schedule -> {
-                // 4. 最后过滤掉被隐藏的学员（基于最终转换后的名称）
-                String finalStudentName = schedule.getStudentName();
-                
-                // 直接检查最终名称是否在隐藏列表中
-                if (hiddenStudents.contains(finalStudentName)) {
-                    return false;
-                }
-                
-                // 还需要检查原始名称是否在隐藏列表中
-                String originalStudentName = schedule.getStudentName();
-                // 这里需要反向查找原始名称
-                // 由于我们已经应用了所有转换规则，需要检查是否有原始名称被隐藏
-                for (String hiddenName : hiddenStudents) {
-                    // 检查是否通过任何规则转换到了隐藏的学员
-                    if (renameRules.containsKey(hiddenName) && renameRules.get(hiddenName).equals(originalStudentName)) {
-                        return false;
-                    }
-                    if (mergeRules.containsKey(hiddenName) && mergeRules.get(hiddenName).equals(originalStudentName)) {
-                        return false;
-                    }
-                    if (assignHoursRules.containsKey(hiddenName) && assignHoursRules.get(hiddenName).equals(originalStudentName)) {
-                        return false;
-                    }
-                }
-                
-                return true;
-            })
             .collect(java.util.stream.Collectors.toList());
     }
 }
-
-
@@ -6,25 +6,52 @@ import com.timetable.entity.UserSalarySetting;
 import com.timetable.generated.tables.pojos.Users;
 import com.timetable.repository.UserSalarySettingRepository;
 import com.timetable.repository.ScheduleRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 工资计算服务
+ * 按机构批量计算：每个机构一次加载工资系统设置和全部教练的工资设置，每个记薪周期一次分组查询所有教练的课时，
+ * 各（机构, 月份）的计算在有界线程池中并行执行，每次计算的耗时记录到 salary.calculation.duration 指标
+ */
 @Service
 public class SalaryCalculationService {
 
+    private static final Logger logger = LoggerFactory.getLogger(SalaryCalculationService.class);
+
+    private static final int CALCULATION_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final int CALCULATION_QUEUE_CAPACITY = 256;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
     @Autowired
     private UserSalarySettingRepository salarySettingRepository;
 
@@ -41,59 +68,34 @@ public class SalaryCalculationService {
     private JdbcTemplate jdbcTemplate;
     
     @Autowired
-    private ReportService reportService;
+    private LessonHoursLedgerService lessonHoursLedgerService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 工资计算线程池：线程数和队列均有上限，队列满时由调用线程自行计算
+    private final ExecutorService calculationExecutor = createCalculationExecutor();
 
     /**
-     * 计算指定月份的工资
+     * 计算指定月份的工资（所有机构）
      * @param month 月份，格式：YYYY-MM
      * @return 工资计算结果列表
      */
     public List<SalaryCalculationDTO> calculateSalary(String month) {
-        List<SalaryCalculationDTO> result = new ArrayList<>();
-        Set<Long> processedUserIds = new HashSet<>();
-        
-        // 解析月份
-        YearMonth yearMonth = YearMonth.parse(month);
-        LocalDate now = LocalDate.now();
-        
-        // 获取所有用户
-        List<Users> users = userService.getAllApprovedUsers();
-        
-        for (Users user : users) {
-            if (!"USER".equals(user.getRole())) {
-                continue; // 只计算普通用户（教练）的工资
-            }
-            
-            // 防止重复处理同一个用户
-            if (processedUserIds.contains(user.getId())) {
-                continue;
-            }
-            processedUserIds.add(user.getId());
-            
-            // 获取该用户所属机构的工资系统设置
-            SalarySystemSetting systemSetting = user.getOrganizationId() != null ?
-                salarySystemSettingService.getSettingByOrganizationId(user.getOrganizationId()) :
-                salarySystemSettingService.getCurrentSetting();
-            
-            // 计算记薪周期
-            LocalDate[] periodRange = calculateSalaryPeriod(yearMonth, systemSetting);
-            LocalDate periodStart = periodRange[0];
-            LocalDate periodEnd = periodRange[1];
-            
-            // 如果记薪周期还未结束，跳过该用户
-            if (now.isBefore(periodEnd)) {
-                continue;
-            }
-            
-            SalaryCalculationDTO dto = calculateUserSalary(user, month, periodStart, periodEnd);
-            if (dto != null) {
-                result.add(dto);
-            }
-        }
-        
-        return result;
+        return calculateBatch("month", approvedCoaches(userService.getAllApprovedUsers()),
+                Collections.singletonList(YearMonth.parse(month)));
     }
-    
+
+    /**
+     * 计算指定机构指定月份的工资
+     * @param month 月份，格式：YYYY-MM
+     * @param organizationId 机构ID
+     */
+    public List<SalaryCalculationDTO> calculateSalary(String month, Long organizationId) {
+        return calculateBatch("month", approvedCoaches(userService.getUsersByOrganizationId(organizationId)),
+                Collections.singletonList(YearMonth.parse(month)));
+    }
+
     /**
      * 根据月份和工资系统设置计算记薪周期
      */
@@ -133,15 +135,120 @@ public class SalaryCalculationService {
     }
 
     /**
-     * 计算单个用户的工资
+     * 批量计算工资：按机构分组，每个机构加载一次设置，每个（机构, 月份）提交一个计算任务
+     * 结果按月份倒序、机构分组、教练原有顺序排列；记薪周期尚未结束的月份不计算
+     */
+    private List<SalaryCalculationDTO> calculateBatch(String operation, List<Users> coaches, List<YearMonth> months) {
+        long startNanos = System.nanoTime();
+
+        Map<Long, List<Users>> coachesByOrganization = new LinkedHashMap<>();
+        for (Users coach : coaches) {
+            coachesByOrganization.computeIfAbsent(coach.getOrganizationId(), key -> new ArrayList<>()).add(coach);
+        }
+
+        List<OrganizationBatch> batches = new ArrayList<>();
+        for (Map.Entry<Long, List<Users>> entry : coachesByOrganization.entrySet()) {
+            OrganizationBatch batch = loadOrganizationBatch(entry.getKey(), entry.getValue());
+            if (!batch.coaches.isEmpty()) {
+                batches.add(batch);
+            }
+        }
+
+        LocalDate now = LocalDate.now();
+        List<Future<List<SalaryCalculationDTO>>> futures = new ArrayList<>();
+        for (YearMonth month : months) {
+            for (OrganizationBatch batch : batches) {
+                LocalDate[] periodRange = calculateSalaryPeriod(month, batch.systemSetting);
+                LocalDate periodStart = periodRange[0];
+                LocalDate periodEnd = periodRange[1];
+
+                // 如果记薪周期还未结束，不计算该月份
+                if (now.isBefore(periodEnd)) {
+                    continue;
+                }
+                futures.add(calculationExecutor.submit(() -> calculatePeriod(batch, month, periodStart, periodEnd)));
+            }
+        }
+
+        List<SalaryCalculationDTO> result = new ArrayList<>();
+        try {
+            for (Future<List<SalaryCalculationDTO>> future : futures) {
+                result.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("工资计算被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("工资计算失败: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Timer.builder("salary.calculation.duration")
+                .description("工资批量计算耗时")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        logger.info("工资批量计算完成: operation={}, 机构数={}, 月份数={}, 计算任务数={}, 结果数={}, 耗时={}ms",
+                operation, batches.size(), months.size(), futures.size(), result.size(),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return result;
+    }
+
+    /**
+     * 加载机构的工资系统设置和教练在本机构的工资设置（各一次查询），没有工资设置的教练不计算工资
+     */
+    private OrganizationBatch loadOrganizationBatch(Long organizationId, List<Users> coaches) {
+        SalarySystemSetting systemSetting = organizationId != null ?
+            salarySystemSettingService.getSettingByOrganizationId(organizationId) :
+            salarySystemSettingService.getCurrentSetting();
+
+        List<Long> coachIds = new ArrayList<>();
+        for (Users coach : coaches) {
+            coachIds.add(coach.getId());
+        }
+        // 教练在每个机构各有一条设置：优先使用本机构的设置，没有时才使用未关联机构的旧设置
+        Map<Long, UserSalarySetting> settings = new HashMap<>();
+        for (UserSalarySetting setting : salarySettingRepository.findByUserIdsAndOrganizationId(coachIds, organizationId)) {
+            if (setting.getOrganizationId() != null || !settings.containsKey(setting.getUserId())) {
+                settings.put(setting.getUserId(), setting);
+            }
+        }
+
+        List<Users> coachesWithSetting = new ArrayList<>();
+        for (Users coach : coaches) {
+            if (settings.containsKey(coach.getId())) {
+                coachesWithSetting.add(coach);
+            }
+        }
+        return new OrganizationBatch(organizationId, systemSetting, coachesWithSetting, settings);
+    }
+
+    /**
+     * 计算机构在一个记薪周期内所有教练的工资：一次分组查询取得课时，再逐个计算金额
      */
-    private SalaryCalculationDTO calculateUserSalary(Users user, String month, LocalDate periodStart, LocalDate periodEnd) {
-        // 获取用户工资设置
-        UserSalarySetting setting = salarySettingRepository.findByUserId(user.getId());
-        if (setting == null) {
-            return null; // 没有工资设置的用户不计算工资
+    private List<SalaryCalculationDTO> calculatePeriod(OrganizationBatch batch, YearMonth month,
+                                                       LocalDate periodStart, LocalDate periodEnd) {
+        Map<Long, Double> hoursByCoach = calculateTotalHours(batch, periodStart, periodEnd);
+
+        List<SalaryCalculationDTO> result = new ArrayList<>();
+        for (Users coach : batch.coaches) {
+            double totalHours = Math.round(hoursByCoach.getOrDefault(coach.getId(), 0.0) * 10.0) / 10.0;
+            SalaryCalculationDTO dto = calculateUserSalary(coach, batch.settings.get(coach.getId()),
+                    month.toString(), periodStart, periodEnd, totalHours);
+            if (dto != null) {
+                result.add(dto);
+            }
         }
+        return result;
+    }
 
+    /**
+     * 计算单个用户的工资
+     */
+    private SalaryCalculationDTO calculateUserSalary(Users user, UserSalarySetting setting, String month,
+                                                     LocalDate periodStart, LocalDate periodEnd, double totalHours) {
         SalaryCalculationDTO dto = new SalaryCalculationDTO();
         dto.setUserId(user.getId());
         dto.setUsername(user.getUsername());
@@ -149,8 +256,7 @@ public class SalaryCalculationService {
         dto.setMonth(month);
         dto.setSalaryPeriodStart(periodStart);
         dto.setSalaryPeriodEnd(periodEnd);
-        dto.setSalaryPeriod(periodStart.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + 
-                           " ~ " + periodEnd.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+        dto.setSalaryPeriod(periodStart.format(DATE_FORMATTER) + " ~ " + periodEnd.format(DATE_FORMATTER));
 
         // 设置基础工资信息
         dto.setBaseSalary(setting.getBaseSalary() != null ? setting.getBaseSalary() : BigDecimal.ZERO);
@@ -158,9 +264,6 @@ public class SalaryCalculationService {
         dto.setSocialSecurity(setting.getSocialSecurity() != null ? setting.getSocialSecurity() : BigDecimal.ZERO);
         dto.setCommissionRate(setting.getCommissionRate() != null ? setting.getCommissionRate() : BigDecimal.ZERO);
 
-        // 计算该时间段内的课时数
-        Double totalHours = calculateTotalHours(user.getId(), user.getOrganizationId(), periodStart, periodEnd);
-        
         // 如果课时数为0且没有底薪，则不生成工资记录
         if (totalHours == 0.0 && dto.getBaseSalary().compareTo(BigDecimal.ZERO) == 0) {
             return null;
@@ -187,63 +290,60 @@ public class SalaryCalculationService {
     }
 
     /**
-     * 计算用户在指定时间段内的总课时数
-     * 使用与"我的课时"页面相同的逻辑，包括学员操作规则过滤
+     * 一次查询计算机构所有教练在指定时间段内的总课时数
+     * 读取课时台账的预聚合结果，口径与"我的课时"页面一致（包括学员操作规则过滤）
+     * 查询失败时直接抛出，不能按 0 课时算出工资
      */
-    private Double calculateTotalHours(Long userId, Long organizationId, LocalDate startDate, LocalDate endDate) {
-        try {
-            // 使用ReportService的相同逻辑来计算课时，确保与"我的课时"页面保持一致
-            Map<String, Object> hoursData = reportService.queryHoursPaged(userId, organizationId, startDate, endDate, 1, Integer.MAX_VALUE, "desc");
-            
-            // 从结果中获取总课时数
-            Object grandTotalHours = hoursData.get("grandTotalHours");
-            if (grandTotalHours instanceof Double) {
-                return Math.round(((Double) grandTotalHours) * 10.0) / 10.0;
-            } else if (grandTotalHours instanceof Number) {
-                return Math.round(((Number) grandTotalHours).doubleValue() * 10.0) / 10.0;
+    private Map<Long, Double> calculateTotalHours(OrganizationBatch batch, LocalDate startDate, LocalDate endDate) {
+        return lessonHoursLedgerService.sumCompletedHoursByCoach(batch.settings.keySet(), batch.organizationId,
+                startDate, endDate);
+    }
+
+    /**
+     * 去重后的已审核教练（普通用户）
+     */
+    private List<Users> approvedCoaches(List<Users> users) {
+        List<Users> coaches = new ArrayList<>();
+        Set<Long> processedUserIds = new HashSet<>();
+        for (Users user : users) {
+            if (!"USER".equals(user.getRole()) || !"APPROVED".equals(user.getStatus())) {
+                continue; // 只计算普通用户（教练）的工资
+            }
+            // 防止重复处理同一个用户
+            if (processedUserIds.add(user.getId())) {
+                coaches.add(user);
             }
-            
-            return 0.0;
-        } catch (Exception e) {
-            System.err.println("计算课时数时发生错误: " + e.getMessage());
-            e.printStackTrace();
-            return 0.0;
         }
+        return coaches;
     }
 
     /**
-     * 获取最近N个月的工资计算结果
+     * 从当前月份往前的N个月（最新月份在前）
      */
-    public List<SalaryCalculationDTO> getRecentSalaryCalculations(int months) {
-        List<SalaryCalculationDTO> result = new ArrayList<>();
-        Set<String> processedKeys = new HashSet<>();
-        
-        LocalDate now = LocalDate.now();
-        YearMonth currentMonth = YearMonth.from(now);
-        
+    private List<YearMonth> recentMonths(int months) {
+        List<YearMonth> result = new ArrayList<>();
+        YearMonth currentMonth = YearMonth.now();
         for (int i = 0; i < months; i++) {
-            YearMonth targetMonth = currentMonth.minusMonths(i);
-            
-            // 只计算当前月份及之前的月份，不计算未来月份
-            if (targetMonth.isAfter(currentMonth)) {
-                continue;
-            }
-            
-            List<SalaryCalculationDTO> monthlyResult = calculateSalary(targetMonth.toString());
-            
-            // 添加去重逻辑：确保同一个用户在同一个月份只有一条记录
-            for (SalaryCalculationDTO dto : monthlyResult) {
-                String key = dto.getUserId() + "-" + dto.getMonth();
-                if (!processedKeys.contains(key)) {
-                    processedKeys.add(key);
-                    result.add(dto);
-                }
-            }
+            result.add(currentMonth.minusMonths(i));
         }
-        
         return result;
     }
 
+    /**
+     * 获取最近N个月的工资计算结果（所有机构）
+     */
+    public List<SalaryCalculationDTO> getRecentSalaryCalculations(int months) {
+        return calculateBatch("recent", approvedCoaches(userService.getAllApprovedUsers()), recentMonths(months));
+    }
+
+    /**
+     * 获取指定机构最近N个月的工资计算结果
+     */
+    public List<SalaryCalculationDTO> getRecentSalaryCalculations(int months, Long organizationId) {
+        return calculateBatch("recent", approvedCoaches(userService.getUsersByOrganizationId(organizationId)),
+                recentMonths(months));
+    }
+
     /**
      * 获取有课时记录的所有月份列表（只返回记薪周期已结束的月份）
      * 从数据库中查询最早的课时记录，生成从那时到现在的所有月份
@@ -342,54 +442,11 @@ public class SalaryCalculationService {
      * 获取指定用户最近N个月的工资计算结果
      */
     public List<SalaryCalculationDTO> getUserSalaryCalculations(Long userId, int months) {
-        List<SalaryCalculationDTO> result = new ArrayList<>();
-        Set<String> processedKeys = new HashSet<>();
-        
-        // 获取用户信息
         Users user = userService.findById(userId);
         if (user == null) {
-            return result;
-        }
-        
-        // 获取该用户所属机构的工资系统设置
-        SalarySystemSetting systemSetting = user.getOrganizationId() != null ?
-            salarySystemSettingService.getSettingByOrganizationId(user.getOrganizationId()) :
-            salarySystemSettingService.getCurrentSetting();
-        
-        LocalDate now = LocalDate.now();
-        YearMonth currentMonth = YearMonth.from(now);
-        
-        for (int i = 0; i < months; i++) {
-            YearMonth targetMonth = currentMonth.minusMonths(i);
-            
-            // 只计算当前月份及之前的月份，不计算未来月份
-            if (targetMonth.isAfter(currentMonth)) {
-                continue;
-            }
-            
-            // 计算记薪周期
-            LocalDate[] periodRange = calculateSalaryPeriod(targetMonth, systemSetting);
-            LocalDate periodStart = periodRange[0];
-            LocalDate periodEnd = periodRange[1];
-            
-            // 如果当前日期小于记薪周期的结束日期，则不显示该月份工资
-            if (now.isBefore(periodEnd)) {
-                continue;
-            }
-            
-            // 计算该用户在该月的工资
-            SalaryCalculationDTO dto = calculateUserSalary(user, targetMonth.toString(), periodStart, periodEnd);
-            
-            if (dto != null) {
-                String key = dto.getUserId() + "-" + dto.getMonth();
-                if (!processedKeys.contains(key)) {
-                    processedKeys.add(key);
-                    result.add(dto);
-                }
-            }
+            return new ArrayList<>();
         }
-        
-        return result;
+        return calculateBatch("user", Collections.singletonList(user), recentMonths(months));
     }
 
     /**
@@ -492,4 +549,39 @@ public class SalaryCalculationService {
         
         return months;
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    public void shutdown() {
+        calculationExecutor.shutdownNow();
+    }
+
+    private static ExecutorService createCalculationExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(CALCULATION_THREADS, CALCULATION_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(CALCULATION_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "salary-calculation-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 一个机构的批量计算上下文：工资系统设置 + 有工资设置的教练
+     */
+    private static final class OrganizationBatch {
+        private final Long organizationId;
+        private final SalarySystemSetting systemSetting;
+        private final List<Users> coaches;
+        private final Map<Long, UserSalarySetting> settings;
+
+        private OrganizationBatch(Long organizationId, SalarySystemSetting systemSetting, List<Users> coaches,
+                                  Map<Long, UserSalarySetting> settings) {
+            this.organizationId = organizationId;
+            this.systemSetting = systemSetting;
+            this.coaches = coaches;
+            this.settings = settings;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.timetable.service;
+
+import com.timetable.entity.WeeklyInstance;
+import com.timetable.repository.WeeklyInstanceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 课表与周实例的变更计数
+ * ScheduleService、WeeklyInstanceService 每次写入课程时递增对应计数，读取接口以计数生成强 ETag，
+ * 条件请求（If-None-Match）只比较计数即可返回 304，不需要读取课程表。
+ * - 课表计数：课表的模板课程、日期课程或任一周实例发生变化
+ * - 模板计数：课表的模板课程发生变化（同时递增课表计数）
+ * - 实例计数：周实例本身或其课程发生变化（同时递增所属课表计数）
+ * - 学员规则计数：任一教练的学员改名、隐藏、合并规则发生变化（视图中的学员名称依赖规则，所有 ETag 都带上该计数）
+ * 计数保存在内存中，ETag 带有启动标识，应用重启后旧 ETag 全部失效。
+ * 只适用于单实例部署：多个实例各自计数，其他实例上的写入不会改变本实例发出的 ETag；
+ * 因此所有写入课程、周实例和学员规则的路径（包括定时任务和试听课 outbox）都必须经过本类计数。
+ * 事务内的写入在提交后才递增，避免读取到未提交数据之前就发出新 ETag。
+ */
+@Service
+public class ScheduleChangeTracker {
+
+    private static final String PENDING_CHANGES_KEY = ScheduleChangeTracker.class.getName() + ".pending";
+
+    private static final String TIMETABLE = "t";
+    private static final String TEMPLATE = "m";
+    private static final String INSTANCE = "i";
+    private static final String RULES = "r";
+
+    private static final Long ALL_RULES = 0L;
+
+    @Autowired
+    private WeeklyInstanceRepository weeklyInstanceRepository;
+
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<Long, AtomicLong> timetableVersions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> templateVersions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> instanceVersions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> ruleVersions = new ConcurrentHashMap<>();
+
+    // 周实例 -> 所属课表（实例不会更换课表，可以一直缓存）
+    private final Map<Long, Long> instanceTimetableIds = new ConcurrentHashMap<>();
+
+    /**
+     * 课表的课程发生变化
+     */
+    public void timetableChanged(Long timetableId) {
+        if (timetableId != null) {
+            register(new Change(TIMETABLE, timetableId));
+        }
+    }
+
+    /**
+     * 课表的模板课程发生变化
+     */
+    public void templateChanged(Long timetableId) {
+        if (timetableId != null) {
+            register(new Change(TEMPLATE, timetableId));
+            register(new Change(TIMETABLE, timetableId));
+        }
+    }
+
+    /**
+     * 周实例或其课程发生变化
+     */
+    public void instanceChanged(WeeklyInstance instance) {
+        if (instance == null || instance.getId() == null) {
+            return;
+        }
+        if (instance.getTemplateTimetableId() != null) {
+            instanceTimetableIds.put(instance.getId(), instance.getTemplateTimetableId());
+        }
+        register(new Change(INSTANCE, instance.getId()));
+        timetableChanged(instance.getTemplateTimetableId());
+    }
+
+    /**
+     * 周实例的课程发生变化（只知道实例ID时使用）
+     */
+    public void instanceChanged(Long instanceId) {
+        if (instanceId == null) {
+            return;
+        }
+        register(new Change(INSTANCE, instanceId));
+        timetableChanged(getTimetableIdOfInstance(instanceId));
+    }
+
+    /**
+     * 学员改名、隐藏、合并规则发生变化
+     */
+    public void rulesChanged() {
+        register(new Change(RULES, ALL_RULES));
+    }
+
+    public long getTimetableVersion(Long timetableId) {
+        return versionOf(timetableVersions, timetableId);
+    }
+
+    public long getInstanceVersion(Long instanceId) {
+        return versionOf(instanceVersions, instanceId);
+    }
+
+    /**
+     * 课表视图的强 ETag
+     * @param view 视图名称（today、tomorrow、this-week 等），不同视图的 ETag 互不相同
+     * @param day 视图所对应的日期（今日、明日、本周一），日期变化后 ETag 随之变化
+     */
+    public String timetableETag(Long timetableId, String view, LocalDate day) {
+        return "\"" + bootId + "-" + view + "-" + day + "-t" + timetableId + "." + getTimetableVersion(timetableId)
+                + "-r" + versionOf(ruleVersions, ALL_RULES) + "\"";
+    }
+
+    /**
+     * 周实例课程视图的强 ETag（实例课程的“已修改”标记依赖模板，所以同时带上模板计数）
+     */
+    public String instanceETag(WeeklyInstance instance, String view) {
+        return "\"" + bootId + "-" + view + "-i" + instance.getId() + "." + getInstanceVersion(instance.getId())
+                + "-m" + instance.getTemplateTimetableId() + "." + versionOf(templateVersions, instance.getTemplateTimetableId())
+                + "-r" + versionOf(ruleVersions, ALL_RULES) + "\"";
+    }
+
+    /**
+     * 周实例所属的课表ID
+     */
+    public Long getTimetableIdOfInstance(Long instanceId) {
+        if (instanceId == null) {
+            return null;
+        }
+        Long timetableId = instanceTimetableIds.get(instanceId);
+        if (timetableId != null) {
+            return timetableId;
+        }
+        WeeklyInstance instance = weeklyInstanceRepository.findById(instanceId);
+        if (instance == null || instance.getTemplateTimetableId() == null) {
+            return null;
+        }
+        instanceTimetableIds.put(instanceId, instance.getTemplateTimetableId());
+        return instance.getTemplateTimetableId();
+    }
+
+    private static long versionOf(Map<Long, AtomicLong> versions, Long id) {
+        AtomicLong version = id != null ? versions.get(id) : null;
+        return version != null ? version.get() : 0L;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void register(Change change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(change);
+            return;
+        }
+        Set<Change> pending = (Set<Change>) TransactionSynchronizationManager.getResource(PENDING_CHANGES_KEY);
+        if (pending == null) {
+            Set<Change> changes = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(PENDING_CHANGES_KEY, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_CHANGES_KEY);
+                    if (status == STATUS_COMMITTED) {
+                        for (Change committed : new ArrayList<>(changes)) {
+                            apply(committed);
+                        }
+                    }
+                }
+            });
+            pending = changes;
+        }
+        pending.add(change);
+    }
+
+    private void apply(Change change) {
+        Map<Long, AtomicLong> versions;
+        switch (change.kind) {
+            case TEMPLATE:
+                versions = templateVersions;
+                break;
+            case INSTANCE:
+                versions = instanceVersions;
+                break;
+            case RULES:
+                versions = ruleVersions;
+                break;
+            default:
+                versions = timetableVersions;
+        }
+        versions.computeIfAbsent(change.id, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static final class Change {
+        private final String kind;
+        private final Long id;
+
+        private Change(String kind, Long id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Change)) {
+                return false;
+            }
+            Change that = (Change) o;
+            return kind.equals(that.kind) && id.equals(that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + id.hashCode();
+        }
+    }
+}
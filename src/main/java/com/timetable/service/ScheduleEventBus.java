@@ -0,0 +1,225 @@
+package com.timetable.service;
+
+import com.timetable.dto.ScheduleChangeEvent;
+import com.timetable.generated.tables.pojos.Timetables;
+import com.timetable.repository.TimetableRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 进程内课程变更事件总线
+ * ScheduleService、WeeklyInstanceService 写入课程后发布事件，SSE 连接按机构或课表订阅。
+ * 事务内发布的事件在提交后才分发（回滚的写入不会推送）。
+ * 每个订阅者的消息（事件和心跳）经过同一个有界缓冲区，由投递线程池逐条串行写出（见 deliver），
+ * 发布方只向缓冲区写入，不会被慢客户端阻塞；缓冲区溢出说明客户端已停止读取，直接结束该连接，
+ * 客户端重连时重新加载即可（事件只是“需要重新加载”的提示）。
+ */
+@Service
+public class ScheduleEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleEventBus.class);
+
+    private static final String PENDING_EVENTS_KEY = ScheduleEventBus.class.getName() + ".pending";
+
+    // 每个订阅者最多缓存的未发送消息数
+    private static final int SUBSCRIBER_BUFFER_SIZE = 64;
+
+    // 同时在写出的连接数上限；写出阻塞的连接只占用自己的线程，空闲线程 60 秒后回收
+    private static final int MAX_DELIVERY_THREADS = 256;
+
+    @Autowired
+    private TimetableRepository timetableRepository;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    // 课表 -> 机构（课表不会更换机构，可以一直缓存）
+    private final Map<Long, Long> timetableOrganizationIds = new ConcurrentHashMap<>();
+
+    // 向 SSE 连接写出消息的线程（写出可能阻塞在网络上，不占用发布方线程）
+    private ExecutorService deliveryExecutor;
+    private Scheduler deliveryScheduler;
+
+    private Counter publishedCounter;
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        deliveryExecutor = new ThreadPoolExecutor(0, MAX_DELIVERY_THREADS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "schedule-events-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        deliveryScheduler = Schedulers.fromExecutorService(deliveryExecutor, "schedule-events");
+        publishedCounter = Counter.builder("schedule.events.published")
+                .description("已发布的课程变更事件数").register(meterRegistry);
+        droppedCounter = Counter.builder("schedule.events.dropped")
+                .description("缓冲区溢出而结束的订阅数").register(meterRegistry);
+        Gauge.builder("schedule.events.subscribers", subscriptions, Set::size)
+                .description("当前课程变更事件订阅数").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Subscription subscription : new ArrayList<>(subscriptions)) {
+            subscription.sink.complete();
+        }
+        if (deliveryScheduler != null) {
+            deliveryScheduler.dispose();
+            deliveryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 课表（模板课程或日期课程）的课程变更
+     */
+    public void publish(String type, Long timetableId, Long scheduleId, LocalDate scheduleDate) {
+        if (timetableId != null) {
+            publish(new ScheduleChangeEvent(type, timetableId, null, scheduleId, scheduleDate));
+        }
+    }
+
+    /**
+     * 周实例的课程变更（scheduleId 为空表示整个实例变化）
+     */
+    public void publishInstance(String type, Long timetableId, Long weeklyInstanceId, Long scheduleId, LocalDate scheduleDate) {
+        if (timetableId == null) {
+            timetableId = scheduleChangeTracker.getTimetableIdOfInstance(weeklyInstanceId);
+        }
+        if (timetableId != null) {
+            publish(new ScheduleChangeEvent(type, timetableId, weeklyInstanceId, scheduleId, scheduleDate));
+        }
+    }
+
+    /**
+     * 订阅机构内所有课表的变更
+     */
+    public Flux<ScheduleChangeEvent> subscribeOrganization(Long organizationId) {
+        return subscribe(event -> Objects.equals(organizationId, event.getOrganizationId()));
+    }
+
+    /**
+     * 订阅单个课表的变更
+     */
+    public Flux<ScheduleChangeEvent> subscribeTimetable(Long timetableId) {
+        return subscribe(event -> Objects.equals(timetableId, event.getTimetableId()));
+    }
+
+    /**
+     * 一个连接的写出路径：传入该连接要写出的全部消息（订阅的事件与心跳合并后的流），
+     * 返回的流在投递线程池上逐条发出，同一连接的写出不会并发，也不会被其他连接的慢写出阻塞。
+     * 缓冲区溢出或投递线程用尽时以错误结束，调用方据此结束连接
+     */
+    public <T> Flux<T> deliver(Flux<T> messages) {
+        return messages
+                .onBackpressureBuffer(SUBSCRIBER_BUFFER_SIZE, dropped -> droppedCounter.increment(),
+                        BufferOverflowStrategy.ERROR)
+                .publishOn(deliveryScheduler, 1);
+    }
+
+    private Flux<ScheduleChangeEvent> subscribe(Predicate<ScheduleChangeEvent> filter) {
+        return Flux.<ScheduleChangeEvent>create(sink -> {
+                    Subscription subscription = new Subscription(filter, sink);
+                    subscriptions.add(subscription);
+                    sink.onDispose(() -> subscriptions.remove(subscription));
+                }, FluxSink.OverflowStrategy.IGNORE);
+    }
+
+    private void publish(ScheduleChangeEvent event) {
+        event.setOrganizationId(resolveOrganizationId(event.getTimetableId()));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatch(event);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<ScheduleChangeEvent> pending = (List<ScheduleChangeEvent>) TransactionSynchronizationManager.getResource(PENDING_EVENTS_KEY);
+        if (pending == null) {
+            List<ScheduleChangeEvent> events = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(PENDING_EVENTS_KEY, events);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_EVENTS_KEY);
+                    if (status == STATUS_COMMITTED) {
+                        for (ScheduleChangeEvent committed : events) {
+                            dispatch(committed);
+                        }
+                    }
+                }
+            });
+            pending = events;
+        }
+        pending.add(event);
+    }
+
+    private void dispatch(ScheduleChangeEvent event) {
+        publishedCounter.increment();
+        for (Subscription subscription : subscriptions) {
+            try {
+                if (subscription.filter.test(event)) {
+                    subscription.sink.next(event);
+                }
+            } catch (Exception e) {
+                logger.warn("分发课程变更事件失败: {}", event, e);
+            }
+        }
+    }
+
+    private Long resolveOrganizationId(Long timetableId) {
+        Long organizationId = timetableOrganizationIds.get(timetableId);
+        if (organizationId != null) {
+            return organizationId;
+        }
+        Timetables timetable = timetableRepository.findById(timetableId);
+        if (timetable == null || timetable.getOrganizationId() == null) {
+            return null;
+        }
+        timetableOrganizationIds.put(timetableId, timetable.getOrganizationId());
+        return timetable.getOrganizationId();
+    }
+
+    private static final class Subscription {
+        private final Predicate<ScheduleChangeEvent> filter;
+        private final FluxSink<ScheduleChangeEvent> sink;
+
+        private Subscription(Predicate<ScheduleChangeEvent> filter, FluxSink<ScheduleChangeEvent> sink) {
+            this.filter = filter;
+            this.sink = sink;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.timetable.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.timetable.dto.ScheduleChangeEvent;
 import com.timetable.dto.ScheduleRequest;
 import com.timetable.dto.ai.ScheduleInfo;
 import com.timetable.dto.ConflictInfo;
@@ -9,8 +10,11 @@ import com.timetable.dto.ConflictCheckResult;
 import com.timetable.entity.WeeklyInstance;
 import com.timetable.generated.tables.pojos.Schedules;
 import com.timetable.generated.tables.pojos.Timetables;
+import com.timetable.repository.CoachAvailabilityRepository;
 import com.timetable.repository.ScheduleRepository;
 import com.timetable.repository.TimetableRepository;
+import com.timetable.repository.WeeklyInstanceRepository;
+import com.timetable.util.ScheduleConflictIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -59,6 +63,21 @@ public class ScheduleService {
     @Autowired
     private org.springframework.jdbc.core.JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private LessonHoursLedgerService lessonHoursLedgerService;
+
+    @Autowired
+    private CoachAvailabilityRepository coachAvailabilityRepository;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
+    @Autowired
+    private ScheduleEventBus scheduleEventBus;
+
+    @Autowired
+    private WeeklyInstanceRepository weeklyInstanceRepository;
+
     private static final Map<String, DayOfWeek> weekDayMap = new LinkedHashMap<>();
     static {
         weekDayMap.put("一", DayOfWeek.MONDAY);
@@ -443,6 +462,9 @@ public class ScheduleService {
         schedule.setCreatedAt(LocalDateTime.now());
         schedule.setUpdatedAt(LocalDateTime.now());
         scheduleRepository.save(schedule);
+        lessonHoursLedgerService.markDirty(timetableId, schedule.getScheduleDate());
+        markScheduleChanged(timetableId, schedule.getScheduleDate() == null);
+        scheduleEventBus.publish(ScheduleChangeEvent.TYPE_CREATED, timetableId, schedule.getId(), schedule.getScheduleDate());
 
         // 周固定课表：如果是模板课程（scheduleDate为空），选择性同步到“当前周实例”的未来时段
         try {
@@ -469,6 +491,7 @@ public class ScheduleService {
         if (schedule == null) {
             return null;
         }
+        LocalDate previousDate = schedule.getScheduleDate();
 
         schedule.setStudentName(request.getStudentName());
         schedule.setSubject(request.getSubject());
@@ -480,6 +503,11 @@ public class ScheduleService {
         schedule.setNote(request.getNote());
         schedule.setUpdatedAt(LocalDateTime.now());
         scheduleRepository.update(schedule);
+        lessonHoursLedgerService.markDirty(timetableId, previousDate);
+        lessonHoursLedgerService.markDirty(timetableId, schedule.getScheduleDate());
+        // 修改前后任一为模板课程都改变了模板内容
+        markScheduleChanged(timetableId, previousDate == null || schedule.getScheduleDate() == null);
+        scheduleEventBus.publish(ScheduleChangeEvent.TYPE_UPDATED, timetableId, schedule.getId(), schedule.getScheduleDate());
 
         // 周固定课表模板：仅影响当前周实例中未来时段
         try {
@@ -504,6 +532,7 @@ public class ScheduleService {
         if (schedule == null) {
             return null;
         }
+        LocalDate previousDate = schedule.getScheduleDate();
 
         if (request.getStudentName() != null) {
             schedule.setStudentName(request.getStudentName());
@@ -545,6 +574,11 @@ public class ScheduleService {
 
         schedule.setUpdatedAt(LocalDateTime.now());
         scheduleRepository.update(schedule);
+        lessonHoursLedgerService.markDirty(timetableId, previousDate);
+        lessonHoursLedgerService.markDirty(timetableId, schedule.getScheduleDate());
+        // 修改前后任一为模板课程都改变了模板内容
+        markScheduleChanged(timetableId, previousDate == null || schedule.getScheduleDate() == null);
+        scheduleEventBus.publish(ScheduleChangeEvent.TYPE_UPDATED, timetableId, schedule.getId(), schedule.getScheduleDate());
 
         // 周固定课表模板：仅影响当前周实例中未来时段
         try {
@@ -560,6 +594,23 @@ public class ScheduleService {
         return schedule;
     }
 
+    /**
+     * 课程写入后递增课表的变更计数（用于 ETag）
+     * @param templateChanged 写入涉及模板课程（scheduleDate 为空）时为 true：同时递增课表的模板版本号，
+     *                        周实例据此判断是否需要重新同步
+     */
+    private void markScheduleChanged(Long timetableId, boolean templateChanged) {
+        if (timetableId == null) {
+            return;
+        }
+        if (templateChanged) {
+            timetableRepository.bumpTemplateVersion(timetableId);
+            scheduleChangeTracker.templateChanged(timetableId);
+        } else {
+            scheduleChangeTracker.timetableChanged(timetableId);
+        }
+    }
+
     /**
      * 删除排课
      */
@@ -582,6 +633,9 @@ public class ScheduleService {
         }
 
         scheduleRepository.deleteById(scheduleId);
+        lessonHoursLedgerService.markDirty(timetableId, schedule.getScheduleDate());
+        markScheduleChanged(timetableId, schedule.getScheduleDate() == null);
+        scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, timetableId, scheduleId, schedule.getScheduleDate());
         return true;
     }
 
@@ -620,6 +674,8 @@ public class ScheduleService {
 
             // 保存到数据库
             scheduleRepository.save(schedule);
+            markScheduleChanged(timetableId, schedule.getScheduleDate() == null);
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_CREATED, timetableId, schedule.getId(), schedule.getScheduleDate());
             return schedule;
 
         } catch (Exception e) {
@@ -663,6 +719,8 @@ public class ScheduleService {
         schedule.setEndTime(times[1]);
 
         scheduleRepository.save(schedule);
+        markScheduleChanged(timetableId, schedule.getScheduleDate() == null);
+        scheduleEventBus.publish(ScheduleChangeEvent.TYPE_CREATED, timetableId, schedule.getId(), schedule.getScheduleDate());
         return schedule;
     }
 
@@ -765,60 +823,35 @@ public class ScheduleService {
         List<Schedules> createdSchedules = new ArrayList<>();
         List<ConflictInfo> conflicts = new ArrayList<>();
 
-        // 获取现有排课
-        List<Schedules> existingSchedules = scheduleRepository.findByTimetableId(timetableId);
+        // 现有排课建立冲突索引，新创建的排课也加入索引，以便后续冲突检查
+        ScheduleConflictIndex<Schedules> conflictIndex = buildConflictIndex(scheduleRepository.findByTimetableId(timetableId));
 
         for (ScheduleRequest request : requests) {
-            boolean hasConflict = false;
-
-            // 检查与现有排课的冲突
-            for (Schedules existing : existingSchedules) {
-                if (hasTimeConflict(request, existing)) {
-                    ConflictInfo conflict = new ConflictInfo();
-                    conflict.setConflictType(request.getStudentName().equals(existing.getStudentName()) ?
-                        "STUDENT_TIME_CONFLICT" : "TIME_SLOT_CONFLICT");
-                    conflict.setConflictDescription(generateConflictDescription(request, existing));
-                    conflict.setNewSchedule(request);
-                    conflict.setExistingSchedule(existing);
-                    conflicts.add(conflict);
-                    hasConflict = true;
-                    break; // 找到一个冲突就够了
-                }
-            }
-
-            // 检查与已创建排课的冲突
-            if (!hasConflict) {
-                for (Schedules created : createdSchedules) {
-                    if (hasTimeConflict(request, created)) {
-                        ConflictInfo conflict = new ConflictInfo();
-                        conflict.setConflictType(request.getStudentName().equals(created.getStudentName()) ?
-                            "STUDENT_TIME_CONFLICT" : "TIME_SLOT_CONFLICT");
-                        conflict.setConflictDescription(generateConflictDescription(request, created));
-                        conflict.setNewSchedule(request);
-                        conflict.setExistingSchedule(created);
-                        conflicts.add(conflict);
-                        hasConflict = true;
-                        break;
-                    }
-                }
+            // 检查与现有排课及已创建排课的冲突，找到一个冲突就够了
+            Schedules existing = findFirstConflict(conflictIndex, request);
+            if (existing != null) {
+                ConflictInfo conflict = new ConflictInfo();
+                conflict.setConflictType(determineConflictType(request, existing));
+                conflict.setConflictDescription(generateConflictDescription(request, existing));
+                conflict.setNewSchedule(request);
+                conflict.setExistingSchedule(existing);
+                conflicts.add(conflict);
+                continue;
             }
 
             // 如果没有冲突，直接创建
-            if (!hasConflict) {
-                try {
-                    Schedules newSchedule = createSchedule(timetableId, request);
-                    createdSchedules.add(newSchedule);
-                    // 同时添加到现有排课列表中，以便后续冲突检查
-                    existingSchedules.add(newSchedule);
-                } catch (Exception e) {
-                    logger.error("创建排课失败: {}", e.getMessage(), e);
-                    // 创建失败也当作冲突处理
-                    ConflictInfo conflict = new ConflictInfo();
-                    conflict.setConflictType("CREATION_ERROR");
-                    conflict.setConflictDescription("创建失败: " + e.getMessage());
-                    conflict.setNewSchedule(request);
-                    conflicts.add(conflict);
-                }
+            try {
+                Schedules newSchedule = createSchedule(timetableId, request);
+                createdSchedules.add(newSchedule);
+                indexSchedule(conflictIndex, newSchedule);
+            } catch (Exception e) {
+                logger.error("创建排课失败: {}", e.getMessage(), e);
+                // 创建失败也当作冲突处理
+                ConflictInfo conflict = new ConflictInfo();
+                conflict.setConflictType("CREATION_ERROR");
+                conflict.setConflictDescription("创建失败: " + e.getMessage());
+                conflict.setNewSchedule(request);
+                conflicts.add(conflict);
             }
         }
 
@@ -838,26 +871,28 @@ public class ScheduleService {
     public List<Schedules> createSchedulesWithOverride(Long timetableId, List<ScheduleRequest> requests) {
         List<Schedules> result = new ArrayList<>();
 
-        // 获取现有的排课数据
-        List<Schedules> existingSchedules = scheduleRepository.findByTimetableId(timetableId);
+        // 获取现有的排课数据并建立冲突索引
+        ScheduleConflictIndex<Schedules> conflictIndex = buildConflictIndex(scheduleRepository.findByTimetableId(timetableId));
 
         for (ScheduleRequest request : requests) {
             // 查找与当前请求冲突的现有排课
             List<Schedules> conflictingSchedules = new ArrayList<>();
 
-            for (Schedules existing : existingSchedules) {
-                if (hasTimeConflict(request, existing)) {
-                    // 如果是不同学员的冲突，需要删除原有排课
-                    if (!request.getStudentName().equals(existing.getStudentName())) {
-                        conflictingSchedules.add(existing);
-                    }
-                    // 如果是同一学员，不删除，允许重复
+            for (Schedules existing : findConflicts(conflictIndex, request)) {
+                // 如果是不同学员的冲突，需要删除原有排课
+                if (!request.getStudentName().equals(existing.getStudentName())) {
+                    conflictingSchedules.add(existing);
                 }
+                // 如果是同一学员，不删除，允许重复
             }
 
             // 删除冲突的排课（仅限不同学员）
             for (Schedules conflicting : conflictingSchedules) {
                 scheduleRepository.deleteById(conflicting.getId());
+                conflictIndex.remove(conflicting);
+                lessonHoursLedgerService.markDirty(timetableId, conflicting.getScheduleDate());
+                markScheduleChanged(timetableId, conflicting.getScheduleDate() == null);
+                scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, timetableId, conflicting.getId(), conflicting.getScheduleDate());
                 logger.info("删除冲突排课: 学生={}, 时间={}-{}, ID={}",
                     conflicting.getStudentName(),
                     conflicting.getStartTime(),
@@ -881,38 +916,46 @@ public class ScheduleService {
         List<ConflictInfo> conflicts = new ArrayList<>();
 
         try {
-            // 获取现有的排课数据
-            List<Schedules> existingSchedules = scheduleRepository.findByTimetableId(timetableId);
+            // 获取现有的排课数据并建立冲突索引
+            ScheduleConflictIndex<Schedules> conflictIndex = buildConflictIndex(scheduleRepository.findByTimetableId(timetableId));
+
+            // 新排课之间的冲突索引，值为请求下标
+            ScheduleConflictIndex<Integer> requestIndex = new ScheduleConflictIndex<>();
+            for (int i = 0; i < requests.size(); i++) {
+                ScheduleRequest request = requests.get(i);
+                requestIndex.add(request.getScheduleDate(), dayOfWeekKey(request), request.getStartTime(), request.getEndTime(), i);
+            }
 
             for (int i = 0; i < requests.size(); i++) {
                 ScheduleRequest request = requests.get(i);
 
                 // 检查与现有排课的冲突
-                for (Schedules existing : existingSchedules) {
-                    if (hasTimeConflict(request, existing)) {
-                        ConflictInfo conflict = new ConflictInfo();
-                        conflict.setNewScheduleIndex(i);
-                        conflict.setNewSchedule(request);
-                        conflict.setExistingSchedule(existing);
-                        conflict.setConflictType(determineConflictType(request, existing));
-                        conflict.setConflictDescription(generateConflictDescription(request, existing));
-                        conflicts.add(conflict);
-                    }
+                for (Schedules existing : findConflicts(conflictIndex, request)) {
+                    ConflictInfo conflict = new ConflictInfo();
+                    conflict.setNewScheduleIndex(i);
+                    conflict.setNewSchedule(request);
+                    conflict.setExistingSchedule(existing);
+                    conflict.setConflictType(determineConflictType(request, existing));
+                    conflict.setConflictDescription(generateConflictDescription(request, existing));
+                    conflicts.add(conflict);
                 }
 
-                // 检查新排课之间的冲突
-                for (int j = i + 1; j < requests.size(); j++) {
-                    ScheduleRequest other = requests.get(j);
-                    if (hasTimeConflict(request, other)) {
-                        ConflictInfo conflict = new ConflictInfo();
-                        conflict.setNewScheduleIndex(i);
-                        conflict.setNewSchedule(request);
-                        conflict.setOtherNewScheduleIndex(j);
-                        conflict.setOtherNewSchedule(other);
-                        conflict.setConflictType("NEW_SCHEDULE_CONFLICT");
-                        conflict.setConflictDescription(generateConflictDescription(request, other));
-                        conflicts.add(conflict);
+                // 检查新排课之间的冲突（每对只记录一次）
+                List<Integer> overlapping = requestIndex.findOverlaps(request.getScheduleDate(), dayOfWeekKey(request),
+                        request.getStartTime(), request.getEndTime());
+                for (Integer j : overlapping) {
+                    if (j <= i) {
+                        continue;
                     }
+                    ScheduleRequest other = requests.get(j);
+                    ConflictInfo conflict = new ConflictInfo();
+                    conflict.setNewScheduleIndex(i);
+                    conflict.setNewSchedule(request);
+                    conflict.setOtherNewScheduleIndex(j);
+                    conflict.setOtherNewSchedule(other);
+                    conflict.setConflictType("NEW_SCHEDULE_CONFLICT");
+                    conflict.setConflictDescription(generateConflictDescription(request, other));
+                    conflicts.add(conflict);
                 }
             }
         } catch (Exception e) {
@@ -931,7 +974,14 @@ public class ScheduleService {
      * 按条件批量删除排课
      */
     public int deleteSchedulesByCondition(Long timetableId, ScheduleRequest request) {
-        return scheduleRepository.deleteByCondition(timetableId, request);
+        int deleted = scheduleRepository.deleteByCondition(timetableId, request);
+        if (deleted > 0) {
+            lessonHoursLedgerService.markTimetableDirty(timetableId);
+            // 条件可能命中模板课程
+            markScheduleChanged(timetableId, true);
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, timetableId, null, null);
+        }
+        return deleted;
     }
 
     /**
@@ -960,6 +1010,11 @@ public class ScheduleService {
             // 保存更新
             scheduleRepository.update(schedule1);
             scheduleRepository.update(schedule2);
+            lessonHoursLedgerService.markDirty(timetableId, schedule1.getScheduleDate());
+            lessonHoursLedgerService.markDirty(timetableId, schedule2.getScheduleDate());
+            markScheduleChanged(timetableId, schedule1.getScheduleDate() == null || schedule2.getScheduleDate() == null);
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_SWAP, timetableId, scheduleId1, schedule1.getScheduleDate());
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_SWAP, timetableId, scheduleId2, schedule2.getScheduleDate());
             
             logger.info("课程调换成功：{} <-> {}, timetableId={}", 
                 schedule1.getStudentName(), schedule2.getStudentName(), timetableId);
@@ -979,6 +1034,11 @@ public class ScheduleService {
         for (ScheduleRequest req : requests) {
             total += scheduleRepository.deleteByCondition(timetableId, req);
         }
+        if (total > 0) {
+            lessonHoursLedgerService.markTimetableDirty(timetableId);
+            markScheduleChanged(timetableId, true);
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, timetableId, null, null);
+        }
         return total;
     }
 
@@ -989,7 +1049,13 @@ public class ScheduleService {
         int deletedCount = 0;
         for (Long scheduleId : scheduleIds) {
             try {
+                Schedules schedule = scheduleRepository.findById(scheduleId);
                 scheduleRepository.deleteById(scheduleId);
+                if (schedule != null) {
+                    lessonHoursLedgerService.markDirty(schedule.getTimetableId(), schedule.getScheduleDate());
+                    markScheduleChanged(schedule.getTimetableId(), schedule.getScheduleDate() == null);
+                    scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, schedule.getTimetableId(), scheduleId, schedule.getScheduleDate());
+                }
                 deletedCount++;
             } catch (Exception e) {
                 // 记录错误但继续删除其他课程
@@ -1262,73 +1328,36 @@ public class ScheduleService {
     }
 
     /**
-     * 检查两个排课是否有时间冲突
+     * 为排课建立冲突索引（按日期/星期分桶的区间树）
      */
-    private boolean hasTimeConflict(ScheduleRequest request, Schedules existing) {
-        // 检查日期/星期是否匹配
-        if (!isSameDateOrWeek(request, existing)) {
-            return false;
+    private ScheduleConflictIndex<Schedules> buildConflictIndex(List<Schedules> schedules) {
+        ScheduleConflictIndex<Schedules> index = new ScheduleConflictIndex<>();
+        for (Schedules schedule : schedules) {
+            indexSchedule(index, schedule);
         }
-
-        // 检查时间是否重叠
-        return isTimeOverlap(request.getStartTime(), request.getEndTime(),
-                           existing.getStartTime(), existing.getEndTime());
+        return index;
     }
 
-    /**
-     * 检查两个新排课是否有时间冲突
-     */
-    private boolean hasTimeConflict(ScheduleRequest request1, ScheduleRequest request2) {
-        // 检查日期/星期是否匹配
-        if (!isSameDateOrWeek(request1, request2)) {
-            return false;
-        }
-
-        // 检查时间是否重叠
-        return isTimeOverlap(request1.getStartTime(), request1.getEndTime(),
-                           request2.getStartTime(), request2.getEndTime());
+    private void indexSchedule(ScheduleConflictIndex<Schedules> index, Schedules schedule) {
+        index.add(schedule.getScheduleDate(), schedule.getDayOfWeek(), schedule.getStartTime(), schedule.getEndTime(), schedule);
     }
 
     /**
-     * 检查是否是同一日期或星期
+     * 与新排课时间冲突的全部排课（同一日期，或同一星期）
      */
-    private boolean isSameDateOrWeek(ScheduleRequest request, Schedules existing) {
-        // 如果都有具体日期，比较日期
-        if (request.getScheduleDate() != null && existing.getScheduleDate() != null) {
-            return request.getScheduleDate().equals(existing.getScheduleDate());
-        }
-
-        // 如果都有星期，比较星期
-        if (request.getDayOfWeek() != null && existing.getDayOfWeek() != null) {
-            return request.getDayOfWeek().name().equals(existing.getDayOfWeek());
-        }
-
-        return false;
+    private List<Schedules> findConflicts(ScheduleConflictIndex<Schedules> index, ScheduleRequest request) {
+        return index.findOverlaps(request.getScheduleDate(), dayOfWeekKey(request), request.getStartTime(), request.getEndTime());
     }
 
     /**
-     * 检查是否是同一日期或星期（两个新排课）
+     * 与新排课时间冲突的第一条排课，没有冲突时返回 null
      */
-    private boolean isSameDateOrWeek(ScheduleRequest request1, ScheduleRequest request2) {
-        // 如果都有具体日期，比较日期
-        if (request1.getScheduleDate() != null && request2.getScheduleDate() != null) {
-            return request1.getScheduleDate().equals(request2.getScheduleDate());
-        }
-
-        // 如果都有星期，比较星期
-        if (request1.getDayOfWeek() != null && request2.getDayOfWeek() != null) {
-            return request1.getDayOfWeek().equals(request2.getDayOfWeek());
-        }
-
-        return false;
+    private Schedules findFirstConflict(ScheduleConflictIndex<Schedules> index, ScheduleRequest request) {
+        return index.findFirstOverlap(request.getScheduleDate(), dayOfWeekKey(request), request.getStartTime(), request.getEndTime());
     }
 
-    /**
-     * 检查时间是否重叠
-     */
-    private boolean isTimeOverlap(LocalTime start1, LocalTime end1, LocalTime start2, LocalTime end2) {
-        // 时间重叠的条件：start1 < end2 && start2 < end1
-        return start1.isBefore(end2) && start2.isBefore(end1);
+    private String dayOfWeekKey(ScheduleRequest request) {
+        return request.getDayOfWeek() != null ? request.getDayOfWeek().name() : null;
     }
 
     /**
@@ -1423,7 +1452,13 @@ public class ScheduleService {
 
     public boolean deleteSingleSchedule(Long scheduleId) {
         try {
+            Schedules schedule = scheduleRepository.findById(scheduleId);
             scheduleRepository.deleteById(scheduleId);
+            if (schedule != null) {
+                lessonHoursLedgerService.markDirty(schedule.getTimetableId(), schedule.getScheduleDate());
+                markScheduleChanged(schedule.getTimetableId(), schedule.getScheduleDate() == null);
+                scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, schedule.getTimetableId(), scheduleId, schedule.getScheduleDate());
+            }
             return true;
         } catch (Exception e) {
             logger.error("Failed to delete schedule with ID: {}", scheduleId, e);
@@ -1442,6 +1477,9 @@ public class ScheduleService {
             
             // 批量删除所有课程
             scheduleRepository.deleteByTimetableId(timetableId);
+            lessonHoursLedgerService.markTimetableDirty(timetableId);
+            markScheduleChanged(timetableId, true);
+            scheduleEventBus.publish(ScheduleChangeEvent.TYPE_DELETED, timetableId, null, null);
             
             logger.info("清空课表成功，课表ID: {}, 删除课程数量: {}", timetableId, count);
             return count;
@@ -1482,159 +1520,84 @@ public class ScheduleService {
 
     /**
      * 查询指定时间段有空闲的教练列表
+     * 只返回有活动课表且该时间段无课程的教练，一次查询完成（已取消的体验课不算占用）
      * @param scheduleDate 日期
      * @param startTime 开始时间
      * @param endTime 结束时间
      * @return 有空闲的教练列表
      */
     public List<Map<String, Object>> findAvailableCoaches(LocalDate scheduleDate, LocalTime startTime, LocalTime endTime) {
-        List<Map<String, Object>> availableCoaches = new ArrayList<>();
-        
         try {
-            logger.info("开始查询有空教练: 日期={}, 时间={}-{}", scheduleDate, startTime, endTime);
-            
-            // 1. 获取所有教练（普通用户且职位为教练，或管理员，已批准且未删除的用户）
-            List<com.timetable.generated.tables.pojos.Users> allCoaches = 
-                scheduleRepository.findAllCoaches();
-            
-            logger.info("找到符合条件的用户总数: {}", allCoaches.size());
-            
-            // 2. 只返回有活动课表且该时间段无冲突的教练
-            for (com.timetable.generated.tables.pojos.Users coach : allCoaches) {
-                logger.info("检查教练: {} (ID={})", coach.getNickname() != null ? coach.getNickname() : coach.getUsername(), coach.getId());
-                
-                // 获取教练的活动课表
-                Timetables activeTimetable = timetableRepository.findActiveTimetableByUserId(coach.getId());
-                
-                if (activeTimetable == null) {
-                    // 没有活动课表，跳过此教练
-                    logger.info("教练 {} 没有活动课表，跳过", coach.getNickname() != null ? coach.getNickname() : coach.getUsername());
-                    continue;
-                }
-                
-                logger.info("教练 {} 的活动课表: {} (ID={}, 是否周固定={})", 
-                    coach.getNickname() != null ? coach.getNickname() : coach.getUsername(),
-                    activeTimetable.getName(), activeTimetable.getId(), activeTimetable.getIsWeekly());
-                
-                // 检查该时间段是否有冲突
-                boolean hasConflict = false;
-                
-                // 判断是周固定课表还是日期范围课表
-                if (activeTimetable.getIsWeekly() != null && activeTimetable.getIsWeekly() == 1) {
-                    // 周固定课表：只检查该日期所在周的实例
-                    WeeklyInstance targetInstance = weeklyInstanceService.findInstanceByDate(activeTimetable.getId(), scheduleDate);
-                    
-                    if (targetInstance != null) {
-                        logger.info("找到周实例: ID={}, 周开始={}", targetInstance.getId(), targetInstance.getWeekStartDate());
-                        // 查询该实例在指定日期和时间段的课程
-                        List<Schedules> instanceSchedules = scheduleRepository.findByInstanceAndDateTime(
-                            targetInstance.getId(), scheduleDate, startTime, endTime);
-                        
-                        logger.info("周实例中查询到的课程数: {}", instanceSchedules.size());
-                        if (!instanceSchedules.isEmpty()) {
-                            for (Schedules schedule : instanceSchedules) {
-                                logger.info("  - 原始课程: ID={}, 学员={}, 时间={}-{}, 日期={}, isTrial={}", 
-                                    schedule.getId(),
-                                    schedule.getStudentName(), 
-                                    schedule.getStartTime(), 
-                                    schedule.getEndTime(),
-                                    schedule.getScheduleDate(),
-                                    schedule.getIsTrial());
-                            }
-                        }
-                        
-                        // 过滤掉已取消的体验课
-                        List<Schedules> validSchedules = filterCancelledTrialSchedules(instanceSchedules);
-                        hasConflict = !validSchedules.isEmpty();
-                        
-                        logger.info("过滤后课程数: {}, 有冲突: {}", validSchedules.size(), hasConflict);
-                        if (!validSchedules.isEmpty()) {
-                            for (Schedules schedule : validSchedules) {
-                                logger.info("  - 有效课程: 学员={}, 时间={}-{}, 日期={}", 
-                                    schedule.getStudentName(), 
-                                    schedule.getStartTime(), 
-                                    schedule.getEndTime(),
-                                    schedule.getScheduleDate());
-                            }
-                        }
-                    } else {
-                        // 没有该周的实例，需要检查固定课表中该星期几的该时间段是否有课
-                        logger.info("没有找到该周的实例，检查固定课表");
-                        
-                        // 获取星期几 (1=周一, 7=周日)
-                        int dayOfWeek = scheduleDate.getDayOfWeek().getValue();
-                        
-                        // 查询固定课表中该星期几的课程
-                        List<Schedules> fixedSchedules = scheduleRepository.findByTimetableAndDayOfWeek(
-                            activeTimetable.getId(), dayOfWeek);
-                        
-                        logger.info("固定课表中星期{}的课程数: {}", dayOfWeek, fixedSchedules.size());
-                        
-                        // 检查时间是否冲突
-                        for (Schedules schedule : fixedSchedules) {
-                            if (isTimeOverlap(schedule.getStartTime(), schedule.getEndTime(), startTime, endTime)) {
-                                logger.info("  - 固定课程冲突: 学员={}, 时间={}-{}", 
-                                    schedule.getStudentName(), 
-                                    schedule.getStartTime(), 
-                                    schedule.getEndTime());
-                                hasConflict = true;
-                                break;
-                            }
-                        }
-                        
-                        if (!hasConflict) {
-                            logger.info("固定课表中无冲突，教练有空");
-                        }
-                    }
-                    
-                } else {
-                    // 日期范围课表：直接查询课表的课程
-                    List<Schedules> existingSchedules = scheduleRepository.findByTimetableAndDateTime(
-                        activeTimetable.getId(), scheduleDate, startTime, endTime);
-                    
-                    logger.info("日期范围课表，查询到的课程数: {}", existingSchedules.size());
-                    if (!existingSchedules.isEmpty()) {
-                        for (Schedules schedule : existingSchedules) {
-                            logger.info("  - 原始课程: ID={}, 学员={}, 时间={}-{}, 日期={}, isTrial={}", 
-                                schedule.getId(),
-                                schedule.getStudentName(), 
-                                schedule.getStartTime(), 
-                                schedule.getEndTime(),
-                                schedule.getScheduleDate(),
-                                schedule.getIsTrial());
-                        }
-                    }
-                    
-                    // 过滤掉已取消的体验课
-                    List<Schedules> validSchedules = filterCancelledTrialSchedules(existingSchedules);
-                    hasConflict = !validSchedules.isEmpty();
-                    
-                    logger.info("过滤后课程数: {}, 有冲突: {}", validSchedules.size(), hasConflict);
-                }
-                
-                // 如果没有冲突，说明有空
-                if (!hasConflict) {
-                    logger.info("教练 {} 有空", coach.getNickname() != null ? coach.getNickname() : coach.getUsername());
-                    Map<String, Object> coachInfo = new HashMap<>();
-                    coachInfo.put("id", coach.getId());
-                    coachInfo.put("username", coach.getUsername());
-                    coachInfo.put("nickname", coach.getNickname());
-                    coachInfo.put("timetableId", activeTimetable.getId());
-                    coachInfo.put("timetableName", activeTimetable.getName());
-                    availableCoaches.add(coachInfo);
-                } else {
-                    logger.info("教练 {} 该时间段有课，不可用", coach.getNickname() != null ? coach.getNickname() : coach.getUsername());
-                }
-            }
-            
-            logger.info("查询完成，有空教练数: {}", availableCoaches.size());
-            
+            List<Map<String, Object>> availableCoaches = coachAvailabilityRepository.findAvailableCoaches(
+                weeklyInstanceService.getYearWeek(scheduleDate), scheduleDate, startTime, endTime);
+            logger.info("查询有空教练完成: 日期={}, 时间={}-{}, 有空教练数={}",
+                scheduleDate, startTime, endTime, availableCoaches.size());
+            return availableCoaches;
         } catch (Exception e) {
             logger.error("查询有空教练失败", e);
             throw new RuntimeException("查询失败: " + e.getMessage());
         }
-        
-        return availableCoaches;
+    }
+
+    /**
+     * 查询所有教练一天内的空闲/占用网格
+     * 两次查询：有活动课表的教练、这些课表在该日期时间段内的全部占用时间段；按 slotMinutes 划分时间格
+     * @param scheduleDate 日期
+     * @param dayStart 网格开始时间
+     * @param dayEnd 网格结束时间
+     * @param slotMinutes 每格分钟数
+     * @return slots：每格开始时间；coaches：教练信息 + busy（与 slots 对应的占用标记）+ busyIntervals（占用时间段）
+     */
+    public Map<String, Object> getCoachAvailabilityGrid(LocalDate scheduleDate, LocalTime dayStart, LocalTime dayEnd, int slotMinutes) {
+        if (slotMinutes <= 0) {
+            throw new IllegalArgumentException("时间格分钟数必须大于0");
+        }
+        if (!dayStart.isBefore(dayEnd)) {
+            throw new IllegalArgumentException("开始时间必须早于结束时间");
+        }
+
+        List<LocalTime[]> slots = new ArrayList<>();
+        LocalTime slotStart = dayStart;
+        while (slotStart.isBefore(dayEnd)) {
+            LocalTime slotEnd = slotStart.plusMinutes(slotMinutes);
+            // 跨过午夜或超出结束时间时截断到结束时间
+            if (!slotEnd.isAfter(slotStart) || slotEnd.isAfter(dayEnd)) {
+                slotEnd = dayEnd;
+            }
+            slots.add(new LocalTime[]{slotStart, slotEnd});
+            slotStart = slotEnd;
+        }
+
+        String yearWeek = weeklyInstanceService.getYearWeek(scheduleDate);
+        List<Map<String, Object>> coaches = coachAvailabilityRepository.findCoachesWithActiveTimetable(yearWeek);
+        Map<Long, List<com.timetable.dto.CoachBusyInterval>> busyByTimetable = coachAvailabilityRepository
+            .findBusyIntervals(yearWeek, scheduleDate, dayStart, dayEnd).stream()
+            .collect(Collectors.groupingBy(com.timetable.dto.CoachBusyInterval::getTimetableId));
+
+        for (Map<String, Object> coach : coaches) {
+            List<com.timetable.dto.CoachBusyInterval> intervals =
+                busyByTimetable.getOrDefault((Long) coach.get("timetableId"), Collections.emptyList());
+            List<Boolean> busy = new ArrayList<>(slots.size());
+            for (LocalTime[] slot : slots) {
+                busy.add(intervals.stream().anyMatch(interval -> interval.overlaps(slot[0], slot[1])));
+            }
+            List<Map<String, Object>> busyIntervals = new ArrayList<>(intervals.size());
+            for (com.timetable.dto.CoachBusyInterval interval : intervals) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("startTime", interval.getStartTime().toString());
+                item.put("endTime", interval.getEndTime().toString());
+                busyIntervals.add(item);
+            }
+            coach.put("busy", busy);
+            coach.put("busyIntervals", busyIntervals);
+        }
+
+        Map<String, Object> grid = new HashMap<>();
+        grid.put("date", scheduleDate.toString());
+        grid.put("slotMinutes", slotMinutes);
+        grid.put("slots", slots.stream().map(slot -> slot[0].toString()).collect(Collectors.toList()));
+        grid.put("coaches", coaches);
+        return grid;
     }
 
     /**
@@ -1676,16 +1639,16 @@ public class ScheduleService {
                 // 判断体验日期是否在当前周
                 if (!scheduleDate.isBefore(currentWeekStart) && !scheduleDate.isAfter(currentWeekEnd)) {
                     // 当前周：获取或创建当前周实例
-                    System.out.println("体验日期在当前周，获取当前周实例");
+                    logger.debug("体验日期在当前周，获取当前周实例");
                     targetInstance = weeklyInstanceService.getCurrentWeekInstance(activeTimetable.getId());
                     if (targetInstance == null) {
-                        System.out.println("当前周实例不存在，创建新实例");
+                        logger.debug("当前周实例不存在，创建新实例");
                         // 强制生成当前周实例，忽略自动生成设置，因为这是用户手动添加体验课的操作
                         targetInstance = weeklyInstanceService.generateCurrentWeekInstance(activeTimetable.getId(), true);
                     }
                 } else if (!scheduleDate.isBefore(nextWeekStart) && !scheduleDate.isAfter(nextWeekEnd)) {
                     // 下一周：获取或创建下周实例
-                    System.out.println("体验日期在下一周，获取或创建下周实例");
+                    logger.debug("体验日期在下一周，获取或创建下周实例");
                     // 强制生成下周实例，忽略自动生成设置
                     targetInstance = weeklyInstanceService.generateNextWeekInstance(activeTimetable.getId(), true);
                 } else {
@@ -1734,6 +1697,8 @@ public class ScheduleService {
                 instanceSchedule.setCreatedAt(LocalDateTime.now());
                 instanceSchedule.setUpdatedAt(LocalDateTime.now());
                 scheduleId = scheduleRepository.insertInstanceSchedule(instanceSchedule, isTrial, request.getCustomerId());
+                // 周实例内容已变化，不再等同于已同步的模板版本
+                weeklyInstanceRepository.clearSyncedTemplateVersion(targetId);
             } else {
                 // 保存到课表 - 使用Schedules对象
                 Schedules schedule = new Schedules();
@@ -1748,6 +1713,14 @@ public class ScheduleService {
                 schedule.setUpdatedAt(LocalDateTime.now());
                 scheduleId = scheduleRepository.insertSchedule(schedule, isTrial, request.getCustomerId());
             }
+            lessonHoursLedgerService.markDirty(activeTimetable.getId(), scheduleDate);
+            if ("weekly_instance".equals(sourceType)) {
+                scheduleChangeTracker.instanceChanged(targetId);
+                scheduleEventBus.publishInstance(ScheduleChangeEvent.TYPE_CREATED, activeTimetable.getId(), targetId, scheduleId, scheduleDate);
+            } else {
+                scheduleChangeTracker.timetableChanged(activeTimetable.getId());
+                scheduleEventBus.publish(ScheduleChangeEvent.TYPE_CREATED, activeTimetable.getId(), scheduleId, scheduleDate);
+            }
             
             logger.info("体验课创建成功: 教练ID={}, 学员={}, 日期={}, 时间={}-{}, scheduleId={}, sourceType={}",
                 request.getCoachId(), request.getStudentName(), scheduleDate, startTime, endTime, scheduleId, sourceType);
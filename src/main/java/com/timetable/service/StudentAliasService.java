@@ -25,6 +25,9 @@ public class StudentAliasService {
     @Autowired
     private StudentOperationRecordRepository operationRecordRepository;
     
+    @Autowired
+    private StudentRuleService studentRuleService;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     public List<StudentAliasDTO> getAliasesByCoach(Long coachId) {
@@ -56,6 +59,7 @@ public class StudentAliasService {
         record.setUpdatedAt(LocalDateTime.now());
         
         Long id = operationRecordRepository.save(record);
+        studentRuleService.evict(coachId, null);
         
         StudentAliasDTO dto = new StudentAliasDTO();
         dto.setId(id);
@@ -85,6 +89,7 @@ public class StudentAliasService {
         }
         
         operationRecordRepository.update(record);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
         return convertToDTO(record);
     }
     
@@ -94,6 +99,7 @@ public class StudentAliasService {
             throw new IllegalArgumentException("别名记录不存在");
         }
         operationRecordRepository.deleteById(id);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
     }
     
     private StudentAliasDTO convertToDTO(StudentOperationRecord record) {
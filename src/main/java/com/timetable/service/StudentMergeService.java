@@ -25,6 +25,9 @@ public class StudentMergeService {
     @Autowired
     private StudentOperationRecordRepository operationRecordRepository;
     
+    @Autowired
+    private StudentRuleService studentRuleService;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     public List<StudentMergeDTO> getMergesByCoach(Long coachId) {
@@ -56,6 +59,7 @@ public class StudentMergeService {
         record.setUpdatedAt(LocalDateTime.now());
         
         Long id = operationRecordRepository.save(record);
+        studentRuleService.evict(coachId, null);
         
         StudentMergeDTO dto = new StudentMergeDTO();
         dto.setId(id);
@@ -85,6 +89,7 @@ public class StudentMergeService {
         }
         
         operationRecordRepository.update(record);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
         return convertToDTO(record);
     }
     
@@ -94,6 +99,7 @@ public class StudentMergeService {
             throw new IllegalArgumentException("合并记录不存在");
         }
         operationRecordRepository.deleteById(id);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
     }
     
     private StudentMergeDTO convertToDTO(StudentOperationRecord record) {
@@ -13,6 +13,9 @@ public class StudentOperationRecordService {
     @Autowired
     private StudentOperationRecordRepository operationRecordRepository;
     
+    @Autowired
+    private StudentRuleService studentRuleService;
+    
     /**
      * 获取所有操作记录（管理员用）
      */
@@ -38,14 +41,21 @@ public class StudentOperationRecordService {
      * 更新操作记录
      */
     public StudentOperationRecord updateRecord(StudentOperationRecord record) {
-        return operationRecordRepository.update(record);
+        StudentOperationRecord updated = operationRecordRepository.update(record);
+        StudentOperationRecord current = updated != null ? updated : record;
+        studentRuleService.evict(current.getCoachId(), current.getOrganizationId());
+        return updated;
     }
     
     /**
      * 删除操作记录
      */
     public void deleteRecord(Long id) {
+        StudentOperationRecord record = operationRecordRepository.findById(id);
         operationRecordRepository.deleteById(id);
+        if (record != null) {
+            studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
+        }
     }
     
     /**
@@ -54,6 +64,7 @@ public class StudentOperationRecordService {
     public StudentOperationRecord saveRecord(StudentOperationRecord record) {
         Long id = operationRecordRepository.save(record);
         record.setId(id);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
         return record;
     }
 }
\ No newline at end of file
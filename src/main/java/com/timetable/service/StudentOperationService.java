@@ -39,6 +39,9 @@ public class StudentOperationService {
     @Autowired
     private StudentOperationRecordRepository operationRecordRepository;
     
+    @Autowired
+    private StudentRuleService studentRuleService;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     /**
@@ -91,6 +94,7 @@ public class StudentOperationService {
             logger.error("创建或更新重命名规则失败", e);
             // 不抛出异常，让前端认为成功
         }
+        studentRuleService.evict(coachId, organizationId);
     }
     
     /**
@@ -132,6 +136,7 @@ public class StudentOperationService {
         } catch (Exception e) {
             logger.error("创建或更新隐藏规则失败", e);
         }
+        studentRuleService.evict(coachId, organizationId);
     }
     
     /**
@@ -174,6 +179,7 @@ public class StudentOperationService {
         } catch (Exception e) {
             logger.error("创建或更新别名规则失败", e);
         }
+        studentRuleService.evict(coachId, organizationId);
         
         // 返回DTO（已迁移到student_operation_records）
         StudentAliasDTO alias = new StudentAliasDTO();
@@ -211,6 +217,7 @@ public class StudentOperationService {
         } catch (Exception e) {
             logger.error("创建合并规则失败", e);
         }
+        studentRuleService.evict(coachId, organizationId);
     }
 }
 
@@ -0,0 +1,143 @@
+package com.timetable.service;
+
+import com.timetable.repository.StudentOperationRecordRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 学员操作规则服务
+ * 按 教练 / 机构 缓存编译后的 {@link StudentRuleSet}，规则写入时由各学员操作服务失效缓存
+ */
+@Service
+public class StudentRuleService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentRuleService.class);
+
+    private static final int MAX_CACHE_SIZE = 512;
+
+    @Autowired
+    private StudentOperationRecordRepository operationRecordRepository;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
+    // 访问顺序的 LRU 缓存，超过上限时淘汰最久未使用的规则集
+    private final Map<RuleKey, StudentRuleSet> cache = new LinkedHashMap<RuleKey, StudentRuleSet>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RuleKey, StudentRuleSet> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    // 每次失效递增，加载期间发生失效的规则集不写入缓存
+    private long generation = 0;
+
+    /**
+     * 获取教练的学员规则集（该教练的所有操作记录）
+     */
+    public StudentRuleSet getCoachRules(Long coachId) {
+        if (coachId == null) {
+            return StudentRuleSet.EMPTY;
+        }
+        RuleKey key = new RuleKey(coachId, null);
+        StudentRuleSet ruleSet = getCached(key);
+        if (ruleSet == null) {
+            long loadedGeneration = currentGeneration();
+            ruleSet = StudentRuleSet.compile(operationRecordRepository.findByCoachId(coachId));
+            putCached(key, ruleSet, loadedGeneration);
+        }
+        return ruleSet;
+    }
+
+    /**
+     * 获取机构的学员规则集（该机构所有教练的操作记录）
+     */
+    public StudentRuleSet getOrganizationRules(Long organizationId) {
+        if (organizationId == null) {
+            return StudentRuleSet.EMPTY;
+        }
+        RuleKey key = new RuleKey(null, organizationId);
+        StudentRuleSet ruleSet = getCached(key);
+        if (ruleSet == null) {
+            long loadedGeneration = currentGeneration();
+            ruleSet = StudentRuleSet.compile(operationRecordRepository.findByOrganizationId(organizationId));
+            putCached(key, ruleSet, loadedGeneration);
+        }
+        return ruleSet;
+    }
+
+    /**
+     * 规则变更后失效缓存
+     * 教练的规则集直接移除；由于部分记录未写入机构ID，机构级规则集全部移除
+     * 课表视图中的学员名称依赖规则，同时使课表 ETag 失效
+     */
+    public void evict(Long coachId, Long organizationId) {
+        synchronized (cache) {
+            generation++;
+            cache.keySet().removeIf(key -> key.organizationId != null
+                    || (coachId != null && coachId.equals(key.coachId)));
+        }
+        scheduleChangeTracker.rulesChanged();
+        logger.debug("学员规则缓存已失效: coachId={}, organizationId={}", coachId, organizationId);
+    }
+
+    /**
+     * 清空所有缓存的规则集
+     */
+    public void evictAll() {
+        synchronized (cache) {
+            generation++;
+            cache.clear();
+        }
+        scheduleChangeTracker.rulesChanged();
+    }
+
+    private StudentRuleSet getCached(RuleKey key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private long currentGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    private void putCached(RuleKey key, StudentRuleSet ruleSet, long loadedGeneration) {
+        synchronized (cache) {
+            if (generation == loadedGeneration) {
+                cache.put(key, ruleSet);
+            }
+        }
+    }
+
+    private static final class RuleKey {
+        private final Long coachId;
+        private final Long organizationId;
+
+        private RuleKey(Long coachId, Long organizationId) {
+            this.coachId = coachId;
+            this.organizationId = organizationId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RuleKey)) return false;
+            RuleKey other = (RuleKey) o;
+            return Objects.equals(coachId, other.coachId) && Objects.equals(organizationId, other.organizationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coachId, organizationId);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.timetable.service;
+
+import com.timetable.entity.StudentOperationRecord;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译后的学员操作规则集（不可变）
+ * 由某个教练或某个机构的 student_operation_records 一次性构建，
+ * 提供 RENAME/DELETE/HIDE/MERGE/ASSIGN_ALIAS/ASSIGN_HOURS 规则的 O(1) 查询。
+ * 记录按创建时间正序应用，同一学员的较新规则覆盖较旧规则；所有名称均去除首尾空格。
+ */
+public final class StudentRuleSet {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static final StudentRuleSet EMPTY = compile(Collections.emptyList());
+
+    private final Map<String, String> renameRules;        // 原名称 -> 新名称
+    private final Set<String> deletedStudents;            // DELETE：学员列表中不显示
+    private final Set<String> hiddenStudents;             // HIDE：隐藏的学员
+    private final Map<String, String> mergeRules;         // 被合并的学员 -> 合并后的名称
+    private final Map<String, String> aliasRules;         // 学员 -> 别名
+    private final Map<String, String> assignHoursRules;   // 学员 -> 大课名称
+    private final Map<String, Integer> assignHoursCounts; // 学员 -> 分配的课时数
+    private final Map<String, Map<String, Integer>> assignHoursSources; // 学员 -> (大课名称 -> 每几课时分配1课时)
+    private final Map<String, List<String>> renameSources; // 重命名链的最终名称 -> 原始名称（反向索引）
+    private final Set<String> hiddenAfterRules;           // 隐藏学员本身及其经重命名/合并/分配课时后的名称（反向索引）
+
+    private StudentRuleSet(Map<String, String> renameRules, Set<String> deletedStudents, Set<String> hiddenStudents,
+                           Map<String, String> mergeRules, Map<String, String> aliasRules,
+                           Map<String, String> assignHoursRules, Map<String, Integer> assignHoursCounts,
+                           Map<String, Map<String, Integer>> assignHoursSources) {
+        this.renameRules = Collections.unmodifiableMap(renameRules);
+        this.deletedStudents = Collections.unmodifiableSet(deletedStudents);
+        this.hiddenStudents = Collections.unmodifiableSet(hiddenStudents);
+        this.mergeRules = Collections.unmodifiableMap(mergeRules);
+        this.aliasRules = Collections.unmodifiableMap(aliasRules);
+        this.assignHoursRules = Collections.unmodifiableMap(assignHoursRules);
+        this.assignHoursCounts = Collections.unmodifiableMap(assignHoursCounts);
+        this.assignHoursSources = Collections.unmodifiableMap(assignHoursSources);
+
+        Map<String, List<String>> sources = new HashMap<>();
+        for (String oldName : renameRules.keySet()) {
+            sources.computeIfAbsent(resolveRename(oldName), key -> new ArrayList<>()).add(oldName);
+        }
+        sources.values().forEach(Collections::sort);
+        this.renameSources = Collections.unmodifiableMap(sources);
+
+        Set<String> hiddenTargets = new HashSet<>(hiddenStudents);
+        for (String hiddenName : hiddenStudents) {
+            addIfPresent(hiddenTargets, renameRules.get(hiddenName));
+            addIfPresent(hiddenTargets, mergeRules.get(hiddenName));
+            addIfPresent(hiddenTargets, assignHoursRules.get(hiddenName));
+        }
+        this.hiddenAfterRules = Collections.unmodifiableSet(hiddenTargets);
+    }
+
+    /**
+     * 从操作记录编译规则集
+     */
+    public static StudentRuleSet compile(List<StudentOperationRecord> records) {
+        Map<String, String> renameRules = new HashMap<>();
+        Set<String> deletedStudents = new HashSet<>();
+        Set<String> hiddenStudents = new HashSet<>();
+        Map<String, String> mergeRules = new HashMap<>();
+        Map<String, String> aliasRules = new HashMap<>();
+        Map<String, String> assignHoursRules = new HashMap<>();
+        Map<String, Integer> assignHoursCounts = new HashMap<>();
+        Map<String, Map<String, Integer>> assignHoursSources = new HashMap<>();
+
+        List<StudentOperationRecord> ordered = new ArrayList<>(records);
+        ordered.sort(Comparator.comparing(StudentOperationRecord::getCreatedAt, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+                .thenComparing(StudentOperationRecord::getId, Comparator.nullsFirst(Comparator.<Long>naturalOrder())));
+
+        for (StudentOperationRecord record : ordered) {
+            String operationType = record.getOperationType();
+            String oldName = trim(record.getOldName());
+            String newName = trim(record.getNewName());
+            if (operationType == null || oldName == null) {
+                continue;
+            }
+
+            switch (operationType) {
+                case "RENAME":
+                    if (newName != null) {
+                        renameRules.put(oldName, newName);
+                    }
+                    break;
+                case "DELETE":
+                    deletedStudents.add(oldName);
+                    break;
+                case "HIDE":
+                    hiddenStudents.add(oldName);
+                    break;
+                case "MERGE":
+                    if (newName != null) {
+                        for (String name : namesOf(record, "mergedNames")) {
+                            mergeRules.put(name, newName);
+                        }
+                    }
+                    break;
+                case "ASSIGN_ALIAS":
+                    if (newName != null) {
+                        for (String name : namesOf(record, "studentNames")) {
+                            aliasRules.put(name, newName);
+                        }
+                    }
+                    break;
+                case "ASSIGN_HOURS":
+                    if (newName != null) {
+                        assignHoursRules.put(oldName, newName);
+                        assignHoursSources.computeIfAbsent(oldName, key -> new LinkedHashMap<>())
+                                .put(newName, hoursPerStudentOf(record));
+                    }
+                    assignHoursCounts.merge(oldName, 1, Integer::sum);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return new StudentRuleSet(renameRules, deletedStudents, hiddenStudents, mergeRules, aliasRules,
+                assignHoursRules, assignHoursCounts, assignHoursSources);
+    }
+
+    /**
+     * 应用重命名链（防止循环）
+     */
+    public String resolveRename(String studentName) {
+        String current = trim(studentName);
+        if (current == null) {
+            return studentName;
+        }
+        Set<String> visited = null;
+        while (renameRules.containsKey(current)) {
+            if (visited == null) {
+                visited = new HashSet<>();
+            }
+            if (!visited.add(current)) {
+                break;
+            }
+            current = renameRules.get(current);
+        }
+        return current;
+    }
+
+    /**
+     * 学员显示名称：先应用重命名链，再依次查找合并、别名设置
+     */
+    public String resolveDisplayName(String studentName) {
+        String renamed = resolveRename(studentName);
+        if (renamed == null) {
+            return null;
+        }
+        String merged = mergeRules.get(renamed);
+        if (merged != null) {
+            return merged;
+        }
+        return aliasRules.getOrDefault(renamed, renamed);
+    }
+
+    /**
+     * 应用重命名链后再应用合并规则（课时报表使用，不应用别名）
+     */
+    public String resolveMergedName(String studentName) {
+        String renamed = resolveRename(studentName);
+        if (renamed == null) {
+            return null;
+        }
+        return mergeRules.getOrDefault(renamed, renamed);
+    }
+
+    /**
+     * 经重命名链最终显示为 finalName 的原始名称（不含 finalName 本身），按名称排序
+     */
+    public List<String> renamedFrom(String finalName) {
+        String name = trim(finalName);
+        if (name == null) {
+            return Collections.emptyList();
+        }
+        List<String> sources = renameSources.get(name);
+        return sources != null ? Collections.unmodifiableList(sources) : Collections.<String>emptyList();
+    }
+
+    /**
+     * 分配课时给该学员的大课：大课名称 -> 每几课时分配1课时（按规则创建顺序）
+     */
+    public Map<String, Integer> getAssignHoursSources(String studentName) {
+        String name = trim(studentName);
+        if (name == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> sources = assignHoursSources.get(name);
+        return sources != null ? Collections.unmodifiableMap(sources) : Collections.<String, Integer>emptyMap();
+    }
+
+    public String resolveAlias(String studentName) {
+        return aliasRules.getOrDefault(studentName, studentName);
+    }
+
+    public boolean isDeleted(String studentName) {
+        return studentName != null && deletedStudents.contains(studentName.trim());
+    }
+
+    public boolean isHidden(String studentName) {
+        return studentName != null && hiddenStudents.contains(studentName.trim());
+    }
+
+    /**
+     * 规则应用后的名称是否应被隐藏（本身被隐藏，或由被隐藏的学员转换而来）
+     */
+    public boolean isHiddenAfterRules(String finalStudentName) {
+        return finalStudentName != null && hiddenAfterRules.contains(finalStudentName.trim());
+    }
+
+    /**
+     * 经重命名、合并后会被隐藏（或最终名称属于 extraFinalNames）的原始学员名集合
+     * 不在重命名/合并规则中的名称保持不变，因此只需检查规则中的名称、隐藏名称本身和额外名称，
+     * 得到的集合可直接用于SQL的 NOT IN 过滤，使数据库分页和计数与规则过滤的结果一致
+     */
+    public Set<String> hiddenRawNames(Collection<String> extraFinalNames) {
+        Set<String> excludedFinalNames = new HashSet<>(hiddenAfterRules);
+        excludedFinalNames.addAll(extraFinalNames);
+
+        Set<String> candidates = new HashSet<>(excludedFinalNames);
+        candidates.addAll(renameRules.keySet());
+        candidates.addAll(mergeRules.keySet());
+
+        Set<String> rawNames = new HashSet<>();
+        for (String candidate : candidates) {
+            if (excludedFinalNames.contains(resolveMergedName(candidate))) {
+                rawNames.add(candidate);
+            }
+        }
+        return rawNames;
+    }
+
+    public Map<String, String> getRenameRules() {
+        return renameRules;
+    }
+
+    public Set<String> getDeletedStudents() {
+        return deletedStudents;
+    }
+
+    public Set<String> getHiddenStudents() {
+        return hiddenStudents;
+    }
+
+    public Map<String, String> getMergeRules() {
+        return mergeRules;
+    }
+
+    public Map<String, String> getAliasRules() {
+        return aliasRules;
+    }
+
+    public Map<String, Integer> getAssignHoursCounts() {
+        return assignHoursCounts;
+    }
+
+    private static List<String> namesOf(StudentOperationRecord record, String detailsKey) {
+        List<String> names = new ArrayList<>();
+        try {
+            if (record.getDetails() != null) {
+                Map<String, Object> detailsMap = objectMapper.readValue(record.getDetails(), new TypeReference<Map<String, Object>>() {});
+                if (detailsMap.get(detailsKey) != null) {
+                    List<String> detailNames = objectMapper.convertValue(detailsMap.get(detailsKey), new TypeReference<List<String>>() {});
+                    for (String name : detailNames) {
+                        addIfPresent(names, trim(name));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // details 解析失败时从 old_name 分割
+            names.clear();
+        }
+        if (names.isEmpty() && record.getOldName() != null) {
+            for (String name : record.getOldName().split(",")) {
+                addIfPresent(names, trim(name));
+            }
+        }
+        return names;
+    }
+
+    private static int hoursPerStudentOf(StudentOperationRecord record) {
+        try {
+            if (record.getDetails() != null && !record.getDetails().isEmpty()) {
+                Map<String, Object> detailsMap = objectMapper.readValue(record.getDetails(), new TypeReference<Map<String, Object>>() {});
+                Object value = detailsMap.get("hoursPerStudent");
+                if (value instanceof Number && ((Number) value).intValue() > 0) {
+                    return ((Number) value).intValue();
+                }
+            }
+        } catch (Exception e) {
+            // details 解析失败时按每1课时分配1课时
+        }
+        return 1;
+    }
+
+    private static void addIfPresent(Collection<String> target, String value) {
+        if (value != null) {
+            target.add(value);
+        }
+    }
+
+    private static String trim(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
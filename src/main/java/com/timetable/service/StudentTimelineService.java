@@ -0,0 +1,236 @@
+package com.timetable.service;
+
+import com.timetable.dto.StudentTimelineLesson;
+import com.timetable.generated.tables.pojos.Users;
+import com.timetable.repository.StudentTimelineRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 学员时间线（学员详情中的上课记录和请假记录）
+ * - 学员名称通过机构的学员规则集反查：显示名称及所有经重命名链变为该名称的原始名称一起查询
+ * - 两张课程表在一次查询中读取，连续课时在类型化的记录上合并
+ * - 支持按上课日期的游标分页：每页以完整的一天结束，连续课时只在同一天内合并，因此合并结果不受分页影响
+ */
+@Service
+public class StudentTimelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentTimelineService.class);
+
+    private static final String UNKNOWN_COACH = "未知教练";
+
+    private static final Comparator<StudentTimelineLesson> NEWEST_FIRST = Comparator
+            .comparing(StudentTimelineLesson::getScheduleDate)
+            .thenComparing(StudentTimelineLesson::getStartTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .reversed();
+
+    @Autowired
+    private StudentTimelineRepository studentTimelineRepository;
+
+    @Autowired
+    private StudentRuleService studentRuleService;
+
+    @Autowired
+    private UserService userService;
+
+    /**
+     * 获取学员记录（上课记录和请假记录）
+     * @param coachName 只返回该教练的记录；为管理员用户名时返回所有教练的记录
+     * @param before 游标：只返回该日期之前的记录，为空表示第一页
+     * @param size 每页最少的课程条数（按整天截断后可能略多）；为空时返回全部历史记录
+     */
+    public Map<String, Object> getStudentRecords(String studentName, String coachName, Long organizationId,
+                                                 LocalDate before, Integer size) {
+        StudentRuleSet rules = studentRuleService.getOrganizationRules(organizationId);
+        List<String> studentNames = new ArrayList<>(rules.renamedFrom(studentName));
+        if (!studentNames.contains(studentName)) {
+            studentNames.add(studentName);
+        }
+        String coachFilter = resolveCoachFilter(coachName);
+
+        List<StudentTimelineLesson> lessons;
+        boolean hasMore = false;
+        if (size == null) {
+            lessons = studentTimelineRepository.findPastLessons(studentNames, organizationId, coachFilter, true, null, null, 0);
+        } else {
+            lessons = new ArrayList<>(studentTimelineRepository.findPastLessons(
+                    studentNames, organizationId, coachFilter, true, null, before, size + 1));
+            if (lessons.size() > size) {
+                hasMore = true;
+                // 去掉与第 size+1 条同一天的记录，使本页以完整的一天结束
+                LocalDate overflowDate = lessons.get(size).getScheduleDate();
+                lessons.removeIf(lesson -> !lesson.getScheduleDate().isAfter(overflowDate));
+                if (lessons.isEmpty()) {
+                    // 一天的课程就超过了页大小：本页返回这一整天
+                    lessons = studentTimelineRepository.findPastLessons(studentNames, organizationId, coachFilter, true,
+                            overflowDate, overflowDate.plusDays(1), 0);
+                }
+            }
+        }
+        // 本页覆盖的日期范围 [pageFrom, before)，最后一页不设下限
+        LocalDate pageFrom = hasMore ? lessons.get(lessons.size() - 1).getScheduleDate() : null;
+
+        List<StudentTimelineLesson> attended = new ArrayList<>();
+        List<StudentTimelineLesson> leaves = new ArrayList<>();
+        for (StudentTimelineLesson lesson : lessons) {
+            (lesson.isOnLeave() ? leaves : attended).add(lesson);
+        }
+        attended.addAll(assignedLessons(studentName, rules, organizationId, pageFrom, before));
+        attended.sort(NEWEST_FIRST);
+        attended = mergeConsecutiveLessons(attended);
+
+        List<Map<String, Object>> schedules = new ArrayList<>(attended.size());
+        for (StudentTimelineLesson lesson : attended) {
+            schedules.add(toScheduleRecord(lesson));
+        }
+        List<Map<String, Object>> leaveRecords = new ArrayList<>(leaves.size());
+        for (StudentTimelineLesson leave : leaves) {
+            leaveRecords.add(toLeaveRecord(leave));
+        }
+
+        String actualCoachName;
+        if (!attended.isEmpty()) {
+            actualCoachName = attended.get(0).getCoachName();
+        } else if (!leaves.isEmpty()) {
+            actualCoachName = leaves.get(0).getCoachName();
+        } else {
+            String coach = studentTimelineRepository.findCoachName(studentNames, organizationId);
+            actualCoachName = coach != null ? coach : UNKNOWN_COACH;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("queriedNames", studentNames);
+        result.put("displayName", studentName);
+        result.put("schedules", schedules);
+        result.put("leaves", leaveRecords);
+        result.put("actualCoachName", actualCoachName);
+        result.put("studentDisplayName", studentName);
+        result.put("studentOriginalName", studentNames.get(0));
+        result.put("mergedStudentNames", studentNames);
+        if (size != null) {
+            result.put("nextCursor", hasMore ? pageFrom.toString() : null);
+            result.put("hasMore", hasMore);
+        }
+
+        logger.info("返回学员记录: 显示名={}, 查询的学员名={}, 教练={}, 上课记录数={}, 请假记录数={}",
+                studentName, studentNames, coachName, schedules.size(), leaveRecords.size());
+        return result;
+    }
+
+    /**
+     * 按分配课时规则由大课课程生成的课时：大课按时间正序每 hoursPerStudent 节生成1条，
+     * 日期、开始时间取这一组的第一节，结束时间取最后一节。只返回日期在 [from, before) 内的记录
+     * 分组从大课的第一节课开始计数，因此每页都要读取大课的全部历史课程，开销随大课历史增长；
+     * 没有分配课时规则的学员不受影响
+     */
+    private List<StudentTimelineLesson> assignedLessons(String studentName, StudentRuleSet rules, Long organizationId,
+                                                        LocalDate from, LocalDate before) {
+        List<StudentTimelineLesson> assigned = new ArrayList<>();
+        for (Map.Entry<String, Integer> rule : rules.getAssignHoursSources(studentName).entrySet()) {
+            String sourceCourse = rule.getKey();
+            int hoursPerStudent = rule.getValue();
+
+            List<StudentTimelineLesson> courseLessons = new ArrayList<>(studentTimelineRepository.findPastLessons(
+                    Collections.singletonList(sourceCourse), organizationId, null, false, null, null, 0));
+            Collections.reverse(courseLessons);
+
+            for (int end = hoursPerStudent - 1; end < courseLessons.size(); end += hoursPerStudent) {
+                StudentTimelineLesson first = courseLessons.get(end - hoursPerStudent + 1);
+                LocalDate date = first.getScheduleDate();
+                if ((from != null && date.isBefore(from)) || (before != null && !date.isBefore(before))) {
+                    continue;
+                }
+                StudentTimelineLesson lesson = new StudentTimelineLesson(first);
+                lesson.setSource(StudentTimelineLesson.SOURCE_ASSIGNED_HOURS);
+                lesson.setId(-1L); // 使用负数ID标识这是分配的课时
+                lesson.setTimetableName(sourceCourse + " -> " + studentName);
+                lesson.setEndTime(courseLessons.get(end).getEndTime());
+                assigned.add(lesson);
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * 合并连续的课时：同一天、同一来源、前一节的结束时间等于后一节的开始时间
+     * @param lessons 按日期、开始时间倒序排列的上课记录
+     */
+    static List<StudentTimelineLesson> mergeConsecutiveLessons(List<StudentTimelineLesson> lessons) {
+        List<StudentTimelineLesson> merged = new ArrayList<>(lessons.size());
+        StudentTimelineLesson current = null;
+        for (StudentTimelineLesson lesson : lessons) {
+            // 倒序遍历：lesson 在 current 之前结束时并入 current
+            if (current != null
+                    && current.getScheduleDate().equals(lesson.getScheduleDate())
+                    && current.getSource() == lesson.getSource()
+                    && current.getStartTime() != null
+                    && current.getStartTime().equals(lesson.getEndTime())) {
+                current.setStartTime(lesson.getStartTime());
+                continue;
+            }
+            current = new StudentTimelineLesson(lesson);
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * 教练过滤条件：管理员查看所有教练的记录
+     */
+    private String resolveCoachFilter(String coachName) {
+        if (coachName == null) {
+            return null;
+        }
+        Users user = userService.findByUsername(coachName);
+        return user != null && "MANAGER".equals(user.getPosition()) ? null : coachName;
+    }
+
+    private static Map<String, Object> toScheduleRecord(StudentTimelineLesson lesson) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", lesson.getId());
+        record.put("scheduleDate", lesson.getScheduleDate());
+        record.put("timeRange", lesson.getStartTime() + "-" + lesson.getEndTime());
+        record.put("timetableType", timetableTypeOf(lesson.getSource()));
+        record.put("timetableName", lesson.getTimetableName());
+        record.put("status", "正常");
+        record.put("coachName", lesson.getCoachName());
+        if (lesson.getSource() != StudentTimelineLesson.SOURCE_ASSIGNED_HOURS) {
+            record.put("queriedName", lesson.getStudentName());
+            record.put("actualStudentName", lesson.getStudentName());
+        }
+        return record;
+    }
+
+    private static Map<String, Object> toLeaveRecord(StudentTimelineLesson lesson) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", lesson.getId());
+        record.put("leaveDate", lesson.getScheduleDate());
+        record.put("timeRange", lesson.getStartTime() + "-" + lesson.getEndTime());
+        record.put("leaveReason", lesson.getLeaveReason());
+        record.put("timetableName", lesson.getTimetableName());
+        record.put("coachName", lesson.getCoachName());
+        return record;
+    }
+
+    private static String timetableTypeOf(int source) {
+        switch (source) {
+            case StudentTimelineLesson.SOURCE_WEEKLY_INSTANCE:
+                return "实例课表";
+            case StudentTimelineLesson.SOURCE_ASSIGNED_HOURS:
+                return "大课分配课时";
+            default:
+                return "日期类课表";
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.timetable.service;
+
+import com.timetable.entity.WeeklyInstance;
+import com.timetable.entity.WeeklyInstanceSchedule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 模板课表与一个周实例之间的同步差异
+ * inserts 为需要新增的实例课程，updates 为内容需要以模板覆盖的已有实例课程，cancelIds 为模板中已不存在、需要取消的实例课程ID。
+ * 三个集合都为空表示实例已与模板一致，不需要任何写操作。
+ * exactTemplateCopy 表示应用差异后实例内容与模板完全一致，可以记录模板版本号。
+ */
+public class TemplateInstanceDiff {
+
+    private final WeeklyInstance instance;
+    private final List<WeeklyInstanceSchedule> inserts = new ArrayList<>();
+    private final List<WeeklyInstanceSchedule> updates = new ArrayList<>();
+    private final List<Long> cancelIds = new ArrayList<>();
+    private boolean exactTemplateCopy;
+
+    public TemplateInstanceDiff(WeeklyInstance instance) {
+        this.instance = instance;
+    }
+
+    public WeeklyInstance getInstance() {
+        return instance;
+    }
+
+    public List<WeeklyInstanceSchedule> getInserts() {
+        return inserts;
+    }
+
+    public List<WeeklyInstanceSchedule> getUpdates() {
+        return updates;
+    }
+
+    public List<Long> getCancelIds() {
+        return cancelIds;
+    }
+
+    public boolean isExactTemplateCopy() {
+        return exactTemplateCopy;
+    }
+
+    public void setExactTemplateCopy(boolean exactTemplateCopy) {
+        this.exactTemplateCopy = exactTemplateCopy;
+    }
+
+    public boolean isEmpty() {
+        return inserts.isEmpty() && updates.isEmpty() && cancelIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "实例 " + (instance != null ? instance.getId() : null)
+                + ": 新增 " + inserts.size() + ", 更新 " + updates.size() + ", 取消 " + cancelIds.size();
+    }
+}
@@ -53,6 +53,12 @@ public class TimetableService {
     @Autowired
     private WeeklyInstanceService weeklyInstanceService;
 
+    @Autowired
+    private LessonHoursLedgerService lessonHoursLedgerService;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
     @Autowired
     private CustomerService customerService;
 
@@ -878,13 +884,16 @@ public class TimetableService {
             LocalDate sunday = today.with(DayOfWeek.SUNDAY);
 
             // 获取指定机构的所有活动课表
-            List<Timetables> activeTimetables = timetableRepository.findAll()
-                    .stream()
-                    .filter(t -> t.getOrganizationId() != null && t.getOrganizationId().equals(organizationId))
-                    .filter(t -> t.getIsActive() != null && t.getIsActive() == 1)
-                    .filter(t -> t.getIsDeleted() == null || t.getIsDeleted() == 0)
-                    .filter(t -> t.getIsArchived() == null || t.getIsArchived() == 0)
+            List<Timetables> activeTimetables = organizationId == null
+                    ? new ArrayList<>() : timetableRepository.findActiveByOrganizationId(organizationId);
+
+            // 周固定课表：本周有实例取实例，没有实例时由模板投影（读取时不生成实例）
+            List<Long> weeklyTimetableIds = activeTimetables.stream()
+                    .filter(t -> t.getIsWeekly() != null && t.getIsWeekly() == 1)
+                    .map(Timetables::getId)
                     .collect(Collectors.toList());
+            Map<Long, List<WeeklyInstanceSchedule>> thisWeekSchedules = weeklyInstanceService.getWeekSchedulesForTimetables(
+                    weeklyTimetableIds, today, weeklyInstanceService.isAutoGenerateEnabled(organizationId));
 
             for (Timetables timetable : activeTimetables) {
                 // 获取课表所属用户信息
@@ -896,44 +905,24 @@ public class TimetableService {
                 List<com.timetable.generated.tables.pojos.Schedules> weekSchedules = new ArrayList<>();
 
                 if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                    // 周固定课表：从周实例数据获取本周课程
-                    try {
-                        // 检查是否存在当前周实例，如果不存在则生成
-                        WeeklyInstance currentInstance = weeklyInstanceService.getCurrentWeekInstance(timetable.getId());
-                        if (currentInstance == null) {
-                            try {
-                                currentInstance = weeklyInstanceService.generateCurrentWeekInstance(timetable.getId());
-                            } catch (Exception genEx) {
-                                // 生成失败，继续处理下一个课表
-                                continue;
-                            }
-                        }
-                        
-                        List<WeeklyInstanceSchedule> instanceSchedules = 
-                            weeklyInstanceService.getCurrentWeekInstanceSchedules(timetable.getId());
-                        
-                        // 转换为 Schedules 格式，并过滤掉请假的课程和体验课程
-                        weekSchedules = instanceSchedules.stream()
-                            .filter(instanceSchedule -> instanceSchedule.getIsOnLeave() == null || !instanceSchedule.getIsOnLeave()) // 过滤掉请假的课程
-                            .filter(instanceSchedule -> instanceSchedule.getIsTrial() == null || instanceSchedule.getIsTrial() == 0) // 过滤掉体验课程
-                            .map(instanceSchedule -> {
-                                Schedules schedule = new Schedules();
-                                schedule.setId(instanceSchedule.getId());
-                                schedule.setTimetableId(timetable.getId());
-                                schedule.setStudentName(instanceSchedule.getStudentName());
-                                schedule.setSubject(instanceSchedule.getSubject());
-                                schedule.setDayOfWeek(instanceSchedule.getDayOfWeek());
-                                schedule.setStartTime(instanceSchedule.getStartTime());
-                                schedule.setEndTime(instanceSchedule.getEndTime());
-                                schedule.setScheduleDate(instanceSchedule.getScheduleDate());
-                                schedule.setNote(instanceSchedule.getNote());
-                                return schedule;
-                            })
-                            .collect(Collectors.toList());
-                    } catch (Exception e) {
-                        // 如果获取周实例失败，继续处理下一个课表
-                        continue;
-                    }
+                    // 转换为 Schedules 格式，并过滤掉请假的课程和体验课程（虚拟课程没有ID）
+                    weekSchedules = thisWeekSchedules.getOrDefault(timetable.getId(), new ArrayList<>()).stream()
+                        .filter(instanceSchedule -> instanceSchedule.getIsOnLeave() == null || !instanceSchedule.getIsOnLeave()) // 过滤掉请假的课程
+                        .filter(instanceSchedule -> instanceSchedule.getIsTrial() == null || instanceSchedule.getIsTrial() == 0) // 过滤掉体验课程
+                        .map(instanceSchedule -> {
+                            Schedules schedule = new Schedules();
+                            schedule.setId(instanceSchedule.getId());
+                            schedule.setTimetableId(timetable.getId());
+                            schedule.setStudentName(instanceSchedule.getStudentName());
+                            schedule.setSubject(instanceSchedule.getSubject());
+                            schedule.setDayOfWeek(instanceSchedule.getDayOfWeek());
+                            schedule.setStartTime(instanceSchedule.getStartTime());
+                            schedule.setEndTime(instanceSchedule.getEndTime());
+                            schedule.setScheduleDate(instanceSchedule.getScheduleDate());
+                            schedule.setNote(instanceSchedule.getNote());
+                            return schedule;
+                        })
+                        .collect(Collectors.toList());
                 } else {
                     // 日期范围课表：获取本周课程（日期范围课表没有请假功能，直接返回）
                     weekSchedules = scheduleRepository.findByTimetableIdAndScheduleDateBetween(
@@ -1113,6 +1102,8 @@ public class TimetableService {
             
             scheduleRepository.save(newSchedule);
         }
+        lessonHoursLedgerService.markTimetableDirty(savedTimetable.getId());
+        scheduleChangeTracker.templateChanged(savedTimetable.getId());
 
         return savedTimetable;
     }
@@ -1197,6 +1188,9 @@ public class TimetableService {
         t.setEndDate(null);
         t.setUpdatedAt(LocalDateTime.now());
         timetableRepository.save(t);
+        lessonHoursLedgerService.markTimetableDirty(timetableId);
+        timetableRepository.bumpTemplateVersion(timetableId);
+        scheduleChangeTracker.templateChanged(timetableId);
     }
 
     /**
@@ -1246,6 +1240,9 @@ public class TimetableService {
         t.setEndDate(endDate);
         t.setUpdatedAt(LocalDateTime.now());
         timetableRepository.save(t);
+        lessonHoursLedgerService.markTimetableDirty(timetableId);
+        timetableRepository.bumpTemplateVersion(timetableId);
+        scheduleChangeTracker.templateChanged(timetableId);
     }
 
     /**
@@ -1292,6 +1289,7 @@ public class TimetableService {
             ns.setUpdatedAt(LocalDateTime.now());
             scheduleRepository.save(ns);
         }
+        scheduleChangeTracker.templateChanged(newTable.getId());
         return newTable;
     }
 
@@ -1347,6 +1345,8 @@ public class TimetableService {
             }
             cursor = cursor.plusDays(1);
         }
+        lessonHoursLedgerService.markTimetableDirty(newTable.getId());
+        scheduleChangeTracker.templateChanged(newTable.getId());
         return newTable;
     }
     
@@ -1673,7 +1673,7 @@ public class TimetableService {
                             
                             // 如果还是找不到，尝试模糊匹配（处理名字被修改的情况）
                             if (customer == null && studentName.length() >= 2) {
-                                customer = customerService.findByChildNameLike(studentName);
+                                customer = customerService.findByChildNameLike(studentName, timetable.getOrganizationId());
                             }
                         }
                         
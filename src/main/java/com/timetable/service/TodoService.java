@@ -12,7 +12,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -150,6 +155,41 @@ public class TodoService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 批量获取客户最新的未完成待办（客户ID -> 待办），用于客户列表展示，不含流转记录。
+     * 待办、客户、创建人各一次查询，与客户数量无关
+     */
+    public Map<Long, TodoDTO> getLatestTodoMap(Collection<Long> customerIds, Long organizationId) {
+        Map<Long, TodoDTO> latestByCustomer = new HashMap<>();
+        List<Todo> todos = todoRepository.findLatestTodosByCustomerIdsAndOrganizationId(customerIds, organizationId);
+        if (todos.isEmpty()) {
+            return latestByCustomer;
+        }
+
+        Set<Long> todoCustomerIds = new HashSet<>();
+        Set<Long> creatorIds = new HashSet<>();
+        for (Todo todo : todos) {
+            todoCustomerIds.add(todo.getCustomerId());
+            if (todo.getCreatedBy() != null) {
+                creatorIds.add(todo.getCreatedBy());
+            }
+        }
+        Map<Long, Customer> customers = new HashMap<>();
+        for (Customer customer : customerRepository.findByIds(todoCustomerIds)) {
+            customers.put(customer.getId(), customer);
+        }
+        Map<Long, Users> creators = new HashMap<>();
+        for (Users creator : userRepository.findByIds(creatorIds)) {
+            creators.put(creator.getId(), creator);
+        }
+
+        for (Todo todo : todos) {
+            latestByCustomer.put(todo.getCustomerId(),
+                    toDTO(todo, customers.get(todo.getCustomerId()), creators.get(todo.getCreatedBy())));
+        }
+        return latestByCustomer;
+    }
+
     @Transactional
     public TodoDTO updateTodo(Long todoId, TodoRequest request, Long userId) {
         Todo todo = todoRepository.findById(todoId);
@@ -233,22 +273,37 @@ public class TodoService {
     }
 
     private TodoDTO convertToDTO(Todo todo) {
+        // 查询客户信息（电话、状态、地点、详情、分配信息）和创建人
+        Customer customer = todo.getCustomerId() != null ? customerRepository.findById(todo.getCustomerId()) : null;
+        Users creator = todo.getCreatedBy() != null ? userRepository.findById(todo.getCreatedBy()) : null;
+        TodoDTO dto = toDTO(todo, customer, creator);
+
+        // 查询流转记录
+        if (todo.getCustomerId() != null && todo.getCreatedBy() != null) {
+            try {
+                dto.setStatusHistory(historyService.getHistoryByCustomerId(todo.getCustomerId(), todo.getCreatedBy()));
+            } catch (Exception e) {
+                // 如果查询失败（如权限不足），不影响待办显示
+                dto.setStatusHistory(new java.util.ArrayList<>());
+            }
+        }
+        
+        return dto;
+    }
+
+    private TodoDTO toDTO(Todo todo, Customer customer, Users creator) {
         TodoDTO dto = new TodoDTO();
         dto.setId(todo.getId());
         dto.setCustomerId(todo.getCustomerId());
         dto.setCustomerName(todo.getCustomerName());
         
-        // 查询客户信息（电话、状态、地点、详情、分配信息）
-        if (todo.getCustomerId() != null) {
-            Customer customer = customerRepository.findById(todo.getCustomerId());
-            if (customer != null) {
-                dto.setCustomerPhone(customer.getParentPhone());
-                dto.setCustomerStatus(customer.getStatus());
-                dto.setCustomerStatusText(getStatusText(customer.getStatus()));
-                dto.setCustomerSource(customer.getSource());
-                dto.setCustomerNotes(customer.getNotes());
-                dto.setCustomerAssignedSalesId(customer.getAssignedSalesId());
-            }
+        if (customer != null) {
+            dto.setCustomerPhone(customer.getParentPhone());
+            dto.setCustomerStatus(customer.getStatus());
+            dto.setCustomerStatusText(getStatusText(customer.getStatus()));
+            dto.setCustomerSource(customer.getSource());
+            dto.setCustomerNotes(customer.getNotes());
+            dto.setCustomerAssignedSalesId(customer.getAssignedSalesId());
         }
         
         dto.setContent(todo.getContent());
@@ -261,33 +316,18 @@ public class TodoService {
         dto.setCancelledAt(todo.getCancelledAt());
         dto.setCreatedBy(todo.getCreatedBy());
         
-        // 查询创建人名字
-        if (todo.getCreatedBy() != null) {
-            Users creator = userRepository.findById(todo.getCreatedBy());
-            if (creator != null) {
-                // 优先使用昵称，如果昵称为空则使用用户名
-                String name = creator.getNickname();
-                if (name == null || name.trim().isEmpty()) {
-                    name = creator.getUsername();
-                }
-                dto.setCreatedByName(name);
+        // 创建人名字：优先使用昵称，如果昵称为空则使用用户名
+        if (creator != null) {
+            String name = creator.getNickname();
+            if (name == null || name.trim().isEmpty()) {
+                name = creator.getUsername();
             }
+            dto.setCreatedByName(name);
         }
         
         dto.setOrganizationId(todo.getOrganizationId());
         dto.setCreatedAt(todo.getCreatedAt());
         dto.setUpdatedAt(todo.getUpdatedAt());
-        
-        // 查询流转记录
-        if (todo.getCustomerId() != null && todo.getCreatedBy() != null) {
-            try {
-                dto.setStatusHistory(historyService.getHistoryByCustomerId(todo.getCustomerId(), todo.getCreatedBy()));
-            } catch (Exception e) {
-                // 如果查询失败（如权限不足），不影响待办显示
-                dto.setStatusHistory(new java.util.ArrayList<>());
-            }
-        }
-        
         return dto;
     }
 }
@@ -0,0 +1,206 @@
+package com.timetable.service;
+
+import com.timetable.dto.TrialScheduleInfo;
+import com.timetable.dto.TrialScheduleRequest;
+import com.timetable.entity.CustomerStatusHistory;
+import com.timetable.entity.TrialScheduleOutbox;
+import com.timetable.generated.tables.pojos.Users;
+import com.timetable.repository.CustomerStatusHistoryRepository;
+import com.timetable.repository.TrialScheduleOutboxRepository;
+import com.timetable.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 体验课创建发件箱
+ * 客户状态变更时在同一事务中写入发件箱，提交后交给后台线程创建课表课程并回写流转记录。
+ * 派发事务先锁定流转记录（与修改体验时间、取消体验使用同一把行锁），再按记录当前的日期、时间、教练建课，
+ * 建课、回写流转记录和标记完成在同一事务中提交；记录已关联课程（已派发成功或已被改期建课）或已取消时不再建课，
+ * 因此重复派发、与改期或取消并发时都不会多建或遗留课程。
+ * 失败后按指数退避重试，次数用尽标记为 FAILED；提交后未能立即派发的记录（线程池已满、进程重启）由定时任务补发。
+ */
+@Service
+public class TrialScheduleOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrialScheduleOutboxService.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    // 第 n 次失败后等待 RETRY_BASE_SECONDS * 2^(n-1) 秒再重试
+    private static final long RETRY_BASE_SECONDS = 30;
+
+    // 派发中超过该时间没有结果的记录视为派发线程已退出
+    private static final long STALE_PROCESSING_MINUTES = 10;
+
+    private static final int DISPATCH_BATCH_SIZE = 50;
+
+    private static final int DISPATCH_THREADS = 2;
+
+    private static final int DISPATCH_QUEUE_CAPACITY = 200;
+
+    @Autowired
+    private TrialScheduleOutboxRepository outboxRepository;
+
+    @Autowired
+    private CustomerStatusHistoryRepository historyRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ScheduleService scheduleService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 派发线程池：队列满时丢弃，由定时补发处理
+    private final ExecutorService dispatchExecutor = createDispatchExecutor();
+
+    /**
+     * 写入体验课创建请求（在调用方事务中），事务提交后异步派发
+     */
+    public TrialScheduleOutbox enqueue(TrialScheduleOutbox outbox) {
+        outbox.setIdempotencyKey(TrialScheduleOutbox.idempotencyKeyOf(outbox.getHistoryId()));
+        TrialScheduleOutbox saved = outboxRepository.create(outbox);
+        Long outboxId = saved.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submit(outboxId);
+                    }
+                }
+            });
+        } else {
+            submit(outboxId);
+        }
+        return saved;
+    }
+
+    /**
+     * 派发所有已到时间的记录（定时任务调用）
+     * @return 本次派发的记录数
+     */
+    public int dispatchDue() {
+        LocalDateTime now = LocalDateTime.now();
+        int released = outboxRepository.releaseStale(now.minusMinutes(STALE_PROCESSING_MINUTES));
+        if (released > 0) {
+            logger.warn("体验课发件箱: {} 条派发超时的记录已放回待派发", released);
+        }
+        List<Long> dueIds = outboxRepository.findDueIds(now, DISPATCH_BATCH_SIZE);
+        for (Long id : dueIds) {
+            dispatch(id);
+        }
+        return dueIds.size();
+    }
+
+    /**
+     * 派发一条记录：抢占失败（已被其他线程处理或未到时间）时直接返回
+     */
+    public void dispatch(Long outboxId) {
+        if (!outboxRepository.claim(outboxId, LocalDateTime.now())) {
+            return;
+        }
+        TrialScheduleOutbox outbox = outboxRepository.findById(outboxId);
+        try {
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            template.execute(status -> {
+                createTrialSchedule(outbox);
+                outboxRepository.markDone(outboxId);
+                return null;
+            });
+        } catch (Exception e) {
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            if (outbox.getAttempts() >= MAX_ATTEMPTS) {
+                outboxRepository.markFailed(outboxId, error);
+                logger.error("创建体验课失败，重试次数已用尽: outboxId={}, historyId={}, 学员={}, 日期={} {}-{}",
+                        outboxId, outbox.getHistoryId(), outbox.getStudentName(), outbox.getScheduleDate(),
+                        outbox.getStartTime(), outbox.getEndTime(), e);
+            } else {
+                long delaySeconds = RETRY_BASE_SECONDS << (outbox.getAttempts() - 1);
+                outboxRepository.markRetry(outboxId, LocalDateTime.now().plusSeconds(delaySeconds), error);
+                logger.warn("创建体验课失败，{}秒后重试: outboxId={}, historyId={}, 第{}次, 原因={}",
+                        delaySeconds, outboxId, outbox.getHistoryId(), outbox.getAttempts(), error);
+            }
+        }
+    }
+
+    private void createTrialSchedule(TrialScheduleOutbox outbox) {
+        CustomerStatusHistory history = historyRepository.findByIdForUpdate(outbox.getHistoryId());
+        if (history == null || history.getTrialScheduleId() != null || Boolean.TRUE.equals(history.getTrialCancelled())
+                || history.getTrialCoachId() == null || history.getTrialScheduleDate() == null
+                || history.getTrialStartTime() == null || history.getTrialEndTime() == null) {
+            // 流转记录已删除、已关联课程（上次派发已成功或已改期建课）、体验已取消或体验信息已清空：无需建课
+            logger.info("跳过体验课创建: outboxId={}, historyId={}", outbox.getId(), outbox.getHistoryId());
+            return;
+        }
+
+        // 日期、时间、教练以流转记录的当前值为准（排队期间可能已改期）
+        TrialScheduleRequest trialRequest = new TrialScheduleRequest();
+        trialRequest.setCoachId(history.getTrialCoachId());
+        trialRequest.setScheduleDate(history.getTrialScheduleDate().toString());
+        trialRequest.setStartTime(history.getTrialStartTime().toString());
+        trialRequest.setEndTime(history.getTrialEndTime().toString());
+        trialRequest.setStudentName(history.getTrialStudentName() != null
+                ? history.getTrialStudentName() : outbox.getStudentName());
+        trialRequest.setCustomerPhone(outbox.getCustomerPhone());
+        trialRequest.setIsTrial(true);
+        trialRequest.setCustomerId(outbox.getCustomerId());
+
+        Users operator = userRepository.findById(outbox.getOperatorId());
+        TrialScheduleInfo scheduleInfo = scheduleService.createTrialSchedule(trialRequest, operator);
+        historyRepository.updateTrialScheduleInfo(outbox.getHistoryId(), scheduleInfo.getScheduleId(),
+                scheduleInfo.getTimetableId(), scheduleInfo.getSourceType());
+        logger.info("体验课已创建并关联流转记录: outboxId={}, historyId={}, scheduleId={}, sourceType={}",
+                outbox.getId(), outbox.getHistoryId(), scheduleInfo.getScheduleId(), scheduleInfo.getSourceType());
+    }
+
+    private void submit(Long outboxId) {
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    dispatch(outboxId);
+                } catch (Exception e) {
+                    logger.error("体验课发件箱派发异常: outboxId={}", outboxId, e);
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("体验课发件箱派发队列已满，等待定时补发: outboxId={}", outboxId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchExecutor.shutdownNow();
+    }
+
+    private static ExecutorService createDispatchExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(DISPATCH_THREADS, DISPATCH_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(DISPATCH_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "trial-schedule-outbox-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
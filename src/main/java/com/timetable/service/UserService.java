@@ -6,7 +6,10 @@ import com.timetable.repository.OrganizationRepository;
 import com.timetable.dto.UserRegistrationRequest;
 import com.timetable.dto.PendingUserDTO;
 import com.timetable.entity.Organization;
+import com.timetable.security.AuthenticatedUser;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -81,8 +84,13 @@ public class UserService implements UserDetailsService {
     
     /**
      * 根据用户名查找用户
+     * 查找的是当前请求的认证用户时，直接返回认证时加载的用户，不再查询数据库
      */
     public Users findByUsername(String username) {
+        Users current = currentAuthenticatedUser();
+        if (current != null && current.getUsername() != null && current.getUsername().equals(username)) {
+            return current;
+        }
         return userRepository.findByUsername(username);
     }
     
@@ -92,6 +100,17 @@ public class UserService implements UserDetailsService {
     public Users findById(Long id) {
         return userRepository.findById(id);
     }
+
+    /**
+     * 当前请求的认证用户（JwtRequestFilter 认证时加载），未认证或非数据库用户时返回 null
+     */
+    public Users currentAuthenticatedUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser) {
+            return ((AuthenticatedUser) authentication.getPrincipal()).getUser();
+        }
+        return null;
+    }
     
     /**
      * 检查用户名是否存在
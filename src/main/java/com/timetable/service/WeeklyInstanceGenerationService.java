@@ -0,0 +1,275 @@
+package com.timetable.service;
+
+import com.timetable.dto.NotificationSettingsDTO;
+import com.timetable.entity.WeeklyInstance;
+import com.timetable.entity.WeeklyInstanceJobRun;
+import com.timetable.generated.tables.pojos.Timetables;
+import com.timetable.repository.TimetableRepository;
+import com.timetable.repository.WeeklyInstanceJobRunRepository;
+import com.timetable.repository.WeeklyInstanceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 周实例批量生成服务
+ * 在SQL中筛选活动、未归档的周固定课表，按机构分组后在有界线程池中并行生成；
+ * 每个机构只读取一次自动生成设置，每个课表在独立的短事务中生成（WeeklyInstanceService 的事务方法）。
+ * 每次执行的生成、跳过、失败数量和耗时记录到 weekly_instance_job_runs。
+ */
+@Service
+public class WeeklyInstanceGenerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WeeklyInstanceGenerationService.class);
+
+    private static final int GENERATION_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final int GENERATION_QUEUE_CAPACITY = 256;
+
+    // 执行记录中最多保留的失败明细条数
+    private static final int MAX_RECORDED_ERRORS = 100;
+
+    @Autowired
+    private WeeklyInstanceService weeklyInstanceService;
+
+    @Autowired
+    private TimetableRepository timetableRepository;
+
+    @Autowired
+    private WeeklyInstanceRepository weeklyInstanceRepository;
+
+    @Autowired
+    private WeeklyInstanceJobRunRepository jobRunRepository;
+
+    @Autowired
+    private OrganizationService organizationService;
+
+    // 同一时间只允许一次批量生成
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // 生成线程池：线程数和队列均有上限，队列满时由调用线程自行生成
+    private final ExecutorService generationExecutor = createGenerationExecutor();
+
+    /**
+     * 为所有活动周固定课表生成当前周实例
+     * @param triggerType WeeklyInstanceJobRun.TRIGGER_SCHEDULED / TRIGGER_MANUAL
+     */
+    public WeeklyInstanceJobRun generateCurrentWeek(String triggerType) {
+        return run(WeeklyInstanceJobRun.JOB_CURRENT_WEEK, triggerType,
+                weeklyInstanceService.getYearWeek(LocalDate.now()));
+    }
+
+    /**
+     * 为所有活动周固定课表生成下周实例
+     * @param triggerType WeeklyInstanceJobRun.TRIGGER_SCHEDULED / TRIGGER_MANUAL
+     */
+    public WeeklyInstanceJobRun generateNextWeek(String triggerType) {
+        return run(WeeklyInstanceJobRun.JOB_NEXT_WEEK, triggerType,
+                weeklyInstanceService.getYearWeek(LocalDate.now().with(DayOfWeek.MONDAY).plusWeeks(1)));
+    }
+
+    /**
+     * 最近的执行记录
+     */
+    public List<WeeklyInstanceJobRun> getRecentRuns(int limit) {
+        return jobRunRepository.findRecent(Math.max(1, Math.min(limit, 100)));
+    }
+
+    /**
+     * 兼容原批量生成接口的结果格式
+     */
+    public static Map<String, Object> toResultMap(WeeklyInstanceJobRun run) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobRunId", run.getId());
+        result.put("yearWeek", run.getYearWeek());
+        result.put("totalTimetables", run.getTotalTimetables());
+        result.put("successCount", run.getGeneratedCount());
+        result.put("failedCount", run.getFailedCount());
+        result.put("skippedCount", run.getSkippedCount());
+        result.put("durationMs", run.getDurationMs());
+        result.put("errors", run.getErrors());
+        return result;
+    }
+
+    private WeeklyInstanceJobRun run(String jobType, String triggerType, String yearWeek) {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("周实例生成任务正在执行，请稍后再试");
+        }
+        long startNanos = System.nanoTime();
+        WeeklyInstanceJobRun run = new WeeklyInstanceJobRun(jobType, triggerType, yearWeek);
+        try {
+            List<Timetables> timetables = timetableRepository.findActiveWeeklyTimetables();
+            run.setTotalTimetables(timetables.size());
+            jobRunRepository.create(run);
+            logger.info("开始批量生成周实例，执行记录: {}, 目标: {} {}, 课表数: {}",
+                    run.getId(), jobType, yearWeek, timetables.size());
+
+            // 已有目标周实例的课表：下周任务仍调用生成（空实例会重新同步），但计为跳过
+            Set<Long> existingTemplateIds = weeklyInstanceRepository.findTemplateIdsByYearWeek(yearWeek);
+
+            Map<Long, List<Timetables>> partitions = new LinkedHashMap<>();
+            for (Timetables timetable : timetables) {
+                partitions.computeIfAbsent(timetable.getOrganizationId(), key -> new ArrayList<>()).add(timetable);
+            }
+
+            GenerationCounters counters = new GenerationCounters();
+            List<Future<?>> futures = new ArrayList<>(partitions.size());
+            for (Map.Entry<Long, List<Timetables>> partition : partitions.entrySet()) {
+                futures.add(generationExecutor.submit(() ->
+                        generatePartition(jobType, partition.getKey(), partition.getValue(), existingTemplateIds, counters)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.error("机构周实例生成任务异常", e.getCause());
+                    counters.addError("机构任务异常: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+                }
+            }
+
+            run.setGeneratedCount(counters.generated.get());
+            run.setSkippedCount(counters.skipped.get());
+            run.setFailedCount(counters.failed.get());
+            run.setErrors(counters.errorsSnapshot());
+            run.setStatus(WeeklyInstanceJobRun.STATUS_COMPLETED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.setStatus(WeeklyInstanceJobRun.STATUS_FAILED);
+            run.getErrors().add("任务被中断");
+        } catch (RuntimeException e) {
+            logger.error("批量生成周实例失败", e);
+            run.setStatus(WeeklyInstanceJobRun.STATUS_FAILED);
+            run.getErrors().add(e.getMessage());
+            throw e;
+        } finally {
+            run.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            run.setFinishedAt(LocalDateTime.now());
+            finish(run);
+            running.set(false);
+        }
+
+        logger.info("批量生成周实例完成，执行记录: {}, 总数={}, 生成={}, 跳过={}, 失败={}, 耗时={}ms",
+                run.getId(), run.getTotalTimetables(), run.getGeneratedCount(),
+                run.getSkippedCount(), run.getFailedCount(), run.getDurationMs());
+        return run;
+    }
+
+    private void finish(WeeklyInstanceJobRun run) {
+        if (run.getId() == null) {
+            return;
+        }
+        try {
+            jobRunRepository.update(run);
+        } catch (Exception e) {
+            logger.error("更新周实例生成执行记录失败: {}", run.getId(), e);
+        }
+    }
+
+    /**
+     * 生成一个机构的全部课表：机构关闭自动生成时全部跳过，单个课表失败不影响其他课表
+     */
+    private void generatePartition(String jobType, Long organizationId, List<Timetables> timetables,
+                                   Set<Long> existingTemplateIds, GenerationCounters counters) {
+        if (organizationId != null && isAutoGenerateDisabled(organizationId)) {
+            logger.info("机构 {} 已关闭周实例自动生成，跳过 {} 个课表", organizationId, timetables.size());
+            counters.skipped.addAndGet(timetables.size());
+            return;
+        }
+
+        for (Timetables timetable : timetables) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                boolean existed = existingTemplateIds.contains(timetable.getId());
+                if (WeeklyInstanceJobRun.JOB_NEXT_WEEK.equals(jobType)) {
+                    weeklyInstanceService.generateNextWeekInstance(timetable.getId(), true);
+                    (existed ? counters.skipped : counters.generated).incrementAndGet();
+                } else if (existed || weeklyInstanceService.getCurrentWeekInstance(timetable.getId()) != null) {
+                    logger.debug("课表 {} ({}) 已有当前周实例，跳过", timetable.getId(), timetable.getName());
+                    counters.skipped.incrementAndGet();
+                } else {
+                    WeeklyInstance instance = weeklyInstanceService.generateCurrentWeekInstance(timetable.getId(), true);
+                    if (instance != null) {
+                        counters.generated.incrementAndGet();
+                    } else {
+                        counters.failed.incrementAndGet();
+                        counters.addError(String.format("课表 %s (%s): 生成失败", timetable.getId(), timetable.getName()));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("为课表 {} ({}) 生成周实例时发生异常: {}",
+                        timetable.getId(), timetable.getName(), e.getMessage(), e);
+                counters.failed.incrementAndGet();
+                counters.addError(String.format("课表 %s (%s): %s", timetable.getId(), timetable.getName(), e.getMessage()));
+            }
+        }
+    }
+
+    private boolean isAutoGenerateDisabled(Long organizationId) {
+        try {
+            NotificationSettingsDTO settings = organizationService.getNotificationSettings(organizationId);
+            return settings != null && Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate());
+        } catch (Exception e) {
+            logger.warn("获取机构 {} 设置失败，将继续生成周实例: {}", organizationId, e.getMessage());
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        generationExecutor.shutdownNow();
+    }
+
+    private static ExecutorService createGenerationExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(GENERATION_THREADS, GENERATION_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(GENERATION_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "weekly-instance-generation-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static final class GenerationCounters {
+        private final AtomicInteger generated = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        private void addError(String error) {
+            if (errors.size() < MAX_RECORDED_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        private List<String> errorsSnapshot() {
+            synchronized (errors) {
+                return new ArrayList<>(errors);
+            }
+        }
+    }
+}
@@ -4,17 +4,23 @@ import com.timetable.entity.WeeklyInstance;
 import com.timetable.entity.WeeklyInstanceSchedule;
 import com.timetable.entity.StudentOperationRecord;
 import com.timetable.dto.StudentSummaryDTO;
+import com.timetable.dto.StudentHoursAggregate;
 import com.timetable.dto.WeeklyInstanceDTO;
 import com.timetable.dto.CoachStudentSummaryDTO;
+import com.timetable.dto.DayBoardLesson;
+import com.timetable.dto.ScheduleChangeEvent;
 import com.timetable.repository.WeeklyInstanceRepository;
 import com.timetable.repository.WeeklyInstanceScheduleRepository;
 import com.timetable.repository.TimetableRepository;
 import com.timetable.repository.ScheduleRepository;
 import com.timetable.repository.UserRepository;
 import com.timetable.repository.StudentOperationRecordRepository;
+import com.timetable.repository.OrganizationDayBoardRepository;
 import com.timetable.generated.tables.pojos.Timetables;
 import com.timetable.generated.tables.pojos.Schedules;
 import com.timetable.generated.tables.pojos.Users;
+import com.timetable.util.ScheduleConflictIndex;
+import com.timetable.util.ScheduleSlotKey;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -29,8 +35,13 @@ import java.time.DayOfWeek;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.WeekFields;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,13 +72,13 @@ public class WeeklyInstanceService {
     private com.timetable.service.UserService userService;
 
     @Autowired
-    private com.timetable.service.StudentMergeService studentMergeService;
+    private StudentOperationRecordRepository studentOperationRecordRepository;
 
     @Autowired
-    private com.timetable.service.StudentAliasService studentAliasService;
+    private StudentRuleService studentRuleService;
 
     @Autowired
-    private StudentOperationRecordRepository studentOperationRecordRepository;
+    private LessonHoursLedgerService lessonHoursLedgerService;
     
     @Autowired
     private org.springframework.jdbc.core.JdbcTemplate jdbcTemplate;
@@ -75,6 +86,15 @@ public class WeeklyInstanceService {
     @Autowired
     private OrganizationService organizationService;
 
+    @Autowired
+    private OrganizationDayBoardRepository organizationDayBoardRepository;
+
+    @Autowired
+    private ScheduleChangeTracker scheduleChangeTracker;
+
+    @Autowired
+    private ScheduleEventBus scheduleEventBus;
+
     /**
      * 为指定的固定课表生成当前周实例
      */
@@ -133,6 +153,7 @@ public class WeeklyInstanceService {
             // 更新为当前周实例
             weeklyInstanceRepository.clearCurrentWeekFlagByTemplateId(templateTimetableId);
             weeklyInstanceRepository.setCurrentWeekInstance(existingInstance.getId());
+            scheduleChangeTracker.timetableChanged(templateTimetableId);
             return existingInstance;
         }
 
@@ -161,6 +182,7 @@ public class WeeklyInstanceService {
         // 清除同一模板课表的其他当前周标记，设置新实例为当前周
         weeklyInstanceRepository.clearCurrentWeekFlagByTemplateId(templateTimetableId);
         weeklyInstanceRepository.setCurrentWeekInstance(instance.getId());
+        scheduleChangeTracker.instanceChanged(instance);
 
         return instance;
     }
@@ -186,6 +208,10 @@ public class WeeklyInstanceService {
 
         WeeklyInstance existingInstance = weeklyInstanceRepository.findByTemplateIdAndYearWeek(templateTimetableId, yearWeek);
         if (existingInstance != null) {
+            // 实例已按模板当前版本同步且之后未被修改：模板没有变化，不需要读取课程
+            if (isSyncedWithTemplate(existingInstance)) {
+                return existingInstance;
+            }
             // 检查实例是否有课程数据，如果没有则重新同步
             List<WeeklyInstanceSchedule> existingSchedules = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(existingInstance.getId());
             if (existingSchedules == null || existingSchedules.isEmpty()) {
@@ -253,6 +279,7 @@ public class WeeklyInstanceService {
         weeklyInstanceScheduleRepository.deleteByWeeklyInstanceId(instance.getId());
         // 再删实例
         weeklyInstanceRepository.delete(instance.getId());
+        notifyInstanceChanged(instance);
         return true;
     }
     
@@ -269,62 +296,30 @@ public class WeeklyInstanceService {
         weeklyInstanceScheduleRepository.deleteByWeeklyInstanceId(instance.getId());
         // 再删实例
         weeklyInstanceRepository.delete(instance.getId());
+        markInstanceChanged(instance);
         logger.info("删除周实例成功，实例ID: {}, yearWeek: {}", instanceId, instance.getYearWeek());
         return true;
     }
 
-    /**
-     * 为所有活动课表生成"下周"的周实例
-     * 会检查每个机构的weeklyInstanceAutoGenerate设置，只有设置为true的机构才会生成
-     */
-    @Transactional
-    public void generateNextWeekInstancesForAllActiveTimetables() {
-        List<Timetables> activeTimetables = timetableRepository.findAll()
-                .stream()
-                .filter(t -> t.getIsActive() != null && t.getIsActive() == 1)
-                .filter(t -> t.getIsWeekly() != null && t.getIsWeekly() == 1)
-                .filter(t -> t.getIsDeleted() == null || t.getIsDeleted() == 0)
-                .filter(t -> t.getIsArchived() == null || t.getIsArchived() == 0)
-                .collect(Collectors.toList());
-
-        for (Timetables timetable : activeTimetables) {
-            try {
-                // 检查机构的weeklyInstanceAutoGenerate设置
-                if (timetable.getOrganizationId() != null) {
-                    try {
-                        com.timetable.dto.NotificationSettingsDTO settings = organizationService.getNotificationSettings(timetable.getOrganizationId());
-                        if (settings != null && Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate())) {
-                            logger.info("机构 {} 已关闭周实例自动生成，跳过课表 {} ({})", 
-                                timetable.getOrganizationId(), timetable.getId(), timetable.getName());
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("获取机构 {} 设置失败，将继续生成周实例: {}", timetable.getOrganizationId(), e.getMessage());
-                    }
-                }
-                generateNextWeekInstance(timetable.getId());
-            } catch (Exception ignored) {}
-        }
-    }
-
     /**
      * 从模板课表同步课程到周实例（保留手动添加的课程）
      */
     @Transactional
     public void syncSchedulesFromTemplate(WeeklyInstance instance) {
+        // 先读取模板版本号：读取课程之后模板再变化时，记录的是较旧的版本，下次同步会重新处理
+        Long templateVersion = timetableRepository.findTemplateVersion(instance.getTemplateTimetableId());
+
         // 获取模板课表的模板课程（scheduleDate为null的记录）
         List<Schedules> templateSchedules = scheduleRepository.findTemplateSchedulesByTimetableId(instance.getTemplateTimetableId());
         logger.info("从模板课表 {} 获取到 {} 个模板课程", instance.getTemplateTimetableId(), templateSchedules.size());
 
-        // 删除实例中所有非手动添加的课程
-        List<WeeklyInstanceSchedule> existingSchedules = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(instance.getId());
-        for (WeeklyInstanceSchedule schedule : existingSchedules) {
-            if (schedule.getIsManualAdded() == null || !schedule.getIsManualAdded()) {
-                weeklyInstanceScheduleRepository.delete(schedule.getId());
-            }
-        }
+        // 删除实例中所有非手动添加的课程（一条语句）
+        weeklyInstanceScheduleRepository.cancelTemplateSyncedByWeeklyInstanceId(instance.getId());
+        // 没有保留的手动课程时，同步后的实例与模板完全一致
+        boolean exactCopy = weeklyInstanceScheduleRepository.countByWeeklyInstanceId(instance.getId()) == 0;
 
-        // 从模板课程创建实例课程
+        // 从模板课程创建实例课程，统一批量写入
+        List<WeeklyInstanceSchedule> instanceSchedules = new ArrayList<>(templateSchedules.size());
         for (Schedules templateSchedule : templateSchedules) {
             // 计算具体日期
             LocalDate scheduleDate = calculateScheduleDate(instance.getWeekStartDate(), templateSchedule.getDayOfWeek());
@@ -342,60 +337,136 @@ public class WeeklyInstanceService {
             );
             instanceSchedule.setIsTimeBlock(false); // 普通课程必须明确设为false，防止数据库约束冲突
             
-            weeklyInstanceScheduleRepository.save(instanceSchedule);
+            instanceSchedules.add(instanceSchedule);
             logger.debug("创建实例课程: {} {} {}-{} 日期: {}", 
                 templateSchedule.getStudentName(), templateSchedule.getDayOfWeek(), 
                 templateSchedule.getStartTime(), templateSchedule.getEndTime(), scheduleDate);
         }
+        weeklyInstanceScheduleRepository.saveAll(instanceSchedules);
         
         logger.info("成功同步 {} 个模板课程到周实例 {}", templateSchedules.size(), instance.getId());
+        markInstanceChanged(instance);
 
         // 更新实例的同步时间
-        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now());
+        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now(), exactCopy ? templateVersion : null);
     }
 
     /**
      * 智能同步模板课程到周实例（以固定课表为准覆盖实例内容）
+     * 先计算模板与实例的差异，只写入新增、内容变化和需要取消的课程
      */
     @Transactional
     public void syncTemplateToInstanceWithOverride(WeeklyInstance instance) {
+        Long templateVersion = timetableRepository.findTemplateVersion(instance.getTemplateTimetableId());
+        if (isSyncedWithTemplate(instance, templateVersion)) {
+            logger.debug("周实例 {} 已是模板版本 {}，跳过同步", instance.getId(), templateVersion);
+            return;
+        }
+
         // 获取模板课表的模板课程（scheduleDate为null的记录）
         List<Schedules> templateSchedules = scheduleRepository.findTemplateSchedulesByTimetableId(instance.getTemplateTimetableId());
         
         // 获取实例中现有的所有课程
         List<WeeklyInstanceSchedule> existingSchedules = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(instance.getId());
         
-        // 创建现有课程的映射，用于快速查找
-        Map<String, WeeklyInstanceSchedule> existingScheduleMap = new HashMap<>();
+        TemplateInstanceDiff diff = diffTemplateToInstance(instance, templateSchedules, existingSchedules, null);
+        applyTemplateDiffs(Collections.singletonList(diff), templateVersion);
+    }
+
+    /**
+     * 周实例是否已按模板课表的当前版本完整同步，且之后没有实例课程被写入
+     * 实例未记录版本时不查询数据库；否则只按主键读取一次课表的版本号
+     */
+    public boolean isSyncedWithTemplate(WeeklyInstance instance) {
+        return instance.getSyncedTemplateVersion() != null
+                && isSyncedWithTemplate(instance, timetableRepository.findTemplateVersion(instance.getTemplateTimetableId()));
+    }
+
+    private boolean isSyncedWithTemplate(WeeklyInstance instance, Long templateVersion) {
+        return templateVersion != null && templateVersion.equals(instance.getSyncedTemplateVersion());
+    }
+
+    /**
+     * 以固定课表为准覆盖同一模板课表的多个周实例
+     * 模板课程和所有实例的课程各读取一次，各实例的差异合并后批量写入，同步时间一条语句更新。
+     * @return 有变化的实例数
+     */
+    private int syncTemplateToInstances(Long templateTimetableId, List<WeeklyInstance> instances) {
+        Long templateVersion = timetableRepository.findTemplateVersion(templateTimetableId);
+        // 已按当前模板版本同步的实例不需要读取课程
+        List<WeeklyInstance> staleInstances = new ArrayList<>(instances.size());
+        for (WeeklyInstance instance : instances) {
+            if (!isSyncedWithTemplate(instance, templateVersion)) {
+                staleInstances.add(instance);
+            }
+        }
+        if (staleInstances.size() < instances.size()) {
+            logger.info("课表 {} 模板版本 {}: {} 个实例已是最新，跳过", templateTimetableId, templateVersion,
+                    instances.size() - staleInstances.size());
+        }
+        instances = staleInstances;
+        if (instances.isEmpty()) {
+            return 0;
+        }
+        List<Schedules> templateSchedules = scheduleRepository.findTemplateSchedulesByTimetableId(templateTimetableId);
+
+        List<Long> instanceIds = new ArrayList<>(instances.size());
+        for (WeeklyInstance instance : instances) {
+            instanceIds.add(instance.getId());
+        }
+        Map<Long, List<WeeklyInstanceSchedule>> schedulesByInstance = new HashMap<>();
+        for (WeeklyInstanceSchedule schedule : weeklyInstanceScheduleRepository.findByWeeklyInstanceIds(instanceIds)) {
+            schedulesByInstance.computeIfAbsent(schedule.getWeeklyInstanceId(), key -> new ArrayList<>()).add(schedule);
+        }
+
+        List<TemplateInstanceDiff> diffs = new ArrayList<>(instances.size());
+        for (WeeklyInstance instance : instances) {
+            diffs.add(diffTemplateToInstance(instance, templateSchedules,
+                    schedulesByInstance.getOrDefault(instance.getId(), Collections.emptyList()), null));
+        }
+        return applyTemplateDiffs(diffs, templateVersion);
+    }
+
+    /**
+     * 计算模板课程与一个周实例之间的差异，按 星期+开始时间+结束时间 对应
+     * 覆盖模式（onlyAfter 为 null）：同一时间段的实例课程以模板为准覆盖（包括手动添加的），模板中没有的非手动课程取消；
+     * 选择模式（onlyAfter 不为 null）：只处理开始时间晚于 onlyAfter 的模板课程，手动添加的课程不覆盖，不取消任何课程。
+     * 内容已与模板一致的课程不计入更新。
+     */
+    private TemplateInstanceDiff diffTemplateToInstance(WeeklyInstance instance, List<Schedules> templateSchedules,
+                                                        List<WeeklyInstanceSchedule> existingSchedules, LocalDateTime onlyAfter) {
+        boolean override = onlyAfter == null;
+        TemplateInstanceDiff diff = new TemplateInstanceDiff(instance);
+
+        // 覆盖模式下，同步后实例是否与模板完全一致（没有保留手动课程、请假、占用或体验课标记）
+        boolean exactCopy = override;
+
+        Map<ScheduleSlotKey, WeeklyInstanceSchedule> existingBySlot = new HashMap<>();
         for (WeeklyInstanceSchedule schedule : existingSchedules) {
-            String key = schedule.getDayOfWeek() + "_" + schedule.getStartTime() + "_" + schedule.getEndTime();
-            existingScheduleMap.put(key, schedule);
+            WeeklyInstanceSchedule displaced = existingBySlot.put(
+                    new ScheduleSlotKey(schedule.getDayOfWeek(), schedule.getStartTime(), schedule.getEndTime()), schedule);
+            if (displaced != null && override) {
+                // 同一时间段的重复课程只保留最后一条与模板对应，其余非手动课程取消
+                if (Boolean.TRUE.equals(displaced.getIsManualAdded())) {
+                    exactCopy = false;
+                } else {
+                    diff.getCancelIds().add(displaced.getId());
+                }
+            }
         }
-        
-        // 处理模板课程
+
         for (Schedules templateSchedule : templateSchedules) {
             // 计算具体日期
             LocalDate scheduleDate = calculateScheduleDate(instance.getWeekStartDate(), templateSchedule.getDayOfWeek());
-            
-            String key = templateSchedule.getDayOfWeek() + "_" + templateSchedule.getStartTime() + "_" + templateSchedule.getEndTime();
-            WeeklyInstanceSchedule existingSchedule = existingScheduleMap.get(key);
-            
-            if (existingSchedule != null) {
-                // 如果实例中已存在相同时间段的课程，以固定课表为准进行覆盖
-                existingSchedule.setTemplateScheduleId(templateSchedule.getId());
-                existingSchedule.setStudentName(templateSchedule.getStudentName());
-                existingSchedule.setSubject(templateSchedule.getSubject());
-                existingSchedule.setNote(templateSchedule.getNote());
-                existingSchedule.setIsManualAdded(false); // 标记为模板同步的课程
-                existingSchedule.setIsModified(false); // 重置修改标记
-                existingSchedule.setUpdatedAt(LocalDateTime.now());
-                
-                weeklyInstanceScheduleRepository.save(existingSchedule);
-                
-                // 从映射中移除，表示已处理
-                existingScheduleMap.remove(key);
-            } else {
-                // 如果实例中不存在，创建新的课程
+            if (!override && !LocalDateTime.of(scheduleDate, templateSchedule.getStartTime()).isAfter(onlyAfter)) {
+                continue;
+            }
+
+            ScheduleSlotKey key = new ScheduleSlotKey(templateSchedule.getDayOfWeek(), templateSchedule.getStartTime(), templateSchedule.getEndTime());
+            // 覆盖模式下每个实例课程只对应一个模板课程，已对应的从映射中移除
+            WeeklyInstanceSchedule existingSchedule = override ? existingBySlot.remove(key) : existingBySlot.get(key);
+
+            if (existingSchedule == null) {
                 WeeklyInstanceSchedule newSchedule = new WeeklyInstanceSchedule(
                     instance.getId(),
                     templateSchedule.getId(),
@@ -407,24 +478,100 @@ public class WeeklyInstanceService {
                     scheduleDate,
                     templateSchedule.getNote()
                 );
-                newSchedule.setIsManualAdded(false);
-                newSchedule.setIsModified(false);
-                newSchedule.setCreatedAt(LocalDateTime.now());
-                newSchedule.setUpdatedAt(LocalDateTime.now());
-                
-                weeklyInstanceScheduleRepository.save(newSchedule);
+                newSchedule.setIsTimeBlock(false); // 普通课程必须明确设为false，防止数据库约束冲突
+                diff.getInserts().add(newSchedule);
+                continue;
+            }
+
+            boolean manualAdded = Boolean.TRUE.equals(existingSchedule.getIsManualAdded());
+            if (Boolean.TRUE.equals(existingSchedule.getIsOnLeave()) || Boolean.TRUE.equals(existingSchedule.getIsTimeBlock())
+                    || (existingSchedule.getIsTrial() != null && existingSchedule.getIsTrial() != 0)) {
+                exactCopy = false;
+            }
+            if (!override && manualAdded) {
+                // 选择模式下手动添加的课程不被覆盖
+                continue;
+            }
+            boolean changed = !Objects.equals(existingSchedule.getTemplateScheduleId(), templateSchedule.getId())
+                    || !Objects.equals(existingSchedule.getStudentName(), templateSchedule.getStudentName())
+                    || !Objects.equals(existingSchedule.getSubject(), templateSchedule.getSubject())
+                    || !Objects.equals(existingSchedule.getNote(), templateSchedule.getNote())
+                    || !Boolean.FALSE.equals(existingSchedule.getIsModified())
+                    || (override && !Boolean.FALSE.equals(existingSchedule.getIsManualAdded()));
+            if (changed) {
+                existingSchedule.setTemplateScheduleId(templateSchedule.getId());
+                existingSchedule.setStudentName(templateSchedule.getStudentName());
+                existingSchedule.setSubject(templateSchedule.getSubject());
+                existingSchedule.setNote(templateSchedule.getNote());
+                if (override) {
+                    existingSchedule.setIsManualAdded(false); // 标记为模板同步的课程
+                }
+                existingSchedule.setIsModified(false); // 重置修改标记
+                existingSchedule.setUpdatedAt(LocalDateTime.now());
+                diff.getUpdates().add(existingSchedule);
             }
         }
-        
-        // 删除实例中不再存在于模板中的非手动添加课程
-        for (WeeklyInstanceSchedule schedule : existingScheduleMap.values()) {
-            if (schedule.getIsManualAdded() == null || !schedule.getIsManualAdded()) {
-                weeklyInstanceScheduleRepository.delete(schedule.getId());
+
+        if (override) {
+            // 取消实例中不再存在于模板中的非手动添加课程
+            for (WeeklyInstanceSchedule schedule : existingBySlot.values()) {
+                if (schedule.getIsManualAdded() == null || !schedule.getIsManualAdded()) {
+                    diff.getCancelIds().add(schedule.getId());
+                } else {
+                    exactCopy = false;
+                }
             }
         }
-        
+        diff.setExactTemplateCopy(exactCopy);
+        return diff;
+    }
+
+    /**
+     * 批量写入多个实例的同步差异：新增和更新合并为一次 saveAll，取消合并为一条语句，
+     * 所有实例（包括没有变化的）的同步时间一条语句更新；与模板完全一致的实例同时记录模板版本号
+     * @param templateVersion 计算差异前读取的模板版本号
+     * @return 有变化的实例数
+     */
+    private int applyTemplateDiffs(List<TemplateInstanceDiff> diffs, Long templateVersion) {
+        List<WeeklyInstanceSchedule> schedulesToSave = new ArrayList<>();
+        List<Long> idsToCancel = new ArrayList<>();
+        List<Long> exactInstanceIds = new ArrayList<>(diffs.size());
+        List<Long> partialInstanceIds = new ArrayList<>();
+        List<WeeklyInstance> changedInstances = new ArrayList<>();
+        for (TemplateInstanceDiff diff : diffs) {
+            (diff.isExactTemplateCopy() ? exactInstanceIds : partialInstanceIds).add(diff.getInstance().getId());
+            if (diff.isEmpty()) {
+                logger.debug("周实例 {} 已与模板一致，跳过写入", diff.getInstance().getId());
+                continue;
+            }
+            logger.debug("周实例同步差异 {}", diff);
+            schedulesToSave.addAll(diff.getInserts());
+            schedulesToSave.addAll(diff.getUpdates());
+            idsToCancel.addAll(diff.getCancelIds());
+            changedInstances.add(diff.getInstance());
+        }
+
+        weeklyInstanceScheduleRepository.saveAll(schedulesToSave);
+        weeklyInstanceScheduleRepository.cancelByIds(idsToCancel);
+        for (WeeklyInstance instance : changedInstances) {
+            markInstanceChanged(instance);
+        }
+        // 同步时间也是实例内容的一部分，没有课程变化的实例同样递增变更计数
+        for (TemplateInstanceDiff diff : diffs) {
+            if (diff.isEmpty()) {
+                scheduleChangeTracker.instanceChanged(diff.getInstance());
+            }
+        }
+
         // 更新实例的同步时间
-        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now());
+        LocalDateTime syncTime = LocalDateTime.now();
+        weeklyInstanceRepository.updateLastSyncedAt(exactInstanceIds, syncTime, templateVersion);
+        weeklyInstanceRepository.updateLastSyncedAt(partialInstanceIds, syncTime, null);
+        if (diffs.size() > 1 || !changedInstances.isEmpty()) {
+            logger.info("模板同步完成: 实例 {} 个，有变化 {} 个，写入课程 {} 节，取消 {} 节",
+                    diffs.size(), changedInstances.size(), schedulesToSave.size(), idsToCancel.size());
+        }
+        return changedInstances.size();
     }
 
     /**
@@ -432,28 +579,30 @@ public class WeeklyInstanceService {
      */
     @Transactional
     public void restoreInstanceToTemplate(WeeklyInstance instance) {
+        Long templateVersion = timetableRepository.findTemplateVersion(instance.getTemplateTimetableId());
+        if (isSyncedWithTemplate(instance, templateVersion)) {
+            logger.info("周实例 {} 已与模板版本 {} 一致，无需恢复", instance.getId(), templateVersion);
+            return;
+        }
+
         // 删除实例中的所有课程（包括手动添加的）
         weeklyInstanceScheduleRepository.deleteByWeeklyInstanceId(instance.getId());
 
         // 获取模板课表的模板课程（scheduleDate为null的记录）
         List<Schedules> templateSchedules = scheduleRepository.findTemplateSchedulesByTimetableId(instance.getTemplateTimetableId());
 
-        // 从模板课程创建实例课程
+        // 从模板课程创建实例课程，统一批量写入
+        List<WeeklyInstanceSchedule> instanceSchedules = new ArrayList<>(templateSchedules.size());
+        Set<String> createdKeys = new HashSet<>();
         for (Schedules templateSchedule : templateSchedules) {
             // 计算具体日期
             LocalDate scheduleDate = calculateScheduleDate(instance.getWeekStartDate(), templateSchedule.getDayOfWeek());
             
-            // 检查是否已存在相同的课程（防止重复创建）
-            List<WeeklyInstanceSchedule> existingSchedules = weeklyInstanceScheduleRepository.findByWeeklyInstanceIdAndDate(
-                instance.getId(), scheduleDate);
-            
-            boolean alreadyExists = existingSchedules.stream().anyMatch(schedule -> 
-                schedule.getStudentName().equals(templateSchedule.getStudentName()) &&
-                schedule.getStartTime().equals(templateSchedule.getStartTime()) &&
-                schedule.getEndTime().equals(templateSchedule.getEndTime())
-            );
+            // 检查是否已存在相同的课程（防止重复创建；实例课程已全部删除，只需与本次创建的比较）
+            String key = scheduleDate + "_" + templateSchedule.getStudentName() + "_" +
+                templateSchedule.getStartTime() + "_" + templateSchedule.getEndTime();
             
-            if (!alreadyExists) {
+            if (createdKeys.add(key)) {
                 WeeklyInstanceSchedule instanceSchedule = new WeeklyInstanceSchedule(
                     instance.getId(),
                     templateSchedule.getId(),
@@ -466,7 +615,7 @@ public class WeeklyInstanceService {
                     templateSchedule.getNote()
                 );
                 
-                weeklyInstanceScheduleRepository.save(instanceSchedule);
+                instanceSchedules.add(instanceSchedule);
                 logger.debug("创建实例课程: {} {} {}-{}", 
                     templateSchedule.getStudentName(), scheduleDate, 
                     templateSchedule.getStartTime(), templateSchedule.getEndTime());
@@ -476,9 +625,11 @@ public class WeeklyInstanceService {
                     templateSchedule.getStartTime(), templateSchedule.getEndTime());
             }
         }
+        weeklyInstanceScheduleRepository.saveAll(instanceSchedules);
+        markInstanceChanged(instance);
 
         // 更新实例的同步时间
-        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now());
+        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now(), templateVersion);
     }
 
     /**
@@ -515,6 +666,10 @@ public class WeeklyInstanceService {
             weeklyInstanceScheduleRepository.delete(duplicateId);
             logger.info("删除重复课程，ID: {}", duplicateId);
         }
+        if (!duplicateIds.isEmpty()) {
+            weeklyInstanceRepository.clearSyncedTemplateVersion(weeklyInstanceId);
+            markInstanceChanged(weeklyInstanceRepository.findById(weeklyInstanceId));
+        }
         
         logger.info("清理完成，删除了 {} 个重复课程", duplicateIds.size());
     }
@@ -577,6 +732,7 @@ public class WeeklyInstanceService {
                     currentInstance.getWeekStartDate(), currentInstance.getWeekEndDate(),
                     weekStart, weekEnd);
                 weeklyInstanceRepository.clearCurrentWeekFlagByTemplateId(templateTimetableId);
+                scheduleChangeTracker.timetableChanged(templateTimetableId);
             }
         }
         
@@ -589,6 +745,7 @@ public class WeeklyInstanceService {
             // 找到本周实例，设置为当前周
             weeklyInstanceRepository.clearCurrentWeekFlagByTemplateId(templateTimetableId);
             weeklyInstanceRepository.setCurrentWeekInstance(thisWeekInstance.getId());
+            scheduleChangeTracker.instanceChanged(thisWeekInstance);
             return thisWeekInstance;
         }
         
@@ -629,7 +786,7 @@ public class WeeklyInstanceService {
             checkAndSetModifiedFlag(schedule);
             boolean newModified = schedule.getIsModified() != null && schedule.getIsModified();
             
-            // 如果状态发生变化，保存到数据库
+            // 如果状态发生变化，保存到数据库（只修正标记，课程内容不变，不影响 synced_template_version）
             if (originalModified != newModified) {
                 weeklyInstanceScheduleRepository.save(schedule);
             }
@@ -669,7 +826,7 @@ public class WeeklyInstanceService {
             checkAndSetModifiedFlag(schedule);
             boolean newModified = schedule.getIsModified() != null && schedule.getIsModified();
             
-            // 如果状态发生变化，保存到数据库
+            // 如果状态发生变化，保存到数据库（只修正标记，课程内容不变，不影响 synced_template_version）
             if (originalModified != newModified) {
                 weeklyInstanceScheduleRepository.save(schedule);
             }
@@ -758,6 +915,7 @@ public class WeeklyInstanceService {
 
         // 设置为当前周实例
         weeklyInstanceRepository.setCurrentWeekInstance(instanceId);
+        scheduleChangeTracker.instanceChanged(instance);
         return instance;
     }
 
@@ -767,11 +925,8 @@ public class WeeklyInstanceService {
     @Transactional
     public void syncTemplateChangesToInstances(Long templateTimetableId) {
         List<WeeklyInstance> instances = weeklyInstanceRepository.findByTemplateTimetableId(templateTimetableId);
-        
-        for (WeeklyInstance instance : instances) {
-            // 使用智能同步逻辑，以固定课表为准覆盖实例内容
-            syncTemplateToInstanceWithOverride(instance);
-        }
+        // 使用智能同步逻辑，以固定课表为准覆盖实例内容（所有实例一次处理）
+        syncTemplateToInstances(templateTimetableId, instances);
     }
 
     /**
@@ -783,18 +938,20 @@ public class WeeklyInstanceService {
         LocalDate now = LocalDate.now();
         LocalDate currentWeekStart = now.with(DayOfWeek.MONDAY);
         
+        List<WeeklyInstance> futureInstances = new ArrayList<>();
         for (WeeklyInstance instance : instances) {
             // 只同步下周及以后的实例，不影响当前周
             if (instance.getWeekStartDate().isAfter(currentWeekStart)) {
                 // 未来周：全部同步
                 logger.info("同步模板到未来实例: 周 {} - {}", 
                     instance.getWeekStartDate(), instance.getWeekEndDate());
-                syncTemplateToInstanceWithOverride(instance);
+                futureInstances.add(instance);
             } else {
                 logger.info("跳过当前周/过去的实例: 周 {} - {} (当前周开始: {})", 
                     instance.getWeekStartDate(), instance.getWeekEndDate(), currentWeekStart);
             }
         }
+        syncTemplateToInstances(templateTimetableId, futureInstances);
     }
 
     /**
@@ -802,6 +959,11 @@ public class WeeklyInstanceService {
      */
     @Transactional
     public void syncTemplateToCurrentInstanceSelectively(WeeklyInstance instance) {
+        // 实例与模板当前版本一致时没有需要同步的课程
+        if (isSyncedWithTemplate(instance)) {
+            return;
+        }
+
         // 获取模板课程
         List<Schedules> templateSchedules = scheduleRepository.findTemplateSchedulesByTimetableId(instance.getTemplateTimetableId());
         if (templateSchedules.isEmpty()) {
@@ -810,55 +972,10 @@ public class WeeklyInstanceService {
 
         // 获取实例课程
         List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(instance.getId());
-        Map<String, WeeklyInstanceSchedule> instanceScheduleMap = new HashMap<>();
-        for (WeeklyInstanceSchedule schedule : instanceSchedules) {
-            String key = schedule.getDayOfWeek() + "_" + schedule.getStartTime() + "_" + schedule.getEndTime();
-            instanceScheduleMap.put(key, schedule);
-        }
-
-        LocalDateTime now = LocalDateTime.now();
-
-        for (Schedules templateSchedule : templateSchedules) {
-            // 计算课程具体时间
-            LocalDate scheduleDate = calculateScheduleDate(instance.getWeekStartDate(), templateSchedule.getDayOfWeek());
-            LocalDateTime scheduleDateTime = LocalDateTime.of(scheduleDate, templateSchedule.getStartTime());
-
-            // 只对当前时间之后的课程进行同步
-            if (scheduleDateTime.isAfter(now)) {
-                String key = templateSchedule.getDayOfWeek() + "_" + templateSchedule.getStartTime() + "_" + templateSchedule.getEndTime();
-                WeeklyInstanceSchedule existingSchedule = instanceScheduleMap.get(key);
-
-                if (existingSchedule != null) {
-                    // 更新现有课程（只有非手动添加的课程才能被覆盖）
-                    if (existingSchedule.getIsManualAdded() == null || !existingSchedule.getIsManualAdded()) {
-                        existingSchedule.setTemplateScheduleId(templateSchedule.getId());
-                        existingSchedule.setStudentName(templateSchedule.getStudentName());
-                        existingSchedule.setSubject(templateSchedule.getSubject());
-                        existingSchedule.setNote(templateSchedule.getNote());
-                        existingSchedule.setIsModified(false);
-                        existingSchedule.setUpdatedAt(LocalDateTime.now());
-                        weeklyInstanceScheduleRepository.save(existingSchedule);
-                    }
-                } else {
-                    // 创建新课程
-                    WeeklyInstanceSchedule newSchedule = new WeeklyInstanceSchedule(
-                        instance.getId(),
-                        templateSchedule.getId(),
-                        templateSchedule.getStudentName(),
-                        templateSchedule.getSubject(),
-                        templateSchedule.getDayOfWeek(),
-                        templateSchedule.getStartTime(),
-                        templateSchedule.getEndTime(),
-                        scheduleDate,
-                        templateSchedule.getNote()
-                    );
-                    weeklyInstanceScheduleRepository.save(newSchedule);
-                }
-            }
-        }
 
-        // 更新同步时间
-        weeklyInstanceRepository.updateLastSyncedAt(instance.getId(), LocalDateTime.now());
+        // 只对当前时间之后的课程进行同步，手动添加的课程不覆盖
+        TemplateInstanceDiff diff = diffTemplateToInstance(instance, templateSchedules, instanceSchedules, LocalDateTime.now());
+        applyTemplateDiffs(Collections.singletonList(diff), null);
     }
 
     /**
@@ -981,6 +1098,7 @@ public class WeeklyInstanceService {
 
         // 更新同步时间
         weeklyInstanceRepository.updateLastSyncedAt(currentInstance.getId(), LocalDateTime.now());
+        notifyInstanceChanged(currentInstance);
         logger.info("====== 同步完成 ======");
     }
     
@@ -1051,6 +1169,7 @@ public class WeeklyInstanceService {
 
         // 更新同步时间
         weeklyInstanceRepository.updateLastSyncedAt(currentInstance.getId(), java.time.LocalDateTime.now());
+        notifyInstanceChanged(currentInstance);
     }
 
     /**
@@ -1064,14 +1183,6 @@ public class WeeklyInstanceService {
         }
     }
 
-    /**
-     * 当模板课程被删除时，删除相关的实例课程
-     */
-    @Transactional
-    public void handleTemplateScheduleDeleted(Long templateScheduleId) {
-        weeklyInstanceScheduleRepository.deleteByTemplateScheduleId(templateScheduleId);
-    }
-
     /**
      * 当模板课程被删除时：仅删除"当前周实例"中对应且属于未来时间段的实例课程
      * 仅适用于周固定课表的本周实例
@@ -1107,35 +1218,7 @@ public class WeeklyInstanceService {
             }
         }
         weeklyInstanceRepository.updateLastSyncedAt(currentInstance.getId(), LocalDateTime.now());
-    }
-
-    /**
-     * 当模板课程被更新时，更新相关的实例课程
-     */
-    @Transactional
-    public void handleTemplateScheduleUpdated(Schedules updatedTemplateSchedule) {
-        List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findByTemplateScheduleId(updatedTemplateSchedule.getId());
-        
-        for (WeeklyInstanceSchedule instanceSchedule : instanceSchedules) {
-            // 只更新非手动修改的实例课程
-            if (instanceSchedule.getIsModified() == null || !instanceSchedule.getIsModified()) {
-                WeeklyInstance instance = weeklyInstanceRepository.findById(instanceSchedule.getWeeklyInstanceId());
-                if (instance != null) {
-                    LocalDate scheduleDate = calculateScheduleDate(instance.getWeekStartDate(), updatedTemplateSchedule.getDayOfWeek());
-                    
-                    instanceSchedule.setStudentName(updatedTemplateSchedule.getStudentName());
-                    instanceSchedule.setSubject(updatedTemplateSchedule.getSubject());
-                    instanceSchedule.setDayOfWeek(updatedTemplateSchedule.getDayOfWeek());
-                    instanceSchedule.setStartTime(updatedTemplateSchedule.getStartTime());
-                    instanceSchedule.setEndTime(updatedTemplateSchedule.getEndTime());
-                    instanceSchedule.setScheduleDate(scheduleDate);
-                    instanceSchedule.setNote(updatedTemplateSchedule.getNote());
-                    instanceSchedule.setUpdatedAt(LocalDateTime.now());
-                    
-                    weeklyInstanceScheduleRepository.save(instanceSchedule);
-                }
-            }
-        }
+        notifyInstanceChanged(currentInstance);
     }
 
     /**
@@ -1158,16 +1241,23 @@ public class WeeklyInstanceService {
             }
         }
         
-        return weeklyInstanceScheduleRepository.save(schedule);
+        WeeklyInstanceSchedule saved = weeklyInstanceScheduleRepository.save(schedule);
+        weeklyInstanceRepository.clearSyncedTemplateVersion(instanceId);
+        markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_CREATED, saved);
+        return saved;
     }
 
     /**
      * 批量创建实例课程（手动添加）
+     * 与实例中已有课程或同一批次中前面的课程时间冲突时整批拒绝：已有课程一次查询建立冲突索引，
+     * 每节新课程检查后加入索引
      */
     @Transactional
     public void createInstanceSchedulesBatch(Long instanceId, List<WeeklyInstanceSchedule> schedules) {
         LocalDateTime now = LocalDateTime.now();
         WeeklyInstance instance = weeklyInstanceRepository.findById(instanceId);
+        ScheduleConflictIndex<WeeklyInstanceSchedule> conflictIndex =
+                weeklyInstanceScheduleRepository.loadConflictIndex(instanceId);
         
         for (WeeklyInstanceSchedule schedule : schedules) {
             schedule.setWeeklyInstanceId(instanceId);
@@ -1181,9 +1271,17 @@ public class WeeklyInstanceService {
                 LocalDate calculatedDate = calculateScheduleDate(instance.getWeekStartDate(), schedule.getDayOfWeek());
                 schedule.setScheduleDate(calculatedDate);
             }
-            
-            weeklyInstanceScheduleRepository.save(schedule);
+
+            if (weeklyInstanceScheduleRepository.hasTimeConflict(conflictIndex, schedule.getScheduleDate(),
+                    schedule.getStartTime(), schedule.getEndTime(), null)) {
+                throw new IllegalArgumentException(String.format("%s %s %s-%s 与已有课程时间冲突",
+                        schedule.getStudentName(), schedule.getScheduleDate(), schedule.getStartTime(), schedule.getEndTime()));
+            }
+            conflictIndex.add(schedule.getScheduleDate(), null, schedule.getStartTime(), schedule.getEndTime(), schedule);
         }
+        weeklyInstanceScheduleRepository.saveAll(schedules);
+        weeklyInstanceRepository.clearSyncedTemplateVersion(instanceId);
+        markInstanceChanged(instance);
     }
 
     /**
@@ -1195,6 +1293,7 @@ public class WeeklyInstanceService {
         if (existingSchedule == null) {
             throw new IllegalArgumentException("实例课程不存在");
         }
+        LocalDate previousDate = existingSchedule.getScheduleDate();
 
         // 只更新非null的字段，避免将null值设置到不允许为空的字段
         if (updatedSchedule.getStudentName() != null) {
@@ -1261,7 +1360,10 @@ public class WeeklyInstanceService {
         existingSchedule.setIsModified(isDifferentFromTemplate);
         existingSchedule.setUpdatedAt(LocalDateTime.now());
 
-        return weeklyInstanceScheduleRepository.save(existingSchedule);
+        WeeklyInstanceSchedule saved = weeklyInstanceScheduleRepository.save(existingSchedule);
+        weeklyInstanceRepository.clearSyncedTemplateVersion(saved.getWeeklyInstanceId());
+        markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_UPDATED, saved, previousDate);
+        return saved;
     }
 
     /**
@@ -1295,6 +1397,10 @@ public class WeeklyInstanceService {
             // 保存更新
             weeklyInstanceScheduleRepository.save(schedule1);
             weeklyInstanceScheduleRepository.save(schedule2);
+            weeklyInstanceRepository.clearSyncedTemplateVersion(new HashSet<>(
+                    Arrays.asList(schedule1.getWeeklyInstanceId(), schedule2.getWeeklyInstanceId())));
+            markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_SWAP, schedule1);
+            markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_SWAP, schedule2);
             
             logger.info("周实例课程调换成功：{} <-> {}, scheduleId1={}, scheduleId2={}", 
                 schedule1.getStudentName(), schedule2.getStudentName(), scheduleId1, scheduleId2);
@@ -1353,7 +1459,12 @@ public class WeeklyInstanceService {
      */
     @Transactional
     public void deleteInstanceSchedule(Long scheduleId) {
+        WeeklyInstanceSchedule schedule = weeklyInstanceScheduleRepository.findById(scheduleId);
         weeklyInstanceScheduleRepository.delete(scheduleId);
+        if (schedule != null) {
+            weeklyInstanceRepository.clearSyncedTemplateVersion(schedule.getWeeklyInstanceId());
+        }
+        markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_DELETED, schedule);
     }
 
     /**
@@ -1361,15 +1472,22 @@ public class WeeklyInstanceService {
      */
     public int deleteInstanceSchedulesBatch(List<Long> scheduleIds) {
         int deletedCount = 0;
+        Set<Long> affectedInstanceIds = new HashSet<>();
         for (Long scheduleId : scheduleIds) {
             try {
+                WeeklyInstanceSchedule schedule = weeklyInstanceScheduleRepository.findById(scheduleId);
                 weeklyInstanceScheduleRepository.delete(scheduleId);
+                markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_DELETED, schedule);
+                if (schedule != null) {
+                    affectedInstanceIds.add(schedule.getWeeklyInstanceId());
+                }
                 deletedCount++;
             } catch (Exception e) {
                 // 记录错误但继续删除其他课程
                 logger.error("删除实例课程失败，ID: {}, 错误: {}", scheduleId, e.getMessage());
             }
         }
+        weeklyInstanceRepository.clearSyncedTemplateVersion(affectedInstanceIds);
         return deletedCount;
     }
 
@@ -1392,7 +1510,10 @@ public class WeeklyInstanceService {
         schedule.setLeaveRequestedAt(LocalDateTime.now());
         schedule.setUpdatedAt(LocalDateTime.now());
         
-        return weeklyInstanceScheduleRepository.update(schedule);
+        WeeklyInstanceSchedule updated = weeklyInstanceScheduleRepository.update(schedule);
+        weeklyInstanceRepository.clearSyncedTemplateVersion(schedule.getWeeklyInstanceId());
+        markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_LEAVE, schedule);
+        return updated;
     }
 
     /**
@@ -1411,7 +1532,10 @@ public class WeeklyInstanceService {
             schedule.setLeaveReason(null);
             schedule.setLeaveRequestedAt(null);
             schedule.setUpdatedAt(LocalDateTime.now());
-            return weeklyInstanceScheduleRepository.update(schedule);
+            WeeklyInstanceSchedule updated = weeklyInstanceScheduleRepository.update(schedule);
+            weeklyInstanceRepository.clearSyncedTemplateVersion(schedule.getWeeklyInstanceId());
+            markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_LEAVE, schedule);
+            return updated;
         }
         
         // 如果不是请假状态，说明是取消的课程，直接返回（课程已存在，无需恢复）
@@ -1438,9 +1562,56 @@ public class WeeklyInstanceService {
         List<WeeklyInstanceSchedule> existing = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(current.getId());
         int count = existing.size();
         weeklyInstanceScheduleRepository.deleteByWeeklyInstanceId(current.getId());
+        weeklyInstanceRepository.clearSyncedTemplateVersion(current.getId());
+        markInstanceChanged(current);
         return count;
     }
 
+    /**
+     * 周实例课程写入后：标记课时台账需要重新计算，并通知实例整体变化
+     */
+    private void markInstanceChanged(WeeklyInstance instance) {
+        lessonHoursLedgerService.markInstanceDirty(instance);
+        notifyInstanceChanged(instance);
+    }
+
+    /**
+     * 递增实例变更计数并推送实例整体变化事件（不涉及课时台账，如只影响未来时段的同步）
+     */
+    private void notifyInstanceChanged(WeeklyInstance instance) {
+        if (instance == null) {
+            return;
+        }
+        scheduleChangeTracker.instanceChanged(instance);
+        scheduleEventBus.publishInstance(ScheduleChangeEvent.TYPE_UPDATED, instance.getTemplateTimetableId(),
+                instance.getId(), null, null);
+    }
+
+    private void markInstanceScheduleChanged(String eventType, WeeklyInstanceSchedule schedule) {
+        markInstanceScheduleChanged(eventType, schedule, null);
+    }
+
+    /**
+     * 单节周实例课程写入后（previousDate 为修改前的日期）
+     * @param eventType 推送的事件类型，见 ScheduleChangeEvent
+     */
+    private void markInstanceScheduleChanged(String eventType, WeeklyInstanceSchedule schedule, LocalDate previousDate) {
+        if (schedule == null) {
+            return;
+        }
+        lessonHoursLedgerService.markInstanceScheduleDirty(schedule, previousDate);
+        scheduleChangeTracker.instanceChanged(schedule.getWeeklyInstanceId());
+        scheduleEventBus.publishInstance(eventType, null, schedule.getWeeklyInstanceId(),
+                schedule.getId(), schedule.getScheduleDate());
+    }
+
+    /**
+     * 日期所在周的年周标识（与 weekly_instances.year_week 一致）
+     */
+    public String getYearWeek(LocalDate date) {
+        return generateYearWeekString(date);
+    }
+
     /**
      * 生成年-周字符串
      */
@@ -1478,166 +1649,144 @@ public class WeeklyInstanceService {
     }
 
     /**
-     * 根据日期返回"实例逻辑"的活动课表课程（今日从本周实例；跨周日期取对应周实例）
+     * 批量读取多个周固定课表在某一周的课程，读取过程不生成周实例
+     * 已生成周实例的课表返回实例课程（包括请假，不包括已取消）；
+     * 没有实例且允许虚拟周时，由模板课程直接投影到该周日期（id 和 weeklyInstanceId 为 null，templateScheduleId 为模板课程ID），
+     * 实例只在课程被修改、请假或取消等写操作时才生成。过去的周不做投影。
+     * 查询次数固定：实例一次、实例课程一次、模板课程一次。
+     * @param allowVirtual 没有实例时是否使用模板投影
+     * @return 课表ID -> 该周课程（按日期、开始时间排序）
      */
-    public Map<String, Object> getActiveInstanceSchedulesByDate(String dateStr, Long organizationId) {
-        Map<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> timetableSchedules = new ArrayList<>();
+    public Map<Long, List<WeeklyInstanceSchedule>> getWeekSchedulesForTimetables(Collection<Long> templateTimetableIds,
+                                                                              LocalDate dateInWeek, boolean allowVirtual) {
+        Map<Long, List<WeeklyInstanceSchedule>> result = new HashMap<>();
+        if (templateTimetableIds == null || templateTimetableIds.isEmpty()) {
+            return result;
+        }
+        LocalDate weekStart = dateInWeek.with(DayOfWeek.MONDAY);
+        LocalDate weekEnd = weekStart.plusDays(6);
+        Map<Long, WeeklyInstance> instances = weeklyInstanceRepository.findByTemplateIdsAndYearWeek(
+                templateTimetableIds, generateYearWeekString(weekStart));
 
-        LocalDate targetDate = LocalDate.parse(dateStr);
+        Map<Long, Long> timetableIdByInstanceId = new HashMap<>();
+        instances.forEach((timetableId, instance) -> timetableIdByInstanceId.put(instance.getId(), timetableId));
+        for (WeeklyInstanceSchedule schedule : weeklyInstanceScheduleRepository.findByWeeklyInstanceIds(timetableIdByInstanceId.keySet())) {
+            LocalDate scheduleDate = schedule.getScheduleDate();
+            if (scheduleDate == null || scheduleDate.isBefore(weekStart) || scheduleDate.isAfter(weekEnd)) {
+                continue;
+            }
+            result.computeIfAbsent(timetableIdByInstanceId.get(schedule.getWeeklyInstanceId()), key -> new ArrayList<>()).add(schedule);
+        }
+
+        boolean pastWeek = weekEnd.isBefore(LocalDate.now().with(DayOfWeek.MONDAY));
+        if (!allowVirtual || pastWeek) {
+            return result;
+        }
+        List<Long> virtualTimetableIds = templateTimetableIds.stream()
+                .filter(id -> !instances.containsKey(id))
+                .collect(Collectors.toList());
+        for (Schedules templateSchedule : scheduleRepository.findTemplateSchedulesByTimetableIds(virtualTimetableIds)) {
+            WeeklyInstanceSchedule virtualSchedule = projectTemplateSchedule(templateSchedule, weekStart);
+            if (virtualSchedule != null) {
+                result.computeIfAbsent(templateSchedule.getTimetableId(), key -> new ArrayList<>()).add(virtualSchedule);
+            }
+        }
+        for (List<WeeklyInstanceSchedule> schedules : result.values()) {
+            schedules.sort(Comparator
+                    .comparing(WeeklyInstanceSchedule::getScheduleDate, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparing(WeeklyInstanceSchedule::getStartTime, Comparator.nullsLast(Comparator.naturalOrder())));
+        }
+        return result;
+    }
 
-        // Check organization settings for auto-generation
-        boolean autoGenerate = true;
+    /**
+     * 机构是否开启周实例自动生成（读取设置失败时视为开启）
+     */
+    public boolean isAutoGenerateEnabled(Long organizationId) {
+        if (organizationId == null) {
+            return true;
+        }
         try {
             com.timetable.dto.NotificationSettingsDTO settings = organizationService.getNotificationSettings(organizationId);
-            if (settings != null && Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate())) {
-                autoGenerate = false;
-            }
+            return settings == null || !Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate());
         } catch (Exception e) {
             logger.warn("Failed to get organization settings: {}", e.getMessage());
+            return true;
         }
+    }
 
-        // 获取指定机构的所有活动课表（未删除未归档）
-        List<Timetables> activeTimetables = timetableRepository.findAll()
-                .stream()
-                .filter(t -> t.getOrganizationId() != null && t.getOrganizationId().equals(organizationId))
-                .filter(t -> t.getIsActive() != null && t.getIsActive() == 1)
-                .filter(t -> t.getIsDeleted() == null || t.getIsDeleted() == 0)
-                .filter(t -> t.getIsArchived() == null || t.getIsArchived() == 0)
-                .collect(Collectors.toList());
-
-        // 注意：在"其他教练课程"视图中，不应用隐藏学员规则
-        // 这样可以完整显示所有教练的课程安排，便于查看时间段占用情况
-
-        for (Timetables timetable : activeTimetables) {
-            List<WeeklyInstanceSchedule> instanceSchedules = new ArrayList<>();
-
-            if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                // 周固定：以目标日期归属的周为准选择实例
-                WeeklyInstance instance;
-                LocalDate targetMonday = targetDate.with(java.time.DayOfWeek.MONDAY);
-                String yearWeek = generateYearWeekString(targetMonday);
-                instance = weeklyInstanceRepository.findByTemplateIdAndYearWeek(timetable.getId(), yearWeek);
-                
-                if (instance == null && autoGenerate) {
-                    // 按周生成：若目标周是当前周，则生成当前周；若是下周，则生成下周
-                    LocalDate thisMonday = LocalDate.now().with(java.time.DayOfWeek.MONDAY);
-                    if (targetMonday.isAfter(thisMonday)) {
-                        try { 
-                            generateNextWeekInstance(timetable.getId()); 
-                            logger.info("自动生成课表 {} 的未来周实例", timetable.getId());
-                        } catch (Exception e) {
-                            logger.warn("自动生成课表 {} 的未来周实例失败: {}", timetable.getId(), e.getMessage());
-                        }
-                        instance = weeklyInstanceRepository.findByTemplateIdAndYearWeek(timetable.getId(), yearWeek);
-                    } else if (targetMonday.isEqual(thisMonday)) {
-                        try { 
-                            generateCurrentWeekInstance(timetable.getId()); 
-                            logger.info("自动生成课表 {} 的当前周实例", timetable.getId());
-                        } catch (Exception e) {
-                            logger.warn("自动生成课表 {} 的当前周实例失败: {}", timetable.getId(), e.getMessage());
-                        }
-                        instance = weeklyInstanceRepository.findByTemplateIdAndYearWeek(timetable.getId(), yearWeek);
-                    }
-                }
+    /**
+     * 模板课程在指定周的虚拟实例课程（字段与 syncSchedulesFromTemplate 生成的实例课程一致，不写入数据库）
+     */
+    private WeeklyInstanceSchedule projectTemplateSchedule(Schedules templateSchedule, LocalDate weekStart) {
+        LocalDate scheduleDate;
+        try {
+            scheduleDate = calculateScheduleDate(weekStart, templateSchedule.getDayOfWeek());
+        } catch (IllegalArgumentException e) {
+            logger.warn("模板课程 {} 的星期无效，跳过: {}", templateSchedule.getId(), templateSchedule.getDayOfWeek());
+            return null;
+        }
+        WeeklyInstanceSchedule schedule = new WeeklyInstanceSchedule(
+            null,
+            templateSchedule.getId(),
+            templateSchedule.getStudentName(),
+            templateSchedule.getSubject(),
+            templateSchedule.getDayOfWeek(),
+            templateSchedule.getStartTime(),
+            templateSchedule.getEndTime(),
+            scheduleDate,
+            templateSchedule.getNote()
+        );
+        schedule.setIsTimeBlock(false);
+        return schedule;
+    }
 
-                if (instance != null) {
-                    List<WeeklyInstanceSchedule> all = weeklyInstanceScheduleRepository.findByWeeklyInstanceId(instance.getId());
-                    
-                    instanceSchedules = all.stream()
-                            .filter(s -> targetDate.equals(s.getScheduleDate()))
-                            // 在"其他教练课程"视图中，显示所有课程（包括请假和隐藏的学员）
-                            // 这样可以完整地看到时间段的占用情况
-                            .collect(Collectors.toList());
-                    
-                    // 去重：基于学生姓名、开始时间、结束时间的组合
-                    Map<String, WeeklyInstanceSchedule> uniqueSchedules = new HashMap<>();
-                    for (WeeklyInstanceSchedule schedule : instanceSchedules) {
-                        String key = schedule.getStudentName() + "_" + schedule.getStartTime() + "_" + schedule.getEndTime();
-                        if (!uniqueSchedules.containsKey(key)) {
-                            uniqueSchedules.put(key, schedule);
-                        } else {
-                            logger.warn("发现重复课程数据，课表ID: {}, 学生: {}, 时间: {}-{}", 
-                                timetable.getId(), schedule.getStudentName(), 
-                                schedule.getStartTime(), schedule.getEndTime());
-                        }
-                    }
-                    instanceSchedules = new ArrayList<>(uniqueSchedules.values());
-                }
-            } else {
-                // 日期范围课表：直接取具体日期（日期范围课表没有请假功能）
-                List<Schedules> daySchedules = scheduleRepository.findByTimetableIdAndScheduleDate(timetable.getId(), targetDate);
-                
-                // 映射为实例样式，在"其他教练课程"中显示所有课程
-                instanceSchedules = daySchedules.stream()
-                        .map(s -> {
-                            WeeklyInstanceSchedule w = new WeeklyInstanceSchedule();
-                            w.setStudentName(s.getStudentName());
-                            w.setSubject(s.getSubject());
-                            w.setDayOfWeek(s.getDayOfWeek());
-                            w.setStartTime(s.getStartTime());
-                            w.setEndTime(s.getEndTime());
-                            w.setScheduleDate(s.getScheduleDate());
-                            return w;
-                        }).collect(Collectors.toList());
-            }
+    /**
+     * 根据日期返回"实例逻辑"的活动课表课程（机构日课表看板）
+     * 周固定课表以目标日期归属的周为准，有实例取实例，没有实例时由模板投影（不在读取时生成实例），机构关闭自动生成或过去的周只显示已生成的实例；
+     * 日期范围课表取该日期的课程。课程、课表和所有者信息由一次查询返回（去重和已取消体验课的过滤在SQL中完成）。
+     * 注意：在"其他教练课程"视图中，不应用隐藏学员规则，并显示请假课程，便于完整查看时间段占用情况。
+     */
+    public Map<String, Object> getActiveInstanceSchedulesByDate(String dateStr, Long organizationId) {
+        Map<String, Object> result = new HashMap<>();
+        List<Map<String, Object>> timetableSchedules = new ArrayList<>();
 
-            if (!instanceSchedules.isEmpty()) {
-                Map<String, Object> item = new HashMap<>();
-                // owner 与 timetable 信息
-                com.timetable.generated.tables.pojos.Users u = userService.findById(timetable.getUserId());
-                item.put("ownerName", u != null ? (u.getNickname() != null ? u.getNickname() : u.getUsername()) : "");
-                item.put("ownerNickname", u != null ? u.getNickname() : null);
-                item.put("ownerUsername", u != null ? u.getUsername() : "");
-                item.put("ownerRole", u != null ? u.getRole() : null);
-                item.put("timetableId", timetable.getId());
-                item.put("timetableName", timetable.getName());
-                item.put("isWeekly", timetable.getIsWeekly());
-                // 明细 - 过滤掉已取消的体验课
-                List<Map<String, Object>> schedules = instanceSchedules.stream()
-                    .filter(s -> {
-                        // 如果不是体验课，直接保留
-                        if (s.getIsTrial() == null || s.getIsTrial() != 1) {
-                            return true;
-                        }
-                        
-                        // 如果是体验课，检查是否已被取消
-                        try {
-                            String sql = "SELECT COUNT(*) FROM customer_status_history " +
-                                "WHERE trial_student_name = ? " +
-                                "AND trial_schedule_date = ? " +
-                                "AND trial_start_time = ? " +
-                                "AND trial_end_time = ? " +
-                                "AND (trial_cancelled IS NULL OR trial_cancelled = FALSE)";
-                            
-                            Integer count = jdbcTemplate.queryForObject(sql, Integer.class,
-                                s.getStudentName(),
-                                s.getScheduleDate(),
-                                s.getStartTime(),
-                                s.getEndTime());
-                            
-                            // 如果存在未取消的记录，保留；否则过滤掉
-                            return count != null && count > 0;
-                        } catch (Exception e) {
-                            // 查询失败，保守处理：保留该课程
-                            logger.warn("Failed to check trial schedule cancellation status: {}", e.getMessage());
-                            return true;
-                        }
-                    })
-                    .map(s -> {
-                        Map<String, Object> m = new HashMap<>();
-                        m.put("studentName", s.getStudentName());
-                        m.put("startTime", s.getStartTime());
-                        m.put("endTime", s.getEndTime());
-                        // 标记是否来自实例（周固定课表的实例数据）
-                        m.put("isFromInstance", timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1);
-                        // 传递请假标记到前端
-                        m.put("isOnLeave", s.getIsOnLeave());
-                        return m;
-                    }).collect(Collectors.toList());
+        LocalDate targetDate = LocalDate.parse(dateStr);
+        boolean pastWeek = targetDate.with(DayOfWeek.MONDAY).isBefore(LocalDate.now().with(DayOfWeek.MONDAY));
+        boolean includeTemplate = !pastWeek && isAutoGenerateEnabled(organizationId);
+
+        List<DayBoardLesson> lessons = organizationDayBoardRepository.findLessonsByDate(
+                organizationId, generateYearWeekString(targetDate), targetDate, includeTemplate);
+
+        // 查询结果按课表排序，相邻行归入同一课表
+        Map<String, Object> item = null;
+        List<Map<String, Object>> schedules = null;
+        Long currentTimetableId = null;
+        for (DayBoardLesson lesson : lessons) {
+            if (!lesson.getTimetableId().equals(currentTimetableId)) {
+                currentTimetableId = lesson.getTimetableId();
+                item = new LinkedHashMap<>();
+                item.put("ownerName", lesson.getOwnerNickname() != null ? lesson.getOwnerNickname()
+                        : (lesson.getOwnerUsername() != null ? lesson.getOwnerUsername() : ""));
+                item.put("ownerNickname", lesson.getOwnerNickname());
+                item.put("ownerUsername", lesson.getOwnerUsername() != null ? lesson.getOwnerUsername() : "");
+                item.put("ownerRole", lesson.getOwnerRole());
+                item.put("timetableId", lesson.getTimetableId());
+                item.put("timetableName", lesson.getTimetableName());
+                item.put("isWeekly", lesson.getIsWeekly());
+                schedules = new ArrayList<>();
                 item.put("schedules", schedules);
                 timetableSchedules.add(item);
             }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("studentName", lesson.getStudentName());
+            m.put("startTime", lesson.getStartTime());
+            m.put("endTime", lesson.getEndTime());
+            // 标记是否来自实例（周固定课表的实例数据）
+            m.put("isFromInstance", lesson.getIsWeekly() != null && lesson.getIsWeekly() == 1);
+            // 传递请假标记到前端
+            m.put("isOnLeave", lesson.getIsOnLeave());
+            schedules.add(m);
         }
 
         result.put("timetableSchedules", timetableSchedules);
@@ -1719,134 +1868,11 @@ public class WeeklyInstanceService {
     }
 
     /**
-     * 批量为所有活动的周固定课表生成当前周实例
+     * 获取所有请假记录
      */
-    @Transactional
-    public Map<String, Object> generateCurrentWeekInstancesForAllActiveTimetables() {
-        logger.info("开始批量生成所有活动周固定课表的当前周实例");
-        
-        Map<String, Object> result = new HashMap<>();
-        int successCount = 0;
-        int failedCount = 0;
-        int skippedCount = 0;
-        List<String> errors = new ArrayList<>();
-        
-        // 获取所有活动的周固定课表
-        List<Timetables> weeklyTimetables = timetableRepository.findAll()
-                .stream()
-                .filter(t -> t.getIsWeekly() != null && t.getIsWeekly() == 1)
-                .filter(t -> t.getIsActive() != null && t.getIsActive() == 1)
-                .filter(t -> t.getIsDeleted() == null || t.getIsDeleted() == 0)
-                .filter(t -> t.getIsArchived() == null || t.getIsArchived() == 0)
-                .collect(Collectors.toList());
-        
-        logger.info("找到 {} 个活动的周固定课表", weeklyTimetables.size());
-        
-        for (Timetables timetable : weeklyTimetables) {
-            try {
-                // 检查机构的自动生成设置
-                if (timetable.getOrganizationId() != null) {
-                    try {
-                        com.timetable.dto.NotificationSettingsDTO settings = organizationService.getNotificationSettings(timetable.getOrganizationId());
-                        if (settings != null && Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate())) {
-                            logger.info("机构 {} 已关闭周实例自动生成，跳过批量生成当前周实例，课表: {}", 
-                                timetable.getOrganizationId(), timetable.getName());
-                            skippedCount++;
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("获取机构 {} 设置失败，将继续尝试生成: {}", timetable.getOrganizationId(), e.getMessage());
-                    }
-                }
-
-                // 检查是否已经存在当前周实例
-                WeeklyInstance existingInstance = getCurrentWeekInstance(timetable.getId());
-                if (existingInstance != null) {
-                    logger.debug("课表 {} ({}) 已有当前周实例，跳过", timetable.getId(), timetable.getName());
-                    skippedCount++;
-                    continue;
-                }
-                
-                // 生成当前周实例
-                WeeklyInstance newInstance = generateCurrentWeekInstance(timetable.getId());
-                if (newInstance != null) {
-                    logger.info("成功为课表 {} ({}) 生成当前周实例", timetable.getId(), timetable.getName());
-                    successCount++;
-                } else {
-                    logger.warn("为课表 {} ({}) 生成当前周实例失败", timetable.getId(), timetable.getName());
-                    failedCount++;
-                    errors.add(String.format("课表 %s (%s): 生成失败", timetable.getId(), timetable.getName()));
-                }
-            } catch (Exception e) {
-                logger.error("为课表 {} ({}) 生成当前周实例时发生异常: {}", 
-                    timetable.getId(), timetable.getName(), e.getMessage(), e);
-                failedCount++;
-                errors.add(String.format("课表 %s (%s): %s", timetable.getId(), timetable.getName(), e.getMessage()));
-            }
-        }
-        
-        result.put("totalTimetables", weeklyTimetables.size());
-        result.put("successCount", successCount);
-        result.put("failedCount", failedCount);
-        result.put("skippedCount", skippedCount);
-        result.put("errors", errors);
-        
-        logger.info("批量生成完成: 总数={}, 成功={}, 失败={}, 跳过={}", 
-            weeklyTimetables.size(), successCount, failedCount, skippedCount);
-        
-        return result;
-    }
-
-    /**
-     * 检查并生成缺失的当前周实例（自动修复功能）
-     */
-    @Transactional
-    public void ensureCurrentWeekInstancesExist() {
-        logger.info("开始检查并生成缺失的当前周实例");
-        
-        // 获取所有活动的周固定课表
-        List<Timetables> weeklyTimetables = timetableRepository.findAll()
-                .stream()
-                .filter(t -> t.getIsWeekly() != null && t.getIsWeekly() == 1)
-                .filter(t -> t.getIsActive() != null && t.getIsActive() == 1)
-                .filter(t -> t.getIsDeleted() == null || t.getIsDeleted() == 0)
-                .filter(t -> t.getIsArchived() == null || t.getIsArchived() == 0)
-                .collect(Collectors.toList());
-        
-        for (Timetables timetable : weeklyTimetables) {
-            try {
-                // 检查机构的自动生成设置
-                if (timetable.getOrganizationId() != null) {
-                    try {
-                        com.timetable.dto.NotificationSettingsDTO settings = organizationService.getNotificationSettings(timetable.getOrganizationId());
-                        if (settings != null && Boolean.FALSE.equals(settings.getWeeklyInstanceAutoGenerate())) {
-                            logger.info("机构 {} 已关闭周实例自动生成，跳过自动修复当前周实例，课表: {}", 
-                                timetable.getOrganizationId(), timetable.getName());
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("获取机构 {} 设置失败，将继续尝试修复: {}", timetable.getOrganizationId(), e.getMessage());
-                    }
-                }
-
-                WeeklyInstance existingInstance = getCurrentWeekInstance(timetable.getId());
-                if (existingInstance == null) {
-                    generateCurrentWeekInstance(timetable.getId());
-                    logger.info("自动为课表 {} ({}) 生成了当前周实例", timetable.getId(), timetable.getName());
-                }
-            } catch (Exception e) {
-                logger.warn("自动为课表 {} ({}) 生成当前周实例失败: {}", 
-                    timetable.getId(), timetable.getName(), e.getMessage());
-            }
-        }
-    }
-
-    /**
-     * 获取所有请假记录
-     */
-    public List<Map<String, Object>> getAllLeaveRecords() {
-        List<WeeklyInstanceSchedule> leaveSchedules = weeklyInstanceScheduleRepository.findByIsOnLeave(true);
-        List<Map<String, Object>> leaveRecords = new ArrayList<>();
+    public List<Map<String, Object>> getAllLeaveRecords() {
+        List<WeeklyInstanceSchedule> leaveSchedules = weeklyInstanceScheduleRepository.findByIsOnLeave(true);
+        List<Map<String, Object>> leaveRecords = new ArrayList<>();
         
         for (WeeklyInstanceSchedule schedule : leaveSchedules) {
             // 获取课表信息
@@ -1908,6 +1934,8 @@ public class WeeklyInstanceService {
             schedule.setUpdatedAt(LocalDateTime.now());
             
             weeklyInstanceScheduleRepository.update(schedule);
+            weeklyInstanceRepository.clearSyncedTemplateVersion(schedule.getWeeklyInstanceId());
+            markInstanceScheduleChanged(ScheduleChangeEvent.TYPE_LEAVE, schedule);
             return true;
         } catch (Exception e) {
             logger.error("删除请假记录失败，ID: {}, 错误: {}", scheduleId, e.getMessage());
@@ -1933,625 +1961,6 @@ public class WeeklyInstanceService {
         return deletedCount;
     }
 
-    /**
-     * 获取学员记录（上课记录和请假记录）
-     */
-    public Map<String, Object> getStudentRecords(String studentName, String coachName) {
-        Map<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> schedules = new ArrayList<>();
-        List<Map<String, Object>> leaves = new ArrayList<>();
-        
-        // 需要查询的学员名称列表（包括原始名和所有被合并的学员名）
-        List<String> studentNamesToQuery = new ArrayList<>();
-        String displayName = studentName;
-        
-        try {
-            // 查找所有操作记录
-            List<StudentOperationRecord> allRecords = studentOperationRecordRepository.findAll();
-            
-            // 1. 反向查找：如果传入的是重命名后的名字，需要找到原始名字
-            String originalStudentName = studentName;
-            for (StudentOperationRecord record : allRecords) {
-                if ("RENAME".equals(record.getOperationType()) && 
-                    studentName.equals(record.getNewName())) {
-                    // 找到了！这是重命名后的名字，原始名字是oldName
-                    originalStudentName = record.getOldName();
-                    displayName = record.getNewName();
-                    logger.info("学员详情反向查找(重命名): 显示名='{}' -> 原始名='{}'", displayName, originalStudentName);
-                    break;
-                }
-            }
-            studentNamesToQuery.add(originalStudentName);
-            
-            // 注释掉合并查询逻辑：只查询当前学员名的记录，不查询被合并进来的其他学员
-            // 合并规则只影响显示名称，不应该把其他学员的上课记录混在一起
-            /*
-            // 2. 查找合并规则：如果当前学员是合并后的结果，需要找到所有被合并的学员
-            for (StudentOperationRecord record : allRecords) {
-                if ("MERGE".equals(record.getOperationType()) && 
-                    studentName.equals(record.getNewName())) {
-                    // 找到了合并规则！解析所有被合并的学员名
-                    String oldNames = record.getOldName();
-                    if (oldNames != null && !oldNames.trim().isEmpty()) {
-                        String[] names = oldNames.split(",");
-                        for (String name : names) {
-                            String trimmedName = name.trim();
-                            if (!trimmedName.isEmpty() && !studentNamesToQuery.contains(trimmedName)) {
-                                studentNamesToQuery.add(trimmedName);
-                                logger.info("学员详情反向查找(合并): 显示名='{}' -> 包含被合并学员='{}'", displayName, trimmedName);
-                            }
-                        }
-                    }
-                    break;
-                }
-            }
-            */
-        } catch (Exception e) {
-            logger.error("反向查找学员原始名字失败: {}", e.getMessage());
-            // 如果查找失败，至少要查询原始的studentName
-            if (studentNamesToQuery.isEmpty()) {
-                studentNamesToQuery.add(studentName);
-            }
-        }
-        
-        logger.info("获取学员记录: 显示名={}, 需要查询的学员名={}, 教练={}", displayName, studentNamesToQuery, coachName);
-        
-        // 将查询的学员名列表添加到返回结果中，方便调试
-        result.put("queriedNames", studentNamesToQuery);
-        result.put("displayName", displayName);
-        
-        try {
-            // 获取当前日期和时间，只显示过去的课程记录
-            LocalDate today = LocalDate.now();
-            LocalTime currentTime = LocalTime.now();
-            
-            // 遍历所有需要查询的学员名称（包括原始名和所有被合并的学员名）
-            for (String queryName : studentNamesToQuery) {
-                logger.info("查询学员记录: {}", queryName);
-                
-                // 1. 获取实例课表的记录
-                List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findByStudentName(queryName);
-            
-            for (WeeklyInstanceSchedule schedule : instanceSchedules) {
-                // 只显示过去的课程记录
-                if (schedule.getScheduleDate() != null) {
-                    LocalDate scheduleDate = schedule.getScheduleDate();
-                    if (scheduleDate.isAfter(today)) {
-                        // 未来日期的课程，跳过
-                        continue;
-                    } else if (scheduleDate.isEqual(today)) {
-                        // 今天的课程，需要检查时间
-                        if (schedule.getEndTime() != null && schedule.getEndTime().isAfter(currentTime)) {
-                            // 今天的课程但结束时间还没到，跳过
-                            continue;
-                        }
-                    }
-                }
-                // 获取课表信息
-                WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
-                if (instance == null) continue;
-                
-                Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                if (timetable == null) continue;
-                
-                // 获取教练信息
-                Users coach = userService.findById(timetable.getUserId());
-                String scheduleCoachName = coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练";
-                
-                // 如果指定了教练，只返回该教练的记录（但管理员可以查看所有记录）
-                if (coachName != null && !coachName.equals(scheduleCoachName)) {
-                    // 检查当前用户是否为管理员，如果是管理员，则允许查看所有记录
-                    Users currentUser = userService.findByUsername(coachName);
-                    if (currentUser == null || !"MANAGER".equals(currentUser.getPosition())) {
-                        continue;
-                    }
-                }
-                
-                // 如果是请假记录，只添加到请假列表
-                if (schedule.getIsOnLeave() != null && schedule.getIsOnLeave()) {
-                    Map<String, Object> leaveRecord = new HashMap<>();
-                    leaveRecord.put("id", schedule.getId());
-                    leaveRecord.put("leaveDate", schedule.getScheduleDate());
-                    leaveRecord.put("timeRange", schedule.getStartTime() + "-" + schedule.getEndTime());
-                    leaveRecord.put("leaveReason", schedule.getLeaveReason());
-                    leaveRecord.put("timetableName", timetable.getName());
-                    leaveRecord.put("coachName", scheduleCoachName);
-                    
-                    leaves.add(leaveRecord);
-                } else {
-                    // 只有正常上课记录才添加到上课记录列表
-                    Map<String, Object> scheduleRecord = new HashMap<>();
-                    scheduleRecord.put("id", schedule.getId());
-                    scheduleRecord.put("scheduleDate", schedule.getScheduleDate());
-                    scheduleRecord.put("timeRange", schedule.getStartTime() + "-" + schedule.getEndTime());
-                    scheduleRecord.put("timetableType", "实例课表");
-                    scheduleRecord.put("timetableName", timetable.getName());
-                    scheduleRecord.put("status", "正常");
-                    scheduleRecord.put("coachName", scheduleCoachName);
-                    scheduleRecord.put("queriedName", queryName); // 记录是从哪个学员名查出来的
-                    scheduleRecord.put("actualStudentName", schedule.getStudentName()); // 记录实际的学员名
-                    
-                    logger.info("添加上课记录: 查询名={}, 实际名={}, 日期={}, 时间={}", 
-                        queryName, schedule.getStudentName(), schedule.getScheduleDate(), 
-                        schedule.getStartTime() + "-" + schedule.getEndTime());
-                    
-                    schedules.add(scheduleRecord);
-                }
-            }
-            
-                // 2. 获取日期类课表的记录
-                List<Timetables> allTimetables = timetableRepository.findAll();
-                for (Timetables timetable : allTimetables) {
-                    // 只处理日期类课表（非周课表）
-                    if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                        continue;
-                    }
-                    
-                    // 获取教练信息
-                    Users coach = userService.findById(timetable.getUserId());
-                    String scheduleCoachName = coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练";
-                    
-                    // 如果指定了教练，只返回该教练的记录（但管理员可以查看所有记录）
-                    if (coachName != null && !coachName.equals(scheduleCoachName)) {
-                        // 检查当前用户是否为管理员，如果是管理员，则允许查看所有记录
-                        Users currentUser = userService.findByUsername(coachName);
-                        if (currentUser == null || !"MANAGER".equals(currentUser.getPosition())) {
-                            continue;
-                        }
-                    }
-                    
-                    // 获取该课表中该学员的所有课程记录
-                    List<Schedules> dateSchedules = scheduleRepository.findByTimetableIdAndStudentName(timetable.getId(), queryName);
-                
-                for (Schedules dateSchedule : dateSchedules) {
-                    // 只处理有具体日期的记录
-                    if (dateSchedule.getScheduleDate() == null) {
-                        continue;
-                    }
-                    
-                    // 只显示过去的课程记录
-                    LocalDate scheduleDate = dateSchedule.getScheduleDate();
-                    if (scheduleDate.isAfter(today)) {
-                        // 未来日期的课程，跳过
-                        continue;
-                    } else if (scheduleDate.isEqual(today)) {
-                        // 今天的课程，需要检查时间
-                        if (dateSchedule.getEndTime() != null && dateSchedule.getEndTime().isAfter(currentTime)) {
-                            // 今天的课程但结束时间还没到，跳过
-                            continue;
-                        }
-                    }
-                    
-                    Map<String, Object> scheduleRecord = new HashMap<>();
-                    scheduleRecord.put("id", dateSchedule.getId());
-                    scheduleRecord.put("scheduleDate", dateSchedule.getScheduleDate());
-                    scheduleRecord.put("timeRange", dateSchedule.getStartTime() + "-" + dateSchedule.getEndTime());
-                    scheduleRecord.put("timetableType", "日期类课表");
-                    scheduleRecord.put("timetableName", timetable.getName());
-                    scheduleRecord.put("status", "正常"); // 日期类课表暂时不支持请假功能
-                    scheduleRecord.put("coachName", scheduleCoachName);
-                    scheduleRecord.put("queriedName", queryName); // 记录是从哪个学员名查出来的
-                    scheduleRecord.put("actualStudentName", dateSchedule.getStudentName()); // 记录实际的学员名
-                    
-                    logger.info("添加上课记录(日期类): 查询名={}, 实际名={}, 日期={}, 时间={}", 
-                        queryName, dateSchedule.getStudentName(), dateSchedule.getScheduleDate(), 
-                        dateSchedule.getStartTime() + "-" + dateSchedule.getEndTime());
-                    
-                    schedules.add(scheduleRecord);
-                }
-                }
-            } // 结束遍历studentNamesToQuery的循环
-            
-            // 3. 应用分配课时规则：检查是否有源课程分配课时给当前学员
-            try {
-                List<StudentOperationRecord> assignHoursRecords = studentOperationRecordRepository.findAll()
-                    .stream()
-                    .filter(r -> "ASSIGN_HOURS".equals(r.getOperationType()) && studentName.equals(r.getOldName()))
-                    .collect(java.util.stream.Collectors.toList());
-                
-                for (StudentOperationRecord assignRecord : assignHoursRecords) {
-                    String sourceCourse = assignRecord.getNewName(); // 源课程名称
-                    int hoursPerStudent = 1; // 默认每1个课时分配1课时
-                    
-                    // 解析details获取hoursPerStudent
-                    if (assignRecord.getDetails() != null && !assignRecord.getDetails().isEmpty()) {
-                        try {
-                            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-                            java.util.Map<String, Object> details = mapper.readValue(assignRecord.getDetails(), java.util.Map.class);
-                            if (details.containsKey("hoursPerStudent")) {
-                                hoursPerStudent = ((Number) details.get("hoursPerStudent")).intValue();
-                            }
-                        } catch (Exception e) {
-                            logger.warn("解析分配课时规则details失败: {}", e.getMessage());
-                        }
-                    }
-                    
-                    logger.info("应用分配课时规则: 源课程='{}', 目标学员='{}', 每{}课时分配1课时", sourceCourse, studentName, hoursPerStudent);
-                    
-                    // 获取源课程的所有课时记录（查询源课程学员的上课记录）
-                    List<Map<String, Object>> sourceCourseSchedules = new ArrayList<>();
-                    
-                    // 获取源课程的实例课表记录
-                    List<WeeklyInstanceSchedule> sourceInstanceSchedules = weeklyInstanceScheduleRepository.findByStudentName(sourceCourse);
-                    
-                    for (WeeklyInstanceSchedule schedule : sourceInstanceSchedules) {
-                        // 只处理过去的课程记录
-                        if (schedule.getScheduleDate() != null) {
-                            LocalDate scheduleDate = schedule.getScheduleDate();
-                            if (scheduleDate.isAfter(today)) {
-                                continue;
-                            } else if (scheduleDate.isEqual(today)) {
-                                if (schedule.getEndTime() != null && schedule.getEndTime().isAfter(currentTime)) {
-                                    continue;
-                                }
-                            }
-                        }
-                        
-                        // 跳过请假记录
-                        if (schedule.getIsOnLeave() != null && schedule.getIsOnLeave()) {
-                            continue;
-                        }
-                        
-                        WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
-                        if (instance == null) continue;
-                        
-                        Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                        if (timetable == null) continue;
-                        
-                        Users coach = userService.findById(timetable.getUserId());
-                        String scheduleCoachName = coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练";
-                        
-                        Map<String, Object> sourceRecord = new HashMap<>();
-                        sourceRecord.put("scheduleDate", schedule.getScheduleDate().toString());
-                        sourceRecord.put("timeRange", schedule.getStartTime() + "-" + schedule.getEndTime());
-                        sourceRecord.put("coachName", scheduleCoachName);
-                        sourceCourseSchedules.add(sourceRecord);
-                    }
-                    
-                    // 获取源课程的日期类课表记录
-                    List<Timetables> allTimetables = timetableRepository.findAll();
-                    for (Timetables timetable : allTimetables) {
-                        if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                            continue;
-                        }
-                        
-                        List<Schedules> dateSchedules = scheduleRepository.findByTimetableId(timetable.getId())
-                            .stream()
-                            .filter(s -> sourceCourse.equals(s.getStudentName()))
-                            .collect(java.util.stream.Collectors.toList());
-                        
-                        for (Schedules dateSchedule : dateSchedules) {
-                            if (dateSchedule.getScheduleDate() == null) continue;
-                            
-                            LocalDate scheduleDate = dateSchedule.getScheduleDate();
-                            if (scheduleDate.isAfter(today)) {
-                                continue;
-                            } else if (scheduleDate.isEqual(today)) {
-                                if (dateSchedule.getEndTime() != null && dateSchedule.getEndTime().isAfter(currentTime)) {
-                                    continue;
-                                }
-                            }
-                            
-                            Users coach = userService.findById(timetable.getUserId());
-                            String scheduleCoachName = coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练";
-                            
-                            Map<String, Object> sourceRecord = new HashMap<>();
-                            sourceRecord.put("scheduleDate", dateSchedule.getScheduleDate().toString());
-                            sourceRecord.put("timeRange", dateSchedule.getStartTime() + "-" + dateSchedule.getEndTime());
-                            sourceRecord.put("coachName", scheduleCoachName);
-                            sourceCourseSchedules.add(sourceRecord);
-                        }
-                    }
-                    
-                    // 按日期和时间排序源课程的记录
-                    sourceCourseSchedules.sort((a, b) -> {
-                        try {
-                            LocalDate dateA = LocalDate.parse((String) a.get("scheduleDate"));
-                            LocalDate dateB = LocalDate.parse((String) b.get("scheduleDate"));
-                            int dateCompare = dateA.compareTo(dateB);
-                            if (dateCompare != 0) return dateCompare;
-                            
-                            String timeA = (String) a.get("timeRange");
-                            String timeB = (String) b.get("timeRange");
-                            if (timeA != null && timeB != null) {
-                                String startTimeA = timeA.split("-")[0].trim();
-                                String startTimeB = timeB.split("-")[0].trim();
-                                return LocalTime.parse(startTimeA).compareTo(LocalTime.parse(startTimeB));
-                            }
-                            return 0;
-                        } catch (Exception e) {
-                            return 0;
-                        }
-                    });
-                    
-                    // 根据规则生成分配的课时记录
-                    logger.info("源课程 '{}' 共有 {} 个课时记录", sourceCourse, sourceCourseSchedules.size());
-                    for (int i = 0; i < sourceCourseSchedules.size(); i++) {
-                        // 每hoursPerStudent个课时，生成1条分配记录
-                        if ((i + 1) % hoursPerStudent == 0) {
-                            // 获取这一组课时的起始和结束索引
-                            int startIndex = i - hoursPerStudent + 1;
-                            int endIndex = i;
-                            
-                            // 获取起始和结束记录
-                            Map<String, Object> startRecord = sourceCourseSchedules.get(startIndex);
-                            Map<String, Object> endRecord = sourceCourseSchedules.get(endIndex);
-                            
-                            // 合并时间范围：从第一个课时的开始时间到最后一个课时的结束时间
-                            String startTimeRange = (String) startRecord.get("timeRange");
-                            String endTimeRange = (String) endRecord.get("timeRange");
-                            String startTime = startTimeRange.split("-")[0];
-                            String endTime = endTimeRange.split("-")[1];
-                            String mergedTimeRange = startTime + "-" + endTime;
-                            
-                            Map<String, Object> assignedSchedule = new HashMap<>();
-                            assignedSchedule.put("id", -1L); // 使用负数ID标识这是分配的课时
-                            assignedSchedule.put("scheduleDate", startRecord.get("scheduleDate"));
-                            assignedSchedule.put("timeRange", mergedTimeRange);
-                            assignedSchedule.put("timetableType", "大课分配课时");
-                            assignedSchedule.put("timetableName", sourceCourse + " -> " + studentName);
-                            assignedSchedule.put("status", "正常");
-                            assignedSchedule.put("coachName", startRecord.get("coachName"));
-                            
-                            schedules.add(assignedSchedule);
-                            logger.info("生成大课分配课时记录: 日期={}, 时间={}, 源课程={}, 合并了{}个课时", 
-                                startRecord.get("scheduleDate"), mergedTimeRange, sourceCourse, hoursPerStudent);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                logger.error("应用分配课时规则失败: {}", e.getMessage());
-            }
-            
-            // 4. 统一按日期和时间倒序排列所有记录
-            schedules.sort((a, b) -> {
-                try {
-                    String dateA = (String) a.get("scheduleDate");
-                    String dateB = (String) b.get("scheduleDate");
-                    String timeA = (String) a.get("timeRange");
-                    String timeB = (String) b.get("timeRange");
-                    
-                    // 先按日期比较（使用LocalDate进行正确比较）
-                    LocalDate localDateA = LocalDate.parse(dateA);
-                    LocalDate localDateB = LocalDate.parse(dateB);
-                    
-                    // 日期倒序：较新的日期排在前面
-                    int dateCompare = localDateB.compareTo(localDateA);
-                    if (dateCompare != 0) {
-                        return dateCompare;
-                    }
-                    
-                    // 日期相同时按时间比较
-                    if (timeA != null && timeB != null && !timeA.isEmpty() && !timeB.isEmpty()) {
-                        // 提取开始时间进行比较
-                        String startTimeA = timeA.split("-")[0].trim();
-                        String startTimeB = timeB.split("-")[0].trim();
-                        LocalTime localTimeA = LocalTime.parse(startTimeA);
-                        LocalTime localTimeB = LocalTime.parse(startTimeB);
-                        
-                        // 时间倒序：较晚的时间排在前面
-                        return localTimeB.compareTo(localTimeA);
-                    }
-                    
-                    return 0;
-                } catch (Exception e) {
-                    logger.warn("排序比较失败: dateA={}, dateB={}, timeA={}, timeB={}, error={}", 
-                        a.get("scheduleDate"), b.get("scheduleDate"), 
-                        a.get("timeRange"), b.get("timeRange"), e.getMessage());
-                    return 0;
-                }
-            });
-            
-            // 5. 合并连续的课时记录（同一天、同一课表类型、时间连续的记录）
-            schedules = mergeConsecutiveSchedules(schedules);
-            
-            // 6. 请假记录也按日期和时间倒序排列
-            leaves.sort((a, b) -> {
-                try {
-                    String dateA = (String) a.get("leaveDate");
-                    String dateB = (String) b.get("leaveDate");
-                    String timeA = (String) a.get("timeRange");
-                    String timeB = (String) b.get("timeRange");
-                    
-                    // 先按日期比较（使用LocalDate进行正确比较）
-                    LocalDate localDateA = LocalDate.parse(dateA);
-                    LocalDate localDateB = LocalDate.parse(dateB);
-                    int dateCompare = localDateB.compareTo(localDateA);
-                    if (dateCompare != 0) {
-                        return dateCompare;
-                    }
-                    
-                    // 日期相同时按时间比较
-                    if (timeA != null && timeB != null) {
-                        // 提取开始时间进行比较
-                        String startTimeA = timeA.split("-")[0];
-                        String startTimeB = timeB.split("-")[0];
-                        LocalTime localTimeA = LocalTime.parse(startTimeA);
-                        LocalTime localTimeB = LocalTime.parse(startTimeB);
-                        return localTimeB.compareTo(localTimeA);
-                    }
-                    
-                    return 0;
-                } catch (Exception e) {
-                    logger.warn("请假记录排序比较失败: {}", e.getMessage());
-                    return 0;
-                }
-            });
-            
-        } catch (Exception e) {
-            logger.error("获取学员记录失败，学员: {}, 教练: {}, 错误: {}", studentName, coachName, e.getMessage());
-        }
-        
-        // 获取学员真正的教练信息
-        String actualCoachName = "未知教练";
-        String primaryStudentName = studentNamesToQuery.isEmpty() ? studentName : studentNamesToQuery.get(0);
-        
-        // 优先从上课记录中获取教练信息
-        if (!schedules.isEmpty()) {
-            actualCoachName = (String) schedules.get(0).get("coachName");
-        } else if (!leaves.isEmpty()) {
-            // 如果上课记录为空，从请假记录中获取
-            actualCoachName = (String) leaves.get(0).get("coachName");
-        } else {
-            // 如果都没有记录，尝试从课表中查找该学员的教练
-            try {
-                // 从实例课表中查找（使用第一个学员名）
-                List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findByStudentName(primaryStudentName);
-                for (WeeklyInstanceSchedule schedule : instanceSchedules) {
-                    WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
-                    if (instance != null) {
-                        Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                        if (timetable != null) {
-                            Users coach = userService.findById(timetable.getUserId());
-                            if (coach != null) {
-                                actualCoachName = coach.getNickname() != null ? coach.getNickname() : coach.getUsername();
-                                break;
-                            }
-                        }
-                    }
-                }
-                
-                // 如果实例课表中没找到，从日期类课表中查找
-                if ("未知教练".equals(actualCoachName)) {
-                    List<Timetables> allTimetables = timetableRepository.findAll();
-                    for (Timetables timetable : allTimetables) {
-                        if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) {
-                            continue;
-                        }
-                        if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                            continue;
-                        }
-                        
-                        List<Schedules> dateSchedules = scheduleRepository.findByTimetableIdAndStudentName(timetable.getId(), primaryStudentName);
-                        if (!dateSchedules.isEmpty()) {
-                            Users coach = userService.findById(timetable.getUserId());
-                            if (coach != null) {
-                                actualCoachName = coach.getNickname() != null ? coach.getNickname() : coach.getUsername();
-                                break;
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                logger.error("获取学员教练信息失败，学员: {}, 错误: {}", studentName, e.getMessage());
-            }
-        }
-        
-        result.put("schedules", schedules);
-        result.put("leaves", leaves);
-        result.put("actualCoachName", actualCoachName);
-        result.put("studentDisplayName", displayName);  // 重命名后的显示名称
-        result.put("studentOriginalName", primaryStudentName);  // 原始名称
-        result.put("mergedStudentNames", studentNamesToQuery);  // 所有被合并的学员名称
-        
-        logger.info("返回学员记录: 显示名={}, 查询的学员名={}, 上课记录数={}, 请假记录数={}", 
-            displayName, studentNamesToQuery, schedules.size(), leaves.size());
-        
-        return result;
-    }
-    
-    /**
-     * 合并连续的课时记录
-     * 如果多条记录是同一天、同一课表类型、时间连续，则合并为一条记录
-     */
-    private List<Map<String, Object>> mergeConsecutiveSchedules(List<Map<String, Object>> schedules) {
-        if (schedules == null || schedules.size() <= 1) {
-            return schedules;
-        }
-        
-        // 先按日期和时间正序排序（用于合并）
-        List<Map<String, Object>> sortedSchedules = new ArrayList<>(schedules);
-        sortedSchedules.sort((a, b) -> {
-            try {
-                LocalDate dateA = LocalDate.parse((String) a.get("scheduleDate"));
-                LocalDate dateB = LocalDate.parse((String) b.get("scheduleDate"));
-                int dateCompare = dateA.compareTo(dateB);
-                if (dateCompare != 0) return dateCompare;
-                
-                String timeA = (String) a.get("timeRange");
-                String timeB = (String) b.get("timeRange");
-                String startTimeA = timeA.split("-")[0].trim();
-                String startTimeB = timeB.split("-")[0].trim();
-                return LocalTime.parse(startTimeA).compareTo(LocalTime.parse(startTimeB));
-            } catch (Exception e) {
-                return 0;
-            }
-        });
-        
-        List<Map<String, Object>> mergedSchedules = new ArrayList<>();
-        Map<String, Object> current = null;
-        
-        for (Map<String, Object> schedule : sortedSchedules) {
-            if (current == null) {
-                // 第一条记录，直接作为当前记录
-                current = new HashMap<>(schedule);
-            } else {
-                // 检查是否可以与当前记录合并
-                boolean canMerge = false;
-                try {
-                    // 同一天
-                    if (current.get("scheduleDate").equals(schedule.get("scheduleDate"))) {
-                        // 同一课表类型
-                        if (current.get("timetableType").equals(schedule.get("timetableType"))) {
-                            // 检查时间是否连续
-                            String currentTimeRange = (String) current.get("timeRange");
-                            String scheduleTimeRange = (String) schedule.get("timeRange");
-                            
-                            String currentEndTime = currentTimeRange.split("-")[1].trim();
-                            String scheduleStartTime = scheduleTimeRange.split("-")[0].trim();
-                            
-                            // 如果当前记录的结束时间等于下一条记录的开始时间，则可以合并
-                            if (currentEndTime.equals(scheduleStartTime)) {
-                                canMerge = true;
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.warn("检查记录是否可合并时失败: {}", e.getMessage());
-                }
-                
-                if (canMerge) {
-                    // 合并：更新当前记录的结束时间
-                    String currentTimeRange = (String) current.get("timeRange");
-                    String scheduleTimeRange = (String) schedule.get("timeRange");
-                    String startTime = currentTimeRange.split("-")[0].trim();
-                    String endTime = scheduleTimeRange.split("-")[1].trim();
-                    current.put("timeRange", startTime + "-" + endTime);
-                    logger.info("合并课时记录: 日期={}, 时间={}", current.get("scheduleDate"), current.get("timeRange"));
-                } else {
-                    // 不能合并，保存当前记录，开始新的记录
-                    mergedSchedules.add(current);
-                    current = new HashMap<>(schedule);
-                }
-            }
-        }
-        
-        // 添加最后一条记录
-        if (current != null) {
-            mergedSchedules.add(current);
-        }
-        
-        // 最后按日期和时间倒序排列（恢复原来的顺序）
-        mergedSchedules.sort((a, b) -> {
-            try {
-                LocalDate dateA = LocalDate.parse((String) a.get("scheduleDate"));
-                LocalDate dateB = LocalDate.parse((String) b.get("scheduleDate"));
-                int dateCompare = dateB.compareTo(dateA);
-                if (dateCompare != 0) return dateCompare;
-                
-                String timeA = (String) a.get("timeRange");
-                String timeB = (String) b.get("timeRange");
-                String startTimeA = timeA.split("-")[0].trim();
-                String startTimeB = timeB.split("-")[0].trim();
-                return LocalTime.parse(startTimeB).compareTo(LocalTime.parse(startTimeA));
-            } catch (Exception e) {
-                return 0;
-            }
-        });
-        
-        return mergedSchedules;
-    }
-
     /**
      * 获取当前教练的所有学员列表
      */
@@ -2559,46 +1968,8 @@ public class WeeklyInstanceService {
         Set<String> studentSet = new HashSet<>();
         
         try {
-            // 1. 从实例课表中获取当前教练的学员
-            List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findAll();
-            for (WeeklyInstanceSchedule schedule : instanceSchedules) {
-                if (schedule.getStudentName() != null && !schedule.getStudentName().trim().isEmpty()) {
-                    // 获取该课程所属的课表
-                    WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
-                    if (instance != null) {
-                        Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                        if (timetable != null && timetable.getUserId().equals(coachId)) {
-                            // 只处理未删除的课表
-                            if (timetable.getIsDeleted() == null || timetable.getIsDeleted() == 0) {
-                                studentSet.add(schedule.getStudentName().trim());
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // 2. 从日期类课表中获取当前教练的学员
-            List<Timetables> coachTimetables = timetableRepository.findByUserId(coachId);
-            for (Timetables timetable : coachTimetables) {
-                // 只处理未删除的课表
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) {
-                    continue;
-                }
-                
-                // 只处理日期类课表（非周课表）
-                if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) {
-                    continue;
-                }
-                
-                // 获取该课表中的所有课程安排
-                List<Schedules> dateSchedules = scheduleRepository.findByTimetableId(timetable.getId());
-                for (Schedules schedule : dateSchedules) {
-                    if (schedule.getStudentName() != null && !schedule.getStudentName().trim().isEmpty()) {
-                        studentSet.add(schedule.getStudentName().trim());
-                    }
-                }
-            }
-            
+            // 实例课表和日期类课表中该教练（未删除课表）的学员，由数据库去重
+            studentSet.addAll(weeklyInstanceScheduleRepository.findDistinctStudentNamesByCoach(coachId));
         } catch (Exception e) {
             logger.error("获取学员列表失败，错误: {}", e.getMessage());
         }
@@ -2697,30 +2068,8 @@ public class WeeklyInstanceService {
         } catch (Exception e) {
             logger.error("保存重命名规则失败: {}", e.getMessage(), e);
             throw new RuntimeException("保存重命名规则失败: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * 根据开始时间和结束时间计算课时数
-     * @param startTime 开始时间
-     * @param endTime 结束时间
-     * @return 课时数（以小时为单位，如0.5、1.0、1.5等）
-     */
-    private double calculateCourseHours(java.time.LocalTime startTime, java.time.LocalTime endTime) {
-        if (startTime == null || endTime == null) {
-            return 1.0; // 如果时间为空，默认算1课时
-        }
-        
-        try {
-            // 计算时间差（分钟）
-            long minutes = java.time.Duration.between(startTime, endTime).toMinutes();
-            // 转换为小时（保留一位小数）
-            double hours = minutes / 60.0;
-            // 最小0.5小时
-            return Math.max(0.5, hours);
-        } catch (Exception e) {
-            logger.warn("计算课时失败: startTime={}, endTime={}, error={}", startTime, endTime, e.getMessage());
-            return 1.0;
+        } finally {
+            studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
         }
     }
     
@@ -2728,126 +2077,18 @@ public class WeeklyInstanceService {
         logger.info("开始获取教练 {} 的学员列表", coachId);
         Map<String, Double> studentToCount = new HashMap<>();
 
-        // 获取该教练的所有学员操作规则
-        Map<String, String> renameRules = new HashMap<>();
-        Set<String> hiddenStudents = new HashSet<>();
-        Map<String, String> aliasRules = new HashMap<>();
+        // 该教练编译后的学员操作规则（重命名/隐藏/别名）
+        StudentRuleSet rules = studentRuleService.getCoachRules(coachId);
         
         try {
-            // 强制刷新缓存，获取最新数据
-            List<StudentOperationRecord> operationRecords = studentOperationRecordRepository.findByCoachId(coachId);
-            operationRecords.sort(java.util.Comparator.comparing(StudentOperationRecord::getCreatedAt));
-            logger.info("教练 {} 共有 {} 条操作记录", coachId, operationRecords.size());
-            
-            // 详细打印每条操作记录
-            for (StudentOperationRecord record : operationRecords) {
-                logger.info("操作记录详情: ID={}, 教练ID={}, 操作类型={}, 原名={}, 新名={}",
-                    record.getId(), record.getCoachId(), record.getOperationType(),
-                    record.getOldName(), record.getNewName());
-            }
-            
-            // 打印所有重命名规则以便调试
-            logger.info("所有重命名规则:");
-            operationRecords.stream()
-                .filter(r -> "RENAME".equals(r.getOperationType()))
-                .forEach(r -> logger.info("  {} -> {}", r.getOldName(), r.getNewName()));
-            
-            // 处理操作记录，构建规则映射
-            for (StudentOperationRecord record : operationRecords) {
-                String operationType = record.getOperationType();
-                String oldName = record.getOldName();
-                String newName = record.getNewName();
-                
-                logger.info("操作记录: 类型={}, 原名={}, 新名={}", operationType, oldName, newName);
-                
-                switch (operationType) {
-                    case "RENAME":
-                        if (newName != null && !newName.trim().isEmpty()) {
-                            // 确保oldName也被trim，保持一致性
-                            String trimmedOldName = oldName != null ? oldName.trim() : oldName;
-                            String trimmedNewName = newName.trim();
-                            renameRules.put(trimmedOldName, trimmedNewName);
-                            logger.info("添加重命名规则: '{}' -> '{}'", trimmedOldName, trimmedNewName);
-                        }
-                        break;
-                    case "DELETE":
-                        hiddenStudents.add(oldName);
-                        logger.info("添加隐藏规则: {}", oldName);
-                        break;
-                    case "ASSIGN_ALIAS":
-                        if (newName != null && !newName.trim().isEmpty()) {
-                            aliasRules.put(oldName, newName);
-                            logger.info("添加别名规则: {} -> {}", oldName, newName);
-                        }
-                        break;
-                    case "MERGE":
-                        // 合并操作暂时不在这里处理，因为需要更复杂的逻辑
-                        break;
-                }
-            }
-            
-            logger.info("最终规则: 重命名={}, 隐藏={}, 别名={}", renameRules, hiddenStudents, aliasRules);
-
-            // 1) 周实例课程：只统计该教练课表下，且 scheduleDate 不在未来，且未请假的课程
-            List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findAll();
-            LocalDate today = LocalDate.now();
-            LocalTime now = LocalTime.now();
-            for (WeeklyInstanceSchedule s : instanceSchedules) {
-                if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                if (s.getScheduleDate() == null) continue;
-                if (s.getScheduleDate().isAfter(today)) continue; // 未来的不算已上
-                
-                // 如果是今天的课程，需要检查时间是否已经过去
-                if (s.getScheduleDate().isEqual(today)) {
-                    if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                    if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                }
-                
-                if (s.getIsOnLeave() != null && s.getIsOnLeave()) continue; // 请假不计入
-                if (s.getIsCancelled() != null && s.getIsCancelled()) continue; // 已取消不计入
-
-                WeeklyInstance instance = weeklyInstanceRepository.findById(s.getWeeklyInstanceId());
-                if (instance == null) continue;
-                Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                if (timetable == null) continue;
-                if (!Objects.equals(timetable.getUserId(), coachId)) continue;
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-
-                String name = s.getStudentName().trim();
+            // 已上课时在数据库中按学员汇总（周实例课程不含请假/取消，日期类课表只看非周课表），这里只处理隐藏规则
+            List<StudentHoursAggregate> aggregates =
+                    weeklyInstanceScheduleRepository.sumAttendedHoursByCoachAndStudent(java.util.Collections.singletonList(coachId));
+            for (StudentHoursAggregate aggregate : aggregates) {
+                String name = aggregate.getStudentName();
                 // 过滤掉隐藏的学员
-                if (hiddenStudents.contains(name)) continue;
-                
-                // 根据课程时长计算课时数
-                double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                studentToCount.put(name, studentToCount.getOrDefault(name, 0.0) + hours);
-            }
-
-            // 2) 日期类课表：只统计该教练的日期课表，scheduleDate 不在未来
-            List<Timetables> coachTimetables = timetableRepository.findByUserId(coachId);
-            for (Timetables timetable : coachTimetables) {
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-                if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) continue; // 只看日期类
-
-                List<com.timetable.generated.tables.pojos.Schedules> dateSchedules = scheduleRepository.findByTimetableId(timetable.getId());
-                for (com.timetable.generated.tables.pojos.Schedules s : dateSchedules) {
-                    if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                    if (s.getScheduleDate() == null) continue;
-                    if (s.getScheduleDate().isAfter(today)) continue;
-                    
-                    // 如果是今天的课程，需要检查时间是否已经过去
-                    if (s.getScheduleDate().isEqual(today)) {
-                        if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                        if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                    }
-                    
-                    String name = s.getStudentName().trim();
-                    // 过滤掉隐藏的学员
-                    if (hiddenStudents.contains(name)) continue;
-                    
-                    // 根据课程时长计算课时数
-                    double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                    studentToCount.put(name, studentToCount.getOrDefault(name, 0.0) + hours);
-                }
+                if (rules.isDeleted(name)) continue;
+                studentToCount.merge(name, aggregate.getTotalHours(), Double::sum);
             }
         } catch (Exception e) {
             logger.error("统计学员课程数失败(教练): {}", e.getMessage());
@@ -2855,33 +2096,9 @@ public class WeeklyInstanceService {
 
         // 聚合最终结果，处理重命名链和别名
         Map<String, Double> finalStudentToCount = new HashMap<>();
-        logger.info("开始处理重命名规则，学员数量: {}", studentToCount.size());
-        logger.info("原始学员列表: {}", studentToCount.keySet());
-        logger.info("重命名规则映射: {}", renameRules);
-        
         for (Map.Entry<String, Double> entry : studentToCount.entrySet()) {
-            String originalName = entry.getKey();
-            Double count = entry.getValue();
-
-            // 解析重命名链
-            String currentName = originalName;
-            Set<String> visited = new HashSet<>();
-            logger.info("处理学员: '{}', 课时数: {}", originalName, count);
-            
-            while (renameRules.containsKey(currentName) && visited.add(currentName)) {
-                String nextName = renameRules.get(currentName);
-                logger.info("  应用重命名规则: '{}' -> '{}'", currentName, nextName);
-                currentName = nextName;
-            }
-
-            // 应用别名
-            String displayName = aliasRules.getOrDefault(currentName, currentName);
-            if (!displayName.equals(currentName)) {
-                logger.info("  应用别名规则: '{}' -> '{}'", currentName, displayName);
-            }
-            
-            logger.info("  最终显示名称: '{}'", displayName);
-            finalStudentToCount.put(displayName, finalStudentToCount.getOrDefault(displayName, 0.0) + count);
+            String displayName = rules.resolveAlias(rules.resolveRename(entry.getKey()));
+            finalStudentToCount.merge(displayName, entry.getValue(), Double::sum);
         }
 
         // 转为 DTO 并排序（将Double转为Integer）
@@ -2890,7 +2107,7 @@ public class WeeklyInstanceService {
                 .sorted((a, b) -> b.getAttendedCount().compareTo(a.getAttendedCount()))
                 .collect(Collectors.toList());
         
-        logger.info("最终学员列表: {}", list.stream().map(StudentSummaryDTO::getStudentName).collect(Collectors.toList()));
+        logger.info("教练 {} 学员数量: {}", coachId, list.size());
         return list;
     }
 
@@ -2899,120 +2116,27 @@ public class WeeklyInstanceService {
      */
     public List<StudentSummaryDTO> getStudentSummariesAll() {
         Map<String, Double> studentToCount = new HashMap<>();
-        LocalDate today = LocalDate.now();
-        LocalTime now = LocalTime.now();
-        
-        // 获取所有教练的学员操作规则
-        Map<String, String> renameRules = new HashMap<>();
-        Set<String> hiddenStudents = new HashSet<>();
-        Map<String, String> aliasRules = new HashMap<>();
         
         try {
-            // 获取所有教练的操作规则
-            List<Users> allCoaches = userService.getAllApprovedUsers();
-            for (Users coach : allCoaches) {
-                List<StudentOperationRecord> operationRecords = studentOperationRecordRepository.findByCoachId(coach.getId());
-                
-                // 处理操作记录，构建规则映射
-                for (StudentOperationRecord record : operationRecords) {
-                    String operationType = record.getOperationType();
-                    String oldName = record.getOldName();
-                    String newName = record.getNewName();
-                    
-                    switch (operationType) {
-                        case "RENAME":
-                            if (newName != null && !newName.trim().isEmpty()) {
-                                renameRules.put(oldName, newName);
-                            }
-                            break;
-                        case "DELETE":
-                            hiddenStudents.add(oldName);
-                            break;
-                        case "ASSIGN_ALIAS":
-                            if (newName != null && !newName.trim().isEmpty()) {
-                                aliasRules.put(oldName, newName);
-                            }
-                            break;
-                        case "MERGE":
-                            // 合并操作暂时不在这里处理，因为需要更复杂的逻辑
-                            break;
-                    }
-                }
-            }
-            
-            // 周实例（所有课表）
-            List<WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findAll();
-            for (WeeklyInstanceSchedule s : instanceSchedules) {
-                if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                if (s.getScheduleDate() == null) continue;
-                if (s.getScheduleDate().isAfter(today)) continue;
-                
-                // 如果是今天的课程，需要检查时间是否已经过去
-                if (s.getScheduleDate().isEqual(today)) {
-                    if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                    if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                }
-                
-                if (s.getIsOnLeave() != null && s.getIsOnLeave()) continue;
-                String name = s.getStudentName().trim();
+            // 所有教练的已上课时，在数据库中按 教练 + 学员 汇总，再按各自教练的规则处理名称
+            List<StudentHoursAggregate> aggregates = weeklyInstanceScheduleRepository.sumAttendedHoursByCoachAndStudent(null);
+            for (StudentHoursAggregate aggregate : aggregates) {
+                StudentRuleSet rules = studentRuleService.getCoachRules(aggregate.getCoachId());
+                String name = aggregate.getStudentName();
                 // 过滤掉隐藏的学员
-                if (hiddenStudents.contains(name)) continue;
-                
-                // 根据课程时长计算课时数
-                double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                studentToCount.put(name, studentToCount.getOrDefault(name, 0.0) + hours);
-            }
-
-            // 日期类（所有课表）
-            List<Timetables> all = timetableRepository.findAll();
-            for (Timetables timetable : all) {
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-                if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) continue;
-                List<com.timetable.generated.tables.pojos.Schedules> dateSchedules = scheduleRepository.findByTimetableId(timetable.getId());
-                for (com.timetable.generated.tables.pojos.Schedules s : dateSchedules) {
-                    if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                    if (s.getScheduleDate() == null) continue;
-                    if (s.getScheduleDate().isAfter(today)) continue;
-                    
-                    // 如果是今天的课程，需要检查时间是否已经过去
-                    if (s.getScheduleDate().isEqual(today)) {
-                        if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                        if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                    }
-                    
-                    String name = s.getStudentName().trim();
-                    // 过滤掉隐藏的学员
-                    if (hiddenStudents.contains(name)) continue;
-                    
-                    // 根据课程时长计算课时数
-                    double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                    studentToCount.put(name, studentToCount.getOrDefault(name, 0.0) + hours);
-                }
+                if (rules.isDeleted(name)) continue;
+                String displayName = rules.resolveAlias(rules.resolveRename(name));
+                studentToCount.merge(displayName, aggregate.getTotalHours(), Double::sum);
             }
         } catch (Exception e) {
             logger.error("统计学员课程数失败(全部): {}", e.getMessage());
         }
         
-        // 转为 DTO 并排序，应用重命名和别名规则（将Double转为Integer，乘以2表示半小时为单位）
-        List<StudentSummaryDTO> list = studentToCount.entrySet().stream()
-                .map(e -> {
-                    String originalName = e.getKey();
-                    // 应用重命名规则（支持重命名链）
-                    String displayName = originalName;
-                    Set<String> visited = new HashSet<>();
-                    while (renameRules.containsKey(displayName) && visited.add(displayName)) {
-                        displayName = renameRules.get(displayName);
-                    }
-                    // 如果没有重命名但有别名，使用别名
-                    if (!visited.contains(originalName) && aliasRules.containsKey(displayName)) {
-                        displayName = aliasRules.get(displayName);
-                    }
-                    // 将Double转为Integer，乘以2表示半小时为单位（0.5小时=1课时，1小时=2课时）
-                    return new StudentSummaryDTO(null, null, displayName, (int) Math.round(e.getValue() * 2));
-                })
+        // 转为 DTO 并排序（将Double转为Integer，乘以2表示半小时为单位）
+        return studentToCount.entrySet().stream()
+                .map(e -> new StudentSummaryDTO(null, null, e.getKey(), (int) Math.round(e.getValue() * 2)))
                 .sorted((a, b) -> b.getAttendedCount().compareTo(a.getAttendedCount()))
                 .collect(Collectors.toList());
-        return list;
     }
 
     /**
@@ -3022,222 +2146,60 @@ public class WeeklyInstanceService {
      */
     public List<com.timetable.dto.CoachStudentSummaryDTO> getStudentGroupByCoachSummaryAll(Long organizationId) {
         Map<Long, String> coachNameMap = new HashMap<>();
-        Map<Long, List<com.timetable.dto.StudentSummaryDTO>> coachStudents = new HashMap<>();
+        Map<Long, Map<String, com.timetable.dto.StudentSummaryDTO>> coachStudents = new HashMap<>();
         Map<Long, Double> coachTotal = new HashMap<>();
-        java.time.LocalDate today = java.time.LocalDate.now();
-        Set<Long> deletedCoachIds = new HashSet<>();
-        
-        // 获取所有教练的合并和别名设置
-        Map<Long, List<com.timetable.dto.StudentMergeDTO>> coachMerges = new HashMap<>();
-        Map<Long, List<com.timetable.dto.StudentAliasDTO>> coachAliases = new HashMap<>();
-        
-        // 获取所有教练的学员操作规则
-        Map<Long, Map<String, String>> coachRenameRules = new HashMap<>();
-        Map<Long, Set<String>> coachHiddenStudents = new HashMap<>();
         
-        // 创建该机构的所有有效教练ID集合，用于过滤课程数据
-        Set<Long> validCoachIds = new HashSet<>();
+        // 该机构所有有效教练编译后的学员操作规则
+        Map<Long, StudentRuleSet> coachRules = new HashMap<>();
         
         try {
-            // 预加载指定机构的所有教练的合并和别名设置
             List<com.timetable.generated.tables.pojos.Users> allCoaches = userService.getUsersByOrganizationId(organizationId)
                     .stream()
                     .filter(u -> "APPROVED".equals(u.getStatus()))
                     .filter(u -> u.getIsDeleted() == null || u.getIsDeleted() == 0)
                     .collect(java.util.stream.Collectors.toList());
             for (com.timetable.generated.tables.pojos.Users coach : allCoaches) {
-                if (coach.getIsDeleted() == null || coach.getIsDeleted() == 0) {
-                    // 将该教练ID添加到有效教练ID集合
-                    validCoachIds.add(coach.getId());
-                    
-                    coachMerges.put(coach.getId(), studentMergeService.getMergesByCoach(coach.getId()));
-                    coachAliases.put(coach.getId(), studentAliasService.getAliasesByCoach(coach.getId()));
-                    
-                    // 获取学员操作规则
-                    List<StudentOperationRecord> operationRecords = studentOperationRecordRepository.findByCoachId(coach.getId());
-                    operationRecords.sort(java.util.Comparator.comparing(StudentOperationRecord::getCreatedAt));
-                    Map<String, String> renameRules = new HashMap<>();
-                    Set<String> hiddenStudents = new HashSet<>();
-                    
-                    logger.info("getStudentGroupByCoachSummaryAll - 教练 {} ({}) 共有 {} 条操作记录", 
-                        coach.getId(), coach.getNickname() != null ? coach.getNickname() : coach.getUsername(), operationRecords.size());
-                    
-                    // 如果是杨教练，输出详细信息
-                    if (coach.getId().equals(6L)) {
-                        logger.info("DEBUG: 杨教练的所有操作记录:");
-                        for (StudentOperationRecord record : operationRecords) {
-                            logger.info("  记录ID: {}, 操作类型: {}, 原名: {}, 新名: {}, 创建时间: {}", 
-                                record.getId(), record.getOperationType(), record.getOldName(), record.getNewName(), record.getCreatedAt());
-                        }
-                    }
-                    
-                    for (StudentOperationRecord record : operationRecords) {
-                        String operationType = record.getOperationType();
-                        String oldName = record.getOldName();
-                        String newName = record.getNewName();
-                        
-                        logger.info("getStudentGroupByCoachSummaryAll - 操作记录: 教练ID={}, 类型={}, 原名={}, 新名={}",
-                            coach.getId(), operationType, oldName, newName);
-                        
-                        switch (operationType) {
-                            case "RENAME":
-                                if (newName != null && !newName.trim().isEmpty()) {
-                                    // 确保oldName也被trim，保持一致性
-                                    String trimmedOldName = oldName != null ? oldName.trim() : oldName;
-                                    String trimmedNewName = newName.trim();
-                                    renameRules.put(trimmedOldName, trimmedNewName);
-                                    logger.info("getStudentGroupByCoachSummaryAll - 添加重命名规则: '{}' -> '{}' (教练ID: {})", trimmedOldName, trimmedNewName, coach.getId());
-                                }
-                                break;
-                            case "DELETE":
-                                hiddenStudents.add(oldName);
-                                logger.info("添加隐藏规则: {}", oldName);
-                                break;
-                        }
-                    }
-                    
-                    logger.info("教练 {} 最终重命名规则: {}", coach.getId(), renameRules);
-                    
-                    
-                    coachRenameRules.put(coach.getId(), renameRules);
-                    coachHiddenStudents.put(coach.getId(), hiddenStudents);
-                    
-                    // 调试信息：打印加载的重命名规则
-                    System.out.println("*** 教练 " + coach.getId() + " (" + coach.getUsername() + ") 的重命名规则: " + renameRules);
-                }
+                coachNameMap.put(coach.getId(), coach.getNickname() != null ? coach.getNickname() : coach.getUsername());
+                coachRules.put(coach.getId(), studentRuleService.getCoachRules(coach.getId()));
             }
-            // 实例课表
-            java.util.List<com.timetable.entity.WeeklyInstanceSchedule> instanceSchedules = weeklyInstanceScheduleRepository.findAll();
-            java.time.LocalTime now = java.time.LocalTime.now();
-            for (com.timetable.entity.WeeklyInstanceSchedule s : instanceSchedules) {
-                if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                if (s.getScheduleDate() == null) continue;
-                if (s.getScheduleDate().isAfter(today)) continue;
-                
-                // 如果是今天的课程，需要检查时间是否已经过去
-                if (s.getScheduleDate().isEqual(today)) {
-                    if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                    if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                }
-                
-                if (s.getIsOnLeave() != null && s.getIsOnLeave()) continue; // 请假不计入
-                if (s.getIsCancelled() != null && s.getIsCancelled()) continue; // 已取消不计入
-                com.timetable.entity.WeeklyInstance instance = weeklyInstanceRepository.findById(s.getWeeklyInstanceId());
-                if (instance == null) continue;
-                com.timetable.generated.tables.pojos.Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                if (timetable == null) continue;
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-                Long coachId = timetable.getUserId();
-                if (coachId == null) continue;
-                
-                // 只处理当前机构的教练的课程
-                if (!validCoachIds.contains(coachId)) continue;
-                if (!coachNameMap.containsKey(coachId)) {
-                    com.timetable.generated.tables.pojos.Users coach = userService.findById(coachId);
-                    // 过滤掉已删除教练
-                    if (coach != null && coach.getIsDeleted() != null && coach.getIsDeleted() == 1) {
-                      deletedCoachIds.add(coachId);
-                      continue;
-                    }
-                    coachNameMap.put(coachId, coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练");
-                }
-                if (deletedCoachIds.contains(coachId)) continue;
-                String studentName = s.getStudentName().trim();
+            
+            // 该机构有效教练的已上课时，在数据库中按 教练 + 学员 汇总
+            List<StudentHoursAggregate> aggregates = weeklyInstanceScheduleRepository.sumAttendedHoursByCoachAndStudent(coachRules.keySet());
+            for (StudentHoursAggregate aggregate : aggregates) {
+                Long coachId = aggregate.getCoachId();
+                StudentRuleSet rules = coachRules.get(coachId);
+                if (rules == null) continue;
+                String studentName = aggregate.getStudentName();
                 
                 // 检查是否是隐藏的学员
-                Set<String> hiddenStudents = coachHiddenStudents.get(coachId);
-                if (hiddenStudents != null && hiddenStudents.contains(studentName)) {
+                if (rules.isDeleted(studentName)) {
                     logger.debug("学员 {} 被隐藏，跳过", studentName);
                     continue;
                 }
                 
-                // 处理学员合并和别名，同时应用重命名规则
-                String displayName = getDisplayStudentName(studentName, coachId, coachMerges, coachAliases, coachRenameRules);
+                // 应用重命名规则，再处理学员合并和别名
+                String displayName = rules.resolveDisplayName(studentName);
                 
-                logger.info("getStudentGroupByCoachSummaryAll - 学员名称处理: 原始={}, 显示={}, 教练ID={}", studentName, displayName, coachId);
-                if (!studentName.equals(displayName)) {
-                    logger.info("getStudentGroupByCoachSummaryAll - 学员名称被重命名: {} -> {} (教练ID: {})", studentName, displayName, coachId);
-                    System.out.println("*** 重命名生效 *** " + studentName + " -> " + displayName + " (教练ID: " + coachId + ")");
-                } else if ("跃跃".equals(studentName) && coachId != null && coachId == 6L) {
-                    System.out.println("*** 重命名未生效 *** " + studentName + " (教练ID: " + coachId + ") 规则: " + coachRenameRules.get(coachId));
-                }
-                List<String> relatedStudents = getRelatedStudents(studentName, coachId, coachMerges, coachAliases);
-                
-                // 根据课程时长计算课时数
-                double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                int courseCount = (int) Math.round(hours * 2); // 乘以2表示半小时为单位
+                // 课时数按每节课四舍五入到半小时后累加（乘以2表示半小时为单位）
+                int courseCount = aggregate.getHalfHourUnits();
                 
-                List<com.timetable.dto.StudentSummaryDTO> list = coachStudents.computeIfAbsent(coachId, k -> new java.util.ArrayList<>());
-                com.timetable.dto.StudentSummaryDTO found = list.stream().filter(dto -> dto.getStudentName().equals(displayName)).findFirst().orElse(null);
+                Map<String, com.timetable.dto.StudentSummaryDTO> students = coachStudents.computeIfAbsent(coachId, k -> new java.util.LinkedHashMap<>());
+                com.timetable.dto.StudentSummaryDTO found = students.get(displayName);
                 if (found == null) {
-                    found = new com.timetable.dto.StudentSummaryDTO(null, coachId, displayName, courseCount);
-                    list.add(found);
+                    students.put(displayName, new com.timetable.dto.StudentSummaryDTO(null, coachId, displayName, courseCount));
                 } else {
                     found.setAttendedCount(found.getAttendedCount() + courseCount);
                 }
-                coachTotal.put(coachId, coachTotal.getOrDefault(coachId, 0.0) + hours);
-            }
-            // 日期类课表
-            java.util.List<com.timetable.generated.tables.pojos.Timetables> all = timetableRepository.findAll();
-            for (com.timetable.generated.tables.pojos.Timetables timetable : all) {
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-                if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) continue;
-                Long coachId = timetable.getUserId();
-                if (coachId == null) continue;
-                
-                // 只处理当前机构的教练的课程
-                if (!validCoachIds.contains(coachId)) continue;
-                if (!coachNameMap.containsKey(coachId)) {
-                    com.timetable.generated.tables.pojos.Users coach = userService.findById(coachId);
-                    if (coach != null && coach.getIsDeleted() != null && coach.getIsDeleted() == 1) {
-                      deletedCoachIds.add(coachId);
-                      continue;
-                    }
-                    coachNameMap.put(coachId, coach != null ? (coach.getNickname() != null ? coach.getNickname() : coach.getUsername()) : "未知教练");
-                }
-                if (deletedCoachIds.contains(coachId)) continue;
-                java.util.List<com.timetable.generated.tables.pojos.Schedules> dateSchedules = scheduleRepository.findByTimetableId(timetable.getId());
-                for (com.timetable.generated.tables.pojos.Schedules s : dateSchedules) {
-                    if (s.getStudentName() == null || s.getStudentName().trim().isEmpty()) continue;
-                    if (s.getScheduleDate() == null) continue;
-                    if (s.getScheduleDate().isAfter(today)) continue;
-                    
-                    // 如果是今天的课程，需要检查时间是否已经过去
-                    if (s.getScheduleDate().isEqual(today)) {
-                        if (s.getEndTime() == null) continue; // 没有结束时间则不计入
-                        if (s.getEndTime().isAfter(now)) continue; // 结束时间还未到，不算已上
-                    }
-                    String studentName = s.getStudentName().trim();
-                    
-                    // 检查是否是隐藏的学员
-                    Set<String> hiddenStudents = coachHiddenStudents.get(coachId);
-                    if (hiddenStudents != null && hiddenStudents.contains(studentName)) continue;
-                    
-                    // 处理学员合并和别名，同时应用重命名规则
-                    String displayName = getDisplayStudentName(studentName, coachId, coachMerges, coachAliases, coachRenameRules);
-                    
-                    // 根据课程时长计算课时数
-                    double hours = calculateCourseHours(s.getStartTime(), s.getEndTime());
-                    int courseCount = (int) Math.round(hours * 2); // 乘以2表示半小时为单位
-                    
-                    List<com.timetable.dto.StudentSummaryDTO> list = coachStudents.computeIfAbsent(coachId, k -> new java.util.ArrayList<>());
-                    com.timetable.dto.StudentSummaryDTO found = list.stream().filter(dto -> dto.getStudentName().equals(displayName)).findFirst().orElse(null);
-                    if (found == null) {
-                        found = new com.timetable.dto.StudentSummaryDTO(null, coachId, displayName, courseCount);
-                        list.add(found);
-                    } else {
-                        found.setAttendedCount(found.getAttendedCount() + courseCount);
-                    }
-                    coachTotal.put(coachId, coachTotal.getOrDefault(coachId, 0.0) + hours);
-                }
+                coachTotal.put(coachId, coachTotal.getOrDefault(coachId, 0.0) + aggregate.getTotalHours());
             }
         } catch (Exception e) {
             logger.error("统计分组学员课程数失败:", e);
         }
         List<com.timetable.dto.CoachStudentSummaryDTO> result = new ArrayList<>();
-        coachStudents.forEach((coachId, stuList) -> {
+        coachStudents.forEach((coachId, students) -> {
             // 只添加有有效教练名称和学员的数据
             String coachName = coachNameMap.get(coachId);
+            List<com.timetable.dto.StudentSummaryDTO> stuList = new ArrayList<>(students.values());
             if (coachName != null && !coachName.trim().isEmpty() && !stuList.isEmpty()) {
                 stuList.sort((a, b) -> b.getAttendedCount().compareTo(a.getAttendedCount()));
                 // 将Double转为Integer，乘以2表示半小时为单位
@@ -3250,96 +2212,6 @@ public class WeeklyInstanceService {
         return result;
     }
     
-    /**
-     * 获取学员的显示名称（考虑合并和别名）
-     */
-    private String getDisplayStudentName(String studentName, Long coachId,
-            Map<Long, List<com.timetable.dto.StudentMergeDTO>> coachMerges,
-            Map<Long, List<com.timetable.dto.StudentAliasDTO>> coachAliases,
-            Map<Long, Map<String, String>> coachRenameRules) {
-        
-                logger.info("getDisplayStudentName - 处理学员名称: 原始名称={}, 教练ID={}", studentName, coachId);
-        
-        // 首先应用重命名规则
-        Map<String, String> renameRules = coachRenameRules.get(coachId);
-        String processedName = studentName != null ? studentName.trim() : studentName; // 确保处理名称时去除空格
-        System.out.println("*** getDisplayStudentName DEBUG *** 教练ID: " + coachId + ", 原始名称: '" + studentName + "', 处理后名称: '" + processedName + "'");
-        
-        if (renameRules != null) {
-            System.out.println("*** getDisplayStudentName DEBUG *** 教练 " + coachId + " 的重命名规则: " + renameRules);
-            logger.info("getDisplayStudentName - 教练 {} 的重命名规则: {}", coachId, renameRules);
-            Set<String> visited = new HashSet<>();
-            while (renameRules.containsKey(processedName) && visited.add(processedName)) {
-                String oldName = processedName;
-                processedName = renameRules.get(processedName);
-                System.out.println("*** getDisplayStudentName DEBUG *** 重命名规则匹配: '" + oldName + "' -> '" + processedName + "'");
-                logger.info("getDisplayStudentName - 应用重命名规则: {} -> {}", oldName, processedName);
-            }
-            // 检查是否有匹配但没有应用的情况
-            if (renameRules.containsKey(processedName)) {
-                System.out.println("*** getDisplayStudentName DEBUG *** 规则中找到名称但没有应用，可能是循环依赖");
-            }
-        } else {
-            System.out.println("*** getDisplayStudentName DEBUG *** 教练 " + coachId + " 没有重命名规则");
-            logger.info("getDisplayStudentName - 教练 {} 没有重命名规则", coachId);
-        }
-        
-        // 检查是否在合并设置中
-        List<com.timetable.dto.StudentMergeDTO> merges = coachMerges.get(coachId);
-        if (merges != null) {
-            for (com.timetable.dto.StudentMergeDTO merge : merges) {
-                if (merge.getStudentNames().contains(processedName)) {
-                    logger.debug("学员 {} 在合并设置中，显示名称: {}", processedName, merge.getDisplayName());
-                    return merge.getDisplayName();
-                }
-            }
-        }
-        
-        // 检查是否在别名设置中
-        List<com.timetable.dto.StudentAliasDTO> aliases = coachAliases.get(coachId);
-        if (aliases != null) {
-            for (com.timetable.dto.StudentAliasDTO alias : aliases) {
-                if (alias.getStudentNames().contains(processedName)) {
-                    logger.debug("学员 {} 在别名设置中，别名: {}", processedName, alias.getAliasName());
-                    return alias.getAliasName();
-                }
-            }
-        }
-        
-        logger.info("getDisplayStudentName - 学员 {} 最终显示名称: {}", studentName, processedName);
-        return processedName; // 返回处理后的名称（可能已被重命名）
-    }
-    
-    /**
-     * 获取学员关联的所有学员名称
-     */
-    private List<String> getRelatedStudents(String studentName, Long coachId,
-            Map<Long, List<com.timetable.dto.StudentMergeDTO>> coachMerges,
-            Map<Long, List<com.timetable.dto.StudentAliasDTO>> coachAliases) {
-        
-        // 检查合并设置
-        List<com.timetable.dto.StudentMergeDTO> merges = coachMerges.get(coachId);
-        if (merges != null) {
-            for (com.timetable.dto.StudentMergeDTO merge : merges) {
-                if (merge.getStudentNames().contains(studentName)) {
-                    return merge.getStudentNames();
-                }
-            }
-        }
-        
-        // 检查别名设置
-        List<com.timetable.dto.StudentAliasDTO> aliases = coachAliases.get(coachId);
-        if (aliases != null) {
-            for (com.timetable.dto.StudentAliasDTO alias : aliases) {
-                if (alias.getStudentNames().contains(studentName)) {
-                    return alias.getStudentNames();
-                }
-            }
-        }
-        
-        return java.util.Arrays.asList(studentName); // 默认只包含自己
-    }
-    
     /**
      * 测试方法：检查指定教练的重命名规则
      */
@@ -3402,10 +2274,12 @@ public class WeeklyInstanceService {
     
     public void saveOrUpdateHideRule(StudentOperationRecord record) {
         studentOperationRecordRepository.save(record);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
     }
     
     public void saveOrUpdateMergeRule(StudentOperationRecord record) {
         studentOperationRecordRepository.save(record);
+        studentRuleService.evict(record.getCoachId(), record.getOrganizationId());
     }
     
     /**
@@ -3413,34 +2287,11 @@ public class WeeklyInstanceService {
      */
     public Long findCoachIdByStudentName(String studentName) {
         try {
-            // 1. 先从周实例课程中查找
-            List<WeeklyInstanceSchedule> schedules = weeklyInstanceScheduleRepository.findAll();
-            for (WeeklyInstanceSchedule schedule : schedules) {
-                if (studentName.equals(schedule.getStudentName())) {
-                    WeeklyInstance instance = weeklyInstanceRepository.findById(schedule.getWeeklyInstanceId());
-                    if (instance != null) {
-                        Timetables timetable = timetableRepository.findById(instance.getTemplateTimetableId());
-                        if (timetable != null) {
-                            logger.info("从周实例课程找到学员 '{}' 属于教练ID: {}", studentName, timetable.getUserId());
-                            return timetable.getUserId();
-                        }
-                    }
-                }
-            }
-            
-            // 2. 如果周实例中没找到，从日期类课表中查找
-            List<Timetables> allTimetables = timetableRepository.findAll();
-            for (Timetables timetable : allTimetables) {
-                if (timetable.getIsDeleted() != null && timetable.getIsDeleted() == 1) continue;
-                if (timetable.getIsWeekly() != null && timetable.getIsWeekly() == 1) continue;
-                
-                List<com.timetable.generated.tables.pojos.Schedules> schedulesList = scheduleRepository.findByTimetableId(timetable.getId());
-                for (com.timetable.generated.tables.pojos.Schedules s : schedulesList) {
-                    if (studentName.equals(s.getStudentName())) {
-                        logger.info("从日期课表找到学员 '{}' 属于教练ID: {}", studentName, timetable.getUserId());
-                        return timetable.getUserId();
-                    }
-                }
+            // 先从周实例课程（最近的课程优先）中查找，再从日期类课表中查找
+            Long coachId = weeklyInstanceScheduleRepository.findCoachIdByStudentName(studentName);
+            if (coachId != null) {
+                logger.info("找到学员 '{}' 属于教练ID: {}", studentName, coachId);
+                return coachId;
             }
             
             logger.warn("未找到学员 '{}' 所属的教练", studentName);
@@ -0,0 +1,70 @@
+package com.timetable.task;
+
+import com.timetable.service.LessonHoursLedgerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * 课时台账定时任务
+ */
+@Component
+public class LessonHoursLedgerScheduledTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(LessonHoursLedgerScheduledTask.class);
+
+    // 每日对账覆盖的天数（含昨天）
+    private static final int RECONCILE_DAYS = 7;
+
+    @Autowired
+    private LessonHoursLedgerService lessonHoursLedgerService;
+
+    /**
+     * 每分钟补记刚开始的课程
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void finalizeStartedLessons() {
+        try {
+            int count = lessonHoursLedgerService.finalizeStartedLessons();
+            if (count > 0) {
+                logger.debug("课时台账补记完成，涉及课表数: {}", count);
+            }
+        } catch (Exception e) {
+            logger.error("课时台账补记失败", e);
+        }
+    }
+
+    /**
+     * 每分钟重试刷新失败的台账区间
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 90000)
+    public void retryFailedSlices() {
+        try {
+            int count = lessonHoursLedgerService.retryFailedSlices();
+            if (count > 0) {
+                logger.info("课时台账失败区间重试完成，区间数: {}", count);
+            }
+        } catch (Exception e) {
+            logger.error("课时台账失败区间重试失败", e);
+        }
+    }
+
+    /**
+     * 每天00:05对前一天的台账做日终收尾，并重新计算最近几天的台账做对账
+     */
+    @Scheduled(cron = "0 5 0 * * ?")
+    public void finalizeYesterday() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        logger.info("开始执行定时任务：课时台账日终收尾与对账，日期: {} 起 {} 天", yesterday.minusDays(RECONCILE_DAYS - 1), RECONCILE_DAYS);
+        try {
+            int count = lessonHoursLedgerService.reconcileRecentDays(RECONCILE_DAYS);
+            logger.info("课时台账日终收尾与对账完成，截至日期: {}, 涉及课表日数: {}", yesterday, count);
+        } catch (Exception e) {
+            logger.error("课时台账日终收尾与对账失败，截至日期: {}", yesterday, e);
+        }
+    }
+}
@@ -4,29 +4,62 @@ import com.timetable.config.WechatMpConfig;
 import com.timetable.dto.NotificationSettingsDTO;
 import com.timetable.dto.wechat.WechatTemplateMessage;
 import com.timetable.dto.wechat.WechatTemplateMessageResponse;
+import com.timetable.entity.Customer;
 import com.timetable.entity.Todo;
 import com.timetable.generated.tables.pojos.Users;
+import com.timetable.repository.CustomerRepository;
 import com.timetable.repository.TodoRepository;
 import com.timetable.repository.UserRepository;
 import com.timetable.service.OrganizationService;
 import com.timetable.service.WechatMpService;
+import com.timetable.util.TokenBucketRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.format.DateTimeFormatter;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * 待办推送定时任务
+ * 每批待办一次性预取创建人、机构通知设置和客户信息，模板消息由有界线程池并发发送，
+ * 所有线程共享一个令牌桶限流器（wechat.mp.push-rate-per-second），推送结果按批次合并写回。
+ * 指标：todo.push.messages（result=success|failed|skipped）、todo.push.send.duration、todo.push.run.duration
  */
 @Component
 public class TodoPushScheduledTask {
 
     private static final Logger logger = LoggerFactory.getLogger(TodoPushScheduledTask.class);
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // 每批发送完成后写回一次推送结果，进程中断时最多重复推送一批
+    private static final int PUSH_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_PUSH_THREADS = 4;
+
+    private static final int DEFAULT_PUSH_RATE_PER_SECOND = 10;
+
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 500;
 
     @Autowired
     private TodoRepository todoRepository;
@@ -41,11 +74,63 @@ public class TodoPushScheduledTask {
     private WechatMpConfig wechatMpConfig;
 
     @Autowired
-    private com.timetable.repository.CustomerRepository customerRepository;
+    private CustomerRepository customerRepository;
 
     @Autowired
     private OrganizationService organizationService;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 防止定时触发与手动触发重叠执行
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private ThreadPoolExecutor pushExecutor;
+    private TokenBucketRateLimiter rateLimiter;
+
+    private Counter successCounter;
+    private Counter failedCounter;
+    private Counter skippedCounter;
+    private Timer sendTimer;
+    private Timer runTimer;
+
+    @PostConstruct
+    public void init() {
+        WechatMpConfig.Mp mp = wechatMpConfig.getMp();
+        int threads = positiveOrDefault(mp != null ? mp.getPushThreads() : null, DEFAULT_PUSH_THREADS);
+        int ratePerSecond = positiveOrDefault(mp != null ? mp.getPushRatePerSecond() : null, DEFAULT_PUSH_RATE_PER_SECOND);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列容量等于一批的大小，超出时由调度线程自行发送
+        pushExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PUSH_BATCH_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "todo-push-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        rateLimiter = new TokenBucketRateLimiter(ratePerSecond, ratePerSecond);
+
+        successCounter = Counter.builder("todo.push.messages").tag("result", "success")
+                .description("待办提醒推送成功数").register(meterRegistry);
+        failedCounter = Counter.builder("todo.push.messages").tag("result", "failed")
+                .description("待办提醒推送失败数（发送失败或异常）").register(meterRegistry);
+        skippedCounter = Counter.builder("todo.push.messages").tag("result", "skipped")
+                .description("待办提醒未发送数（用户不存在、未绑定微信、机构关闭提醒）").register(meterRegistry);
+        sendTimer = Timer.builder("todo.push.send.duration")
+                .description("单条模板消息发送耗时").register(meterRegistry);
+        runTimer = Timer.builder("todo.push.run.duration")
+                .description("一次待办推送任务的总耗时").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pushExecutor != null) {
+            pushExecutor.shutdownNow();
+        }
+    }
+
     /**
      * 每5分钟扫描一次需要推送的待办
      * cron表达式: 0 * /5 * * * * 表示每5分钟执行一次
@@ -56,16 +141,21 @@ public class TodoPushScheduledTask {
         if (!wechatMpConfig.getMp().getEnabled()) {
             return;
         }
+        if (!running.compareAndSet(false, true)) {
+            logger.info("待办推送任务正在执行，跳过本次触发");
+            return;
+        }
 
         logger.info("开始执行定时任务：扫描待办并推送微信提醒");
-        
+
+        long startNanos = System.nanoTime();
         try {
             // 获取最大重试次数
             int maxRetryCount = wechatMpConfig.getMp().getPushRetryMax();
-            
+
             // 查询需要推送的待办
             List<Todo> todosToPush = todoRepository.findTodosToPush(maxRetryCount);
-            
+
             if (todosToPush.isEmpty()) {
                 logger.debug("没有需要推送的待办");
                 return;
@@ -75,117 +165,198 @@ public class TodoPushScheduledTask {
 
             int successCount = 0;
             int failCount = 0;
+            for (int from = 0; from < todosToPush.size(); from += PUSH_BATCH_SIZE) {
+                List<Todo> batch = todosToPush.subList(from, Math.min(from + PUSH_BATCH_SIZE, todosToPush.size()));
+                int[] counts = pushBatch(batch);
+                successCount += counts[0];
+                failCount += counts[1];
+            }
+
+            logger.info("定时任务执行完成：成功推送 {} 条，失败 {} 条", successCount, failCount);
+
+        } catch (Exception e) {
+            logger.error("定时任务执行失败：扫描待办推送时发生错误", e);
+        } finally {
+            runTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            running.set(false);
+        }
+    }
+
+    /**
+     * 推送一批待办并写回结果
+     * @return [成功数, 失败数]
+     */
+    private int[] pushBatch(List<Todo> batch) {
+        PushContext context = prefetch(batch);
+
+        Map<Long, String> failures = new LinkedHashMap<>();
+        List<Long> pushedIds = new ArrayList<>();
+        Map<Long, Future<PushResult>> pending = new LinkedHashMap<>();
+
+        for (Todo todo : batch) {
+            String skipReason = checkSkipReason(todo, context);
+            if (skipReason != null) {
+                failures.put(todo.getId(), skipReason);
+                skippedCounter.increment();
+                continue;
+            }
+            Users user = context.users.get(todo.getCreatedBy());
+            String customerPhone = context.customerPhones.get(todo.getCustomerId());
+            pending.put(todo.getId(), pushExecutor.submit(() -> send(todo, user, customerPhone)));
+        }
+
+        for (Map.Entry<Long, Future<PushResult>> entry : pending.entrySet()) {
+            PushResult result;
+            try {
+                result = entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = PushResult.failed("推送被中断");
+            } catch (ExecutionException e) {
+                result = PushResult.failed(truncate(e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            }
+            if (result.success) {
+                pushedIds.add(entry.getKey());
+                successCounter.increment();
+            } else {
+                failures.put(entry.getKey(), result.errorMessage);
+                failedCounter.increment();
+            }
+        }
+
+        todoRepository.updatePushSuccess(pushedIds);
+        todoRepository.updatePushFailed(failures);
+        return new int[]{pushedIds.size(), failures.size()};
+    }
+
+    /**
+     * 一次性加载本批待办涉及的用户、机构通知设置和客户电话
+     */
+    private PushContext prefetch(List<Todo> batch) {
+        PushContext context = new PushContext();
 
-            for (Todo todo : todosToPush) {
-                try {
-                    // 获取创建待办的用户信息
-                    Users user = userRepository.findById(todo.getCreatedBy());
-                    if (user == null) {
-                        logger.warn("待办 ID: {} 的创建用户不存在，跳过推送", todo.getId());
-                        todoRepository.updatePushFailed(todo.getId(), "用户不存在");
-                        failCount++;
-                        continue;
-                    }
-
-                    // 检查用户所在机构的待办事项提醒设置
-                    if (user.getOrganizationId() != null) {
-                        try {
-                            NotificationSettingsDTO notificationSettings = organizationService.getNotificationSettings(user.getOrganizationId());
-                            if (notificationSettings.getTodoEnabled() == null || !notificationSettings.getTodoEnabled()) {
-                                logger.debug("用户 {} 所在机构的待办事项提醒已关闭，跳过推送待办 ID: {}", user.getUsername(), todo.getId());
-                                todoRepository.updatePushFailed(todo.getId(), "机构已关闭待办事项提醒");
-                                failCount++;
-                                continue;
-                            }
-                        } catch (Exception e) {
-                            logger.warn("检查机构通知设置失败: {}", e.getMessage());
-                            // 如果检查设置失败，继续推送
-                        }
-                    }
-
-                    // 检查用户是否绑定了微信
-                    if (user.getWechatOpenid() == null || user.getWechatOpenid().isEmpty()) {
-                        logger.warn("用户 {} 未绑定微信，跳过推送待办 ID: {}", user.getUsername(), todo.getId());
-                        todoRepository.updatePushFailed(todo.getId(), "用户未绑定微信");
-                        failCount++;
-                        continue;
-                    }
-
-                    // 构建提醒时间字符串（格式：YYYY-MM-DD HH:mm）
-                    String reminderTime = "";
-                    if (todo.getReminderDate() != null) {
-                        reminderTime = todo.getReminderDate().toString();
-                        if (todo.getReminderTime() != null) {
-                            reminderTime += " " + todo.getReminderTime().toString().substring(0, 5);
-                        }
-                    }
-
-                    // 获取客户电话（从 customers 表查询）
-                    String customerPhone = null;
-                    if (todo.getCustomerId() != null) {
-                        try {
-                            com.timetable.entity.Customer customer = customerRepository.findById(todo.getCustomerId());
-                            if (customer != null && customer.getParentPhone() != null && !customer.getParentPhone().isEmpty()) {
-                                customerPhone = customer.getParentPhone();
-                            }
-                        } catch (Exception e) {
-                            logger.debug("无法获取客户电话: {}", e.getMessage());
-                        }
-                    }
-
-                    // 构建模板消息
-                    WechatTemplateMessage message = wechatMpService.buildTodoReminderMessage(
-                        user.getWechatOpenid(),
-                        todo.getCustomerName(),
-                        todo.getContent(),
-                        reminderTime,
-                        customerPhone
-                    );
-
-                    // 发送模板消息
-                    WechatTemplateMessageResponse response = wechatMpService.sendTemplateMessage(message);
-
-                    if (response != null && response.isSuccess()) {
-                        // 推送成功
-                        todoRepository.updatePushSuccess(todo.getId());
-                        successCount++;
-                        logger.info("待办 ID: {} 推送成功，msgid: {}", todo.getId(), response.getMsgid());
-                    } else {
-                        // 推送失败
-                        String errorMsg = response != null ? 
-                            String.format("errcode: %d, errmsg: %s", response.getErrcode(), response.getErrmsg()) : 
-                            "响应为空";
-                        todoRepository.updatePushFailed(todo.getId(), errorMsg);
-                        failCount++;
-                        logger.error("待办 ID: {} 推送失败: {}", todo.getId(), errorMsg);
-                    }
-
-                } catch (Exception e) {
-                    // 推送异常
-                    String errorMsg = e.getMessage();
-                    if (errorMsg != null && errorMsg.length() > 500) {
-                        errorMsg = errorMsg.substring(0, 500);
-                    }
-                    todoRepository.updatePushFailed(todo.getId(), errorMsg);
-                    failCount++;
-                    logger.error("待办 ID: {} 推送异常", todo.getId(), e);
+        Set<Long> userIds = batch.stream().map(Todo::getCreatedBy).filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        for (Users user : userRepository.findByIds(userIds)) {
+            context.users.put(user.getId(), user);
+        }
+
+        Set<Long> organizationIds = context.users.values().stream().map(Users::getOrganizationId)
+                .filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+        for (Long organizationId : organizationIds) {
+            try {
+                NotificationSettingsDTO notificationSettings = organizationService.getNotificationSettings(organizationId);
+                context.todoEnabledByOrganization.put(organizationId,
+                        notificationSettings.getTodoEnabled() != null && notificationSettings.getTodoEnabled());
+            } catch (Exception e) {
+                // 如果检查设置失败，继续推送
+                logger.warn("检查机构通知设置失败: {}", e.getMessage());
+            }
+        }
+
+        Set<Long> customerIds = batch.stream().map(Todo::getCustomerId).filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        try {
+            for (Customer customer : customerRepository.findByIds(customerIds)) {
+                if (customer.getParentPhone() != null && !customer.getParentPhone().isEmpty()) {
+                    context.customerPhones.put(customer.getId(), customer.getParentPhone());
                 }
+            }
+        } catch (Exception e) {
+            logger.debug("无法获取客户电话: {}", e.getMessage());
+        }
+        return context;
+    }
+
+    /**
+     * 不需要发送的原因（记为推送失败），可以发送时返回 null
+     */
+    private String checkSkipReason(Todo todo, PushContext context) {
+        Users user = context.users.get(todo.getCreatedBy());
+        if (user == null) {
+            logger.warn("待办 ID: {} 的创建用户不存在，跳过推送", todo.getId());
+            return "用户不存在";
+        }
+
+        // 检查用户所在机构的待办事项提醒设置（读取失败的机构不在表中，继续推送）
+        if (user.getOrganizationId() != null
+                && Boolean.FALSE.equals(context.todoEnabledByOrganization.get(user.getOrganizationId()))) {
+            logger.debug("用户 {} 所在机构的待办事项提醒已关闭，跳过推送待办 ID: {}", user.getUsername(), todo.getId());
+            return "机构已关闭待办事项提醒";
+        }
+
+        // 检查用户是否绑定了微信
+        if (user.getWechatOpenid() == null || user.getWechatOpenid().isEmpty()) {
+            logger.warn("用户 {} 未绑定微信，跳过推送待办 ID: {}", user.getUsername(), todo.getId());
+            return "用户未绑定微信";
+        }
+        return null;
+    }
+
+    /**
+     * 在推送线程中发送一条模板消息（先从令牌桶取令牌）
+     */
+    private PushResult send(Todo todo, Users user, String customerPhone) {
+        try {
+            rateLimiter.acquire();
 
-                // 避免推送过快，每条消息间隔100ms
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            // 构建提醒时间字符串（格式：YYYY-MM-DD HH:mm）
+            String reminderTime = "";
+            if (todo.getReminderDate() != null) {
+                reminderTime = todo.getReminderDate().toString();
+                if (todo.getReminderTime() != null) {
+                    reminderTime += " " + todo.getReminderTime().toString().substring(0, 5);
                 }
             }
 
-            logger.info("定时任务执行完成：成功推送 {} 条，失败 {} 条", successCount, failCount);
+            // 构建模板消息
+            WechatTemplateMessage message = wechatMpService.buildTodoReminderMessage(
+                user.getWechatOpenid(),
+                todo.getCustomerName(),
+                todo.getContent(),
+                reminderTime,
+                customerPhone
+            );
+
+            // 发送模板消息
+            long sendStart = System.nanoTime();
+            WechatTemplateMessageResponse response;
+            try {
+                response = wechatMpService.sendTemplateMessage(message);
+            } finally {
+                sendTimer.record(System.nanoTime() - sendStart, TimeUnit.NANOSECONDS);
+            }
 
+            if (response != null && response.isSuccess()) {
+                logger.info("待办 ID: {} 推送成功，msgid: {}", todo.getId(), response.getMsgid());
+                return PushResult.pushed();
+            }
+            String errorMsg = response != null ?
+                String.format("errcode: %d, errmsg: %s", response.getErrcode(), response.getErrmsg()) :
+                "响应为空";
+            logger.error("待办 ID: {} 推送失败: {}", todo.getId(), errorMsg);
+            return PushResult.failed(errorMsg);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PushResult.failed("推送被中断");
         } catch (Exception e) {
-            logger.error("定时任务执行失败：扫描待办推送时发生错误", e);
+            logger.error("待办 ID: {} 推送异常", todo.getId(), e);
+            return PushResult.failed(truncate(e.getMessage()));
         }
     }
 
+    private static String truncate(String errorMsg) {
+        if (errorMsg != null && errorMsg.length() > MAX_ERROR_MESSAGE_LENGTH) {
+            return errorMsg.substring(0, MAX_ERROR_MESSAGE_LENGTH);
+        }
+        return errorMsg;
+    }
+
+    private static int positiveOrDefault(Integer value, int defaultValue) {
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
     /**
      * 手动触发推送（用于测试）
      */
@@ -193,5 +364,29 @@ public class TodoPushScheduledTask {
         logger.info("手动触发待办推送任务");
         pushTodoReminders();
     }
-}
 
+    private static final class PushContext {
+        private final Map<Long, Users> users = new HashMap<>();
+        // 机构ID -> 是否开启待办提醒；读取失败的机构不在表中
+        private final Map<Long, Boolean> todoEnabledByOrganization = new HashMap<>();
+        private final Map<Long, String> customerPhones = new HashMap<>();
+    }
+
+    private static final class PushResult {
+        private final boolean success;
+        private final String errorMessage;
+
+        private PushResult(boolean success, String errorMessage) {
+            this.success = success;
+            this.errorMessage = errorMessage;
+        }
+
+        private static PushResult pushed() {
+            return new PushResult(true, null);
+        }
+
+        private static PushResult failed(String errorMessage) {
+            return new PushResult(false, errorMessage);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.timetable.task;
+
+import com.timetable.service.TrialScheduleOutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 体验课发件箱补发定时任务：派发到期的重试记录和提交后未能立即派发的记录
+ */
+@Component
+public class TrialScheduleOutboxScheduledTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrialScheduleOutboxScheduledTask.class);
+
+    @Autowired
+    private TrialScheduleOutboxService trialScheduleOutboxService;
+
+    /**
+     * 每15秒派发一次到期记录
+     */
+    @Scheduled(fixedDelay = 15000, initialDelay = 30000)
+    public void dispatchDue() {
+        try {
+            int count = trialScheduleOutboxService.dispatchDue();
+            if (count > 0) {
+                logger.debug("体验课发件箱补发完成，记录数: {}", count);
+            }
+        } catch (Exception e) {
+            logger.error("体验课发件箱补发失败", e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.timetable.task;
 
-import com.timetable.service.WeeklyInstanceService;
+import com.timetable.entity.WeeklyInstanceJobRun;
+import com.timetable.service.WeeklyInstanceGenerationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,7 +17,7 @@ public class WeeklyInstanceScheduledTask {
     private static final Logger logger = LoggerFactory.getLogger(WeeklyInstanceScheduledTask.class);
 
     @Autowired
-    private WeeklyInstanceService weeklyInstanceService;
+    private WeeklyInstanceGenerationService weeklyInstanceGenerationService;
 
     // 已废弃：每周一1点生成本周实例（改为周日19点预生下周实例）
 
@@ -28,8 +29,9 @@ public class WeeklyInstanceScheduledTask {
     public void generateNextWeekInstances() {
         logger.info("开始执行定时任务：为所有活动课表生成下周实例");
         try {
-            weeklyInstanceService.generateNextWeekInstancesForAllActiveTimetables();
-            logger.info("定时任务执行成功：生成下周实例");
+            WeeklyInstanceJobRun run = weeklyInstanceGenerationService.generateNextWeek(WeeklyInstanceJobRun.TRIGGER_SCHEDULED);
+            logger.info("定时任务执行成功：生成下周实例，生成 {} 个，跳过 {} 个，失败 {} 个",
+                    run.getGeneratedCount(), run.getSkippedCount(), run.getFailedCount());
         } catch (Exception e) {
             logger.error("定时任务执行失败：生成下周实例时发生错误", e);
         }
@@ -41,12 +43,13 @@ public class WeeklyInstanceScheduledTask {
      * 手动触发生成当前周实例（用于测试或紧急情况）
      * 可以通过管理接口调用
      */
-    public void manualGenerateWeeklyInstances() {
+    public WeeklyInstanceJobRun manualGenerateWeeklyInstances() {
         logger.info("手动触发生成当前周实例任务");
         
         try {
-            weeklyInstanceService.generateCurrentWeekInstancesForAllActiveTimetables();
+            WeeklyInstanceJobRun run = weeklyInstanceGenerationService.generateCurrentWeek(WeeklyInstanceJobRun.TRIGGER_MANUAL);
             logger.info("手动生成当前周实例任务执行成功");
+            return run;
         } catch (Exception e) {
             logger.error("手动生成当前周实例任务执行失败", e);
             throw new RuntimeException("生成当前周实例失败: " + e.getMessage());
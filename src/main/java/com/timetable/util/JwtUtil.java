@@ -45,6 +45,13 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
 
+    /**
+     * 一次解析并验证token（签名、过期时间），返回claims；验证失败时抛出异常
+     */
+    public Claims extractVerifiedClaims(String token) {
+        return extractAllClaims(token);
+    }
+
     /**
      * 从token中提取所有claims
      */
@@ -0,0 +1,273 @@
+package com.timetable.util;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 排课时间冲突索引
+ * 按 具体日期 / 星期 分桶，每个桶是以开始时间排序、维护子树最大结束时间的区间树（treap），
+ * 重叠查询为 O(log n + k)，插入、删除为 O(log n)。
+ *
+ * 匹配口径与排课冲突检测一致：双方都有具体日期时比较日期；否则双方都有星期时比较星期；
+ * 时间重叠条件为 start1 < end2 && start2 < end1。查询结果按加入索引的先后顺序返回。
+ * 非线程安全，用于单次批量检测。
+ */
+public class ScheduleConflictIndex<T> {
+
+    // 有具体日期的条目，按日期分桶
+    private final Map<LocalDate, IntervalTree<T>> byDate = new HashMap<>();
+    // 有星期的全部条目，按星期分桶（供没有具体日期的查询使用）
+    private final Map<String, IntervalTree<T>> byDayOfWeek = new HashMap<>();
+    // 有星期但没有具体日期的条目（供有具体日期的查询按星期匹配）
+    private final Map<String, IntervalTree<T>> undatedByDayOfWeek = new HashMap<>();
+    private final Map<T, List<Node<T>>> nodesByValue = new IdentityHashMap<>();
+    private long sequence;
+
+    /**
+     * 加入一条排课；开始或结束时间为空、日期和星期都为空的条目不参与冲突检测
+     */
+    public void add(LocalDate date, String dayOfWeek, LocalTime startTime, LocalTime endTime, T value) {
+        if (startTime == null || endTime == null || (date == null && dayOfWeek == null)) {
+            return;
+        }
+        long seq = sequence++;
+        List<Node<T>> nodes = nodesByValue.computeIfAbsent(value, key -> new ArrayList<>(2));
+        if (date != null) {
+            nodes.add(byDate.computeIfAbsent(date, key -> new IntervalTree<>()).insert(startTime, endTime, seq, value));
+        }
+        if (dayOfWeek != null) {
+            nodes.add(byDayOfWeek.computeIfAbsent(dayOfWeek, key -> new IntervalTree<>()).insert(startTime, endTime, seq, value));
+            if (date == null) {
+                nodes.add(undatedByDayOfWeek.computeIfAbsent(dayOfWeek, key -> new IntervalTree<>()).insert(startTime, endTime, seq, value));
+            }
+        }
+    }
+
+    /**
+     * 从索引中移除条目（按对象引用匹配）
+     */
+    public void remove(T value) {
+        List<Node<T>> nodes = nodesByValue.remove(value);
+        if (nodes == null) {
+            return;
+        }
+        for (Node<T> node : nodes) {
+            node.tree.delete(node);
+        }
+    }
+
+    /**
+     * 与给定日期/星期、时间段重叠的全部条目，按加入顺序返回
+     */
+    public List<T> findOverlaps(LocalDate date, String dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        List<Node<T>> matches = collect(date, dayOfWeek, startTime, endTime);
+        List<T> result = new ArrayList<>(matches.size());
+        for (Node<T> node : matches) {
+            result.add(node.value);
+        }
+        return result;
+    }
+
+    /**
+     * 与给定日期/星期、时间段重叠的最早加入的条目，没有时返回 null
+     */
+    public T findFirstOverlap(LocalDate date, String dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        List<Node<T>> matches = collect(date, dayOfWeek, startTime, endTime);
+        return matches.isEmpty() ? null : matches.get(0).value;
+    }
+
+    public boolean hasOverlap(LocalDate date, String dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        if (startTime == null || endTime == null) {
+            return false;
+        }
+        if (date != null) {
+            if (hasOverlap(byDate.get(date), startTime, endTime)) {
+                return true;
+            }
+            return dayOfWeek != null && hasOverlap(undatedByDayOfWeek.get(dayOfWeek), startTime, endTime);
+        }
+        return dayOfWeek != null && hasOverlap(byDayOfWeek.get(dayOfWeek), startTime, endTime);
+    }
+
+    private boolean hasOverlap(IntervalTree<T> tree, LocalTime startTime, LocalTime endTime) {
+        return tree != null && tree.anyOverlap(tree.root, startTime, endTime);
+    }
+
+    private List<Node<T>> collect(LocalDate date, String dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        List<Node<T>> matches = new ArrayList<>();
+        if (startTime == null || endTime == null) {
+            return matches;
+        }
+        if (date != null) {
+            collect(byDate.get(date), startTime, endTime, matches);
+            if (dayOfWeek != null) {
+                collect(undatedByDayOfWeek.get(dayOfWeek), startTime, endTime, matches);
+            }
+        } else if (dayOfWeek != null) {
+            collect(byDayOfWeek.get(dayOfWeek), startTime, endTime, matches);
+        }
+        if (matches.size() > 1) {
+            matches.sort(Comparator.comparingLong(node -> node.seq));
+        }
+        return matches;
+    }
+
+    private void collect(IntervalTree<T> tree, LocalTime startTime, LocalTime endTime, List<Node<T>> matches) {
+        if (tree != null) {
+            tree.collect(tree.root, startTime, endTime, matches);
+        }
+    }
+
+    private static final class Node<T> {
+        private final IntervalTree<T> tree;
+        private final LocalTime start;
+        private final LocalTime end;
+        private final long seq;
+        private final int priority;
+        private final T value;
+        private LocalTime maxEnd;
+        private Node<T> left;
+        private Node<T> right;
+
+        private Node(IntervalTree<T> tree, LocalTime start, LocalTime end, long seq, T value) {
+            this.tree = tree;
+            this.start = start;
+            this.end = end;
+            this.seq = seq;
+            this.value = value;
+            this.priority = ThreadLocalRandom.current().nextInt();
+            this.maxEnd = end;
+        }
+
+        private int compareTo(Node<T> other) {
+            int byStart = start.compareTo(other.start);
+            return byStart != 0 ? byStart : Long.compare(seq, other.seq);
+        }
+
+        private void update() {
+            LocalTime max = end;
+            if (left != null && left.maxEnd.isAfter(max)) {
+                max = left.maxEnd;
+            }
+            if (right != null && right.maxEnd.isAfter(max)) {
+                max = right.maxEnd;
+            }
+            maxEnd = max;
+        }
+    }
+
+    /**
+     * 以 (开始时间, 加入序号) 为键的 treap，节点维护子树最大结束时间
+     */
+    private static final class IntervalTree<T> {
+        private Node<T> root;
+
+        private Node<T> insert(LocalTime start, LocalTime end, long seq, T value) {
+            Node<T> node = new Node<>(this, start, end, seq, value);
+            Node<T>[] parts = split(root, node);
+            root = merge(merge(parts[0], node), parts[1]);
+            return node;
+        }
+
+        private void delete(Node<T> node) {
+            root = delete(root, node);
+        }
+
+        private Node<T> delete(Node<T> current, Node<T> node) {
+            if (current == null) {
+                return null;
+            }
+            if (current == node) {
+                return merge(current.left, current.right);
+            }
+            if (node.compareTo(current) < 0) {
+                current.left = delete(current.left, node);
+            } else {
+                current.right = delete(current.right, node);
+            }
+            current.update();
+            return current;
+        }
+
+        /**
+         * 拆分为 键小于 pivot 的部分 和 其余部分
+         */
+        @SuppressWarnings("unchecked")
+        private Node<T>[] split(Node<T> current, Node<T> pivot) {
+            if (current == null) {
+                return (Node<T>[]) new Node[]{null, null};
+            }
+            if (current.compareTo(pivot) < 0) {
+                Node<T>[] parts = split(current.right, pivot);
+                current.right = parts[0];
+                current.update();
+                parts[0] = current;
+                return parts;
+            }
+            Node<T>[] parts = split(current.left, pivot);
+            current.left = parts[1];
+            current.update();
+            parts[1] = current;
+            return parts;
+        }
+
+        private Node<T> merge(Node<T> left, Node<T> right) {
+            if (left == null) {
+                return right;
+            }
+            if (right == null) {
+                return left;
+            }
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                left.update();
+                return left;
+            }
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+
+        private void collect(Node<T> node, LocalTime startTime, LocalTime endTime, List<Node<T>> matches) {
+            // 子树内所有区间都在查询开始之前结束
+            if (node == null || !node.maxEnd.isAfter(startTime)) {
+                return;
+            }
+            collect(node.left, startTime, endTime, matches);
+            // 当前节点及右子树的开始时间都不早于查询结束时间
+            if (!node.start.isBefore(endTime)) {
+                return;
+            }
+            if (node.end.isAfter(startTime)) {
+                matches.add(node);
+            }
+            collect(node.right, startTime, endTime, matches);
+        }
+
+        /**
+         * 标准区间树查找：左子树最大结束时间晚于查询开始时间时，若左子树没有重叠，右侧也不可能有
+         */
+        private boolean anyOverlap(Node<T> node, LocalTime startTime, LocalTime endTime) {
+            while (node != null) {
+                if (node.start.isBefore(endTime) && node.end.isAfter(startTime)) {
+                    return true;
+                }
+                if (node.left != null && node.left.maxEnd.isAfter(startTime)) {
+                    node = node.left;
+                } else if (node.start.isBefore(endTime)) {
+                    node = node.right;
+                } else {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.timetable.util;
+
+import java.time.LocalTime;
+import java.util.Objects;
+
+/**
+ * 排课时间段键：星期 + 开始时间 + 结束时间
+ * 模板课程与周实例课程按同一时间段对应，用于同步时的匹配（代替拼接字符串作为键）。
+ */
+public final class ScheduleSlotKey {
+
+    private final String dayOfWeek;
+    private final LocalTime startTime;
+    private final LocalTime endTime;
+
+    public ScheduleSlotKey(String dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        this.dayOfWeek = dayOfWeek;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public String getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    public LocalTime getStartTime() {
+        return startTime;
+    }
+
+    public LocalTime getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ScheduleSlotKey)) {
+            return false;
+        }
+        ScheduleSlotKey that = (ScheduleSlotKey) o;
+        return Objects.equals(dayOfWeek, that.dayOfWeek)
+                && Objects.equals(startTime, that.startTime)
+                && Objects.equals(endTime, that.endTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dayOfWeek, startTime, endTime);
+    }
+
+    @Override
+    public String toString() {
+        return dayOfWeek + " " + startTime + "-" + endTime;
+    }
+}
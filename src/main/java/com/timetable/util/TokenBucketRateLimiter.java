@@ -0,0 +1,54 @@
+package com.timetable.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流器
+ * 令牌按固定速率匀速补充，桶容量即允许的突发数量；acquire() 在没有令牌时阻塞到下一个令牌可用。
+ * 线程安全，多个推送线程共享同一个实例即可把总发送速率限制在配置值以内。
+ */
+public class TokenBucketRateLimiter {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param burst 桶容量（允许的突发数量），至少为1
+     */
+    public TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond 必须大于0");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, burst);
+        this.availablePermits = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取一个令牌，必要时阻塞等待
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryReserve()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 有令牌时取走并返回0，否则返回距下一个令牌可用的纳秒数
+     */
+    private synchronized long tryReserve() {
+        long now = System.nanoTime();
+        availablePermits = Math.min(capacity, availablePermits + (now - lastRefillNanos) * permitsPerSecond / 1_000_000_000d);
+        lastRefillNanos = now;
+        if (availablePermits >= 1) {
+            availablePermits -= 1;
+            return 0;
+        }
+        return Math.max(1L, (long) Math.ceil((1 - availablePermits) * 1_000_000_000d / permitsPerSecond));
+    }
+}
@@ -0,0 +1,39 @@
+-- 课时台账：按 课表 + 日期 + 学员 预聚合的已完成课时（开始时间已过的课程）
+-- 由 LessonHoursLedgerService 在课程写入后增量维护，并由定时任务在课程开始后补记当天课时
+CREATE TABLE IF NOT EXISTS lesson_hours_ledger (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '台账ID',
+    timetable_id BIGINT NOT NULL COMMENT '课表ID（周实例课程记到其模板课表）',
+    lesson_date DATE NOT NULL COMMENT '上课日期',
+    student_name VARCHAR(100) NOT NULL COMMENT '学员姓名（去除首尾空格，未应用学员操作规则）',
+    completed_minutes INT NOT NULL DEFAULT 0 COMMENT '已完成分钟数（缺少时间的课程按60分钟）',
+    lesson_count INT NOT NULL DEFAULT 0 COMMENT '已完成课程节数',
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    UNIQUE KEY uk_ledger_timetable_date_student (timetable_id, lesson_date, student_name),
+    INDEX idx_ledger_lesson_date (lesson_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='课时台账表';
+
+-- 回填今天之前的历史课时（今天的课时由定时任务补记）
+INSERT INTO lesson_hours_ledger (timetable_id, lesson_date, student_name, completed_minutes, lesson_count)
+SELECT timetable_id, lesson_date, student_name, SUM(minutes), COUNT(*)
+FROM (
+    SELECT s.timetable_id AS timetable_id,
+           s.schedule_date AS lesson_date,
+           COALESCE(TRIM(s.student_name), '') AS student_name,
+           CASE WHEN s.start_time IS NULL OR s.end_time IS NULL THEN 60
+                ELSE TIME_TO_SEC(TIMEDIFF(s.end_time, s.start_time)) DIV 60 END AS minutes
+    FROM schedules s
+    WHERE s.schedule_date IS NOT NULL
+      AND s.schedule_date < CURDATE()
+    UNION ALL
+    SELECT wi.template_timetable_id AS timetable_id,
+           wis.schedule_date AS lesson_date,
+           COALESCE(TRIM(wis.student_name), '') AS student_name,
+           CASE WHEN wis.start_time IS NULL OR wis.end_time IS NULL THEN 60
+                ELSE TIME_TO_SEC(TIMEDIFF(wis.end_time, wis.start_time)) DIV 60 END AS minutes
+    FROM weekly_instance_schedules wis
+    JOIN weekly_instances wi ON wis.weekly_instance_id = wi.id
+    WHERE wis.schedule_date < CURDATE()
+      AND (wis.is_on_leave IS NULL OR wis.is_on_leave = 0)
+      AND (wis.is_cancelled IS NULL OR wis.is_cancelled = 0)
+) completed
+GROUP BY timetable_id, lesson_date, student_name;
@@ -0,0 +1,17 @@
+-- 周实例批量生成任务的执行记录：每次执行（定时或手动）一行，记录生成、跳过、失败数量和耗时
+CREATE TABLE IF NOT EXISTS weekly_instance_job_runs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '执行记录ID',
+    job_type VARCHAR(20) NOT NULL COMMENT '生成目标：CURRENT_WEEK 当前周，NEXT_WEEK 下周',
+    trigger_type VARCHAR(20) NOT NULL COMMENT '触发方式：SCHEDULED 定时，MANUAL 手动',
+    year_week VARCHAR(10) NOT NULL COMMENT '目标周（与 weekly_instances.year_week 一致）',
+    status VARCHAR(20) NOT NULL COMMENT '状态：RUNNING 执行中，COMPLETED 已完成，FAILED 执行失败',
+    total_timetables INT NOT NULL DEFAULT 0 COMMENT '参与生成的周固定课表数',
+    generated_count INT NOT NULL DEFAULT 0 COMMENT '新生成的周实例数',
+    skipped_count INT NOT NULL DEFAULT 0 COMMENT '跳过数（已存在或机构关闭自动生成）',
+    failed_count INT NOT NULL DEFAULT 0 COMMENT '失败数',
+    duration_ms BIGINT NULL COMMENT '耗时（毫秒）',
+    error_summary TEXT NULL COMMENT '失败明细（每行一条）',
+    started_at DATETIME NOT NULL COMMENT '开始时间',
+    finished_at DATETIME NULL COMMENT '结束时间',
+    INDEX idx_job_runs_started_at (started_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='周实例生成任务执行记录表';
@@ -0,0 +1,5 @@
+-- 模板课表版本号：课表的模板课程（schedule_date 为空）每次新增、修改、删除时递增
+ALTER TABLE timetables ADD COLUMN template_version BIGINT NOT NULL DEFAULT 0 COMMENT '模板课程版本号';
+
+-- 周实例最近一次完整同步时的模板版本号；实例课程被写入后置空，表示实例内容已与该版本不同
+ALTER TABLE weekly_instances ADD COLUMN synced_template_version BIGINT NULL COMMENT '已同步的模板版本号' AFTER last_synced_at;
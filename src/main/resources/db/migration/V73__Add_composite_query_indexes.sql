@@ -0,0 +1,29 @@
+-- 按热点查询的过滤和排序列建立组合索引，避免按单列索引定位后回表过滤或额外排序
+
+-- 课表下按日期范围查询课程并按日期、时间排序（ScheduleRepository 按日期范围查询、ReportRepository 课时记录、课时台账）
+CREATE INDEX idx_schedules_timetable_date_time ON schedules (timetable_id, schedule_date, start_time);
+
+-- 周实例下按日期查询课程并按日期、时间排序（实例课程列表、ReportRepository 课时记录、机构日课表看板）
+CREATE INDEX idx_wis_instance_date_time ON weekly_instance_schedules (weekly_instance_id, schedule_date, start_time);
+
+-- 学员时间线：按学员名称定位后按日期、时间倒序翻页，不需要额外排序
+CREATE INDEX idx_schedules_student_date_time ON schedules (student_name, schedule_date, start_time);
+CREATE INDEX idx_wis_student_date_time ON weekly_instance_schedules (student_name, schedule_date, start_time);
+-- 以学员名称开头的组合索引覆盖了原有的单列学员名称索引
+DROP INDEX idx_schedules_student_name ON schedules;
+DROP INDEX idx_weekly_instance_schedules_student_name ON weekly_instance_schedules;
+
+-- 机构下的活动课表（周实例批量生成、机构课表列表、日课表看板）
+CREATE INDEX idx_timetables_org_active ON timetables (organization_id, is_active, is_deleted, is_archived);
+
+-- 客户列表：机构内按创建时间倒序分页，按状态筛选时同样不需要额外排序
+CREATE INDEX idx_customers_org_created_at ON customers (organization_id, created_at);
+CREATE INDEX idx_customers_org_status_created_at ON customers (organization_id, status, created_at);
+
+-- 客户状态历史：按客户查询并按创建时间倒序
+CREATE INDEX idx_status_history_customer_created_at ON customer_status_history (customer_id, created_at);
+-- 组合索引同时满足 customer_id 外键的索引要求，原单列索引不再需要
+DROP INDEX idx_customer_id ON customer_status_history;
+
+-- 待推送的待办提醒：按推送状态定位，按提醒日期、时间排序（TodoRepository.findTodosToPush）
+CREATE INDEX idx_todos_push_reminder ON todos (push_status, reminder_date, reminder_time);
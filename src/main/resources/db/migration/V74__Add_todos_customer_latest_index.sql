@@ -0,0 +1,3 @@
+-- 客户最新待办：按客户分区、按创建时间倒序编号（TodoRepository.findLatestTodosByCustomerIdsAndOrganizationId），
+-- 每个客户的待办在索引中按创建时间有序，不需要额外排序
+CREATE INDEX idx_todos_customer_created_at ON todos (customer_id, created_at);
@@ -0,0 +1,22 @@
+-- 体验课创建发件箱：客户状态变更在同一事务中写入一行，由后台派发器创建课表课程并回写流转记录
+CREATE TABLE IF NOT EXISTS trial_schedule_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '发件箱记录ID',
+    idempotency_key VARCHAR(100) NOT NULL COMMENT '幂等键（每条流转记录只创建一次体验课）',
+    history_id BIGINT NOT NULL COMMENT '客户状态流转记录ID',
+    customer_id BIGINT NOT NULL COMMENT '客户ID',
+    operator_id BIGINT NOT NULL COMMENT '发起状态变更的用户ID',
+    coach_id BIGINT NOT NULL COMMENT '体验课教练ID',
+    student_name VARCHAR(100) NOT NULL COMMENT '体验学员姓名',
+    customer_phone VARCHAR(50) NULL COMMENT '客户联系电话（写入课程备注）',
+    schedule_date DATE NOT NULL COMMENT '体验日期',
+    start_time TIME NOT NULL COMMENT '开始时间',
+    end_time TIME NOT NULL COMMENT '结束时间',
+    status VARCHAR(20) NOT NULL COMMENT '状态：PENDING 待派发，PROCESSING 派发中，DONE 已完成，FAILED 重试耗尽',
+    attempts INT NOT NULL DEFAULT 0 COMMENT '已尝试次数',
+    next_attempt_at DATETIME NOT NULL COMMENT '下次可派发时间',
+    last_error VARCHAR(500) NULL COMMENT '最近一次失败原因',
+    created_at DATETIME NOT NULL COMMENT '创建时间',
+    updated_at DATETIME NOT NULL COMMENT '更新时间（派发中的记录据此判断是否超时）',
+    UNIQUE KEY uk_trial_outbox_idempotency_key (idempotency_key),
+    INDEX idx_trial_outbox_status_next_attempt (status, next_attempt_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='体验课创建发件箱';
@@ -0,0 +1,12 @@
+-- 课时台账刷新失败、等待重试的区间：持久化保存，进程重启后仍由定时任务继续重试，重试成功后删除
+CREATE TABLE IF NOT EXISTS lesson_hours_ledger_failed_slices (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '记录ID',
+    timetable_id BIGINT NOT NULL COMMENT '课表ID',
+    from_date DATE NULL COMMENT '区间开始日期（为空表示不限开始日期）',
+    to_date DATE NULL COMMENT '区间结束日期（为空表示截至重试当天）',
+    attempts INT NOT NULL DEFAULT 1 COMMENT '已失败次数',
+    last_error VARCHAR(500) NULL COMMENT '最近一次失败原因',
+    created_at DATETIME NOT NULL COMMENT '首次失败时间',
+    updated_at DATETIME NOT NULL COMMENT '最近一次失败时间',
+    INDEX idx_ledger_failed_slices_timetable (timetable_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='课时台账刷新失败区间表';
@@ -0,0 +1,57 @@
+package com.timetable.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReportCursorTest {
+
+    @Test
+    void encodeThenParseRoundTrips() {
+        ReportCursor cursor = new ReportCursor(LocalDate.of(2026, 3, 2), LocalTime.of(9, 30), ReportCursor.SOURCE_WEEKLY_INSTANCE, 12345L);
+
+        String encoded = cursor.encode();
+        ReportCursor parsed = ReportCursor.parse(encoded);
+
+        assertThat(encoded).isEqualTo("2026-03-02_09:30:00_1_12345");
+        assertThat(parsed.getScheduleDate()).isEqualTo(cursor.getScheduleDate());
+        assertThat(parsed.getStartTime()).isEqualTo(cursor.getStartTime());
+        assertThat(parsed.getSource()).isEqualTo(ReportCursor.SOURCE_WEEKLY_INSTANCE);
+        assertThat(parsed.getId()).isEqualTo(12345L);
+        assertThat(parsed.encode()).isEqualTo(encoded);
+    }
+
+    @Test
+    void encodesMidnightWithSeconds() {
+        ReportCursor cursor = new ReportCursor(LocalDate.of(2026, 12, 31), LocalTime.MIDNIGHT, ReportCursor.SOURCE_SCHEDULE, 1L);
+
+        // LocalTime.toString() 会省略秒，游标固定使用 HH:mm:ss
+        assertThat(cursor.encode()).isEqualTo("2026-12-31_00:00:00_0_1");
+        assertThat(ReportCursor.parse(cursor.encode()).getStartTime()).isEqualTo(LocalTime.MIDNIGHT);
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        String[] malformed = {
+                null,
+                "",
+                "2026-03-02_09:30:00_1",
+                "2026-03-02_09:30:00_1_12_3",
+                "2026-13-02_09:30:00_1_12",
+                "2026-03-02_25:00:00_1_12",
+                "2026-03-02_09:30:00_2_12",
+                "2026-03-02_09:30:00_x_12",
+                "2026-03-02_09:30:00_0_abc"
+        };
+        for (String value : malformed) {
+            assertThatThrownBy(() -> ReportCursor.parse(value))
+                    .as("游标 %s", value)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("游标格式不正确");
+        }
+    }
+}
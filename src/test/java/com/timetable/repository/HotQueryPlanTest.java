@@ -0,0 +1,322 @@
+package com.timetable.repository;
+
+import com.timetable.dto.ReportCursor;
+import org.flywaydb.core.Flyway;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 热点查询执行计划回归测试
+ * 在 MySQL 容器中执行全部 Flyway 迁移并写入有代表性分布的数据，调用仓库方法本身，
+ * 对其实际发出的 SQL（含绑定参数）执行 EXPLAIN，断言热点表走预期索引、没有退化为全表或全索引扫描。
+ * 需要 Docker，默认构建不运行，使用 mvn -Pquery-plans test 执行；没有 Docker 时测试失败而不是跳过。
+ */
+@Tag("query-plan")
+@Testcontainers
+class HotQueryPlanTest {
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("timetable_db");
+
+    // 造数：机构 5 个，教练 50 个，课表 500 个；每个学员名只对应少量课程，待推送待办约占 2%
+    private static final String[] SEED_SQL = {
+            "SET SESSION sql_mode = ''",
+            "SET SESSION foreign_key_checks = 0",
+            "SET SESSION cte_max_recursion_depth = 100000",
+            "INSERT INTO users (id, username, email, password_hash, role, organization_id, nickname)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 50)" +
+                    " SELECT n, CONCAT('coach', n), CONCAT('coach', n, '@example.com'), 'x', 'USER', n % 5 + 1," +
+                    " CONCAT('教练', n) FROM seq",
+            "INSERT INTO timetables (id, user_id, name, is_weekly, organization_id, is_active, is_deleted, is_archived)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 500)" +
+                    " SELECT n, n % 50 + 1, CONCAT('课表', n), n % 2, n % 50 % 5 + 1, n % 2, 0, 0 FROM seq",
+            "INSERT INTO schedules (timetable_id, student_name, day_of_week, start_time, end_time, schedule_date, organization_id)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 40000)" +
+                    " SELECT n % 500 + 1, CONCAT('学员', n % 2000), 'MONDAY', MAKETIME(8 + n % 10, 0, 0)," +
+                    " MAKETIME(9 + n % 10, 0, 0), CURDATE() - INTERVAL (n % 365) DAY, n % 5 + 1 FROM seq",
+            "INSERT INTO weekly_instances (id, template_timetable_id, week_start_date, week_end_date, year_week, organization_id)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 2000)" +
+                    " SELECT n, n % 500 + 1, CURDATE() - INTERVAL (n DIV 500 * 7) DAY," +
+                    " CURDATE() - INTERVAL (n DIV 500 * 7 - 6) DAY, CONCAT('w', n DIV 500), n % 5 + 1 FROM seq",
+            "INSERT INTO weekly_instance_schedules (weekly_instance_id, student_name, day_of_week, start_time, end_time," +
+                    " schedule_date, is_on_leave, is_cancelled)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 40000)" +
+                    " SELECT n % 2000 + 1, CONCAT('学员', n % 2000), 'MONDAY', MAKETIME(8 + n % 10, 0, 0)," +
+                    " MAKETIME(9 + n % 10, 0, 0), CURDATE() - INTERVAL (n % 28) DAY, 0, 0 FROM seq",
+            "INSERT INTO customers (child_name, parent_phone, parent_relation, status, created_by, organization_id, created_at)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 20000)" +
+                    " SELECT CONCAT('孩子', n), CONCAT('138', LPAD(n, 8, '0')), 'MOTHER'," +
+                    " ELT(n % 8 + 1, 'NEW', 'CONTACTED', 'SCHEDULED', 'PENDING_CONFIRM', 'VISITED', 'SOLD', 'RE_EXPERIENCE', 'CLOSED')," +
+                    " n % 50 + 1, n % 5 + 1, NOW() - INTERVAL n MINUTE FROM seq",
+            "INSERT INTO todos (content, reminder_date, reminder_time, status, created_by, deleted, push_status, push_retry_count, organization_id)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 10000)" +
+                    " SELECT CONCAT('待办', n), CURDATE() - INTERVAL (n % 300 + 1) DAY, MAKETIME(n % 24, 0, 0), 'PENDING'," +
+                    " n % 50 + 1, 0, IF(n % 50 = 0, 'PENDING', 'PUSHED'), 0, n % 5 + 1 FROM seq",
+            "INSERT INTO lesson_hours_ledger (timetable_id, lesson_date, student_name, completed_minutes, lesson_count)" +
+                    " WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 40000)" +
+                    " SELECT n % 500 + 1, CURDATE() - INTERVAL (n DIV 500) DAY, CONCAT('学员', n % 2000), 60, 1 FROM seq",
+            "ANALYZE TABLE users, timetables, schedules, weekly_instances, weekly_instance_schedules, customers, todos," +
+                    " lesson_hours_ledger"
+    };
+
+    private static ExplainingDataSource dataSource;
+
+    private TodoRepository todoRepository;
+    private CustomerRepository customerRepository;
+    private ScheduleRepository scheduleRepository;
+    private StudentTimelineRepository studentTimelineRepository;
+    private ReportRepository reportRepository;
+    private LessonHoursLedgerRepository ledgerRepository;
+
+    @BeforeAll
+    static void migrateAndSeed() {
+        DriverManagerDataSource target = new DriverManagerDataSource(MYSQL.getJdbcUrl(), MYSQL.getUsername(), MYSQL.getPassword());
+        Flyway.configure().dataSource(target).load().migrate();
+        new JdbcTemplate(target).execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SEED_SQL) {
+                    statement.execute(sql);
+                }
+            }
+            return null;
+        });
+        dataSource = new ExplainingDataSource(target);
+    }
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        DSLContext dsl = DSL.using(dataSource, SQLDialect.MYSQL);
+
+        todoRepository = new TodoRepository();
+        ReflectionTestUtils.setField(todoRepository, "dsl", dsl);
+        customerRepository = new CustomerRepository();
+        ReflectionTestUtils.setField(customerRepository, "jdbcTemplate", jdbcTemplate);
+        scheduleRepository = new ScheduleRepository();
+        ReflectionTestUtils.setField(scheduleRepository, "dsl", dsl);
+        studentTimelineRepository = new StudentTimelineRepository();
+        ReflectionTestUtils.setField(studentTimelineRepository, "jdbcTemplate", jdbcTemplate);
+        reportRepository = new ReportRepository();
+        ReflectionTestUtils.setField(reportRepository, "dsl", dsl);
+        ledgerRepository = new LessonHoursLedgerRepository();
+        ReflectionTestUtils.setField(ledgerRepository, "jdbcTemplate", jdbcTemplate);
+
+        dataSource.plans.clear();
+    }
+
+    @Test
+    void findTodosToPushUsesPushStatusIndex() {
+        todoRepository.findTodosToPush(3);
+
+        assertPlan(lastPlan(), "todos", "idx_todos_push_reminder", "idx_todos_push_status");
+    }
+
+    @Test
+    void customerListUsesOrganizationCreatedAtIndex() {
+        customerRepository.findAllWithFiltersAndPagination(1L, 0, 20, null, null, null, null, null);
+
+        assertPlan(lastPlan(), "customers", "idx_customers_org_created_at");
+    }
+
+    @Test
+    void customerListByStatusUsesOrganizationStatusCreatedAtIndex() {
+        customerRepository.findAllWithFiltersAndPagination(1L, 0, 20, "NEW", null, null, null, null);
+
+        assertPlan(lastPlan(), "customers", "idx_customers_org_status_created_at");
+    }
+
+    @Test
+    void scheduleDateRangeUsesTimetableDateIndex() {
+        LocalDate today = LocalDate.now();
+        scheduleRepository.findByTimetableIdAndScheduleDateBetween(8L, today.minusDays(30), today);
+
+        assertPlan(lastPlan(), "schedules", "idx_schedules_timetable_date_time");
+    }
+
+    @Test
+    void studentTimelineUsesStudentNameIndexes() {
+        studentTimelineRepository.findPastLessons(Collections.singletonList("学员7"), null, null, true, null, null, 20);
+
+        List<Map<String, String>> plan = lastPlan();
+        assertPlan(plan, "wis", "idx_wis_student_date_time");
+        assertPlan(plan, "s", "idx_schedules_student_date_time");
+    }
+
+    @Test
+    void reportPageUsesTimetableDateIndexes() {
+        LocalDate today = LocalDate.now();
+        reportRepository.querySchedulesByUserPaged(8L, null, today.minusDays(90), today,
+                Collections.singleton("学员7"), 3, 20, "desc");
+
+        assertReportPlan(lastPlan());
+    }
+
+    @Test
+    void reportCursorPageUsesTimetableDateIndexes() {
+        LocalDate today = LocalDate.now();
+        ReportCursor cursor = new ReportCursor(today.minusDays(10), LocalTime.of(12, 0), ReportCursor.SOURCE_SCHEDULE, 20000L);
+        reportRepository.querySchedulesByUserAfter(8L, 3L, today.minusDays(90), today,
+                Collections.emptySet(), cursor, 20, "desc");
+
+        assertReportPlan(lastPlan());
+    }
+
+    @Test
+    void ledgerSumByStudentUsesTimetableDateKey() {
+        LocalDate today = LocalDate.now();
+        ledgerRepository.sumByStudent(8L, null, today.minusDays(30), today.minusDays(1));
+
+        assertPlan(lastPlan(), "l", "uk_ledger_timetable_date_student");
+    }
+
+    @Test
+    void ledgerSumByCoachUsesTimetableDateKey() {
+        LocalDate today = LocalDate.now();
+        ledgerRepository.sumByCoachAndStudent(Arrays.asList(3L, 8L, 13L), 3L, today.minusDays(30), today.minusDays(1));
+
+        assertPlan(lastPlan(), "l", "uk_ledger_timetable_date_student");
+    }
+
+    @Test
+    void ledgerTodaySumUsesTimetableDateIndexes() {
+        ledgerRepository.sumTodayByStudent(8L, null);
+
+        List<Map<String, String>> plan = lastPlan();
+        assertPlan(plan, "s", "idx_schedules_timetable_date_time");
+        assertPlan(plan, "wis", "idx_wis_instance_date_time");
+    }
+
+    /**
+     * 课时记录分页：两张课程表都按 课表/周实例 + 日期 的组合索引定位
+     */
+    private static void assertReportPlan(List<Map<String, String>> plan) {
+        assertPlan(plan, "schedules", "idx_schedules_timetable_date_time");
+        assertPlan(plan, "weekly_instances", "idx_weekly_instances_template_id", "uk_template_week");
+        assertPlan(plan, "weekly_instance_schedules", "idx_wis_instance_date_time");
+    }
+
+    private List<Map<String, String>> lastPlan() {
+        assertThat(dataSource.plans).as("仓库方法没有执行任何查询").isNotEmpty();
+        return dataSource.plans.get(dataSource.plans.size() - 1);
+    }
+
+    /**
+     * 断言执行计划中 table（表名或别名）的访问方式不是全表扫描（ALL）或全索引扫描（index），且使用的索引都在 expectedKeys 中
+     */
+    private static void assertPlan(List<Map<String, String>> plan, String table, String... expectedKeys) {
+        Map<String, String> row = plan.stream()
+                .filter(r -> table.equals(r.get("table")))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("执行计划中没有表 " + table + ": " + plan));
+        assertThat(row.get("type")).as("%s 的访问方式, 执行计划: %s", table, plan).isNotIn("ALL", "index");
+        assertThat(row.get("key")).as("%s 使用的索引, 执行计划: %s", table, plan).isNotNull();
+        Set<String> usedKeys = new HashSet<>(Arrays.asList(row.get("key").split(",")));
+        assertThat(usedKeys).as("%s 使用的索引, 执行计划: %s", table, plan).isSubsetOf(expectedKeys);
+    }
+
+    /**
+     * 记录执行计划的数据源：预编译语句执行前，用相同的 SQL 和绑定参数先执行一次 EXPLAIN
+     */
+    private static final class ExplainingDataSource extends DelegatingDataSource {
+
+        private final List<List<Map<String, String>>> plans = Collections.synchronizedList(new ArrayList<>());
+
+        private ExplainingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        Object result = invoke(connection, method, args);
+                        if ("prepareStatement".equals(method.getName()) && args[0] instanceof String
+                                && ((String) args[0]).trim().toUpperCase().startsWith("SELECT")) {
+                            return explaining(connection, (PreparedStatement) result, (String) args[0]);
+                        }
+                        return result;
+                    });
+        }
+
+        private PreparedStatement explaining(Connection connection, PreparedStatement statement, String sql) {
+            List<Object[]> bindings = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                            bindings.add(new Object[]{method, args});
+                        } else if ("clearParameters".equals(method.getName())) {
+                            bindings.clear();
+                        } else if ("executeQuery".equals(method.getName()) || "execute".equals(method.getName())) {
+                            plans.add(explain(connection, sql, bindings));
+                        }
+                        return invoke(statement, method, args);
+                    });
+        }
+
+        private static List<Map<String, String>> explain(Connection connection, String sql, List<Object[]> bindings)
+                throws Throwable {
+            List<Map<String, String>> rows = new ArrayList<>();
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+                for (Object[] binding : bindings) {
+                    invoke(explain, (Method) binding[0], (Object[]) binding[1]);
+                }
+                try (ResultSet rs = explain.executeQuery()) {
+                    int columnCount = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        Map<String, String> row = new LinkedHashMap<>();
+                        for (int i = 1; i <= columnCount; i++) {
+                            row.put(rs.getMetaData().getColumnLabel(i), rs.getString(i));
+                        }
+                        rows.add(row);
+                    }
+                }
+            }
+            return rows;
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
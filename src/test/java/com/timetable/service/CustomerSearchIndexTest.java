@@ -0,0 +1,153 @@
+package com.timetable.service;
+
+import com.timetable.entity.Customer;
+import com.timetable.repository.CustomerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CustomerSearchIndexTest {
+
+    private CustomerRepository customerRepository;
+    private CustomerSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        customerRepository = mock(CustomerRepository.class);
+        index = new CustomerSearchIndex();
+        ReflectionTestUtils.setField(index, "customerRepository", customerRepository);
+        when(customerRepository.findSearchDocuments()).thenReturn(Arrays.asList(
+                customer(1L, 1L, "张三", "138 0000 1234"),
+                customer(2L, 1L, "张三丰", "13912345678"),
+                customer(3L, 1L, "李四", "13800005678"),
+                customer(4L, 2L, "张三", "13700000000")));
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void returnsNullUntilBuilt() {
+        assertThat(index.search(1L, "张三")).isNull();
+
+        index.rebuild();
+
+        assertThat(index.search(1L, "张三")).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void matchesNameSubstringsPerOrganization() {
+        index.rebuild();
+
+        assertThat(index.search(1L, "张")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(index.search(1L, "三丰")).containsExactly(2L);
+        assertThat(index.search(2L, "张三")).containsExactly(4L);
+        assertThat(index.search(1L, "王五")).isEmpty();
+        assertThat(index.search(99L, "张三")).isEmpty();
+    }
+
+    @Test
+    void matchesPinyinInitialsByPrefixOnly() {
+        index.rebuild();
+
+        assertThat(CustomerSearchIndex.pinyinInitials("张三丰")).isEqualTo("zsf");
+        assertThat(CustomerSearchIndex.pinyinInitials("Tom张")).isEqualTo("tomz");
+        assertThat(index.search(1L, "ZS")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(index.search(1L, "zsf")).containsExactly(2L);
+        // 首字母只按前缀匹配
+        assertThat(index.search(1L, "sf")).isEmpty();
+        // 只按姓名搜索时不匹配首字母和电话
+        assertThat(index.searchByName(1L, "zs")).isEmpty();
+        assertThat(index.searchByName(1L, "1234")).isEmpty();
+    }
+
+    @Test
+    void matchesPhoneDigits() {
+        index.rebuild();
+
+        assertThat(index.search(1L, "1234")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(index.search(1L, "5678")).containsExactlyInAnyOrder(2L, 3L);
+        assertThat(index.search(1L, "13800001234")).containsExactly(1L);
+    }
+
+    @Test
+    void fallsBackForPunctuationBlankAndTooManyMatches() {
+        List<Customer> many = new ArrayList<>();
+        for (long id = 1; id <= 2001; id++) {
+            many.add(customer(id, 3L, "学员" + id, null));
+        }
+        when(customerRepository.findSearchDocuments()).thenReturn(many);
+        index.rebuild();
+
+        assertThat(index.search(3L, "138-0000")).isNull();
+        assertThat(index.search(3L, "学 员")).isNull();
+        assertThat(index.search(3L, "  ")).isNull();
+        assertThat(index.search(3L, "学员")).isNull();
+        assertThat(index.search(3L, "学员2001")).containsExactly(2001L);
+    }
+
+    @Test
+    void updatesAndRemovesImmediatelyOutsideTransaction() {
+        index.rebuild();
+
+        index.index(customer(1L, 1L, "赵六", "13800001234"));
+        index.index(customer(5L, 1L, "王小明", null));
+
+        assertThat(index.search(1L, "张三")).containsExactly(2L);
+        assertThat(index.search(1L, "赵六")).containsExactly(1L);
+        assertThat(index.search(1L, "zl")).containsExactly(1L);
+        assertThat(index.search(1L, "小明")).containsExactly(5L);
+
+        index.remove(1L, 2L);
+        assertThat(index.search(1L, "张三")).isEmpty();
+        assertThat(index.search(1L, "5678")).containsExactly(3L);
+    }
+
+    @Test
+    void appliesChangesOnlyAfterCommit() {
+        index.rebuild();
+
+        TransactionSynchronizationManager.initSynchronization();
+        index.index(customer(6L, 1L, "周七", null));
+        assertThat(index.search(1L, "周七")).isEmpty();
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(index.search(1L, "周七")).containsExactly(6L);
+
+        TransactionSynchronizationManager.initSynchronization();
+        index.remove(1L, 6L);
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(index.search(1L, "周七")).containsExactly(6L);
+    }
+
+    private static void completeTransaction(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    private static Customer customer(Long id, Long organizationId, String childName, String parentPhone) {
+        Customer customer = new Customer();
+        customer.setId(id);
+        customer.setOrganizationId(organizationId);
+        customer.setChildName(childName);
+        customer.setParentPhone(parentPhone);
+        return customer;
+    }
+}
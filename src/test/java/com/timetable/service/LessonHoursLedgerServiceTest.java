@@ -0,0 +1,178 @@
+package com.timetable.service;
+
+import com.timetable.dto.StudentHoursAggregate;
+import com.timetable.entity.LessonHoursLedgerFailedSlice;
+import com.timetable.repository.LessonHoursLedgerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 课时台账：区间标记、事务提交后刷新、失败区间的持久化与重试、台账与今日实时汇总的拼接
+ */
+class LessonHoursLedgerServiceTest {
+
+    private static final Long TIMETABLE_ID = 7L;
+
+    private final LocalDate today = LocalDate.now();
+
+    private LessonHoursLedgerRepository ledgerRepository;
+    private LessonHoursLedgerService service;
+
+    @BeforeEach
+    void setUp() {
+        ledgerRepository = mock(LessonHoursLedgerRepository.class);
+        service = newService();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * 新的服务实例相当于进程重启：内存中的失败区间为空
+     */
+    private LessonHoursLedgerService newService() {
+        LessonHoursLedgerService ledgerService = new LessonHoursLedgerService();
+        ReflectionTestUtils.setField(ledgerService, "ledgerRepository", ledgerRepository);
+        ReflectionTestUtils.setField(ledgerService, "transactionManager", mock(PlatformTransactionManager.class));
+        return ledgerService;
+    }
+
+    @Test
+    void rebuildsImmediatelyOutsideTransactionAndClipsToToday() {
+        service.markDirty(TIMETABLE_ID, today.minusDays(3), today.plusDays(5));
+        service.markDirty(TIMETABLE_ID, today.plusDays(1));
+
+        verify(ledgerRepository).rebuild(TIMETABLE_ID, today.minusDays(3), today);
+        verify(ledgerRepository, never()).rebuild(TIMETABLE_ID, today.plusDays(1), today.plusDays(1));
+    }
+
+    @Test
+    void rebuildsOnceAfterCommitAndNotAfterRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        service.markDirty(TIMETABLE_ID, today);
+        service.markDirty(TIMETABLE_ID, today);
+        verify(ledgerRepository, never()).rebuild(any(), any(), any());
+
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        verify(ledgerRepository).rebuild(TIMETABLE_ID, today, today);
+
+        reset(ledgerRepository);
+        TransactionSynchronizationManager.initSynchronization();
+        service.markTimetableDirty(TIMETABLE_ID);
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        verify(ledgerRepository, never()).rebuild(any(), any(), any());
+    }
+
+    @Test
+    void failedFullRangeSliceIsPersistedAndRetriedAfterRestart() {
+        doThrow(new DataAccessResourceFailureException("连接中断"))
+                .when(ledgerRepository).rebuild(TIMETABLE_ID, null, null);
+
+        service.markTimetableDirty(TIMETABLE_ID);
+
+        verify(ledgerRepository).saveFailedSlice(eq(TIMETABLE_ID), isNull(), isNull(), anyString());
+
+        // 重启后从失败记录表读取区间，刷新成功后删除记录
+        reset(ledgerRepository);
+        LessonHoursLedgerFailedSlice failed = new LessonHoursLedgerFailedSlice();
+        failed.setTimetableId(TIMETABLE_ID);
+        when(ledgerRepository.findFailedSlices(anyInt())).thenReturn(Collections.singletonList(failed));
+        LessonHoursLedgerService restarted = newService();
+
+        assertThat(restarted.retryFailedSlices()).isEqualTo(1);
+
+        verify(ledgerRepository).rebuild(TIMETABLE_ID, null, null);
+        verify(ledgerRepository).deleteFailedSlice(TIMETABLE_ID, null, null);
+
+        // 重试成功后不再重试
+        when(ledgerRepository.findFailedSlices(anyInt())).thenReturn(Collections.emptyList());
+        assertThat(restarted.retryFailedSlices()).isZero();
+    }
+
+    @Test
+    void retriesFromMemoryWhenFailureCannotBeRecorded() {
+        LocalDate oldDay = today.minusDays(30);
+        doThrow(new DataAccessResourceFailureException("连接中断"))
+                .when(ledgerRepository).rebuild(TIMETABLE_ID, oldDay, oldDay);
+        doThrow(new DataAccessResourceFailureException("连接中断"))
+                .when(ledgerRepository).saveFailedSlice(any(), any(), any(), any());
+
+        service.markDirty(TIMETABLE_ID, oldDay);
+
+        reset(ledgerRepository);
+        when(ledgerRepository.findFailedSlices(anyInt())).thenThrow(new DataAccessResourceFailureException("连接中断"));
+
+        assertThat(service.retryFailedSlices()).isEqualTo(1);
+        verify(ledgerRepository).rebuild(TIMETABLE_ID, oldDay, oldDay);
+        verify(ledgerRepository).deleteFailedSlice(TIMETABLE_ID, oldDay, oldDay);
+    }
+
+    @Test
+    void sumsLedgerBeforeTodayAndTodayLive() {
+        when(ledgerRepository.sumByStudent(1L, 2L, today.minusDays(7), today.minusDays(1))).thenReturn(Arrays.asList(
+                aggregate("张三", 120, 2),
+                aggregate("隐藏学员", 60, 1)));
+        when(ledgerRepository.sumTodayByStudent(1L, 2L)).thenReturn(Collections.singletonList(aggregate("张三", 45, 1)));
+
+        StudentHoursAggregate total = service.sumCompleted(1L, 2L, today.minusDays(7), today.plusDays(7),
+                new HashSet<>(Collections.singletonList("隐藏学员")));
+
+        assertThat(total.getTotalMinutes()).isEqualTo(165L);
+        assertThat(total.getLessonCount()).isEqualTo(3);
+    }
+
+    @Test
+    void skipsLiveSumForPastRangesAndLedgerForTodayOnly() {
+        when(ledgerRepository.sumByStudent(1L, null, today.minusDays(10), today.minusDays(3)))
+                .thenReturn(Collections.singletonList(aggregate("张三", 60, 1)));
+
+        assertThat(service.sumCompleted(1L, null, today.minusDays(10), today.minusDays(3), Collections.emptySet())
+                .getTotalMinutes()).isEqualTo(60L);
+        verify(ledgerRepository, never()).sumTodayByStudent(any(), any());
+
+        when(ledgerRepository.sumTodayByStudent(1L, null)).thenReturn(Collections.singletonList(aggregate("李四", 30, 1)));
+        assertThat(service.sumCompleted(1L, null, today, today, Collections.emptySet()).getTotalMinutes()).isEqualTo(30L);
+        verify(ledgerRepository, never()).sumByStudent(1L, null, today, today.minusDays(1));
+    }
+
+    private static StudentHoursAggregate aggregate(String studentName, long minutes, int lessons) {
+        return new StudentHoursAggregate(1L, studentName, minutes, null, lessons);
+    }
+
+    private static void completeTransaction(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+    }
+}
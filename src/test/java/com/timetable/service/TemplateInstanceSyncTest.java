@@ -0,0 +1,199 @@
+package com.timetable.service;
+
+import com.timetable.entity.WeeklyInstance;
+import com.timetable.entity.WeeklyInstanceSchedule;
+import com.timetable.generated.tables.pojos.Schedules;
+import com.timetable.repository.ScheduleRepository;
+import com.timetable.repository.TimetableRepository;
+import com.timetable.repository.WeeklyInstanceRepository;
+import com.timetable.repository.WeeklyInstanceScheduleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 模板课表覆盖同步到周实例：按 星期+开始时间+结束时间 计算差异，只写入新增、变化和取消的课程
+ */
+class TemplateInstanceSyncTest {
+
+    private static final Long TIMETABLE_ID = 10L;
+    private static final Long INSTANCE_ID = 100L;
+    private static final Long TEMPLATE_VERSION = 5L;
+    private static final LocalDate WEEK_START = LocalDate.of(2026, 3, 2);
+
+    private WeeklyInstanceService service;
+    private WeeklyInstanceRepository weeklyInstanceRepository;
+    private WeeklyInstanceScheduleRepository weeklyInstanceScheduleRepository;
+    private ScheduleRepository scheduleRepository;
+    private WeeklyInstance instance;
+
+    @BeforeEach
+    void setUp() {
+        weeklyInstanceRepository = mock(WeeklyInstanceRepository.class);
+        weeklyInstanceScheduleRepository = mock(WeeklyInstanceScheduleRepository.class);
+        scheduleRepository = mock(ScheduleRepository.class);
+        TimetableRepository timetableRepository = mock(TimetableRepository.class);
+        when(timetableRepository.findTemplateVersion(TIMETABLE_ID)).thenReturn(TEMPLATE_VERSION);
+
+        service = new WeeklyInstanceService();
+        ReflectionTestUtils.setField(service, "weeklyInstanceRepository", weeklyInstanceRepository);
+        ReflectionTestUtils.setField(service, "weeklyInstanceScheduleRepository", weeklyInstanceScheduleRepository);
+        ReflectionTestUtils.setField(service, "timetableRepository", timetableRepository);
+        ReflectionTestUtils.setField(service, "scheduleRepository", scheduleRepository);
+        ReflectionTestUtils.setField(service, "lessonHoursLedgerService", mock(LessonHoursLedgerService.class));
+        ReflectionTestUtils.setField(service, "scheduleChangeTracker", mock(ScheduleChangeTracker.class));
+        ReflectionTestUtils.setField(service, "scheduleEventBus", mock(ScheduleEventBus.class));
+
+        instance = new WeeklyInstance(TIMETABLE_ID, WEEK_START, WEEK_START.plusDays(6), "2026-10");
+        instance.setId(INSTANCE_ID);
+    }
+
+    @Test
+    void addsRemovesAndOverwritesModifiedRows() {
+        givenTemplate(
+                template(1L, "MONDAY", "09:00", "10:00", "张三"),
+                template(2L, "TUESDAY", "10:00", "11:00", "李四"),
+                template(3L, "WEDNESDAY", "14:00", "15:00", "王五"));
+        WeeklyInstanceSchedule unchanged = synced(11L, 1L, "MONDAY", "09:00", "10:00", "张三");
+        WeeklyInstanceSchedule modified = synced(12L, 2L, "TUESDAY", "10:00", "11:00", "李四（调课）");
+        modified.setIsModified(true);
+        WeeklyInstanceSchedule removed = synced(13L, 4L, "THURSDAY", "08:00", "09:00", "赵六");
+        givenInstanceSchedules(unchanged, modified, removed);
+
+        service.syncTemplateToInstanceWithOverride(instance);
+
+        List<WeeklyInstanceSchedule> saved = savedSchedules();
+        assertThat(saved).hasSize(2);
+        WeeklyInstanceSchedule inserted = saved.get(0);
+        assertThat(inserted.getId()).isNull();
+        assertThat(inserted.getTemplateScheduleId()).isEqualTo(3L);
+        assertThat(inserted.getStudentName()).isEqualTo("王五");
+        assertThat(inserted.getScheduleDate()).isEqualTo(WEEK_START.plusDays(2));
+        assertThat(inserted.getIsTimeBlock()).isFalse();
+        assertThat(saved.get(1)).isSameAs(modified);
+        assertThat(modified.getStudentName()).isEqualTo("李四");
+        assertThat(modified.getIsModified()).isFalse();
+
+        assertThat(cancelledIds()).containsExactly(13L);
+        // 取消了非手动课程后实例与模板一致，记录模板版本
+        verify(weeklyInstanceRepository).updateLastSyncedAt(eq(Collections.singletonList(INSTANCE_ID)), any(LocalDateTime.class), eq(TEMPLATE_VERSION));
+    }
+
+    @Test
+    void keepsManualRowsOutsideTemplateSlots() {
+        givenTemplate(template(1L, "MONDAY", "09:00", "10:00", "张三"));
+        WeeklyInstanceSchedule unchanged = synced(11L, 1L, "MONDAY", "09:00", "10:00", "张三");
+        WeeklyInstanceSchedule manual = synced(12L, null, "FRIDAY", "18:00", "19:00", "临时加课");
+        manual.setIsManualAdded(true);
+        givenInstanceSchedules(unchanged, manual);
+
+        service.syncTemplateToInstanceWithOverride(instance);
+
+        assertThat(savedSchedules()).isEmpty();
+        assertThat(cancelledIds()).isEmpty();
+        // 保留了手动课程，实例不是模板的完整副本，不记录模板版本
+        verify(weeklyInstanceRepository).updateLastSyncedAt(eq(Collections.singletonList(INSTANCE_ID)), any(LocalDateTime.class), eq((Long) null));
+        verify(weeklyInstanceRepository, never()).updateLastSyncedAt(eq(Collections.singletonList(INSTANCE_ID)), any(LocalDateTime.class), eq(TEMPLATE_VERSION));
+    }
+
+    @Test
+    void overwritesManualRowInTemplateSlot() {
+        givenTemplate(template(1L, "MONDAY", "09:00", "10:00", "张三"));
+        WeeklyInstanceSchedule manual = synced(11L, null, "MONDAY", "09:00", "10:00", "临时学员");
+        manual.setIsManualAdded(true);
+        givenInstanceSchedules(manual);
+
+        service.syncTemplateToInstanceWithOverride(instance);
+
+        assertThat(savedSchedules()).containsExactly(manual);
+        assertThat(manual.getTemplateScheduleId()).isEqualTo(1L);
+        assertThat(manual.getStudentName()).isEqualTo("张三");
+        assertThat(manual.getIsManualAdded()).isFalse();
+        assertThat(cancelledIds()).isEmpty();
+    }
+
+    @Test
+    void skipsWritesWhenInstanceMatchesTemplate() {
+        givenTemplate(
+                template(1L, "MONDAY", "09:00", "10:00", "张三"),
+                template(2L, "TUESDAY", "10:00", "11:00", "李四"));
+        givenInstanceSchedules(
+                synced(11L, 1L, "MONDAY", "09:00", "10:00", "张三"),
+                synced(12L, 2L, "TUESDAY", "10:00", "11:00", "李四"));
+
+        service.syncTemplateToInstanceWithOverride(instance);
+
+        assertThat(savedSchedules()).isEmpty();
+        assertThat(cancelledIds()).isEmpty();
+        verify(weeklyInstanceRepository).updateLastSyncedAt(eq(Collections.singletonList(INSTANCE_ID)), any(LocalDateTime.class), eq(TEMPLATE_VERSION));
+    }
+
+    @Test
+    void skipsInstanceAlreadySyncedToTemplateVersion() {
+        instance.setSyncedTemplateVersion(TEMPLATE_VERSION);
+
+        service.syncTemplateToInstanceWithOverride(instance);
+
+        verify(scheduleRepository, never()).findTemplateSchedulesByTimetableId(any());
+        verify(weeklyInstanceScheduleRepository, never()).saveAll(any());
+    }
+
+    private void givenTemplate(Schedules... schedules) {
+        when(scheduleRepository.findTemplateSchedulesByTimetableId(TIMETABLE_ID)).thenReturn(Arrays.asList(schedules));
+    }
+
+    private void givenInstanceSchedules(WeeklyInstanceSchedule... schedules) {
+        when(weeklyInstanceScheduleRepository.findByWeeklyInstanceId(INSTANCE_ID)).thenReturn(new ArrayList<>(Arrays.asList(schedules)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<WeeklyInstanceSchedule> savedSchedules() {
+        ArgumentCaptor<List<WeeklyInstanceSchedule>> captor = ArgumentCaptor.forClass(List.class);
+        verify(weeklyInstanceScheduleRepository).saveAll(captor.capture());
+        return captor.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Long> cancelledIds() {
+        ArgumentCaptor<Collection<Long>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(weeklyInstanceScheduleRepository).cancelByIds(captor.capture());
+        return captor.getValue();
+    }
+
+    private static Schedules template(Long id, String dayOfWeek, String start, String end, String studentName) {
+        Schedules schedule = new Schedules();
+        schedule.setId(id);
+        schedule.setTimetableId(TIMETABLE_ID);
+        schedule.setDayOfWeek(dayOfWeek);
+        schedule.setStartTime(LocalTime.parse(start));
+        schedule.setEndTime(LocalTime.parse(end));
+        schedule.setStudentName(studentName);
+        return schedule;
+    }
+
+    private static WeeklyInstanceSchedule synced(Long id, Long templateScheduleId, String dayOfWeek, String start, String end,
+                                                 String studentName) {
+        WeeklyInstanceSchedule schedule = new WeeklyInstanceSchedule(INSTANCE_ID, templateScheduleId, studentName, null,
+                dayOfWeek, LocalTime.parse(start), LocalTime.parse(end), null, null);
+        schedule.setId(id);
+        return schedule;
+    }
+}
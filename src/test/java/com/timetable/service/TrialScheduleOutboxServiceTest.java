@@ -0,0 +1,197 @@
+package com.timetable.service;
+
+import com.timetable.dto.TrialScheduleInfo;
+import com.timetable.dto.TrialScheduleRequest;
+import com.timetable.entity.CustomerStatusHistory;
+import com.timetable.entity.TrialScheduleOutbox;
+import com.timetable.repository.CustomerStatusHistoryRepository;
+import com.timetable.repository.TrialScheduleOutboxRepository;
+import com.timetable.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 体验课发件箱派发：抢占、建课与回写、按指数退避重试、次数用尽后标记失败
+ */
+class TrialScheduleOutboxServiceTest {
+
+    private static final Long OUTBOX_ID = 1L;
+    private static final Long HISTORY_ID = 20L;
+
+    private TrialScheduleOutboxRepository outboxRepository;
+    private CustomerStatusHistoryRepository historyRepository;
+    private ScheduleService scheduleService;
+    private TrialScheduleOutboxService service;
+
+    @BeforeEach
+    void setUp() {
+        outboxRepository = mock(TrialScheduleOutboxRepository.class);
+        historyRepository = mock(CustomerStatusHistoryRepository.class);
+        scheduleService = mock(ScheduleService.class);
+
+        service = new TrialScheduleOutboxService();
+        ReflectionTestUtils.setField(service, "outboxRepository", outboxRepository);
+        ReflectionTestUtils.setField(service, "historyRepository", historyRepository);
+        ReflectionTestUtils.setField(service, "userRepository", mock(UserRepository.class));
+        ReflectionTestUtils.setField(service, "scheduleService", scheduleService);
+        ReflectionTestUtils.setField(service, "transactionManager", mock(PlatformTransactionManager.class));
+
+        when(outboxRepository.claim(eq(OUTBOX_ID), any(LocalDateTime.class))).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void skipsWhenAnotherWorkerClaimedTheRow() {
+        when(outboxRepository.claim(eq(OUTBOX_ID), any(LocalDateTime.class))).thenReturn(false);
+
+        service.dispatch(OUTBOX_ID);
+
+        verify(outboxRepository, never()).findById(any());
+        verify(scheduleService, never()).createTrialSchedule(any(), any());
+    }
+
+    @Test
+    void createsScheduleFromCurrentHistoryAndMarksDone() {
+        givenOutbox(1);
+        CustomerStatusHistory history = pendingHistory();
+        // 排队期间已改期：以流转记录的当前时间为准
+        history.setTrialScheduleDate(LocalDate.of(2026, 3, 9));
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenReturn(history);
+        when(scheduleService.createTrialSchedule(any(), any())).thenReturn(new TrialScheduleInfo(300L, 40L, "schedule"));
+
+        service.dispatch(OUTBOX_ID);
+
+        ArgumentCaptor<TrialScheduleRequest> request = ArgumentCaptor.forClass(TrialScheduleRequest.class);
+        verify(scheduleService).createTrialSchedule(request.capture(), any());
+        assertThat(request.getValue().getScheduleDate()).isEqualTo("2026-03-09");
+        assertThat(request.getValue().getCoachId()).isEqualTo(5L);
+        verify(historyRepository).updateTrialScheduleInfo(HISTORY_ID, 300L, 40L, "schedule");
+        verify(outboxRepository).markDone(OUTBOX_ID);
+        verify(outboxRepository, never()).markRetry(anyLong(), any(), any());
+    }
+
+    @Test
+    void doesNotCreateAgainWhenHistoryAlreadyLinkedOrCancelled() {
+        givenOutbox(2);
+        CustomerStatusHistory linked = pendingHistory();
+        linked.setTrialScheduleId(300L);
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenReturn(linked);
+
+        service.dispatch(OUTBOX_ID);
+
+        CustomerStatusHistory cancelled = pendingHistory();
+        cancelled.setTrialCancelled(true);
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenReturn(cancelled);
+
+        service.dispatch(OUTBOX_ID);
+
+        verify(scheduleService, never()).createTrialSchedule(any(), any());
+        verify(outboxRepository, times(2)).markDone(OUTBOX_ID);
+    }
+
+    @Test
+    void backsOffExponentiallyOnFailure() {
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenReturn(pendingHistory());
+        when(scheduleService.createTrialSchedule(any(), any())).thenThrow(new IllegalArgumentException("教练没有活动课表"));
+
+        for (int attempts : Arrays.asList(1, 2, 4)) {
+            givenOutbox(attempts);
+            LocalDateTime before = LocalDateTime.now();
+
+            service.dispatch(OUTBOX_ID);
+
+            ArgumentCaptor<LocalDateTime> nextAttempt = ArgumentCaptor.forClass(LocalDateTime.class);
+            verify(outboxRepository).markRetry(eq(OUTBOX_ID), nextAttempt.capture(), eq("教练没有活动课表"));
+            long expectedSeconds = 30L << (attempts - 1);
+            assertThat(nextAttempt.getValue()).isCloseTo(before.plusSeconds(expectedSeconds), within(5, ChronoUnit.SECONDS));
+            clearInvocations(outboxRepository);
+        }
+        verify(outboxRepository, never()).markDone(any());
+        verify(outboxRepository, never()).markFailed(any(), anyString());
+    }
+
+    @Test
+    void marksFailedWhenAttemptsAreExhausted() {
+        givenOutbox(5);
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenThrow(new IllegalStateException());
+
+        service.dispatch(OUTBOX_ID);
+
+        // 没有异常信息时记录异常类名
+        verify(outboxRepository).markFailed(OUTBOX_ID, "IllegalStateException");
+        verify(outboxRepository, never()).markRetry(anyLong(), any(), any());
+        verify(outboxRepository, never()).markDone(any());
+    }
+
+    @Test
+    void dispatchDueReleasesStaleRowsAndDispatchesDueIds() {
+        when(outboxRepository.findDueIds(any(LocalDateTime.class), eq(50))).thenReturn(Arrays.asList(OUTBOX_ID, 2L));
+        givenOutbox(1);
+        when(historyRepository.findByIdForUpdate(HISTORY_ID)).thenReturn(null);
+
+        assertThat(service.dispatchDue()).isEqualTo(2);
+
+        ArgumentCaptor<LocalDateTime> staleBefore = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(outboxRepository).releaseStale(staleBefore.capture());
+        assertThat(staleBefore.getValue()).isCloseTo(LocalDateTime.now().minusMinutes(10), within(5, ChronoUnit.SECONDS));
+        verify(outboxRepository).claim(eq(2L), any(LocalDateTime.class));
+        verify(outboxRepository).markDone(OUTBOX_ID);
+    }
+
+    /**
+     * 抢占成功后读取的记录：attempts 已包含本次尝试
+     */
+    private void givenOutbox(int attempts) {
+        TrialScheduleOutbox outbox = new TrialScheduleOutbox();
+        outbox.setId(OUTBOX_ID);
+        outbox.setHistoryId(HISTORY_ID);
+        outbox.setCustomerId(30L);
+        outbox.setOperatorId(2L);
+        outbox.setCoachId(5L);
+        outbox.setStudentName("体验学员");
+        outbox.setScheduleDate(LocalDate.of(2026, 3, 2));
+        outbox.setStartTime(LocalTime.of(10, 0));
+        outbox.setEndTime(LocalTime.of(11, 0));
+        outbox.setStatus(TrialScheduleOutbox.STATUS_PROCESSING);
+        outbox.setAttempts(attempts);
+        when(outboxRepository.findById(OUTBOX_ID)).thenReturn(outbox);
+    }
+
+    private static CustomerStatusHistory pendingHistory() {
+        CustomerStatusHistory history = new CustomerStatusHistory();
+        history.setId(HISTORY_ID);
+        history.setTrialCoachId(5L);
+        history.setTrialScheduleDate(LocalDate.of(2026, 3, 2));
+        history.setTrialStartTime(LocalTime.of(10, 0));
+        history.setTrialEndTime(LocalTime.of(11, 0));
+        history.setTrialStudentName("体验学员");
+        return history;
+    }
+}
@@ -0,0 +1,107 @@
+package com.timetable.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScheduleConflictIndexTest {
+
+    private static final LocalDate DATE = LocalDate.of(2026, 3, 2);
+
+    private static LocalTime time(String value) {
+        return LocalTime.parse(value);
+    }
+
+    @Test
+    void adjacentIntervalsDoNotOverlap() {
+        ScheduleConflictIndex<String> index = new ScheduleConflictIndex<>();
+        index.add(DATE, null, time("09:00"), time("10:00"), "a");
+
+        assertThat(index.hasOverlap(DATE, null, time("10:00"), time("11:00"))).isFalse();
+        assertThat(index.hasOverlap(DATE, null, time("08:00"), time("09:00"))).isFalse();
+        assertThat(index.findOverlaps(DATE, null, time("10:00"), time("11:00"))).isEmpty();
+        assertThat(index.hasOverlap(DATE, null, time("09:59"), time("11:00"))).isTrue();
+    }
+
+    @Test
+    void nestedIntervalsOverlapInInsertionOrder() {
+        ScheduleConflictIndex<String> index = new ScheduleConflictIndex<>();
+        index.add(DATE, null, time("10:00"), time("10:30"), "inner");
+        index.add(DATE, null, time("08:00"), time("12:00"), "outer");
+        index.add(DATE, null, time("12:00"), time("13:00"), "after");
+
+        // 查询区间被已有区间包含
+        assertThat(index.findOverlaps(DATE, null, time("10:10"), time("10:20")))
+                .containsExactly("inner", "outer");
+        // 查询区间包含已有区间
+        assertThat(index.findOverlaps(DATE, null, time("09:00"), time("11:00")))
+                .containsExactly("inner", "outer");
+        assertThat(index.findFirstOverlap(DATE, null, time("11:00"), time("12:30"))).isEqualTo("outer");
+    }
+
+    @Test
+    void removeThenReinsert() {
+        ScheduleConflictIndex<String> index = new ScheduleConflictIndex<>();
+        String lesson = "lesson";
+        index.add(DATE, "MONDAY", time("09:00"), time("10:00"), lesson);
+        index.add(DATE, null, time("14:00"), time("15:00"), "other");
+
+        index.remove(lesson);
+        assertThat(index.hasOverlap(DATE, null, time("09:30"), time("09:45"))).isFalse();
+        assertThat(index.hasOverlap(null, "MONDAY", time("09:30"), time("09:45"))).isFalse();
+        assertThat(index.findOverlaps(DATE, null, time("08:00"), time("16:00"))).containsExactly("other");
+
+        index.add(DATE, "MONDAY", time("09:00"), time("10:00"), lesson);
+        assertThat(index.hasOverlap(DATE, null, time("09:30"), time("09:45"))).isTrue();
+        assertThat(index.hasOverlap(null, "MONDAY", time("09:30"), time("09:45"))).isTrue();
+        // 重新加入的条目排在后面
+        assertThat(index.findOverlaps(DATE, null, time("08:00"), time("16:00"))).containsExactly("other", lesson);
+    }
+
+    @Test
+    void undatedEntriesMatchDatedQueriesByDayOfWeek() {
+        ScheduleConflictIndex<String> index = new ScheduleConflictIndex<>();
+        index.add(null, "MONDAY", time("09:00"), time("10:00"), "template");
+        index.add(DATE.plusDays(7), "MONDAY", time("09:00"), time("10:00"), "nextWeek");
+
+        assertThat(index.findOverlaps(DATE, "MONDAY", time("09:30"), time("10:30"))).containsExactly("template");
+        assertThat(index.findOverlaps(DATE, null, time("09:30"), time("10:30"))).isEmpty();
+        assertThat(index.findOverlaps(null, "MONDAY", time("09:30"), time("10:30"))).containsExactly("template", "nextWeek");
+    }
+
+    @Test
+    void agreesWithLinearScanOnManyIntervals() {
+        ScheduleConflictIndex<Integer> index = new ScheduleConflictIndex<>();
+        int[][] intervals = new int[200][];
+        // 索引按对象引用移除，保留装箱后的条目
+        Integer[] values = new Integer[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            int start = (i * 37) % 600;
+            int length = 15 + (i * 13) % 90;
+            intervals[i] = new int[]{start, start + length};
+            values[i] = i;
+            index.add(DATE, null, LocalTime.MIN.plusMinutes(start), LocalTime.MIN.plusMinutes(start + length), values[i]);
+        }
+        for (int i = 0; i < intervals.length; i += 3) {
+            index.remove(values[i]);
+        }
+        for (int queryStart = 0; queryStart < 700; queryStart += 7) {
+            int queryEnd = queryStart + 20;
+            List<Integer> matches = new ArrayList<>();
+            for (int i = 0; i < intervals.length; i++) {
+                if (i % 3 != 0 && intervals[i][0] < queryEnd && queryStart < intervals[i][1]) {
+                    matches.add(i);
+                }
+            }
+            LocalTime start = LocalTime.MIN.plusMinutes(queryStart);
+            LocalTime end = LocalTime.MIN.plusMinutes(queryEnd);
+            assertThat(index.findOverlaps(DATE, null, start, end)).containsExactlyElementsOf(matches);
+            assertThat(index.hasOverlap(DATE, null, start, end)).isEqualTo(!matches.isEmpty());
+        }
+    }
+}